@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.benchmark;
+
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.Finder;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * image conversions (BufferedImage - Mat), change detection and loading a Picture from file
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ContentBenchmark {
+
+  @Param({"800x600", "1920x1080"})
+  public String screenSize;
+
+  private Mat mScreen;
+  private Mat mChanged;
+  private BufferedImage imageBGR;
+  private BufferedImage imageRGB;
+  private File imageFile;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    int[] size = Synthetic.parseSize(screenSize);
+    mScreen = Synthetic.screen(size[0], size[1]);
+    mChanged = Synthetic.changed(mScreen, 5);
+    imageBGR = Element.getBufferedImage(mScreen);
+    imageRGB = new BufferedImage(imageBGR.getWidth(), imageBGR.getHeight(), BufferedImage.TYPE_INT_RGB);
+    imageRGB.getGraphics().drawImage(imageBGR, 0, 0, null);
+    imageFile = File.createTempFile("sikulix_benchmark_", ".png");
+    imageFile.deleteOnExit();
+    Imgcodecs.imwrite(imageFile.getAbsolutePath(), mScreen);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    imageFile.delete();
+  }
+
+  @Benchmark
+  public Picture makeMatFromBGR() {
+    return new Picture(imageBGR);
+  }
+
+  @Benchmark
+  public Picture makeMatFromRGB() {
+    return new Picture(imageRGB);
+  }
+
+  @Benchmark
+  public BufferedImage getBufferedImage() {
+    return Element.getBufferedImage(mScreen);
+  }
+
+  @Benchmark
+  public List<Element> detectChanges() {
+    return Finder.detectChanges(mScreen, mChanged);
+  }
+
+  @Benchmark
+  public Picture loadPicture() {
+    return new Picture(imageFile.getAbsolutePath());
+  }
+}
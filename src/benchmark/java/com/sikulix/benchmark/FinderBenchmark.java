@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.benchmark;
+
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.api.Target;
+import com.sikulix.core.Finder;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finder.find/findAll for screen and template sizes, plain color and masked targets
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FinderBenchmark {
+
+  @Param({"800x600", "1920x1080"})
+  public String screenSize;
+
+  @Param({"32", "128"})
+  public int templateSize;
+
+  private Picture screen;
+  private Target target;
+  private Target targetPlain;
+  private Target targetBlack;
+  private Target targetMasked;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    int[] size = Synthetic.parseSize(screenSize);
+    Mat mScreen = Synthetic.screen(size[0], size[1]);
+    Mat mPlain = Synthetic.plain(mScreen, 10, size[1] - templateSize - 10, templateSize, new Scalar(40, 200, 40));
+    Mat mBlack = Synthetic.plain(mScreen, size[0] - templateSize - 10, 10, templateSize, new Scalar(0, 0, 0));
+    Mat mTemplate = Synthetic.template(mScreen, templateSize);
+    screen = new Picture(mScreen);
+    target = new Target(new Picture(mTemplate), 0.9);
+    targetPlain = new Target(new Picture(mPlain), 0.9);
+    targetBlack = new Target(new Picture(mBlack), 0.9);
+    Picture masked = new Picture(mTemplate);
+    masked.setMask(Synthetic.mask(templateSize));
+    targetMasked = new Target(masked, 0.9);
+  }
+
+  @Benchmark
+  public Element find() {
+    return new Finder(screen).find(target);
+  }
+
+  @Benchmark
+  public List<Element> findAll() {
+    return new Finder(screen).findAll(target);
+  }
+
+  @Benchmark
+  public Element findPlainColor() {
+    return new Finder(screen).find(targetPlain);
+  }
+
+  @Benchmark
+  public Element findBlack() {
+    return new Finder(screen).find(targetBlack);
+  }
+
+  @Benchmark
+  public Element findMasked() {
+    return new Finder(screen).find(targetMasked);
+  }
+}
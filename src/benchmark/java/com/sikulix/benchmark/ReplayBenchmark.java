@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.benchmark;
+
+import com.sikulix.api.Do;
+import com.sikulix.api.Element;
+import com.sikulix.api.Event;
+import com.sikulix.api.Handler;
+import com.sikulix.api.Picture;
+import com.sikulix.core.Events;
+import com.sikulix.devices.replay.SequenceDevice;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * macro benchmark: Do scripts (wait chains, findAll on a grid, observers) against a SequenceDevice<br>
+ * reports p50/p99/max step latency and the process CPU time per script run<br>
+ * args: [iterations (default 20)] [warmup iterations (default 3)]
+ */
+public class ReplayBenchmark {
+
+  private static final int WIDTH = 1280;
+  private static final int HEIGHT = 800;
+
+  interface Script {
+    /**
+     * one run of the script, adding the latency of each step (nanos) to steps
+     */
+    void run(SequenceDevice device, List<Long> steps) throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.setProperty("java.awt.headless", "true");
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    Mat mScreen = Synthetic.screen(WIDTH, HEIGHT);
+
+    Mat mOk = Synthetic.button("OK", new Scalar(40, 140, 40));
+    Mat mNext = Synthetic.button("Next", new Scalar(140, 60, 40));
+    Mat mDone = Synthetic.button("Done", new Scalar(40, 60, 160));
+    Mat mFrame1 = Synthetic.paste(mScreen, mOk, 200, 150);
+    Mat mFrame2 = Synthetic.paste(mFrame1, mNext, 600, 400);
+    Mat mFrame3 = Synthetic.paste(mFrame2, mDone, 1000, 650);
+    SequenceDevice chain = new SequenceDevice();
+    chain.addFrame(mScreen, 0).addFrame(mFrame1, 200).addFrame(mFrame2, 400).addFrame(mFrame3, 600);
+    Picture ok = new Picture(mOk);
+    Picture next = new Picture(mNext);
+    Picture done = new Picture(mDone);
+    run("waitChain", chain, iterations, warmup, (device, steps) -> {
+      for (Picture button : new Picture[]{ok, next, done}) {
+        long start = System.nanoTime();
+        Element match = Do.wait(button, 3.0);
+        steps.add(System.nanoTime() - start);
+        check(match.isMatch(), "waitChain: not found: " + button);
+        start = System.nanoTime();
+        Do.click(match);
+        steps.add(System.nanoTime() - start);
+      }
+    });
+
+    Mat mIcon = Synthetic.button("ico", new Scalar(120, 40, 120));
+    Mat mGrid = mScreen;
+    for (int row = 0; row < 4; row++) {
+      for (int col = 0; col < 6; col++) {
+        mGrid = Synthetic.paste(mGrid, mIcon, 100 + col * 180, 100 + row * 150);
+      }
+    }
+    SequenceDevice grid = new SequenceDevice();
+    grid.addFrame(mGrid, 0);
+    Picture icon = new Picture(mIcon);
+    run("findAllGrid", grid, iterations, warmup, (device, steps) -> {
+      long start = System.nanoTime();
+      List<Element> matches = Do.findAll(icon);
+      steps.add(System.nanoTime() - start);
+      check(matches.size() == 24, "findAllGrid: found " + matches.size() + " (expected 24)");
+    });
+
+    SequenceDevice appear = new SequenceDevice();
+    long appearAt = 300;
+    appear.addFrame(mScreen, 0).addFrame(Synthetic.paste(mScreen, mOk, 500, 300), appearAt);
+    run("observeAppear", appear, iterations, warmup, (device, steps) -> {
+      CountDownLatch happened = new CountDownLatch(1);
+      long[] handled = new long[1];
+      Element where = Do.on();
+      where.onAppear(ok, new Handler() {
+        @Override
+        public void run(Event e) {
+          handled[0] = device.getElapsed();
+          happened.countDown();
+        }
+      });
+      where.observe();
+      boolean success = happened.await(5, TimeUnit.SECONDS);
+      Events.stopObserving();
+      where.observeReset();
+      check(success, "observeAppear: handler not called");
+      steps.add(TimeUnit.MILLISECONDS.toNanos(Math.max(0, handled[0] - appearAt)));
+    });
+    System.exit(0);
+  }
+
+  private static void run(String name, SequenceDevice device, int iterations, int warmup, Script script)
+          throws Exception {
+    if (!Do.use(device.start())) {
+      throw new IllegalStateException(name + ": device not usable: " + device);
+    }
+    List<Long> steps = new ArrayList<>();
+    for (int n = 0; n < warmup; n++) {
+      device.restart();
+      script.run(device, new ArrayList<>());
+    }
+    long cpuStart = getProcessCpuTime();
+    long wallStart = System.nanoTime();
+    for (int n = 0; n < iterations; n++) {
+      device.restart();
+      script.run(device, steps);
+    }
+    long wall = System.nanoTime() - wallStart;
+    long cpu = getProcessCpuTime() - cpuStart;
+    device.stop();
+    Collections.sort(steps);
+    System.out.println(String.format("%-14s runs: %3d steps: %4d p50: %8.2f p99: %8.2f max: %8.2f msec" +
+                    " | per run: wall %8.2f cpu %8.2f msec | inputs: %d",
+            name, iterations, steps.size(), percentile(steps, 50), percentile(steps, 99),
+            percentile(steps, 100), wall / 1e6 / iterations, cpu < 0 ? -1 : cpu / 1e6 / iterations,
+            device.getInputs().size()));
+  }
+
+  private static double percentile(List<Long> sorted, double percentile) {
+    if (sorted.isEmpty()) {
+      return 0;
+    }
+    int index = (int) Math.ceil(sorted.size() * percentile / 100) - 1;
+    return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index))) / 1e6;
+  }
+
+  private static long getProcessCpuTime() {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+    }
+    return -1;
+  }
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new IllegalStateException(message);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.benchmark;
+
+import com.sikulix.core.SX;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * synthetic images for the benchmarks (no screen needed)<br>
+ * a "screen" is gray noise with some colored boxes and texts, a template is cut out of it
+ */
+class Synthetic {
+
+  static final long SEED = 4711;
+
+  /**
+   * @param size e.g. 1920x1080
+   * @return {width, height}
+   */
+  static int[] parseSize(String size) {
+    String[] parts = size.split("x");
+    return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+  }
+
+  static Mat screen(int width, int height) {
+    SX.loadNative(SX.NATIVES.OPENCV);
+    Mat mScreen = new Mat(height, width, CvType.CV_8UC3);
+    Core.setRNGSeed((int) SEED);
+    Core.randu(mScreen, new Scalar(100, 100, 100), new Scalar(156, 156, 156));
+    for (int n = 0; n < 20; n++) {
+      int x = (n * 97) % Math.max(1, width - 100);
+      int y = (n * 53) % Math.max(1, height - 40);
+      Imgproc.rectangle(mScreen, new Point(x, y), new Point(x + 90, y + 30),
+              new Scalar((n * 40) % 256, (n * 70) % 256, (n * 110) % 256), -1);
+      Imgproc.putText(mScreen, "item" + n, new Point(x + 5, y + 22), Core.FONT_HERSHEY_SIMPLEX, 0.6,
+              new Scalar(255, 255, 255), 1);
+    }
+    return mScreen;
+  }
+
+  /**
+   * @return a copy of the square of the given size in the middle of the screen
+   */
+  static Mat template(Mat mScreen, int size) {
+    int x = (mScreen.cols() - size) / 2;
+    int y = (mScreen.rows() - size) / 2;
+    return mScreen.submat(new Rect(x, y, size, size)).clone();
+  }
+
+  /**
+   * a plain colored square is painted into the screen at (x, y)
+   */
+  static Mat plain(Mat mScreen, int x, int y, int size, Scalar color) {
+    Imgproc.rectangle(mScreen, new Point(x, y), new Point(x + size - 1, y + size - 1), color, -1);
+    return new Mat(size, size, CvType.CV_8UC3, color);
+  }
+
+  /**
+   * @return a mask for the template with a transparent circle in the middle
+   */
+  static Mat mask(int size) {
+    Mat mMask = new Mat(size, size, CvType.CV_8UC1, new Scalar(255));
+    Imgproc.circle(mMask, new Point(size / 2, size / 2), size / 4, new Scalar(0), -1);
+    return mMask;
+  }
+
+  /**
+   * @return a button like image with the text (different texts/colors give well distinguishable targets)
+   */
+  static Mat button(String text, Scalar color) {
+    SX.loadNative(SX.NATIVES.OPENCV);
+    Mat mButton = new Mat(36, 96, CvType.CV_8UC3, color);
+    Imgproc.rectangle(mButton, new Point(1, 1), new Point(94, 34), new Scalar(0, 0, 0), 2);
+    Imgproc.putText(mButton, text, new Point(10, 26), Core.FONT_HERSHEY_SIMPLEX, 0.8,
+            new Scalar(255, 255, 255), 2);
+    return mButton;
+  }
+
+  /**
+   * @return a copy of the screen with the image pasted at (x, y)
+   */
+  static Mat paste(Mat mScreen, Mat mImage, int x, int y) {
+    Mat mPasted = mScreen.clone();
+    mImage.copyTo(mPasted.submat(new Rect(x, y, mImage.cols(), mImage.rows())));
+    return mPasted;
+  }
+
+  /**
+   * @return a copy of the screen with count boxes painted over it
+   */
+  static Mat changed(Mat mScreen, int count) {
+    Mat mChanged = mScreen.clone();
+    for (int n = 0; n < count; n++) {
+      int x = 50 + (n * 211) % Math.max(1, mScreen.cols() - 150);
+      int y = 50 + (n * 127) % Math.max(1, mScreen.rows() - 150);
+      Imgproc.rectangle(mChanged, new Point(x, y), new Point(x + 60, y + 40), new Scalar(0, 0, 255), -1);
+    }
+    return mChanged;
+  }
+}
@@ -20,6 +20,7 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 //import com.sikulix.scripting.JythonHelper;
 //import com.sikulix.scripting.SXRunner;
@@ -946,42 +947,57 @@ public class Do {
   //<editor-fold desc="actions like find, wait, click">
   public static Element click(Object... args) {
     log.trace("click: start");
-    Element target = findForClick(Finder.CLICK, args);
-    Element clicked = target.click();
+    Element clicked;
+    try (SXTrace.Span span = SXTrace.begin("click", "action")) {
+      Element target = findForClick(Finder.CLICK, args);
+      clicked = target.click();
+    }
     log.trace("click: end");
     return clicked;
   }
 
   public static Element clickWith(int modifier, Object... args) {
     log.trace("clickWith: start");
-    Element target = findForClick(Finder.CLICK, args);
-    //TODO clickWith keyDown modifier
-    Element clicked = target.click();
-    //TODO clickWith keyUp modifier
+    Element clicked;
+    try (SXTrace.Span span = SXTrace.begin("clickWith", "action")) {
+      Element target = findForClick(Finder.CLICK, args);
+      //TODO clickWith keyDown modifier
+      clicked = target.click();
+      //TODO clickWith keyUp modifier
+    }
     log.trace("clickWith: end");
     return clicked;
   }
 
   public static Element doubleClick(Object... args) {
     log.trace("doubleClick: start");
-    Element target = findForClick(Finder.DOUBLECLICK, args);
-    Element clicked = target.doubleClick();
+    Element clicked;
+    try (SXTrace.Span span = SXTrace.begin("doubleClick", "action")) {
+      Element target = findForClick(Finder.DOUBLECLICK, args);
+      clicked = target.doubleClick();
+    }
     log.trace("doubleClick: end");
     return clicked;
   }
 
   public static Element rightClick(Object... args) {
     log.trace("rightClick: start");
-    Element target = findForClick(Finder.RIGHTCLICK, args);
-    Element clicked = target.rightClick();
+    Element clicked;
+    try (SXTrace.Span span = SXTrace.begin("rightClick", "action")) {
+      Element target = findForClick(Finder.RIGHTCLICK, args);
+      clicked = target.rightClick();
+    }
     log.trace("rightClick: end");
     return clicked;
   }
 
   public static Element hover(Object... args) {
     log.trace("hover: start");
-    Element target = findForClick(Finder.HOVER, args);
-    Element hovered = target.hover();
+    Element hovered;
+    try (SXTrace.Span span = SXTrace.begin("hover", "action")) {
+      Element target = findForClick(Finder.HOVER, args);
+      hovered = target.hover();
+    }
     log.trace("hover: end");
     return hovered;
   }
@@ -998,7 +1014,10 @@ public class Do {
 
   public static Element dragDrop(Element from, Element to, Object... times) {
     log.trace("dragDrop: start");
-    Element target = Do.on().dragDrop(from, to, times);
+    Element target;
+    try (SXTrace.Span span = SXTrace.begin("dragDrop", "action")) {
+      target = Do.on().dragDrop(from, to, times);
+    }
     log.trace("dragDrop: end");
     return target;
   }
@@ -1023,53 +1042,103 @@ public class Do {
    */
   public static Element find(Object... args) {
     log.trace("find: start");
-    Element match = Finder.runFind(Finder.FIND, args);
+    Element match;
+    try (SXTrace.Span span = SXTrace.begin("find", "action")) {
+      match = Finder.runFind(Finder.FIND, args);
+    }
     log.trace("find: end");
     return match;
   }
 
   public static Element wait(Object... args) {
     log.trace("wait: start");
-    Element match = Finder.runWait(Finder.WAIT, args);
+    Element match;
+    try (SXTrace.Span span = SXTrace.begin("wait", "action")) {
+      match = Finder.runWait(Finder.WAIT, args);
+    }
     log.trace("wait: end");
     return match;
   }
 
   public static boolean exists(Object... args) {
     log.trace("exists: start");
-    Element match = Finder.runWait(Finder.EXISTS, args);
+    Element match;
+    try (SXTrace.Span span = SXTrace.begin("exists", "action")) {
+      match = Finder.runWait(Finder.EXISTS, args);
+    }
     log.trace("exists: end");
     return match.isMatch();
   }
 
   public static boolean waitVanish(Object... args) {
     log.trace("waitVanish: start");
-    boolean vanished = Finder.runWaitVanish(args);
+    boolean vanished;
+    try (SXTrace.Span span = SXTrace.begin("waitVanish", "action")) {
+      vanished = Finder.runWaitVanish(args);
+    }
     log.trace("waitVanish: end");
     return vanished;
   }
 
   public static List<Element> findAll(Object... args) {
     log.trace("findAll: start");
-    List<Element> matches = Finder.runFindAll(args);
+    List<Element> matches;
+    try (SXTrace.Span span = SXTrace.begin("findAll", "action")) {
+      matches = Finder.runFindAll(args);
+    }
     log.trace("findAll: end");
     return matches;
   }
 
   public static Element findBest(Object... args) {
     log.trace("findBest: start");
-    Element match = Finder.runFindBest(args);
+    Element match;
+    try (SXTrace.Span span = SXTrace.begin("findBest", "action")) {
+      match = Finder.runFindBest(args);
+    }
     log.trace("findBest: end");
     return match;
   }
 
   public static List<Element> findAny(Object... args) {
     log.trace("findAny: start");
-    List<Element> matches = Finder.runFindAny(args);
+    List<Element> matches;
+    try (SXTrace.Span span = SXTrace.begin("findAny", "action")) {
+      matches = Finder.runFindAny(args);
+    }
     log.trace("findAny: end");
     return matches;
   }
 
+  public static CompletableFuture<Element> findAsync(Object... args) {
+    log.trace("findAsync: scheduled");
+    return Finder.runFindAsync(args);
+  }
+
+  public static CompletableFuture<Element> waitAsync(Object... args) {
+    log.trace("waitAsync: scheduled");
+    return Finder.runWaitAsync(args);
+  }
+
+  public static CompletableFuture<Boolean> existsAsync(Object... args) {
+    log.trace("existsAsync: scheduled");
+    return Finder.runWaitAsync(args).thenApply(match -> match.isMatch());
+  }
+
+  public static CompletableFuture<Element> waitVanishAsync(Object... args) {
+    log.trace("waitVanishAsync: scheduled");
+    return Finder.runWaitVanishAsync(args);
+  }
+
+  /**
+   * @param futures as returned by findAsync, waitAsync, ...
+   * @return the first match, the other futures are cancelled (invalid Element if none matches)
+   */
+  @SafeVarargs
+  public static CompletableFuture<Element> anyOfAsync(CompletableFuture<Element>... futures) {
+    return Finder.anyOf(Arrays.asList(futures));
+  }
+
   public static boolean hasMatch() {
     return getDefaultElement().hasMatch();
   }
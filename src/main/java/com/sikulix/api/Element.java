@@ -31,6 +31,7 @@ import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class Element implements Comparable<Element> {
 
@@ -876,46 +877,74 @@ public class Element implements Comparable<Element> {
   private Element lastVanish = null;
   private java.util.List<Element> lastMatches = new ArrayList<Element>();
   private int matchIndex = -1;
+  private MatchSet lastMatchSet = MatchSet.EMPTY;
 
-  public void resetMatches() {
+  public synchronized void resetMatches() {
     lastMatch = null;
     lastMatches = new ArrayList<Element>();
     matchIndex = -1;
     lastScores = new double[]{0, 0, 0};
+    lastMatchSet = MatchSet.EMPTY;
   }
 
-  public boolean hasMatch() {
+  /**
+   * publish the result of a search as this element's last match state in one step
+   * (the legacy lastMatch/lastMatches/lastScores accessors are derived from it)
+   *
+   * @param matchSet the result as returned by Finder.search...()
+   */
+  public synchronized void setLastMatchSet(MatchSet matchSet) {
+    if (SX.isNull(matchSet)) {
+      matchSet = MatchSet.EMPTY;
+    }
+    lastMatchSet = matchSet;
+    matchIndex = -1;
+    if (matchSet.isSingle()) {
+      lastMatch = matchSet.getMatch();
+      lastMatches = new ArrayList<Element>();
+    } else {
+      lastMatch = null;
+      lastMatches = new ArrayList<Element>(matchSet.getMatches());
+    }
+    lastScores = matchSet.getScores();
+  }
+
+  public synchronized MatchSet getLastMatchSet() {
+    return lastMatchSet;
+  }
+
+  public synchronized boolean hasMatch() {
     return SX.isNotNull(lastMatch);
   }
 
-  public boolean hasVanish() {
+  public synchronized boolean hasVanish() {
     return SX.isNotNull(lastVanish);
   }
 
-  public boolean hasMatches() {
-    return lastMatches.size() > 0;
+  public synchronized boolean hasMatches() {
+    return SX.isNotNull(lastMatches) && lastMatches.size() > 0;
   }
 
-  public Element getLastMatch() {
+  public synchronized Element getLastMatch() {
     if (SX.isNotNull(lastMatch)) {
       return lastMatch;
     }
     return getTarget();
   }
 
-  public Element getLastVanish() {
+  public synchronized Element getLastVanish() {
     return lastVanish;
   }
 
-  public java.util.List<Element> getLastMatches() {
+  public synchronized java.util.List<Element> getLastMatches() {
     return lastMatches;
   }
 
-  public void setLastMatch(Element match) {
+  public synchronized void setLastMatch(Element match) {
     lastMatch = match;
   }
 
-  public void setLastVanish(Element match) {
+  public synchronized void setLastVanish(Element match) {
     if (SX.isNotNull(match)) {
       lastMatch = null;
       lastVanish = match;
@@ -924,18 +953,18 @@ public class Element implements Comparable<Element> {
 
   private double[] lastScores = new double[]{0, 0, 0};
 
-  public void setLastScores(double[] scores) {
+  public synchronized void setLastScores(double[] scores) {
     for (int i = 0; i < scores.length; i++) {
       lastScores[i] = scores[i];
     }
   }
 
-  public double[] getLastScores() {
+  public synchronized double[] getLastScores() {
     return lastScores;
   }
 
-  public void setLastMatches(java.util.List<Element> lastMatches) {
-    this.lastMatches = lastMatches;
+  public synchronized void setLastMatches(java.util.List<Element> lastMatches) {
+    this.lastMatches = SX.isNull(lastMatches) ? new ArrayList<Element>() : lastMatches;
   }
 
   public int getMatchIndex() {
@@ -1065,6 +1094,16 @@ public class Element implements Comparable<Element> {
 
   protected IDevice elementDevice = null;
 
+  /**
+   * @return the name of the device set for this element ("local" if none set - does not start the local device)
+   */
+  public String getDeviceName() {
+    if (SX.isNull(elementDevice)) {
+      return "local";
+    }
+    return elementDevice.getName();
+  }
+
   public boolean isSpecial() {
     return special;
   }
@@ -1110,10 +1149,12 @@ public class Element implements Comparable<Element> {
   public Mat getContentBGRA() {
     if (!hasMask()) {
       Mat mBGRA = getNewMat(mask.size(), 4, -1);
-      List<Mat> mats = new ArrayList<>();
-      mats.add(content);
-      mats.add(getNewMat(content.size(), 1, 255));
-      Core.merge(mats, mBGRA);
+      try (MatScope scope = MatScope.open("element")) {
+        List<Mat> mats = new ArrayList<>();
+        mats.add(content);
+        mats.add(scope.track(getNewMat(content.size(), 1, 255)));
+        Core.merge(mats, mBGRA);
+      }
       return mBGRA;
     }
     return getContent(null);
@@ -1152,41 +1193,70 @@ public class Element implements Comparable<Element> {
     }
   }
 
+  /**
+   * content and mask are reference counted (MatScope): the previous ones are released,
+   * when no other Element holds them anymore<br>
+   * hence a Mat got from getContent() should not be kept after the content of this Element is replaced
+   * (MatScope.share() gives a header, that keeps the data alive)
+   *
+   * @param content BGR, gray or BGRA (the alpha channel becomes the mask, if not opaque)
+   */
   public void setContent(Mat content) {
     List<Mat> mats = checkMat(content);
     if (mats.size() > 0) {
-      this.content = mats.get(0);
+      this.content = replace(this.content, mats.get(0));
       if (mats.size() > 1) {
-        this.mask = mats.get(1);
+        this.mask = replace(this.mask, mats.get(1));
       }
     } else {
       log.error("setContent: given CVMat not valid: %s", content);
     }
   }
 
+  private static Mat replace(Mat oldMat, Mat newMat) {
+    MatScope.retain(newMat, "element");
+    MatScope.release(oldMat);
+    return newMat;
+  }
+
+  /**
+   * let go content and mask now (the native memory is released, if no other Element holds them)
+   */
+  public void releaseContent() {
+    MatScope.release(content);
+    MatScope.release(mask);
+    content = null;
+    mask = null;
+  }
+
   private List<Mat> checkMat(Mat mat) {
     List<Mat> mats = new ArrayList<>();
     if (CvType.CV_8UC1 == mat.type() || CvType.CV_8UC3 == mat.type()) {
       mats.add(mat);
     } else if (CvType.CV_8UC4 == mat.type()) {
-      List<Mat> matsBGRA = new ArrayList<>();
-      Core.split(mat, matsBGRA);
-      Mat mBGR = new Mat(mat.size(), CvType.CV_8UC3);
-      Mat matA = matsBGRA.remove(3);
-      Core.merge(matsBGRA, mBGR);
-      mats.add(mBGR);
-      MatOfDouble mStdDev = new MatOfDouble();
-      Core.meanStdDev(matA, new MatOfDouble(), mStdDev);
-      if (0 < mStdDev.toArray()[0]) {
-        mats.add(matA);
+      try (MatScope scope = MatScope.open("element")) {
+        List<Mat> matsBGRA = new ArrayList<>();
+        Core.split(mat, matsBGRA);
+        Mat matA = matsBGRA.remove(3);
+        scope.trackAll(matsBGRA);
+        Mat mBGR = new Mat(mat.size(), CvType.CV_8UC3);
+        Core.merge(matsBGRA, mBGR);
+        mats.add(mBGR);
+        MatOfDouble mStdDev = scope.track(new MatOfDouble());
+        Core.meanStdDev(matA, scope.track(new MatOfDouble()), mStdDev);
+        if (0 < mStdDev.toArray()[0]) {
+          mats.add(matA);
+        } else {
+          scope.track(matA);
+        }
       }
     }
     return mats;
   }
 
   public Element setContent() {
-    content = getNewMat();
-    mask = getNewMat();
+    content = replace(content, getNewMat());
+    mask = replace(mask, getNewMat());
     return this;
   }
 
@@ -1249,7 +1319,7 @@ public class Element implements Comparable<Element> {
 
   public void setMask(Mat mMask) {
     if (mMask.type() == CvType.CV_8UC1) {
-      mask = mMask;
+      mask = replace(mask, mMask);
     }
   }
 
@@ -1423,7 +1493,12 @@ public class Element implements Comparable<Element> {
   }
 
   public Picture capture() {
-    return getDevice().capture(this);
+    try (SXTrace.Span span = SXTrace.begin("capture", "capture")) {
+      long start = Metrics.start();
+      Picture picture = getDevice().capture(this);
+      Metrics.record(Metrics.Phase.CAPTURE, getDeviceName(), null, start);
+      return picture;
+    }
   }
   //</editor-fold>
 
@@ -1569,112 +1644,115 @@ public class Element implements Comparable<Element> {
     IDevice device = getDevice();
     double pause = 0.020 + (typeDelay > 1 ? 1 : typeDelay / 1000);
     device.keyStart();
-    for (int i = 0; i < text.length(); i++) {
-      log.trace("write: (%d) %s", i, text.substring(i));
-      c = text.charAt(i);
-      token = null;
-      boolean isModifier = false;
-      if (c == '#') {
-        if (text.charAt(i + 1) == '#') {
-          i += 1;
-          continue;
-        }
-        if (text.charAt(i + 2) == '+' || text.charAt(i + 2) == '-') {
-          token = text.substring(i, i + 3);
-          isModifier = true;
-        } else if (-1 < (k = text.indexOf('.', i))) {
-          if (k > -1) {
-            token = text.substring(i, k + 1);
-            if (token.length() > Keys.keyMaxLength || token.substring(1).contains("#")) {
-              token = null;
+    try {
+      for (int i = 0; i < text.length(); i++) {
+        log.trace("write: (%d) %s", i, text.substring(i));
+        c = text.charAt(i);
+        token = null;
+        boolean isModifier = false;
+        if (c == '#') {
+          if (text.charAt(i + 1) == '#') {
+            i += 1;
+            continue;
+          }
+          if (text.charAt(i + 2) == '+' || text.charAt(i + 2) == '-') {
+            token = text.substring(i, i + 3);
+            isModifier = true;
+          } else if (-1 < (k = text.indexOf('.', i))) {
+            if (k > -1) {
+              token = text.substring(i, k + 1);
+              if (token.length() > Keys.keyMaxLength || token.substring(1).contains("#")) {
+                token = null;
+              }
             }
           }
         }
-      }
-      Integer key = -1;
-      if (SX.isNotNull(token)) {
-        log.trace("write: (%d) token %s", i, token);
-        int repeat = 0;
-        if (token.toUpperCase().startsWith("#W")) {
-          if (token.length() > 3) {
-            i += token.length() - 1;
-            int t = 0;
+        Integer key = -1;
+        if (SX.isNotNull(token)) {
+          log.trace("write: (%d) token %s", i, token);
+          int repeat = 0;
+          if (token.toUpperCase().startsWith("#W")) {
+            if (token.length() > 3) {
+              i += token.length() - 1;
+              int t = 0;
+              try {
+                t = Integer.parseInt(token.substring(2, token.length() - 1));
+              } catch (NumberFormatException ex) {
+              }
+              if ((token.startsWith("#w") && t > 60)) {
+                pause = 0.020 + (t > 1000 ? 1 : t / 1000);
+                log.trace("write: type delay: " + t);
+              } else {
+                log.trace("write: wait: " + t);
+                SX.pause((double) (t < 60 ? t : t / 1000));
+              }
+              continue;
+            }
+          }
+          tokenSave = token;
+          token = token.substring(0, 2).toUpperCase() + ".";
+          if (Keys.isRepeatable(token)) {
             try {
-              t = Integer.parseInt(token.substring(2, token.length() - 1));
+              repeat = Integer.parseInt(tokenSave.substring(2, tokenSave.length() - 1));
             } catch (NumberFormatException ex) {
+              token = tokenSave;
             }
-            if ((token.startsWith("#w") && t > 60)) {
-              pause = 0.020 + (t > 1000 ? 1 : t / 1000);
-              log.trace("write: type delay: " + t);
-            } else {
-              log.trace("write: wait: " + t);
-              SX.pause((double) (t < 60 ? t : t / 1000));
-            }
+          } else if (tokenSave.length() == 3 && Keys.isModifier(tokenSave.toUpperCase())) {
+            i += tokenSave.length() - 1;
+            modifier += tokenSave.substring(1, 2).toUpperCase();
             continue;
-          }
-        }
-        tokenSave = token;
-        token = token.substring(0, 2).toUpperCase() + ".";
-        if (Keys.isRepeatable(token)) {
-          try {
-            repeat = Integer.parseInt(tokenSave.substring(2, tokenSave.length() - 1));
-          } catch (NumberFormatException ex) {
-            token = tokenSave;
-          }
-        } else if (tokenSave.length() == 3 && Keys.isModifier(tokenSave.toUpperCase())) {
-          i += tokenSave.length() - 1;
-          modifier += tokenSave.substring(1, 2).toUpperCase();
-          continue;
-        } else {
-          token = tokenSave;
-        }
-        if (-1 < (key = Keys.toJavaKeyCodeFromText(token))) {
-          if (repeat > 0) {
-            log.trace("write: %s Repeating: %d", token, repeat);
           } else {
-            log.trace("write: %s", tokenSave);
-            repeat = 1;
+            token = tokenSave;
           }
-          i += tokenSave.length() - 1;
-          if (isModifier) {
-            if (tokenSave.endsWith("+")) {
-              device.key(IDevice.Action.DOWN, key);
+          if (-1 < (key = Keys.toJavaKeyCodeFromText(token))) {
+            if (repeat > 0) {
+              log.trace("write: %s Repeating: %d", token, repeat);
             } else {
-              device.key(IDevice.Action.UP, key);
+              log.trace("write: %s", tokenSave);
+              repeat = 1;
             }
-            continue;
-          }
-          if (repeat > 1) {
-            for (int n = 0; n < repeat; n++) {
-              device.key(IDevice.Action.DOWNUP, key);
+            i += tokenSave.length() - 1;
+            if (isModifier) {
+              if (tokenSave.endsWith("+")) {
+                device.key(IDevice.Action.DOWN, key);
+              } else {
+                device.key(IDevice.Action.UP, key);
+              }
+              continue;
+            }
+            if (repeat > 1) {
+              for (int n = 0; n < repeat; n++) {
+                device.key(IDevice.Action.DOWNUP, key);
+              }
+              continue;
             }
-            continue;
           }
         }
-      }
-      if (!modifier.isEmpty()) {
-        log.trace("write: modifier down " + modifier);
-        for (int n = 0; n < modifier.length(); n++) {
-          int modifierKey = Keys.toJavaKeyCodeFromText(String.format("#%s.", modifier.substring(n, n + 1)));
-          device.key(IDevice.Action.DOWN, modifierKey);
+        if (!modifier.isEmpty()) {
+          log.trace("write: modifier down " + modifier);
+          for (int n = 0; n < modifier.length(); n++) {
+            int modifierKey = Keys.toJavaKeyCodeFromText(String.format("#%s.", modifier.substring(n, n + 1)));
+            device.key(IDevice.Action.DOWN, modifierKey);
+          }
         }
-      }
-      if (key > -1) {
-        device.key(IDevice.Action.DOWNUP, key);
-      } else {
-        device.key(IDevice.Action.DOWNUP, c);
-      }
-      if (!modifier.isEmpty()) {
-        log.trace("write: modifier up " + modifier);
-        for (int n = 0; n < modifier.length(); n++) {
-          int modifierKey = Keys.toJavaKeyCodeFromText(String.format("#%s.", modifier.substring(n, n + 1)));
-          device.key(IDevice.Action.UP, modifierKey);
+        if (key > -1) {
+          device.key(IDevice.Action.DOWNUP, key);
+        } else {
+          device.key(IDevice.Action.DOWNUP, c);
+        }
+        if (!modifier.isEmpty()) {
+          log.trace("write: modifier up " + modifier);
+          for (int n = 0; n < modifier.length(); n++) {
+            int modifierKey = Keys.toJavaKeyCodeFromText(String.format("#%s.", modifier.substring(n, n + 1)));
+            device.key(IDevice.Action.UP, modifierKey);
+          }
         }
+        SX.pause(pause);
+        modifier = "";
       }
-      SX.pause(pause);
-      modifier = "";
+    } finally {
+      device.keyStop();
     }
-    device.keyStop();
     return true;
   }
 
@@ -1770,7 +1848,7 @@ public class Element implements Comparable<Element> {
       targetTo = findForClick(Finder.DROP, to);
     }
     if (times.length == 0) {
-      times = new Double[]{SX.getOptionNumber("Settings.MoveMouseDelay")};
+      times = new Double[]{SX.getOptionsSnapshot().moveMouseDelay};
     }
     targetTo = getDevice().dragDrop(targetFrom, targetTo, times);
     return targetTo;
@@ -1798,7 +1876,7 @@ public class Element implements Comparable<Element> {
 
   public double getWaitForThis() {
     if (waitForThis < 0) {
-      waitForThis = SX.getOptionNumber("Settings.AutoWaitTimeout");
+      waitForThis = SX.getOptionsSnapshot().autoWaitTimeout;
     }
     return waitForThis;
   }
@@ -1811,7 +1889,7 @@ public class Element implements Comparable<Element> {
 
   public double getWaitForMatch() {
     if (waitForMatch < 0) {
-      waitForMatch = SX.getOptionNumber("Settings.AutoWaitTimeout");
+      waitForMatch = SX.getOptionsSnapshot().autoWaitTimeout;
     }
     return waitForMatch;
   }
@@ -2040,6 +2118,25 @@ public class Element implements Comparable<Element> {
     return Do.findAll(target, this);
   }
 
+  public CompletableFuture<Element> findAsync(Object what) {
+    return Do.findAsync(what, this);
+  }
+
+  public CompletableFuture<Element> waitAsync(Object what, Object... times) {
+    return Do.waitAsync(asWaitArgs(what, times));
+  }
+
+  public CompletableFuture<Element> waitVanishAsync(Object what, Object... times) {
+    return Do.waitVanishAsync(asWaitArgs(what, times));
+  }
+
+  private Object[] asWaitArgs(Object what, Object... times) {
+    if (times.length > 0) {
+      return new Object[]{what, this, times[0]};
+    }
+    return new Object[]{what, this};
+  }
+
   public Text findText(String text, Object... settings) {
     return new Text(text, settings).find(this);
   }
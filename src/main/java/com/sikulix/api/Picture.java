@@ -5,11 +5,15 @@
 package com.sikulix.api;
 
 import com.sikulix.core.Content;
+import com.sikulix.core.FeatureFinder;
 import com.sikulix.core.Finder;
+import com.sikulix.core.ImageCache;
+import com.sikulix.core.MatScope;
 import com.sikulix.core.SX;
 import com.sikulix.core.SXLog;
 import org.opencv.core.*;
 import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
@@ -45,6 +49,9 @@ public class Picture extends Element {
       setContent();
     }
     urlImg = elem.urlImg;
+    if (elem instanceof Picture) {
+      featureDetector = ((Picture) elem).featureDetector;
+    }
     setAttributes();
   }
 
@@ -102,6 +109,25 @@ public class Picture extends Element {
     setAttributes();
   }
 
+  /**
+   * the given Mat is used as is (no copy), e.g. a submat view into the canvas of a virtual device<br>
+   * later changes of the underlying data are visible in the picture,
+   * the color attributes (plain, black, ...) are not evaluated
+   *
+   * @param mat BGR content
+   * @return the picture
+   */
+  public static Picture view(Mat mat) {
+    Picture picture = new Picture();
+    if (SX.isNull(mat) || mat.empty()) {
+      picture.setContent();
+    } else {
+      picture.setContent(mat);
+    }
+    picture.init(0, 0, picture.getContent().width(), picture.getContent().height());
+    return picture;
+  }
+
   public Picture(String fpImg) {
     setContent(fpImg);
     init(0, 0, getContent().width(), getContent().height());
@@ -175,7 +201,9 @@ public class Picture extends Element {
         String urlProto = urlImg.getProtocol();
         if (urlProto.equals("file")) {
           File imgFile = new File(urlImg.getPath());
-          setContent(Imgcodecs.imread(imgFile.getAbsolutePath(), Imgcodecs.IMREAD_UNCHANGED));
+          Mat mLoaded = ImageCache.load(imgFile);
+          setContent(mLoaded);
+          MatScope.release(mLoaded);
         } else {
           try {
             setContent(makeMat(ImageIO.read(urlImg)));
@@ -348,5 +376,65 @@ public class Picture extends Element {
   public Picture getSub(Element elem) {
     return getSub(elem.x, elem.y, elem.w, elem.h);
   }
+
+  private final Map<Double, Picture> scaled = new HashMap<>();
+  private Mat scaledFrom = null;
+
+  /**
+   * this image resized by factor, with mask, wanted score and name (name@factor),
+   * created once per factor (again after the content has changed) - used by the multi scale search
+   *
+   * @param factor resize factor
+   * @return the resized image (empty, if it would be smaller than 2 x 2)
+   */
+  public synchronized Picture getScaled(double factor) {
+    if (getContentBGR() != scaledFrom) {
+      for (Picture previous : scaled.values()) {
+        previous.releaseContent();
+      }
+      scaled.clear();
+      scaledFrom = getContentBGR();
+    }
+    Picture picture = scaled.get(factor);
+    if (SX.isNull(picture)) {
+      picture = new Picture();
+      Size size = new Size(Math.round(w * factor), Math.round(h * factor));
+      if (isValid() && size.width > 1 && size.height > 1) {
+        Mat mScaled = getNewMat();
+        Imgproc.resize(getContentBGR(), mScaled, size, 0, 0, factor < 1 ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR);
+        picture = new Picture(mScaled);
+        mScaled.release();
+        if (hasMask()) {
+          Mat mMask = getNewMat();
+          Imgproc.resize(getMask(), mMask, size, 0, 0, Imgproc.INTER_NEAREST);
+          picture.setMask(mMask);
+          picture.setAttributes();
+        }
+        picture.setName(String.format("%s@%.2f", getName(), factor));
+        picture.setWantedScore(getWantedScore());
+        picture.setScore(getScore());
+      }
+      scaled.put(factor, picture);
+    }
+    return picture;
+  }
+
+  private FeatureFinder.Detector featureDetector = null;
+
+  /**
+   * search this image by keypoints instead of template matching (finds it rotated, scaled or partially covered)<br>
+   * the match score is the inlier ratio of the feature matches (see FeatureFinder)
+   *
+   * @param detector ORB or AKAZE (null: back to template matching)
+   * @return this
+   */
+  public Picture setFeatureMatching(FeatureFinder.Detector detector) {
+    featureDetector = detector;
+    return this;
+  }
+
+  public FeatureFinder.Detector getFeatureMatching() {
+    return featureDetector;
+  }
 //</editor-fold>
 }
@@ -114,7 +114,9 @@ public class Story {
       double storyH = storyBackground.h + addBorder;
       if (storyW > screen.w || storyH > screenHeight) {
         double toResize = Math.min(screen.w/storyW, (screenHeight)/storyH);
-        showImg = new Picture(showImg).resize(((int) (toResize * 100))/100.0).get();
+        Picture resized = new Picture(showImg).resize(((int) (toResize * 100))/100.0);
+        showImg = resized.get();
+        resized.releaseContent();
         withBorder = true;
       }
       new Picture(showImg);
@@ -265,53 +265,58 @@ public class Events {
       event.getWhere().incrementObserveCount();
       String cType = event.getTypeShort();
       log.trace("Observe start: %s%d in %d", cType, event.getKey(), nWhere);
+      FindPlan plan = FindPlan.compile(Finder.PossibleMatch.Type.FIND, event.getWhat(), event.getWhere(), nWhere);
       while (true) {
         if (event.shouldRepeat()) {
           SX.pause(event.getRepeat());
         }
         event.pause();
+        SXTrace.Span round = SXTrace.begin("observe", "observe").arg("event", cType + event.getKey());
         boolean success = false;
-        Finder.PossibleMatch possibleMatch = new Finder.PossibleMatch();
-        Element where = possibleMatch.get(event.getWhat(), event.getWhere(), nWhere);
-        if (event.isAppear()) {
-          if (!where.hasMatch()) {
-            while (where.isObserving() && shouldRepeat) {
-              log.trace("Observe repeat: %s%d in %d", cType, event.getKey(), nWhere);
-              possibleMatch.repeat();
-              if (where.hasMatch()) {
-                success = true;
-                break;
+        try {
+          Finder.PossibleMatch possibleMatch = new Finder.PossibleMatch();
+          Element where = possibleMatch.execute(plan);
+          if (event.isAppear()) {
+            if (!possibleMatch.hasMatch()) {
+              while (where.isObserving() && shouldRepeat) {
+                log.trace("Observe repeat: %s%d in %d", cType, event.getKey(), nWhere);
+                possibleMatch.repeat();
+                if (possibleMatch.hasMatch()) {
+                  success = true;
+                  break;
+                }
               }
+            } else {
+              success = true;
             }
-          } else {
-            success = true;
-          }
-          if (success) {
-            event.setMatch(where.getLastMatch());
-            success = true;
-          }
-        } else if (event.isVanish()) {
-          where.setLastVanish(null);
-          if (where.hasMatch()) {
-            Element match = where.getLastMatch();
-            where.setLastVanish(match);
-            while (where.isObserving() && shouldRepeat) {
-              log.trace("Observe repeat: %s%d in %d", cType, event.getKey(), nWhere);
-              possibleMatch.repeat();
-              if (where.hasMatch()) {
-                match = where.getLastMatch();
-                where.setLastVanish(match);
-                event.setVanish(match);
-              } else {
-                success = true;
-                break;
+            if (success) {
+              event.setMatch(possibleMatch.getMatchSet().getMatch());
+              success = true;
+            }
+          } else if (event.isVanish()) {
+            if (possibleMatch.hasMatch()) {
+              Element match = possibleMatch.getMatchSet().getMatch();
+              where.setLastVanish(match);
+              while (where.isObserving() && shouldRepeat) {
+                log.trace("Observe repeat: %s%d in %d", cType, event.getKey(), nWhere);
+                possibleMatch.repeat();
+                if (possibleMatch.hasMatch()) {
+                  match = possibleMatch.getMatchSet().getMatch();
+                  where.setLastVanish(match);
+                  event.setVanish(match);
+                } else {
+                  success = true;
+                  break;
+                }
               }
             }
+          } else if (event.isChange()) {
+            log.error("Observe: onChange not implemented: %s", event);
+          } else {
+            log.error("Observe: Event invalid: %s", event);
           }
-        } else if (event.isChange()) {
-          log.error("Observe: onChange not implemented: %s", event);
-        } else {
-          log.error("Observe: Event invalid: %s", event);
+        } finally {
+          round.end();
         }
         if (success) {
           event.setWhen(new Date().getTime());
@@ -320,7 +325,12 @@ public class Events {
                   (Event.TYPE.ONAPPEAR.equals(event.isAppear()) ? event.getMatch() : event.getVanish()));
           if (event.hasHandler()) {
             log.trace("Observe handler: %s%d in %d", cType, event.getKey(), nWhere);
-            event.getHandler().run(event);
+            try (SXTrace.Span span = SXTrace.begin("handler", "observe").arg("event", cType + event.getKey())) {
+              long start = Metrics.start();
+              event.getHandler().run(event);
+              Metrics.record(Metrics.Phase.HANDLER, event.getWhere().getDeviceName(),
+                      SX.isNull(event.getWhat()) ? null : event.getWhat().getName(), start);
+            }
           }
         } else {
           log.trace("Observe stopped: %s%d in %d", cType, event.getKey(), nWhere);
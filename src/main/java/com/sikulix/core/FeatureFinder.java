@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.core;
+
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.DMatch;
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.core.MatOfKeyPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.features2d.AKAZE;
+import org.opencv.features2d.DescriptorMatcher;
+import org.opencv.features2d.Feature2D;
+import org.opencv.features2d.ORB;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * matching by keypoints and descriptors (OpenCV Features2d: ORB or AKAZE) instead of template matching:
+ * finds targets, that are rotated, scaled or partially covered<br>
+ * the features of an image are computed once and cached (per content Mat: targets and captured frames),
+ * so many targets searched in the same frame share the frame's features<br>
+ * a match is the bounding rectangle of the target projected by the homography,
+ * its score is the ratio of the RANSAC inliers to the good matches (ratio test)
+ * <p>
+ * used by Finder for Pictures with setFeatureMatching(detector)
+ */
+public class FeatureFinder {
+
+  private static final SXLog log = SX.getSXLog("SX.FeatureFinder");
+
+  public enum Detector {
+    ORB, AKAZE
+  }
+
+  private static double ratio = 0.75;
+  private static int minInliers = 8;
+  private static double minInlierRatio = 0.5;
+
+  /**
+   * @param value of the ratio test (best distance / second best - default 0.75)
+   */
+  public static void setRatio(double value) {
+    ratio = value;
+  }
+
+  /**
+   * @param count a match needs at least that many inliers (default 8)
+   * @param score and at least this inlier ratio (default 0.5)
+   */
+  public static void setMinimum(int count, double score) {
+    minInliers = Math.max(4, count);
+    minInlierRatio = score;
+  }
+
+  //<editor-fold desc="features">
+
+  /**
+   * reference counted: the cache holds one claim, each user one more (acquire() - release()),
+   * the native memory is freed with the last release()
+   */
+  static class Features {
+    final WeakReference<Mat> content;
+    final Detector detector;
+    final MatOfKeyPoint keyPoints;
+    final KeyPoint[] points;
+    final Mat descriptors;
+    private int holders = 1;
+
+    Features(Mat content, Detector detector, MatOfKeyPoint keyPoints, Mat descriptors) {
+      this.content = new WeakReference<>(content);
+      this.detector = detector;
+      this.keyPoints = keyPoints;
+      this.points = keyPoints.toArray();
+      this.descriptors = descriptors;
+    }
+
+    boolean isUsable() {
+      return !descriptors.empty() && points.length >= minInliers;
+    }
+
+    synchronized Features acquire() {
+      holders++;
+      return this;
+    }
+
+    synchronized void release() {
+      if (--holders == 0) {
+        keyPoints.release();
+        descriptors.release();
+      }
+    }
+  }
+
+  /**
+   * least recently used features are dropped above the size (released, when no longer in use)
+   */
+  private static class FeatureCache extends LinkedHashMap<String, Features> {
+    private final int size;
+
+    FeatureCache(int size) {
+      super(size, 0.75f, true);
+      this.size = size;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Features> eldest) {
+      if (size() > size) {
+        eldest.getValue().release();
+        return true;
+      }
+      return false;
+    }
+
+    Features get(Mat content, Detector detector) {
+      String key = key(content, detector);
+      Features features = get(key);
+      if (SX.isNotNull(features) && features.content.get() != content) {
+        remove(key).release();
+        features = null;
+      }
+      return features;
+    }
+
+    void clearAll() {
+      for (Iterator<Features> iterator = values().iterator(); iterator.hasNext(); ) {
+        iterator.next().release();
+        iterator.remove();
+      }
+    }
+
+    static String key(Mat content, Detector detector) {
+      return detector + ":" + content.getNativeObjAddr();
+    }
+  }
+
+  private static final FeatureCache frames = new FeatureCache(4);
+  private static final FeatureCache targets = new FeatureCache(256);
+
+  private static Feature2D create(Detector detector) {
+    if (Detector.AKAZE.equals(detector)) {
+      return AKAZE.create();
+    }
+    return ORB.create(2000);
+  }
+
+  private static Features compute(Mat content, Mat mask, Detector detector) {
+    long begin = System.nanoTime();
+    MatOfKeyPoint keyPoints = new MatOfKeyPoint();
+    Mat descriptors = Element.getNewMat();
+    create(detector).detectAndCompute(content, SX.isNull(mask) ? Element.getNewMat() : mask, keyPoints, descriptors);
+    Features features = new Features(content, detector, keyPoints, descriptors);
+    log.trace("compute: %s: %d keypoints %dx%d (%d msec)", detector, features.points.length,
+            content.cols(), content.rows(), (System.nanoTime() - begin) / 1000000);
+    return features;
+  }
+
+  /**
+   * @return the features of the captured frame (computed with the first use) - to be released by the caller
+   */
+  static Features getFrameFeatures(Mat frame, Detector detector) {
+    Features features;
+    boolean added = false;
+    synchronized (frames) {
+      features = frames.get(frame, detector);
+      if (SX.isNull(features)) {
+        features = compute(frame, null, detector);
+        frames.put(FeatureCache.key(frame, detector), features);
+        added = true;
+      }
+      features.acquire();
+    }
+    if (added) {
+      Resources.checkLimits();
+    }
+    return features;
+  }
+
+  /**
+   * @return the features of the target - to be released by the caller
+   */
+  static Features getTargetFeatures(Picture target, Detector detector) {
+    Mat content = target.getContentBGR();
+    Features features;
+    boolean added = false;
+    synchronized (targets) {
+      features = targets.get(content, detector);
+      if (SX.isNull(features)) {
+        features = compute(content, target.hasMask() ? target.getMask() : null, detector);
+        targets.put(FeatureCache.key(content, detector), features);
+        added = true;
+      }
+      features.acquire();
+    }
+    if (added) {
+      Resources.checkLimits();
+    }
+    return features;
+  }
+
+  /**
+   * drop all cached features
+   */
+  public static void clear() {
+    synchronized (frames) {
+      frames.clearAll();
+    }
+    synchronized (targets) {
+      targets.clearAll();
+    }
+  }
+
+  public static long getCachedCount() {
+    long count;
+    synchronized (frames) {
+      count = frames.size();
+    }
+    synchronized (targets) {
+      return count + targets.size();
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="find">
+
+  /**
+   * @param frame    the captured content (BGR)
+   * @param target   what to find
+   * @param detector ORB (fast) or AKAZE (more robust against scaling)
+   * @return the match relative to the frame (score = inlier ratio), null if not found
+   */
+  public static Element find(Mat frame, Picture target, Detector detector) {
+    if (SX.isNull(frame) || frame.empty() || !target.isValid()) {
+      return null;
+    }
+    Features targetFeatures = getTargetFeatures(target, detector);
+    Features frameFeatures = null;
+    try {
+      if (!targetFeatures.isUsable()) {
+        log.error("find: %s: not enough keypoints in target (%d)", target.getName(), targetFeatures.points.length);
+        return null;
+      }
+      frameFeatures = getFrameFeatures(frame, detector);
+      if (!frameFeatures.isUsable()) {
+        return null;
+      }
+      return match(targetFeatures, frameFeatures, target, frame);
+    } finally {
+      targetFeatures.release();
+      if (SX.isNotNull(frameFeatures)) {
+        frameFeatures.release();
+      }
+    }
+  }
+
+  /**
+   * the frame's features are computed once for all targets
+   *
+   * @return one entry per target in the given order (null if not found)
+   */
+  public static List<Element> findAny(Mat frame, List<Picture> targets, Detector detector) {
+    List<Element> matches = new ArrayList<>();
+    for (Picture target : targets) {
+      matches.add(SX.isNull(target) ? null : find(frame, target, detector));
+    }
+    return matches;
+  }
+
+  private static Element match(Features targetFeatures, Features frameFeatures, Picture target, Mat frame) {
+    List<MatOfDMatch> pairs = new ArrayList<>();
+    DescriptorMatcher matcher = DescriptorMatcher.create(DescriptorMatcher.BRUTEFORCE_HAMMING);
+    matcher.knnMatch(targetFeatures.descriptors, frameFeatures.descriptors, pairs, 2);
+    List<Point> from = new ArrayList<>();
+    List<Point> to = new ArrayList<>();
+    for (MatOfDMatch pair : pairs) {
+      DMatch[] best = pair.toArray();
+      pair.release();
+      if (best.length > 0 && (best.length == 1 || best[0].distance < ratio * best[1].distance)) {
+        from.add(targetFeatures.points[best[0].queryIdx].pt);
+        to.add(frameFeatures.points[best[0].trainIdx].pt);
+      }
+    }
+    if (from.size() < minInliers) {
+      log.trace("match: %s: %d good matches", target.getName(), from.size());
+      return null;
+    }
+    MatOfPoint2f mFrom = new MatOfPoint2f(from.toArray(new Point[0]));
+    MatOfPoint2f mTo = new MatOfPoint2f(to.toArray(new Point[0]));
+    Mat mInliers = Element.getNewMat();
+    Mat homography = Calib3d.findHomography(mFrom, mTo, Calib3d.RANSAC, 3, mInliers, 2000, 0.995);
+    Element match = null;
+    if (!homography.empty()) {
+      int inliers = Core.countNonZero(mInliers);
+      double score = ((double) inliers) / from.size();
+      log.trace("match: %s: %d of %d inliers (%.2f)", target.getName(), inliers, from.size(), score);
+      if (inliers >= minInliers && score >= minInlierRatio) {
+        match = project(homography, target, frame, score);
+      }
+    }
+    mFrom.release();
+    mTo.release();
+    mInliers.release();
+    homography.release();
+    return match;
+  }
+
+  private static Element project(Mat homography, Picture target, Mat frame, double score) {
+    MatOfPoint2f corners = new MatOfPoint2f(new Point(0, 0), new Point(target.w, 0),
+            new Point(target.w, target.h), new Point(0, target.h));
+    MatOfPoint2f projected = new MatOfPoint2f();
+    Core.perspectiveTransform(corners, projected, homography);
+    double left = Double.MAX_VALUE;
+    double top = Double.MAX_VALUE;
+    double right = -Double.MAX_VALUE;
+    double bottom = -Double.MAX_VALUE;
+    for (Point corner : projected.toArray()) {
+      left = Math.min(left, corner.x);
+      top = Math.min(top, corner.y);
+      right = Math.max(right, corner.x);
+      bottom = Math.max(bottom, corner.y);
+    }
+    corners.release();
+    projected.release();
+    int x = (int) Math.max(0, Math.round(left));
+    int y = (int) Math.max(0, Math.round(top));
+    int w = (int) Math.min(frame.cols(), Math.round(right)) - x;
+    int h = (int) Math.min(frame.rows(), Math.round(bottom)) - y;
+    if (w < 2 || h < 2) {
+      return null;
+    }
+    return new Element(new Element(x, y, w, h), score);
+  }
+  //</editor-fold>
+}
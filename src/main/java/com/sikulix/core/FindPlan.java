@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.core;
+
+import com.sikulix.api.Do;
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.api.Target;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * the evaluated arguments of a find/wait/observe (what, where, wait time, score)<br>
+ * compiled once and then executed as often as needed by PossibleMatch
+ * without parsing the arguments or loading the images again
+ */
+public class FindPlan {
+
+  private static final SXLog log = SX.getSXLog("SX.FindPlan");
+
+  private final Finder.PossibleMatch.Type type;
+  private Element what = null;
+  private List<Picture> whats = new ArrayList<>();
+  private boolean isListWhat = false;
+  private Element where = null;
+  private int waitTime = -1;
+  private double pause = -1;
+  private boolean imageMissingWhat = false;
+  private boolean imageMissingWhere = false;
+  private boolean valid = false;
+  private Finder finder = null;
+
+  private FindPlan(Finder.PossibleMatch.Type type) {
+    this.type = type;
+  }
+
+  //<editor-fold desc="compile">
+  public static FindPlan compile(Finder.PossibleMatch.Type type, Object... args) {
+    FindPlan plan = new FindPlan(type);
+    plan.evaluate(args);
+    return plan;
+  }
+
+  private void evaluate(Object... args) {
+    Object args0, args1;
+    if (args.length > 0) {
+      if (args[0] instanceof ScriptObjectMirror) {
+        ScriptObjectMirror arguments = (ScriptObjectMirror) args[0];
+        args = new Object[arguments.size()];
+        for (Integer n = 0; n < arguments.size(); n++) {
+          args[n] = arguments.get(n.toString());
+        }
+      }
+    }
+    log.trace("compile: %s %s", type, Arrays.asList(args));
+    if (args.length == 0 || SX.isNull(args[0])) {
+      log.error("compile: args invalid: no args or args0 (what) null");
+      return;
+    }
+    args0 = args[0];
+    if (Finder.PossibleMatch.Type.ANY.equals(type)) {
+      if (args0 instanceof List) {
+        isListWhat = true;
+        what = new Element();
+        for (Object anyWhat : (List<Object>) args0) {
+          if (anyWhat instanceof Picture) {
+            whats.add((Picture) anyWhat);
+          } else if (anyWhat instanceof String) {
+            whats.add(new Picture((String) anyWhat));
+          } else {
+            whats.add(null);
+          }
+        }
+      } else {
+        log.error("compile: type %s: args0 invalid: %s", type, args0);
+      }
+    } else {
+      if (args0 instanceof String) {
+        what = new Picture((String) args0);
+        if (!what.isValid()) {
+          imageMissingWhat = true;
+        }
+      } else if (args0 instanceof Element) {
+        what = (Element) args0;
+      } else {
+        if (Finder.PossibleMatch.Type.WAIT.equals(type)) {
+          if (args0 instanceof Float || args0 instanceof Double) {
+            pause = ((Number) args0).doubleValue();
+            return;
+          }
+        }
+        log.error("compile: args0 (what) invalid: %s", args0);
+        what = new Element();
+      }
+    }
+    if (args.length > 1 && !imageMissingWhat) {
+      args1 = args[1];
+      if (args1 instanceof String) {
+        where = new Picture((String) args1);
+        if (!where.isValid()) {
+          imageMissingWhere = true;
+        }
+      } else if (args1 instanceof Element) {
+        where = (Element) args1;
+      } else if (SX.isNull(args1)) {
+        where = null;
+      } else if (args1 instanceof Double) {
+        waitTime = (int) (1000 * (Double) args1);
+      } else if (args1 instanceof Integer) {
+        waitTime = 1000 * (Integer) args1;
+      } else {
+        log.error("compile: args1 (where) invalid: %s", args1);
+      }
+      if (args.length > 2) {
+        Object args2 = args[2];
+        if (args2 instanceof Double) {
+          waitTime = (int) (1000 * (Double) args2);
+        } else if (args2 instanceof Integer) {
+          waitTime = 1000 * (Integer) args2;
+        } else {
+          log.error("compile: args2 (waitTime) invalid: %s", args2);
+        }
+      }
+    }
+    if (SX.isNotNull(what) && !imageMissingWhat && !imageMissingWhere && (what.isTarget() || isListWhat)) {
+      if (SX.isNull(where)) {
+        where = Do.on();
+      }
+      valid = true;
+    }
+  }
+
+  /**
+   * @param score the minimum score a match must have (wraps what into a Target)
+   * @return this plan
+   */
+  public FindPlan similar(double score) {
+    if (valid && !isListWhat) {
+      what = new Target(what, score);
+      what.setWantedScore(score);
+    }
+    return this;
+  }
+
+  /**
+   * @param seconds the wait time (overrides the AutoWaitTimeout defaults)
+   * @return this plan
+   */
+  public FindPlan waitTime(double seconds) {
+    waitTime = (int) (1000 * seconds);
+    return this;
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="getter">
+  public Finder.PossibleMatch.Type getType() {
+    return type;
+  }
+
+  public Element getWhat() {
+    return what;
+  }
+
+  public List<Picture> getWhats() {
+    return whats;
+  }
+
+  public boolean isListWhat() {
+    return isListWhat;
+  }
+
+  public Element getWhere() {
+    return where;
+  }
+
+  /**
+   * @return milliseconds, -1 if not given (the defaults of what and where apply)
+   */
+  public int getWaitTime() {
+    return waitTime;
+  }
+
+  /**
+   * @return true if the plan is just a pause (wait(seconds))
+   */
+  public boolean isPause() {
+    return pause > -1;
+  }
+
+  public double getPause() {
+    return pause;
+  }
+
+  public boolean isImageMissingWhat() {
+    return imageMissingWhat;
+  }
+
+  public boolean isImageMissingWhere() {
+    return imageMissingWhere;
+  }
+
+  /**
+   * @return true if there is something to search
+   */
+  public boolean isValid() {
+    return valid;
+  }
+
+  /**
+   * the Finder on where - created with the first use, later only the base content is refreshed
+   *
+   * @return the Finder
+   */
+  synchronized Finder getFinder() {
+    if (SX.isNull(finder)) {
+      finder = new Finder(where);
+    } else {
+      finder.refreshBase();
+    }
+    return finder;
+  }
+  //</editor-fold>
+
+  @Override
+  public String toString() {
+    return String.format("FindPlan(%s): what: %s, where: %s: wait: %d msec", type, what, where, waitTime);
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.core;
+
+import com.sikulix.api.Element;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * multi scale search (opt-in): a target not found at its own size is searched again resized
+ * by the configured factors (option Settings.FindScales, e.g. 1.25, 1.5, 2 for HiDPI or zoomed displays)<br>
+ * the factor, with which a target was found, is remembered per device and monitor
+ * and tried first with the next search there - so mostly only one scale is searched
+ */
+public class FindScales {
+
+  private static final SXLog log = SX.getSXLog("SX.FindScales");
+
+  private static final Map<String, Double> learned = new ConcurrentHashMap<>();
+  private static volatile double[] scales = null;
+
+  /**
+   * @param factors overrides the option FindScales (no factors: off, null: back to the option)
+   */
+  public static void setScales(double... factors) {
+    if (SX.isNull(factors)) {
+      scales = null;
+    } else {
+      StringBuilder list = new StringBuilder();
+      for (double factor : factors) {
+        list.append(factor).append(",");
+      }
+      scales = OptionsSnapshot.scales(list.toString());
+    }
+    learned.clear();
+  }
+
+  /**
+   * @return the factors tried additionally (1 not included, a copy)
+   */
+  public static double[] getScales() {
+    return factors().clone();
+  }
+
+  private static double[] factors() {
+    double[] factors = scales;
+    return SX.isNull(factors) ? SX.getOptionsSnapshot().findScales : factors;
+  }
+
+  public static boolean isActive() {
+    return factors().length > 0;
+  }
+
+  /**
+   * @return device name and monitor of the element (only the device name, if not on screen)
+   */
+  public static String getKey(Element where) {
+    if (SX.isNull(where)) {
+      return "";
+    }
+    if (!where.isOnScreen()) {
+      return where.getDeviceName();
+    }
+    return where.getDeviceName() + ":" + where.getDevice().getContainingMonitorID(where);
+  }
+
+  /**
+   * @return the scale found last for the key (1 if none yet)
+   */
+  public static double getLearned(String key) {
+    Double scale = learned.get(key);
+    return SX.isNull(scale) ? 1 : scale;
+  }
+
+  public static void learn(String key, double scale) {
+    Double previous = learned.put(key, scale);
+    if (SX.isNull(previous) || previous != scale) {
+      log.trace("learn: %s: scale %.2f", key, scale);
+    }
+  }
+
+  public static Map<String, Double> getLearned() {
+    return new TreeMap<>(learned);
+  }
+
+  public static void forget() {
+    learned.clear();
+  }
+
+  /**
+   * @return the factors in the order to be tried: the learned one, 1 (the target as is), the others
+   */
+  public static double[] getOrder(String key) {
+    double[] factors = factors();
+    double first = getLearned(key);
+    double[] order = new double[factors.length + 1];
+    int n = 0;
+    order[n++] = first;
+    if (first != 1) {
+      order[n++] = 1;
+    }
+    for (double factor : factors) {
+      if (factor != first && n < order.length) {
+        order[n++] = factor;
+      }
+    }
+    return order;
+  }
+}
@@ -16,6 +16,8 @@ import org.opencv.imgproc.Imgproc;
 import java.awt.Rectangle;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Finder {
 
@@ -23,8 +25,7 @@ public class Finder {
   private static final SXLog log = SX.getSXLog("SX.Finder");
 
   private Element base = null;
-  private Mat mBase = Element.getNewMat();
-  private Mat mResult = Element.getNewMat();
+  private volatile Mat mBase = Element.getNewMat();
 
   private enum FindType {
     ONE, ALL
@@ -36,7 +37,9 @@ public class Finder {
   public Finder(Element elem) {
     if (elem != null && elem.isValid()) {
       base = elem;
-      mBase = elem.getContentBGR();
+      long start = Metrics.start();
+      mBase = MatScope.share(elem.getContentBGR());
+      Metrics.record(Metrics.Phase.PREPARE, elem.getDeviceName(), null, start);
     } else {
       log.error("init: invalid element: %s", elem);
     }
@@ -46,30 +49,110 @@ public class Finder {
     return !mBase.empty();
   }
 
+  /**
+   * the Finder works on its own header of the base content (no copy), so a new capture into the base element
+   * may release the previous content - refreshBase() switches to the current content
+   */
   public void refreshBase() {
-    mBase = base.getContentBGR();
+    if (SX.isNotNull(base)) {
+      long start = Metrics.start();
+      Mat mPrevious = mBase;
+      mBase = MatScope.share(base.getContentBGR());
+      mPrevious.release();
+      Metrics.record(Metrics.Phase.PREPARE, base.getDeviceName(), null, start);
+    }
+  }
+
+  /**
+   * let go the base content now (the Finder is no longer valid)
+   */
+  public void release() {
+    Mat mPrevious = mBase;
+    mBase = Element.getNewMat();
+    mPrevious.release();
   }
   //</editor-fold>
 
   //<editor-fold desc="find basic">
   public Element find(Element target) {
-    base.resetMatches();
-    FindResult findResult = doFind(target, FindType.ONE);
-    if (SX.isNotNull(findResult) && findResult.hasNext()) {
-      base.setLastMatch(findResult.next());
-      return base.getLastMatch();
+    MatchSet matchSet = search(target);
+    base.setLastMatchSet(matchSet);
+    if (matchSet.hasMatch()) {
+      return matchSet.getMatch();
     }
     return new Element();
   }
 
   public List<Element> findAll(Element target) {
-    base.resetMatches();
-    FindResult findResult = doFind(target, FindType.ALL);
-    List<Element> matches = findResult.getMatches();
-    Collections.sort(matches);
-    base.setLastMatches(matches);
-    base.setLastScores(findResult.getScores());
-    return matches;
+    MatchSet matchSet = searchAll(target);
+    base.setLastMatchSet(matchSet);
+    return base.getLastMatches();
+  }
+
+  /**
+   * find the best match of target in the base element<br>
+   * the base element's last match state is not touched (see find())
+   *
+   * @param target what to find
+   * @return the result (empty if not found)
+   */
+  public MatchSet search(Element target) {
+    if (isFeatureTarget(target)) {
+      return MatchSet.of(target, doFindFeatures(target));
+    }
+    MatchIterator matchIterator = doFindScaled(target, FindType.ONE);
+    if (SX.isNotNull(matchIterator)) {
+      Element match = matchIterator.hasNext() ? matchIterator.next() : null;
+      matchIterator.release();
+      if (SX.isNotNull(match)) {
+        return MatchSet.of(target, onBaseDevice(match));
+      }
+    }
+    return MatchSet.empty(target);
+  }
+
+  /**
+   * matches on a non-local device (base is special) act on the same device (click, capture, ...)
+   */
+  private Element onBaseDevice(Element match) {
+    if (SX.isNotNull(match) && SX.isNotNull(base) && base.isSpecial()) {
+      match.setDevice(base.getDevice());
+    }
+    return match;
+  }
+
+  /**
+   * find all matches of target in the base element, sorted top left to bottom right<br>
+   * the base element's last match state is not touched (see findAll())
+   *
+   * @param target what to find
+   * @return the result (empty if not found)
+   */
+  public MatchSet searchAll(Element target) {
+    if (isFeatureTarget(target)) {
+      Element match = doFindFeatures(target);
+      if (SX.isNull(match)) {
+        return MatchSet.of(target, null, null);
+      }
+      return MatchSet.of(target, Collections.singletonList(match), new double[]{match.getScore(), match.getScore(), 0});
+    }
+    MatchIterator matchIterator = doFindScaled(target, FindType.ALL);
+    if (SX.isNull(matchIterator)) {
+      return MatchSet.of(target, null, null);
+    }
+    long start = Metrics.start();
+    List<Element> matches = matchIterator.getMatches();
+    matchIterator.release();
+    if (SX.isNotNull(matches)) {
+      Collections.sort(matches);
+      for (Element match : matches) {
+        onBaseDevice(match);
+      }
+    }
+    if (start > 0) {
+      Metrics.record(Metrics.Phase.FINDALL, SX.isNull(base) ? null : base.getDeviceName(), target.getName(), start);
+    }
+    return MatchSet.of(target, matches, matchIterator.getScores());
   }
 
   private final double resizeMinFactor = 1.5;
@@ -79,10 +162,63 @@ public class Finder {
   private boolean isCheckLastSeen = false;
   private static final double downSimDiff = 0.15;
 
-  private FindResult doFind(Element target, FindType findType) {
+  private boolean isFeatureTarget(Element target) {
+    return target instanceof Picture && SX.isNotNull(((Picture) target).getFeatureMatching());
+  }
+
+  /**
+   * keypoint matching (one match at most), the base's features are computed once per captured frame
+   */
+  private Element doFindFeatures(Element target) {
     if (!target.isTarget()) {
       return null;
     }
+    long begin = System.nanoTime();
+    Element match = FeatureFinder.find(mBase, (Picture) target, ((Picture) target).getFeatureMatching());
+    recordPhase(Metrics.Phase.MATCH_FEATURES, target, begin);
+    return onBaseDevice(match);
+  }
+
+  /**
+   * with FindScales active: if not found as is, the target is searched resized by the scale factors,
+   * starting with the one found last on the same device/monitor
+   */
+  private MatchIterator doFindScaled(Element target, FindType findType) {
+    if (!FindScales.isActive() || !(target instanceof Picture)) {
+      return doFind(target, findType);
+    }
+    String key = FindScales.getKey(base);
+    for (double scale : FindScales.getOrder(key)) {
+      Element scaledTarget = scale == 1 ? target : ((Picture) target).getScaled(scale);
+      if (!scaledTarget.isValid() || scaledTarget.w > mBase.cols() || scaledTarget.h > mBase.rows()) {
+        continue;
+      }
+      MatchIterator matchIterator = doFind(scaledTarget, findType);
+      if (SX.isNotNull(matchIterator)) {
+        if (matchIterator.hasNext()) {
+          FindScales.learn(key, scale);
+          return matchIterator;
+        }
+        matchIterator.release();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * the intermediate Mats (downsized images, match results not used) are released on return,
+   * the caller has to release() the returned MatchIterator
+   */
+  private MatchIterator doFind(Element target, FindType findType) {
+    if (!target.isTarget()) {
+      return null;
+    }
+    try (MatScope scope = MatScope.open("finder")) {
+      return doFindScoped(target, findType);
+    }
+  }
+
+  private MatchIterator doFindScoped(Element target, FindType findType) {
     log.trace("doFind: start");
     if (target.getWantedScore() < 0) {
       target.setWantedScore(0.8);
@@ -90,18 +226,25 @@ public class Finder {
     boolean success = false;
     long begin_t = 0;
     Core.MinMaxLocResult mMinMax = null;
-    FindResult findResult = null;
-    if (FindType.ONE.equals(findType) && !isCheckLastSeen && SX.isOption("CheckLastSeen")
+    Mat mResult = null;
+    MatchIterator findResult = null;
+    if (FindType.ONE.equals(findType) && !isCheckLastSeen && SX.getOptionsSnapshot().checkLastSeen
             && target.getLastSeen().isValid()) {
-      begin_t = new Date().getTime();
+      begin_t = System.nanoTime();
       Finder lastSeenFinder = new Finder(target.getLastSeen());
       lastSeenFinder.isCheckLastSeen = true;
       findResult = lastSeenFinder.doFind(new Target(target, target.getLastSeen().getScore() - 0.01), FindType.ONE);
-      if (findResult.hasNext()) {
-        log.trace("doFind: checkLastSeen: success %d msec", new Date().getTime() - begin_t);
+      lastSeenFinder.release();
+      recordPhase(Metrics.Phase.MATCH_LASTSEEN, target, begin_t);
+      if (SX.isNotNull(findResult) && findResult.hasNext()) {
+        log.trace("doFind: checkLastSeen: success %d msec", (System.nanoTime() - begin_t) / 1000000);
         return findResult;
       } else {
-        log.trace("doFind: checkLastSeen: not found %d msec", new Date().getTime() - begin_t);
+        if (SX.isNotNull(findResult)) {
+          findResult.release();
+          findResult = null;
+        }
+        log.trace("doFind: checkLastSeen: not found %d msec", (System.nanoTime() - begin_t) / 1000000);
       }
     }
     double rfactor = 0;
@@ -110,25 +253,22 @@ public class Finder {
     double downSizeWantedScore = 0;
     if (FindType.ONE.equals(findType) && target.getResizeFactor() > resizeMinFactor) {
       // ************************************************* search in downsized
-      begin_t = new Date().getTime();
+      begin_t = System.nanoTime();
       double imgFactor = target.getResizeFactor();
       Size sizeBase, sizePattern;
-      Mat mBase = Element.getNewMat();
-      Mat mPattern = Element.getNewMat();
-      Mat mPatternMask = Element.getNewMat();
-      mResult = null;
+      Mat mBase = MatScope.tracked(Element.getNewMat());
+      Mat mPattern = MatScope.tracked(Element.getNewMat());
+      Mat mPatternMask = MatScope.tracked(Element.getNewMat());
       for (double factor : resizeLevels) {
         rfactor = factor * imgFactor;
         sizeBase = new Size(this.mBase.cols() / rfactor, this.mBase.rows() / rfactor);
         sizePattern = new Size(target.getContent().cols() / rfactor, target.getContent().rows() / rfactor);
         Imgproc.resize(this.mBase, mBase, sizeBase, 0, 0, Imgproc.INTER_AREA);
         Imgproc.resize(target.getContentBGR(), mPattern, sizePattern, 0, 0, Imgproc.INTER_AREA);
-        Picture pPattern = new Picture(mPattern);
         if (target.hasMask()) {
           Imgproc.resize(target.getMask(), mPatternMask, sizePattern, 0, 0, Imgproc.INTER_AREA);
-          pPattern.setMask(mPatternMask);
         }
-        mResult = doFindMatch(target, mBase, pPattern);
+        mResult = doFindMatch(target, mBase, mPattern, target.hasMask() ? mPatternMask : null);
         mMinMax = Core.minMaxLoc(mResult);
         downSizeWantedScore = ((int) ((target.getWantedScore() - downSimDiff) * 100)) / 100.0;
         downSizeScore = mMinMax.maxVal;
@@ -137,61 +277,79 @@ public class Finder {
           break;
         }
       }
+      recordPhase(Metrics.Phase.MATCH_DOWNSIZED, target, begin_t);
       log.trace("downSizeFound: %s", downSizeFound);
-      log.trace("doFind: down: %%%.2f %d msec", 100 * mMinMax.maxVal, new Date().getTime() - begin_t);
+      log.trace("doFind: down: %%%.2f %d msec", 100 * mMinMax.maxVal, (System.nanoTime() - begin_t) / 1000000);
     }
     if (FindType.ONE.equals(findType) && downSizeFound) {
       // ************************************* check after downsized success
       if (mBase.size().equals(target.getContent().size())) {
         // trust downsized mResult, if images have same size
-        return new FindResult(mResult, target);
+        return new MatchIterator(mResult, target);
       } else {
         int maxLocX = (int) (mMinMax.maxLoc.x * rfactor);
         int maxLocY = (int) (mMinMax.maxLoc.y * rfactor);
-        begin_t = new Date().getTime();
+        begin_t = System.nanoTime();
         int margin = ((int) target.getResizeFactor()) + 1;
         Rectangle rSub = new Rectangle(Math.max(0, maxLocX - margin), Math.max(0, maxLocY - margin),
                 Math.min(target.w + 2 * margin, mBase.width()),
                 Math.min(target.h + 2 * margin, mBase.height()));
         rSub = new Rectangle(0, 0, mBase.cols(), mBase.rows()).intersection(rSub);
         Rect rectSub = new Rect(rSub.x, rSub.y, rSub.width, rSub.height);
-        mResult = doFindMatch(target, mBase.submat(rectSub), null);
+        mResult = doFindMatch(target, MatScope.tracked(mBase.submat(rectSub)));
         mMinMax = Core.minMaxLoc(mResult);
+        recordPhase(Metrics.Phase.MATCH_CHECK, target, begin_t);
         if (mMinMax.maxVal > target.getWantedScore()) {
-          findResult = new FindResult(mResult, target, new int[]{rectSub.x, rectSub.y});
+          findResult = new MatchIterator(mResult, target, new int[]{rectSub.x, rectSub.y});
         }
         if (SX.isNotNull(findResult)) {
           log.trace("doFind: after down: %%%.2f(?%%%.2f) %d msec",
-                  mMinMax.maxVal * 100, target.getWantedScore() * 100, new Date().getTime() - begin_t);
+                  mMinMax.maxVal * 100, target.getWantedScore() * 100, (System.nanoTime() - begin_t) / 1000000);
         }
       }
     }
     // ************************************** search in original
     if (((int) (100 * downSizeScore)) == 0) {
-      begin_t = new Date().getTime();
-      mResult = doFindMatch(target, mBase, null);
+      begin_t = System.nanoTime();
+      mResult = doFindMatch(target, mBase);
       mMinMax = Core.minMaxLoc(mResult);
+      recordPhase(Metrics.Phase.MATCH_ORIGINAL, target, begin_t);
       if (!isCheckLastSeen) {
         log.trace("doFind: search in original: %%%.2f(?%%%.2f) %d msec",
-                mMinMax.maxVal * 100, target.getWantedScore() * 100, new Date().getTime() - begin_t);
+                mMinMax.maxVal * 100, target.getWantedScore() * 100, (System.nanoTime() - begin_t) / 1000000);
       }
       if (mMinMax.maxVal > target.getWantedScore()) {
-        findResult = new FindResult(mResult, target);
+        findResult = new MatchIterator(mResult, target);
       }
     }
     log.trace("doFind: end");
     return findResult;
   }
 
-  private Mat doFindMatch(Element target, Mat mBase, Element probe) {
-    if (SX.isNull(probe)) {
-      probe = target;
+  private void recordPhase(Metrics.Phase phase, Element target, long begin) {
+    if (SXTrace.isActive()) {
+      SXTrace.record(phase.toString().toLowerCase(), "find", begin, target.getName());
     }
-    Mat mResult = Element.getNewMat();
-    Mat mProbe = probe.getContentBGR();
+    if (Metrics.isEnabled()) {
+      Metrics.recordNanos(phase, SX.isNull(base) ? null : base.getDeviceName(), target.getName(),
+              System.nanoTime() - begin);
+    }
+  }
+
+  private Mat doFindMatch(Element target, Mat mBase) {
+    return doFindMatch(target, mBase, target.getContentBGR(), target.hasMask() ? target.getMask() : null);
+  }
+
+  /**
+   * the probe is given as plain Mats (no Element), so the Mats of the current MatScope are not retained
+   *
+   * @param mProbeMask null if none
+   */
+  private Mat doFindMatch(Element target, Mat mBase, Mat mProbe, Mat mProbeMask) {
+    Mat mResult = MatScope.tracked(Element.getNewMat());
     if (!target.isPlainColor()) {
-      if (probe.hasMask()) {
-        Mat mMask = matMulti(probe.getMask(), mProbe.channels());
+      if (SX.isNotNull(mProbeMask)) {
+        Mat mMask = matMulti(mProbeMask, mProbe.channels());
         Imgproc.matchTemplate(mBase, mProbe, mResult, Imgproc.TM_CCORR_NORMED, mMask);
       } else {
         Imgproc.matchTemplate(mBase, mProbe, mResult, Imgproc.TM_CCOEFF_NORMED);
@@ -200,16 +358,18 @@ public class Finder {
       Mat mBasePlain = mBase;
       Mat mProbePlain = mProbe;
       if (target.isBlack()) {
+        mBasePlain = MatScope.tracked(Element.getNewMat());
+        mProbePlain = MatScope.tracked(Element.getNewMat());
         Core.bitwise_not(mBase, mBasePlain);
         Core.bitwise_not(mProbe, mProbePlain);
       }
-      if (probe.hasMask()) {
-        Mat mMask = matMulti(probe.getMask(), mProbe.channels());
+      if (SX.isNotNull(mProbeMask)) {
+        Mat mMask = matMulti(mProbeMask, mProbe.channels());
         Imgproc.matchTemplate(mBasePlain, mProbePlain, mResult, Imgproc.TM_SQDIFF_NORMED, mMask);
       } else {
         Imgproc.matchTemplate(mBasePlain, mProbePlain, mResult, Imgproc.TM_SQDIFF_NORMED);
       }
-      Core.subtract(Mat.ones(mResult.size(), CvType.CV_32F), mResult, mResult);
+      Core.subtract(MatScope.tracked(Mat.ones(mResult.size(), CvType.CV_32F)), mResult, mResult);
     }
     return mResult;
   }
@@ -222,24 +382,25 @@ public class Finder {
     for (int n = 0; n < channels; n++) {
       listMat.add(mat);
     }
-    Mat mResult = Element.getNewMat();
+    Mat mResult = MatScope.tracked(Element.getNewMat());
     Core.merge(listMat, mResult);
     return mResult;
   }
 
-  private static class FindResult implements Iterator<Element> {
-
-    private static final SXLog log = SX.getSXLog("SX.FindResult");
+  private static class MatchIterator implements Iterator<Element> {
 
-    private FindResult() {
+    private MatchIterator() {
     }
 
-    public FindResult(Mat result, Element target) {
-      this.result = result;
+    /**
+     * the result Mat is handed over from the current MatScope (see release())
+     */
+    public MatchIterator(Mat result, Element target) {
+      this.result = MatScope.keep(result);
       this.target = target;
     }
 
-    public FindResult(Mat result, Element target, int[] off) {
+    public MatchIterator(Mat result, Element target, int[] off) {
       this(result, target);
       offX = off[0];
       offY = off[1];
@@ -336,6 +497,13 @@ public class Finder {
       return Math.sqrt(stdDev / doubles.size());
     }
 
+    /**
+     * let go the result Mat (no more matches available)
+     */
+    public void release() {
+      MatScope.release(result);
+    }
+
     @Override
     public void remove() {
     }
@@ -344,13 +512,33 @@ public class Finder {
 
   //<editor-fold desc="find extended">
   public List<Element> findAny(List<Picture> targets) {
-    base.resetMatches();
-    int targetCount = 0;
+    MatchSet matchSet = searchAny(targets);
+    base.setLastMatchSet(matchSet);
     if (SX.isNull(targets)) {
       return null;
+    }
+    return base.getLastMatches();
+  }
+
+  /**
+   * find the given targets in parallel in the base element<br>
+   * the base element's last match state is not touched (see findAny())
+   *
+   * @param targets what to find
+   * @return one entry per target in the given order (match index set, invalid Element if not found)
+   */
+  public MatchSet searchAny(List<Picture> targets) {
+    int targetCount = 0;
+    if (SX.isNull(targets)) {
+      return MatchSet.of(null, null, null);
     } else {
       targetCount = targets.size();
     }
+    for (Picture target : targets) {
+      if (isFeatureTarget(target)) {
+        FeatureFinder.getFrameFeatures(mBase, target.getFeatureMatching()).release();
+      }
+    }
     List<Element> matches = new ArrayList<>();
     SubFindRun[] theSubs = new SubFindRun[targetCount];
     int nobj = 0;
@@ -385,8 +573,7 @@ public class Finder {
       }
       nobj++;
     }
-    base.setLastMatches(matches);
-    return matches;
+    return MatchSet.of(null, matches, null);
   }
 
   private class SubFindRun implements Runnable {
@@ -405,11 +592,24 @@ public class Finder {
     @Override
     public void run() {
       Element match = new Element();
-      FindResult findResult = doFind(target, FindType.ONE);
-      if (SX.isNotNull(findResult) && findResult.hasNext()) {
-        match = findResult.next();
+      MatchIterator matchIterator = null;
+      if (isFeatureTarget(target)) {
+        Element featureMatch = doFindFeatures(target);
+        if (SX.isNotNull(featureMatch)) {
+          match = featureMatch;
+        }
+      } else {
+        matchIterator = doFindScaled(target, FindType.ONE);
+      }
+      if (SX.isNotNull(matchIterator)) {
+        if (matchIterator.hasNext()) {
+          match = onBaseDevice(matchIterator.next());
+        }
+        matchIterator.release();
+      }
+      synchronized (matches) {
+        matches.set(subN, match);
       }
-      matches.set(subN, match);
       log.trace("SubFindRun: %d finished", subN);
       hasFinished(true);
     }
@@ -470,6 +670,9 @@ public class Finder {
     Imgproc.blur(mSourceGray, mDetectedEdges, new Size(blurFilterSize, blurFilterSize));
     Imgproc.Canny(mDetectedEdges, mDetectedEdges,
             lowThreshold, lowThreshold * ratio, kernelSize, false);
+    if (mSourceGray != mSource) {
+      mSourceGray.release();
+    }
     return mDetectedEdges;
   }
   //</editor-fold>
@@ -492,35 +695,41 @@ public class Finder {
   public static List<Element> detectChanges(Mat base, Mat mChanged) {
     int PIXEL_DIFF_THRESHOLD = 3;
     int IMAGE_DIFF_THRESHOLD = 5;
-    Mat mBaseGray = Element.getNewMat();
-    Mat mChangedGray = Element.getNewMat();
-    Mat mDiffAbs = Element.getNewMat();
-    Mat mDiffTresh = Element.getNewMat();
-    Mat mChanges = Element.getNewMat();
     List<Element> rectangles = new ArrayList<>();
-
-    Imgproc.cvtColor(base, mBaseGray, toGray);
-    Imgproc.cvtColor(mChanged, mChangedGray, toGray);
-    Core.absdiff(mBaseGray, mChangedGray, mDiffAbs);
-    Imgproc.threshold(mDiffAbs, mDiffTresh, PIXEL_DIFF_THRESHOLD, 0.0, Imgproc.THRESH_TOZERO);
-    if (Core.countNonZero(mDiffTresh) > IMAGE_DIFF_THRESHOLD) {
-      Imgproc.threshold(mDiffAbs, mDiffAbs, PIXEL_DIFF_THRESHOLD, 255, Imgproc.THRESH_BINARY);
-      Imgproc.dilate(mDiffAbs, mDiffAbs, Element.getNewMat());
-      Mat se = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5));
-      Imgproc.morphologyEx(mDiffAbs, mDiffAbs, Imgproc.MORPH_CLOSE, se);
-
-      List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
-      Mat mHierarchy = Element.getNewMat();
-      Imgproc.findContours(mDiffAbs, contours, mHierarchy, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
-      rectangles = contoursToRectangle(contours);
-
-      Core.subtract(mDiffAbs, mDiffAbs, mChanges);
-      Imgproc.drawContours(mChanges, contours, -1, new Scalar(255));
-      //logShow(mDiffAbs);
+    try (MatScope scope = MatScope.open("changes")) {
+      Mat mBaseGray = scope.newMat();
+      Mat mChangedGray = scope.newMat();
+      Mat mDiffAbs = scope.newMat();
+      Mat mDiffTresh = scope.newMat();
+      Mat mChanges = scope.newMat();
+
+      Imgproc.cvtColor(base, mBaseGray, toGray);
+      Imgproc.cvtColor(mChanged, mChangedGray, toGray);
+      Core.absdiff(mBaseGray, mChangedGray, mDiffAbs);
+      Imgproc.threshold(mDiffAbs, mDiffTresh, PIXEL_DIFF_THRESHOLD, 0.0, Imgproc.THRESH_TOZERO);
+      if (Core.countNonZero(mDiffTresh) > IMAGE_DIFF_THRESHOLD) {
+        Imgproc.threshold(mDiffAbs, mDiffAbs, PIXEL_DIFF_THRESHOLD, 255, Imgproc.THRESH_BINARY);
+        Imgproc.dilate(mDiffAbs, mDiffAbs, scope.newMat());
+        Mat se = scope.track(Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(5, 5)));
+        Imgproc.morphologyEx(mDiffAbs, mDiffAbs, Imgproc.MORPH_CLOSE, se);
+
+        List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
+        Mat mHierarchy = scope.newMat();
+        Imgproc.findContours(mDiffAbs, contours, mHierarchy, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+        scope.trackAll(contours);
+        rectangles = contoursToRectangle(contours);
+
+        Core.subtract(mDiffAbs, mDiffAbs, mChanges);
+        Imgproc.drawContours(mChanges, contours, -1, new Scalar(255));
+        //logShow(mDiffAbs);
+      }
     }
     return rectangles;
   }
 
+  /**
+   * @return the contours (tracked in the current MatScope if any)
+   */
   public static List<MatOfPoint> getContours(Mat mBase, boolean external) {
     Mat mHierarchy = Element.getNewMat();
     List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
@@ -529,7 +738,9 @@ public class Finder {
     } else {
       Imgproc.findContours(mBase, contours, mHierarchy, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
     }
-    return contours;
+    mHierarchy.release();
+    MatScope scope = MatScope.current();
+    return SX.isNull(scope) ? contours : scope.trackAll(contours);
   }
 
   public static List<MatOfPoint> getContours(Mat mBase) {
@@ -548,6 +759,7 @@ public class Finder {
     Mat mWork = new Mat();
     Imgproc.cvtColor(mBase, mWork, toGray);
     Imgproc.cvtColor(mWork, mResult, toColor);
+    mWork.release();
     Imgproc.drawContours(mResult, contours, -1, new Scalar(0, 0, 255));
     return mResult;
   }
@@ -582,12 +794,14 @@ public class Finder {
   }
 
   public static List<Element> getElements(Picture picture, boolean external) {
-    Mat mEdges = detectEdges(picture);
-    List<MatOfPoint> contours = getContours(mEdges, external);
-    Mat mResult = drawContours(contours, mEdges);
-    Imgproc.dilate(mResult, mResult, Element.getNewMat());
-    Imgproc.dilate(mResult, mResult, Element.getNewMat());
-    return contoursToRectangle(getContours(mResult, external));
+    try (MatScope scope = MatScope.open("elements")) {
+      Mat mEdges = scope.track(detectEdges(picture));
+      List<MatOfPoint> contours = getContours(mEdges, external);
+      Mat mResult = scope.track(drawContours(contours, mEdges));
+      Imgproc.dilate(mResult, mResult, scope.newMat());
+      Imgproc.dilate(mResult, mResult, scope.newMat());
+      return contoursToRectangle(getContours(mResult, external));
+    }
   }
 
   public static List<MatOfPoint> getElement(Picture picture) {
@@ -738,17 +952,21 @@ public class Finder {
     Element match = new Element();
     PossibleMatch possibleMatch = new PossibleMatch();
     boolean shouldRepeat = true;
+    FindPlan plan = FindPlan.compile(possibleMatch.getType(), args);
     while (shouldRepeat) {
-      Element where = possibleMatch.get(args);
+      Element where = possibleMatch.execute(plan);
       if (possibleMatch.isImageMissingWhat() || possibleMatch.isImageMissingWhere()) {
         match = possibleMatch.getWhat();
         if (possibleMatch.isImageMissingWhere()) {
           match = possibleMatch.getWhere();
         }
         shouldRepeat = Picture.handleImageMissing(type, possibleMatch);
+        if (shouldRepeat) {
+          plan = FindPlan.compile(possibleMatch.getType(), args);
+        }
       } else {
-        if (where.hasMatch()) {
-          match = where.getLastMatch();
+        if (possibleMatch.hasMatch()) {
+          match = possibleMatch.getMatchSet().getMatch();
           shouldRepeat = false;
         } else {
           match = possibleMatch.getWhat();
@@ -771,23 +989,27 @@ public class Finder {
     }
     Element match = new Element();
     boolean shouldRepeat = true;
+    FindPlan plan = FindPlan.compile(possibleMatch.getType(), args);
     while (shouldRepeat) {
-      Element where = possibleMatch.get(args);
+      Element where = possibleMatch.execute(plan);
       if (!where.isValid()) {
         return where;
       }
       if (possibleMatch.isImageMissingWhat() || possibleMatch.isImageMissingWhere()) {
         shouldRepeat = Picture.handleImageMissing(type, possibleMatch);
+        if (shouldRepeat) {
+          plan = FindPlan.compile(possibleMatch.getType(), args);
+        }
       } else {
-        if (where.hasMatch()) {
-          match = where.getLastMatch();
+        if (possibleMatch.hasMatch()) {
+          match = possibleMatch.getMatchSet().getMatch();
           shouldRepeat = false;
         } else {
           while (possibleMatch.shouldWait()) {
             log.trace("wait: need to repeat");
             possibleMatch.repeat();
-            if (where.hasMatch()) {
-              match = where.getLastMatch();
+            if (possibleMatch.hasMatch()) {
+              match = possibleMatch.getMatchSet().getMatch();
               shouldRepeat = false;
               break;
             }
@@ -806,20 +1028,23 @@ public class Finder {
     PossibleMatch possibleMatch = new PossibleMatch();
     boolean shouldRepeat = true;
     boolean vanished = false;
+    FindPlan plan = FindPlan.compile(possibleMatch.getType(), args);
     while (shouldRepeat) {
-      Element where = possibleMatch.get(args);
+      Element where = possibleMatch.execute(plan);
       if (possibleMatch.isImageMissingWhat() || possibleMatch.isImageMissingWhere()) {
         shouldRepeat = Picture.handleImageMissing(VANISH, possibleMatch);
+        if (shouldRepeat) {
+          plan = FindPlan.compile(possibleMatch.getType(), args);
+        }
       } else {
-        where.setLastVanish(null);
-        if (where.hasMatch()) {
-          Element match = where.getLastMatch();
+        if (possibleMatch.hasMatch()) {
+          Element match = possibleMatch.getMatchSet().getMatch();
           where.setLastVanish(match);
           while (!vanished && possibleMatch.shouldWait()) {
             log.trace("wait: need to repeat");
             possibleMatch.repeat();
-            if (where.hasMatch()) {
-              match = where.getLastMatch();
+            if (possibleMatch.hasMatch()) {
+              match = possibleMatch.getMatchSet().getMatch();
               where.setLastVanish(match);
             } else {
               vanished = true;
@@ -838,13 +1063,17 @@ public class Finder {
     PossibleMatch possibleMatch = new PossibleMatch(PossibleMatch.Type.ALL);
     boolean shouldRepeat = true;
     List<Element> matches = new ArrayList<>();
+    FindPlan plan = FindPlan.compile(possibleMatch.getType(), args);
     while (shouldRepeat) {
-      Element where = possibleMatch.get(args);
+      Element where = possibleMatch.execute(plan);
       if (possibleMatch.isImageMissingWhat() || possibleMatch.isImageMissingWhere()) {
         shouldRepeat = Picture.handleImageMissing(ALL, possibleMatch);
+        if (shouldRepeat) {
+          plan = FindPlan.compile(possibleMatch.getType(), args);
+        }
       } else {
-        if (where.hasMatches()) {
-          matches = where.getLastMatches();
+        if (possibleMatch.hasMatches()) {
+          matches = new ArrayList<>(possibleMatch.getMatchSet().getMatches());
           shouldRepeat = false;
         } else {
           shouldRepeat = Picture.handleFindFailed(ALL, possibleMatch);
@@ -871,13 +1100,17 @@ public class Finder {
     PossibleMatch possibleMatch = new PossibleMatch(PossibleMatch.Type.ANY);
     boolean shouldRepeat = true;
     List<Element> matches = new ArrayList<>();
+    FindPlan plan = FindPlan.compile(possibleMatch.getType(), args);
     while (shouldRepeat) {
-      Element where = possibleMatch.get(args);
+      Element where = possibleMatch.execute(plan);
       if (possibleMatch.isImageMissingWhat() || possibleMatch.isImageMissingWhere()) {
         shouldRepeat = Picture.handleImageMissing(type, possibleMatch);
+        if (shouldRepeat) {
+          plan = FindPlan.compile(possibleMatch.getType(), args);
+        }
       } else {
-        if (where.hasMatches()) {
-          matches = where.getLastMatches();
+        if (possibleMatch.hasMatches()) {
+          matches = new ArrayList<>(possibleMatch.getMatchSet().getMatches());
           if (BEST.equals(type)) {
             if (matches.size() > 1) {
               Collections.sort(matches, new Comparator<Element>() {
@@ -907,10 +1140,193 @@ public class Finder {
   }
 //</editor-fold>
 
+  //<editor-fold desc="runFindAsync, WaitAsync, WaitVanishAsync, anyOf">
+  private static ScheduledExecutorService asyncScheduler = null;
+
+  private static synchronized ScheduledExecutorService getAsyncScheduler() {
+    if (SX.isNull(asyncScheduler)) {
+      final AtomicInteger threadCount = new AtomicInteger(0);
+      int poolSize = Math.max(2, Runtime.getRuntime().availableProcessors());
+      asyncScheduler = Executors.newScheduledThreadPool(poolSize, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "SX.FinderAsync-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      log.trace("getAsyncScheduler: started with %d threads", poolSize);
+    }
+    return asyncScheduler;
+  }
+
+  static synchronized long getAsyncQueueSize() {
+    return SX.isNull(asyncScheduler) ? 0 : ((ThreadPoolExecutor) asyncScheduler).getQueue().size();
+  }
+
+  static synchronized long getAsyncActiveCount() {
+    return SX.isNull(asyncScheduler) ? 0 : ((ThreadPoolExecutor) asyncScheduler).getActiveCount();
+  }
+
+  /**
+   * cancels all pending async finds and stops the scheduler (recreated with the next async find)
+   */
+  public static synchronized void stopAsync() {
+    if (SX.isNotNull(asyncScheduler)) {
+      asyncScheduler.shutdownNow();
+      asyncScheduler = null;
+    }
+  }
+
+  /**
+   * like runFind, but the search is done on the shared scheduler<br>
+   * the future completes with the match or with an invalid Element if not found
+   * (FindFailed/ImageMissing handlers are not used)
+   *
+   * @param args same as runFind
+   * @return the future match
+   */
+  public static CompletableFuture<Element> runFindAsync(Object... args) {
+    return new AsyncFind(PossibleMatch.Type.FIND, AsyncFind.Mode.FIND, args).start();
+  }
+
+  /**
+   * like runWait, but the repeated searches are scheduled on the shared scheduler,
+   * so no thread is blocked while waiting<br>
+   * the future completes with the match or with an invalid Element at timeout
+   *
+   * @param args same as runWait
+   * @return the future match
+   */
+  public static CompletableFuture<Element> runWaitAsync(Object... args) {
+    return new AsyncFind(PossibleMatch.Type.WAIT, AsyncFind.Mode.WAIT, args).start();
+  }
+
+  /**
+   * like runWaitVanish, but scheduled on the shared scheduler<br>
+   * the future completes with the last match seen before it vanished
+   * or with an invalid Element, if it did not vanish in time (or was not there)
+   *
+   * @param args same as runWaitVanish
+   * @return the future vanished match
+   */
+  public static CompletableFuture<Element> runWaitVanishAsync(Object... args) {
+    return new AsyncFind(PossibleMatch.Type.WAIT, AsyncFind.Mode.VANISH, args).start();
+  }
+
+  /**
+   * completes with the first valid match of the given futures (the others are cancelled)
+   * or with an invalid Element, if none of them produces a match
+   *
+   * @param futures as returned by runFindAsync, ...
+   * @return the future match
+   */
+  public static CompletableFuture<Element> anyOf(final List<CompletableFuture<Element>> futures) {
+    final CompletableFuture<Element> any = new CompletableFuture<>();
+    if (SX.isNull(futures) || futures.isEmpty()) {
+      any.complete(new Element());
+      return any;
+    }
+    final AtomicInteger pending = new AtomicInteger(futures.size());
+    for (CompletableFuture<Element> future : futures) {
+      future.whenComplete((match, error) -> {
+        if (SX.isNotNull(match) && match.isMatch()) {
+          any.complete(match);
+        } else if (pending.decrementAndGet() == 0) {
+          any.complete(new Element());
+        }
+      });
+    }
+    any.whenComplete((match, error) -> {
+      for (CompletableFuture<Element> future : futures) {
+        future.cancel(false);
+      }
+    });
+    return any;
+  }
+
+  private static class AsyncFind implements Runnable {
+
+    enum Mode {FIND, WAIT, VANISH}
+
+    private final CompletableFuture<Element> future = new CompletableFuture<>();
+    private final PossibleMatch possibleMatch;
+    private final Mode mode;
+    private final Object[] args;
+    private boolean started = false;
+    private Element lastSeen = null;
+    private ScheduledFuture<?> scheduled = null;
+
+    AsyncFind(PossibleMatch.Type type, Mode mode, Object[] args) {
+      possibleMatch = new PossibleMatch(type);
+      this.mode = mode;
+      this.args = args;
+      future.whenComplete((match, error) -> unschedule());
+    }
+
+    CompletableFuture<Element> start() {
+      schedule(0);
+      return future;
+    }
+
+    private synchronized void schedule(long delay) {
+      if (!future.isDone()) {
+        scheduled = getAsyncScheduler().schedule(this, delay, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private synchronized void unschedule() {
+      if (SX.isNotNull(scheduled)) {
+        scheduled.cancel(false);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (future.isDone()) {
+        return;
+      }
+      try {
+        if (!started) {
+          started = true;
+          possibleMatch.get(args);
+          if (possibleMatch.isImageMissingWhat() || possibleMatch.isImageMissingWhere()) {
+            log.error("AsyncFind: image missing: %s", possibleMatch);
+            future.complete(new Element());
+            return;
+          }
+        } else {
+          possibleMatch.repeat();
+        }
+        Element match = possibleMatch.getMatchSet().getMatch();
+        if (Mode.VANISH.equals(mode)) {
+          if (SX.isNotNull(match)) {
+            lastSeen = match;
+            possibleMatch.getWhere().setLastVanish(match);
+          } else {
+            future.complete(SX.isNull(lastSeen) ? new Element() : lastSeen);
+            return;
+          }
+        } else if (SX.isNotNull(match)) {
+          future.complete(match);
+          return;
+        }
+        if (!Mode.FIND.equals(mode) && possibleMatch.shouldWait()) {
+          schedule(possibleMatch.getRepeatDelay());
+        } else {
+          future.complete(new Element());
+        }
+      } catch (Exception ex) {
+        future.completeExceptionally(ex);
+      }
+    }
+  }
+  //</editor-fold>
+
   //<editor-fold desc="PossibleMatch">
   public static class PossibleMatch {
+    FindPlan plan = null;
     Element what = null;
-    List<Object> whatsGiven = new ArrayList<>();
     List<Picture> whats = new ArrayList<>();
 
     public Element getWhat() {
@@ -923,6 +1339,10 @@ public class Finder {
       return where;
     }
 
+    public FindPlan getPlan() {
+      return plan;
+    }
+
     int waitTime = -1;
     Element target = new Element();
 
@@ -932,11 +1352,45 @@ public class Finder {
 
     Type type = Type.FIND;
 
+    public Type getType() {
+      return type;
+    }
+
     Finder finder = null;
+    MatchSet matchSet = MatchSet.EMPTY;
+
+    /**
+     * @return the result of the latest search done by this PossibleMatch
+     */
+    public MatchSet getMatchSet() {
+      return matchSet;
+    }
+
+    public boolean hasMatch() {
+      return matchSet.hasMatch();
+    }
+
+    public boolean hasMatches() {
+      return matchSet.hasMatches();
+    }
+
+    private void search() {
+      if (Type.FIND.equals(type) || Type.WAIT.equals(type)) {
+        matchSet = finder.search(what);
+      } else if (Type.ALL.equals(type)) {
+        matchSet = finder.searchAll(what);
+      } else if (Type.ANY.equals(type)) {
+        matchSet = finder.searchAny(whats);
+      } else {
+        return;
+      }
+      where.setLastMatchSet(matchSet);
+    }
+
     long startTime = new Date().getTime();
     long endTime = startTime;
     long lastRepeatTime = 0;
-    long repeatPause = (long) (1000 / SX.getOptionNumber("Settings.WaitScanRate", 3));
+    long repeatPause = SX.getOptionsSnapshot().waitRepeatPause;
 
     public double getScanRate() {
       return scanRate;
@@ -949,10 +1403,13 @@ public class Finder {
     public void setScanRate(double scanRate) {
       this.scanRate = scanRate;
       if (scanRate < 0) {
-        if ("OBSERVE".equals(type)) {
-          repeatPause = (long) (1000 / SX.getOptionNumber("Settings.ObserveScanRate", 3));
-        } else
-          repeatPause = (long) (1000 / SX.getOptionNumber("Settings.WaitScanRate", 3));
+        if (Type.OBSERVE.equals(type)) {
+          repeatPause = SX.getOptionsSnapshot().observeRepeatPause;
+        } else {
+          repeatPause = SX.getOptionsSnapshot().waitRepeatPause;
+        }
+      } else if (scanRate > 0) {
+        repeatPause = (long) (1000 / scanRate);
       }
     }
 
@@ -990,128 +1447,66 @@ public class Finder {
     }
 
     public Element get(Object... args) {
-      Object args0, args1;
-      boolean isListWhat = false;
-      if (args.length > 0 ) {
-        if (args[0] instanceof ScriptObjectMirror) {
-          ScriptObjectMirror arguments = (ScriptObjectMirror) args[0];
-          args = new Object[arguments.size()];
-          for (Integer n = 0; n < arguments.size(); n++) {
-            args[n] = arguments.get(n.toString());
-          }
-        }
+      return execute(FindPlan.compile(type, args));
+    }
+
+    /**
+     * evaluate the plan once: capture where if on screen and search
+     *
+     * @param plan as compiled before
+     * @return where, if there was something to search (invalid Element otherwise)
+     */
+    public Element execute(FindPlan plan) {
+      this.plan = plan;
+      what = plan.getWhat();
+      whats = plan.getWhats();
+      where = plan.getWhere();
+      imageMissingWhat = plan.isImageMissingWhat();
+      imageMissingWhere = plan.isImageMissingWhere();
+      waitTime = plan.getWaitTime();
+      matchSet = MatchSet.EMPTY;
+      target = new Element();
+      if (plan.isPause()) {
+        SX.pause(plan.getPause());
+        return target;
       }
-      String form = "EvaluateTarget: ";
-      for (Object arg : args) {
-        form += "%s, ";
+      if (SX.isNull(what) || imageMissingWhat || imageMissingWhere) {
+        return target;
       }
-      log.trace(form, args);
-      if (args.length > 0 && SX.isNotNull(args[0])) {
-        args0 = args[0];
-        if (Type.ANY.equals(type)) {
-          if (whatsGiven.getClass().isAssignableFrom(args0.getClass())) {
-            isListWhat = true;
-            what = new Element();
-            for (Object anyWhat : (List<Object>) args0) {
-              if (anyWhat instanceof Picture) {
-                whats.add((Picture) anyWhat);
-              } else if (anyWhat instanceof String) {
-                whats.add(new Picture((String) anyWhat));
-              } else {
-                whats.add(null);
-              }
-            }
-          } else {
-            //TODO implement args as Object... args for whatsGiven
-            log.error("EvaluateTarget: type %s: args0 invalid: %s", type, args0);
-          }
-        } else {
-          if (args0 instanceof String) {
-            what = new Picture((String) args0);
-            if (!what.isValid()) {
-              imageMissingWhat = true;
-            }
-          } else if (args0 instanceof Element) {
-            what = (Element) args0;
-          } else {
-            if (Type.WAIT.equals(type)) {
-              if (args0 instanceof Float || args0 instanceof Double) {
-                SX.pause((Double) args0);
-                return new Element();
-              }
-            }
-            log.error("EvaluateTarget: args0 (what) invalid: %s", args0);
-            what = new Element();
-          }
-        }
-        if (SX.isNotNull(what) && args.length > 1 && !imageMissingWhat) {
-          args1 = args[1];
-          if (args1 instanceof String) {
-            where = new Picture((String) args1);
-            if (!where.isValid()) {
-              imageMissingWhere = true;
-            }
-          } else if (args1 instanceof Element) {
-            where = (Element) args1;
-          } else if (SX.isNull(args1)) {
-            where = null;
-          } else if (args1 instanceof Double) {
-            waitTime = (int) (1000 * (Double) args1);
-          } else if (args1 instanceof Integer) {
-            waitTime = 1000 * (Integer) args1;
-          } else {
-            log.error("EvaluateTarget: args1 (where) invalid: %s", args1);
-          }
-          if (args.length > 2) {
-            Object args2 = args[2];
-            if (args2 instanceof Double) {
-              waitTime = (int) (1000 * (Double) args2);
-            } else if (args2 instanceof Integer) {
-              waitTime = 1000 * (Integer) args2;
-            } else {
-              log.error("EvaluateTarget: args2 (waitTime) invalid: %s", args2);
-            }
-          }
+      if (!plan.isValid()) {
+        target = what;
+        return target;
+      }
+      if (where.isOnScreen()) {
+        where.capture();
+      }
+      finder = plan.getFinder();
+      where.setLastTarget(null);
+      if (finder.isValid()) {
+        where.setLastTarget(what);
+        target = where;
+        startTime = new Date().getTime();
+        if (waitTime < 0) {
+          waitTime = (int) (1000 * Math.max(where.getWaitForMatch(), what.getWaitForThis()));
         }
-        if (SX.isNotNull(what) && !imageMissingWhat && !imageMissingWhere) {
-          if (what.isTarget() || isListWhat) {
-            if (SX.isNull(where)) {
-              where = Do.on();
-            }
-            if (where.isOnScreen()) {
-              where.capture();
-            }
-            finder = new Finder(where);
-            where.setLastTarget(null);
-            if (finder.isValid()) {
-              where.setLastTarget(what);
-              target = where;
-              if (waitTime < 0) {
-                waitTime = (int) (1000 * Math.max(where.getWaitForMatch(), what.getWaitForThis()));
-              }
-              endTime = startTime + waitTime;
-              if (Type.FIND.equals(type) || Type.WAIT.equals(type)) {
-                lastRepeatTime = new Date().getTime();
-                finder.find(what);
-              } else if (Type.ALL.equals(type)) {
-                finder.findAll(what);
-              } else if (Type.ANY.equals(type)) {
-                finder.findAny(whats);
-              }
-            }
-          } else {
-            target = what;
-          }
+        endTime = startTime + waitTime;
+        if (Type.FIND.equals(type) || Type.WAIT.equals(type)) {
+          lastRepeatTime = new Date().getTime();
         }
-      } else {
-        log.error("EvaluateTarget: args invalid: no args or args0 (what) null");
+        search();
       }
       return target;
     }
 
+    /**
+     * @return milliseconds until the next repeat is due according to the scan rate
+     */
+    public long getRepeatDelay() {
+      return Math.max(0, lastRepeatTime + repeatPause - new Date().getTime());
+    }
+
     public void repeat() {
-      long now = new Date().getTime();
-      long repeatDelay = lastRepeatTime + repeatPause - now;
+      long repeatDelay = getRepeatDelay();
       if (repeatDelay > 0) {
         try {
           Thread.sleep(repeatDelay);
@@ -1125,12 +1520,10 @@ public class Finder {
           where.capture();
           finder.refreshBase();
         }
-        if (Type.FIND.equals(type) || Type.WAIT.equals(type)) {
-          finder.find(what);
-        } else if (Type.ALL.equals(type)) {
-          finder.findAll(what);
+        if (!Type.ANY.equals(type)) {
+          search();
         }
-        if (where.hasMatch() || where.hasMatches()) {
+        if (matchSet.hasMatch() || matchSet.hasMatches()) {
           long waitedFor = new Date().getTime() - startTime;
           what.setLastWaitForThis(waitedFor);
           where.setLastWaitForMatch(waitedFor);
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.core;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the decoded content of image files, so an image used repeatedly (e.g. Do.find("button")) is read only once
+ * (a changed file - last modified - is read again)<br>
+ * least recently used images are dropped above ImageCache.MaxMB (option, default 64, 0 = no caching),
+ * or when the soft limit of imagecache.bytes or mat.live.bytes is exceeded (see Resources)<br>
+ * the returned Mat is shared: it must not be changed (clone it first)<br>
+ * it is retained for the caller (taken inside the cache's lock, so a concurrent eviction can not free it):
+ * the caller adopts this hold and has to release() it (e.g. after Element.setContent() took its own)
+ */
+public class ImageCache {
+
+  private static final SXLog log = SX.getSXLog("SX.ImageCache");
+
+  private static class Entry {
+    final Mat mat;
+    final long modified;
+    final long bytes;
+
+    Entry(Mat mat, long modified) {
+      this.mat = mat;
+      this.modified = modified;
+      this.bytes = MatScope.bytes(mat);
+    }
+  }
+
+  private static final Map<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+  private static long bytes = 0;
+  private static long maxBytes = -1;
+  private static final LongAdder hits = new LongAdder();
+  private static final LongAdder misses = new LongAdder();
+  private static final LongAdder evictions = new LongAdder();
+
+  /**
+   * @param file an image file
+   * @return the content (IMREAD_UNCHANGED, empty if not readable), retained for the caller
+   */
+  public static Mat load(File file) {
+    String key = file.getAbsolutePath();
+    long modified = file.lastModified();
+    synchronized (ImageCache.class) {
+      Entry entry = entries.get(key);
+      if (SX.isNotNull(entry)) {
+        if (entry.modified == modified) {
+          hits.increment();
+          return MatScope.retain(entry.mat, "imagecache");
+        }
+        remove(key);
+      }
+    }
+    misses.increment();
+    SX.loadNative(SX.NATIVES.OPENCV);
+    Mat mat = MatScope.retain(Imgcodecs.imread(key, Imgcodecs.IMREAD_UNCHANGED), "imagecache");
+    if (mat.empty() || getMaxBytes() == 0) {
+      return mat;
+    }
+    synchronized (ImageCache.class) {
+      if (!entries.containsKey(key)) {
+        Entry entry = new Entry(MatScope.retain(mat, "imagecache"), modified);
+        entries.put(key, entry);
+        bytes += entry.bytes;
+        if (bytes > getMaxBytes()) {
+          evict(bytes - getMaxBytes());
+        }
+      }
+    }
+    Resources.checkLimits();
+    return mat;
+  }
+
+  private static synchronized long getMaxBytes() {
+    if (maxBytes < 0) {
+      double megaBytes = 64;
+      if (SX.hasOptions()) {
+        try {
+          megaBytes = SX.getOptionNumber("ImageCache.MaxMB", megaBytes);
+        } catch (Exception ex) {
+          log.error("ImageCache.MaxMB: not a number: %s", SX.getOption("ImageCache.MaxMB"));
+        }
+      }
+      maxBytes = (long) (Math.max(0, megaBytes) * 1024 * 1024);
+    }
+    return maxBytes;
+  }
+
+  /**
+   * @param megaBytes 0 switches off caching (the cache is cleared)
+   */
+  public static synchronized void setMaxMB(double megaBytes) {
+    maxBytes = (long) (Math.max(0, megaBytes) * 1024 * 1024);
+    if (bytes > maxBytes) {
+      evict(bytes - maxBytes);
+    }
+  }
+
+  /**
+   * drop least recently used images (their content is released, if not used by an Element)
+   *
+   * @param amount bytes to be freed at least
+   * @return bytes freed
+   */
+  public static synchronized long evict(long amount) {
+    long freed = 0;
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (freed < amount && iterator.hasNext()) {
+      Entry entry = iterator.next().getValue();
+      iterator.remove();
+      bytes -= entry.bytes;
+      freed += entry.bytes;
+      evictions.increment();
+      MatScope.release(entry.mat);
+    }
+    if (freed > 0) {
+      log.trace("evict: %d KB (%d images left)", freed / 1024, entries.size());
+    }
+    return freed;
+  }
+
+  private static void remove(String key) {
+    Entry entry = entries.remove(key);
+    if (SX.isNotNull(entry)) {
+      bytes -= entry.bytes;
+      MatScope.release(entry.mat);
+    }
+  }
+
+  public static synchronized void clear() {
+    evict(Long.MAX_VALUE);
+  }
+
+  public static synchronized long getSize() {
+    return entries.size();
+  }
+
+  public static synchronized long getBytes() {
+    return bytes;
+  }
+
+  public static long getHits() {
+    return hits.sum();
+  }
+
+  public static long getMisses() {
+    return misses.sum();
+  }
+
+  public static long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return hits / (hits + misses) - 0 if nothing was loaded yet
+   */
+  public static double getHitRate() {
+    long hitCount = hits.sum();
+    long total = hitCount + misses.sum();
+    return total == 0 ? 0 : ((double) hitCount) / total;
+  }
+}
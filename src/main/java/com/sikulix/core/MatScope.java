@@ -0,0 +1,410 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.core;
+
+import org.opencv.core.Mat;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * deterministic release of the native memory of OpenCV Mats
+ * (otherwise freed only when the garbage collector finalizes the Java object)
+ * <p>
+ * scopes (try-with-resources, per thread, nestable): Mats tracked in a scope are released when it is closed,
+ * except those handed over with keep()<br>
+ * <pre>
+ * try (MatScope scope = MatScope.open("finder")) {
+ *   Mat mGray = scope.newMat();
+ *   ...
+ *   return MatScope.keep(mResult);
+ * }
+ * </pre>
+ * shared Mats (e.g. content and mask of an Element): reference counted with retain() / release(),
+ * released when the last holder lets go<br>
+ * the native bytes are accounted per subsystem (the name given with open() or retain())
+ */
+public class MatScope implements AutoCloseable {
+
+  private static final SXLog log = SX.getSXLog("SX.MatScope");
+
+  //<editor-fold desc="accounting">
+  private static class Usage {
+    final LongAdder liveBytes = new LongAdder();
+    final LongAdder liveCount = new LongAdder();
+    final LongAdder releasedBytes = new LongAdder();
+    final LongAdder releasedCount = new LongAdder();
+    final LongAdder collectedCount = new LongAdder();
+  }
+
+  private static final Map<String, Usage> usages = new ConcurrentHashMap<>();
+
+  private static Usage usage(String subsystem) {
+    return usages.computeIfAbsent(SX.isNull(subsystem) ? "" : subsystem, key -> new Usage());
+  }
+
+  /**
+   * @return the native bytes of the Mat's data (0 for a submat, that only refers to other data)
+   */
+  public static long bytes(Mat mat) {
+    if (SX.isNull(mat) || mat.empty() || mat.isSubmatrix()) {
+      return 0;
+    }
+    return mat.total() * mat.elemSize();
+  }
+
+  /**
+   * @return native bytes currently held by shared Mats of the subsystem
+   */
+  public static long getLiveBytes(String subsystem) {
+    Usage usage = usages.get(subsystem);
+    return SX.isNull(usage) ? 0 : usage.liveBytes.sum();
+  }
+
+  public static long getLiveBytes() {
+    expunge();
+    long sum = 0;
+    for (Usage usage : usages.values()) {
+      sum += usage.liveBytes.sum();
+    }
+    return sum;
+  }
+
+  public static long getLiveCount() {
+    expunge();
+    long sum = 0;
+    for (Usage usage : usages.values()) {
+      sum += usage.liveCount.sum();
+    }
+    return sum;
+  }
+
+  public static long getLiveCount(String subsystem) {
+    Usage usage = usages.get(subsystem);
+    return SX.isNull(usage) ? 0 : usage.liveCount.sum();
+  }
+
+  /**
+   * @return native bytes released deterministically so far (scope exit or last release)
+   */
+  public static long getReleasedBytes(String subsystem) {
+    Usage usage = usages.get(subsystem);
+    return SX.isNull(usage) ? 0 : usage.releasedBytes.sum();
+  }
+
+  public static long getReleasedBytes() {
+    long sum = 0;
+    for (Usage usage : usages.values()) {
+      sum += usage.releasedBytes.sum();
+    }
+    return sum;
+  }
+
+  public static long getCollectedCount() {
+    expunge();
+    long sum = 0;
+    for (Usage usage : usages.values()) {
+      sum += usage.collectedCount.sum();
+    }
+    return sum;
+  }
+
+  /**
+   * @return number of shared Mats, that were left to the garbage collector without a final release
+   */
+  public static long getCollectedCount(String subsystem) {
+    expunge();
+    Usage usage = usages.get(subsystem);
+    return SX.isNull(usage) ? 0 : usage.collectedCount.sum();
+  }
+
+  public static Collection<String> getSubsystems() {
+    return new TreeMap<>(usages).keySet();
+  }
+
+  /**
+   * @return one line per subsystem: live count/bytes, released count/bytes, collected by GC
+   */
+  public static String report() {
+    expunge();
+    StringBuilder report = new StringBuilder();
+    for (Map.Entry<String, Usage> entry : new TreeMap<>(usages).entrySet()) {
+      Usage usage = entry.getValue();
+      report.append(String.format("%s: live %d (%d KB) released %d (%d KB) collected %d%n", entry.getKey(),
+              usage.liveCount.sum(), usage.liveBytes.sum() / 1024,
+              usage.releasedCount.sum(), usage.releasedBytes.sum() / 1024, usage.collectedCount.sum()));
+    }
+    return report.toString();
+  }
+
+  /**
+   * forget the counters of released and collected Mats (live ones are kept)
+   */
+  public static void resetCounters() {
+    for (Usage usage : usages.values()) {
+      usage.releasedBytes.reset();
+      usage.releasedCount.reset();
+      usage.collectedCount.reset();
+    }
+  }
+
+  private static void released(String subsystem, long bytes) {
+    Usage usage = usage(subsystem);
+    usage.releasedBytes.add(bytes);
+    usage.releasedCount.increment();
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="shared (reference counted)">
+
+  /**
+   * weak: a shared Mat no longer referenced elsewhere is still finalized by the garbage collector,
+   * its bytes are then no longer accounted as live
+   */
+  private static class Shared extends WeakReference<Mat> {
+    final long key;
+    final String subsystem;
+    final long bytes;
+    int count = 1;
+
+    Shared(Mat mat, String subsystem) {
+      super(mat, collected);
+      this.key = mat.getNativeObjAddr();
+      this.subsystem = subsystem;
+      this.bytes = bytes(mat);
+    }
+  }
+
+  private static final ReferenceQueue<Mat> collected = new ReferenceQueue<>();
+  private static final Map<Long, Shared> shared = new ConcurrentHashMap<>();
+
+  private static void expunge() {
+    Shared ref;
+    while (SX.isNotNull(ref = (Shared) collected.poll())) {
+      if (shared.remove(ref.key, ref)) {
+        Usage usage = usage(ref.subsystem);
+        usage.liveBytes.add(-ref.bytes);
+        usage.liveCount.decrement();
+        usage.collectedCount.increment();
+      }
+    }
+  }
+
+  /**
+   * one more holder of the Mat
+   *
+   * @param mat       the Mat (null is ignored)
+   * @param subsystem accounted to (only evaluated with the first retain)
+   * @return the Mat
+   */
+  public static <T extends Mat> T retain(T mat, String subsystem) {
+    if (SX.isNull(mat)) {
+      return null;
+    }
+    synchronized (shared) {
+      expunge();
+      long key = mat.getNativeObjAddr();
+      Shared ref = shared.get(key);
+      if (SX.isNotNull(ref) && ref.get() == mat) {
+        ref.count++;
+      } else {
+        ref = new Shared(mat, subsystem);
+        shared.put(key, ref);
+        Usage usage = usage(subsystem);
+        usage.liveBytes.add(ref.bytes);
+        usage.liveCount.increment();
+      }
+    }
+    return mat;
+  }
+
+  /**
+   * one holder less: with the last one the native memory is released
+   *
+   * @param mat the Mat (null or a Mat not retained before is ignored)
+   * @return true if the Mat was released
+   */
+  public static boolean release(Mat mat) {
+    if (SX.isNull(mat)) {
+      return false;
+    }
+    synchronized (shared) {
+      long key = mat.getNativeObjAddr();
+      Shared ref = shared.get(key);
+      if (SX.isNull(ref) || ref.get() != mat || --ref.count > 0) {
+        return false;
+      }
+      forget(ref);
+    }
+    mat.release();
+    return true;
+  }
+
+  /**
+   * @return number of holders (0 if not shared)
+   */
+  public static int getHolders(Mat mat) {
+    if (SX.isNull(mat)) {
+      return 0;
+    }
+    Shared ref = shared.get(mat.getNativeObjAddr());
+    return SX.isNotNull(ref) && ref.get() == mat ? ref.count : 0;
+  }
+
+  private static void forget(Shared ref) {
+    shared.remove(ref.key, ref);
+    ref.clear();
+    Usage usage = usage(ref.subsystem);
+    usage.liveBytes.add(-ref.bytes);
+    usage.liveCount.decrement();
+    released(ref.subsystem, ref.bytes);
+  }
+
+  /**
+   * a new header on the data of the Mat (no copy): it keeps the data alive,
+   * even if the given Mat is released by its holder (to be released by the caller)
+   */
+  public static Mat share(Mat mat) {
+    if (SX.isNull(mat) || mat.empty()) {
+      return new Mat();
+    }
+    return mat.submat(0, mat.rows(), 0, mat.cols());
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="scope">
+  private static final ThreadLocal<Deque<MatScope>> scopes = ThreadLocal.withInitial(ArrayDeque::new);
+
+  private final String subsystem;
+  private final List<Mat> tracked = new ArrayList<>();
+  private boolean closed = false;
+
+  private MatScope(String subsystem) {
+    this.subsystem = subsystem;
+  }
+
+  /**
+   * a new scope for the current thread, the innermost open scope is current()
+   *
+   * @param subsystem the released bytes are accounted to
+   * @return the scope (to be closed by the same thread)
+   */
+  public static MatScope open(String subsystem) {
+    MatScope scope = new MatScope(subsystem);
+    scopes.get().push(scope);
+    return scope;
+  }
+
+  /**
+   * @return the innermost open scope of the current thread (null if none)
+   */
+  public static MatScope current() {
+    return scopes.get().peek();
+  }
+
+  /**
+   * track the Mat in the current scope (not tracked, if there is no open scope)
+   */
+  public static <T extends Mat> T tracked(T mat) {
+    MatScope scope = current();
+    return SX.isNull(scope) ? mat : scope.track(mat);
+  }
+
+  /**
+   * the Mat is released at scope exit
+   */
+  public <T extends Mat> T track(T mat) {
+    if (SX.isNotNull(mat) && !closed) {
+      tracked.add(mat);
+    }
+    return mat;
+  }
+
+  public <T extends Mat> List<T> trackAll(List<T> mats) {
+    for (T mat : mats) {
+      track(mat);
+    }
+    return mats;
+  }
+
+  public Mat newMat() {
+    SX.loadNative(SX.NATIVES.OPENCV);
+    return track(new Mat());
+  }
+
+  /**
+   * hand over the Mat tracked in the current scope (or any enclosing one) to the caller:
+   * it is not released at scope exit, but retained as shared Mat of the scope's subsystem
+   * (to be released by the new holder with release())
+   */
+  public static <T extends Mat> T keep(T mat) {
+    for (MatScope scope : scopes.get()) {
+      if (scope.untrack(mat)) {
+        return retain(mat, scope.subsystem);
+      }
+    }
+    return mat;
+  }
+
+  private boolean untrack(Mat mat) {
+    for (int n = tracked.size() - 1; n > -1; n--) {
+      if (tracked.get(n) == mat) {
+        tracked.remove(n);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public String getSubsystem() {
+    return subsystem;
+  }
+
+  public int size() {
+    return tracked.size();
+  }
+
+  /**
+   * release the tracked Mats in reverse order - a tracked Mat, that was retained meanwhile, is left
+   * to its holders (released with the last release())
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (!scopes.get().remove(this)) {
+      log.error("close: scope %s not open in this thread", subsystem);
+    }
+    for (int n = tracked.size() - 1; n > -1; n--) {
+      Mat mat = tracked.get(n);
+      synchronized (shared) {
+        Shared ref = shared.get(mat.getNativeObjAddr());
+        if (SX.isNotNull(ref) && ref.get() == mat) {
+          continue;
+        }
+      }
+      released(subsystem, bytes(mat));
+      mat.release();
+    }
+    tracked.clear();
+  }
+  //</editor-fold>
+
+  @Override
+  public String toString() {
+    return String.format("MatScope(%s): %d Mats", subsystem, tracked.size());
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.core;
+
+import com.sikulix.api.Element;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * the immutable outcome of one search (find, findAll, findAny)<br>
+ * is returned by the Finder without touching the searched element,
+ * so it can be handed between threads freely
+ */
+public final class MatchSet {
+
+  public static final MatchSet EMPTY = new MatchSet(null, true, Collections.<Element>emptyList(), null);
+
+  private final Element target;
+  private final boolean single;
+  private final List<Element> matches;
+  private final double[] scores;
+
+  private MatchSet(Element target, boolean single, List<Element> matches, double[] scores) {
+    this.target = target;
+    this.single = single;
+    this.matches = matches;
+    this.scores = SX.isNull(scores) ? new double[]{0, 0, 0} : scores.clone();
+  }
+
+  public static MatchSet of(Element target, Element match) {
+    if (SX.isNull(match)) {
+      return empty(target);
+    }
+    return new MatchSet(target, true, Collections.singletonList(match),
+            new double[]{match.getScore(), match.getScore(), 0});
+  }
+
+  public static MatchSet of(Element target, List<Element> matches, double[] scores) {
+    if (SX.isNull(matches)) {
+      return new MatchSet(target, false, Collections.<Element>emptyList(), null);
+    }
+    return new MatchSet(target, false, Collections.unmodifiableList(new ArrayList<>(matches)), scores);
+  }
+
+  public static MatchSet empty(Element target) {
+    return new MatchSet(target, true, Collections.<Element>emptyList(), null);
+  }
+
+  public Element getTarget() {
+    return target;
+  }
+
+  /**
+   * @return true for the result of a single find (legacy lastMatch), false for findAll/findAny (legacy lastMatches)
+   */
+  public boolean isSingle() {
+    return single;
+  }
+
+  public boolean isEmpty() {
+    return matches.isEmpty();
+  }
+
+  public boolean hasMatch() {
+    return single && !matches.isEmpty();
+  }
+
+  public boolean hasMatches() {
+    return !single && !matches.isEmpty();
+  }
+
+  public int size() {
+    return matches.size();
+  }
+
+  public Element getMatch() {
+    if (matches.isEmpty()) {
+      return null;
+    }
+    return matches.get(0);
+  }
+
+  public List<Element> getMatches() {
+    return matches;
+  }
+
+  public double[] getScores() {
+    return scores.clone();
+  }
+
+  public double getBestScore() {
+    return scores[0];
+  }
+
+  public double getMeanScore() {
+    return scores[1];
+  }
+
+  public double getStdDevScore() {
+    return scores[2];
+  }
+
+  @Override
+  public String toString() {
+    return String.format("MatchSet(%s): %d matches (best %.2f) for %s",
+            single ? "one" : "all", matches.size(), scores[0], target);
+  }
+}
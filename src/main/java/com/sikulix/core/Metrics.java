@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * counters and latency histograms for the phases of the find pipeline<br>
+ * each series is a phase tagged by device and target name,
+ * pulled via SX.getMetrics() or JMX (domain com.sikulix, type Metrics)<br>
+ * off by default (setEnabled(true)), per phase and device at most maxTargets targets get a series
+ * of their own, the others are counted together as target OTHER_TARGETS
+ */
+public class Metrics {
+
+  private static final SXLog log = SX.getSXLog("SX.Metrics");
+
+  public enum Phase {
+    CAPTURE, PREPARE, MATCH_LASTSEEN, MATCH_DOWNSIZED, MATCH_CHECK, MATCH_ORIGINAL, MATCH_FEATURES, FINDALL, HANDLER
+  }
+
+  public static final String OTHER_TARGETS = "*";
+
+  private static volatile boolean enabled = false;
+  private static volatile int maxTargets = 100;
+  private static final Map<Phase, Map<String, Map<String, Series>>> series = new EnumMap<>(Phase.class);
+  private static final Map<Phase, Histogram> phases = new ConcurrentHashMap<>();
+  private static volatile boolean jmxRegistered = false;
+
+  static {
+    for (Phase phase : Phase.values()) {
+      series.put(phase, new ConcurrentHashMap<>());
+    }
+  }
+
+  //<editor-fold desc="record">
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  public static void setEnabled(boolean state) {
+    enabled = state;
+    if (state) {
+      registerJMX();
+    }
+  }
+
+  /**
+   * @param count targets with a series of their own per phase and device (default 100)
+   */
+  public static void setMaxTargets(int count) {
+    maxTargets = Math.max(1, count);
+  }
+
+  /**
+   * @return System.nanoTime() if metrics are enabled, 0 otherwise (to be given to record later)
+   */
+  public static long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * record the time elapsed since start
+   *
+   * @param phase  the pipeline phase
+   * @param device device tag (may be null)
+   * @param target target tag (may be null)
+   * @param start  as returned by start()
+   */
+  public static void record(Phase phase, String device, String target, long start) {
+    if (!enabled || start == 0) {
+      return;
+    }
+    recordNanos(phase, device, target, System.nanoTime() - start);
+  }
+
+  public static void recordNanos(Phase phase, String device, String target, long nanos) {
+    if (!enabled) {
+      return;
+    }
+    if (!jmxRegistered) {
+      registerJMX();
+    }
+    getSeries(phase, SX.isNull(device) ? "" : device, SX.isNull(target) ? "" : target).histogram.record(nanos);
+    Histogram phaseHistogram = phases.get(phase);
+    if (SX.isNull(phaseHistogram)) {
+      phaseHistogram = phases.computeIfAbsent(phase, p -> new Histogram());
+    }
+    phaseHistogram.record(nanos);
+  }
+
+  private static Series getSeries(Phase phase, String device, String target) {
+    Map<String, Map<String, Series>> devices = series.get(phase);
+    Map<String, Series> targets = devices.get(device);
+    if (SX.isNull(targets)) {
+      targets = devices.computeIfAbsent(device, d -> new ConcurrentHashMap<>());
+    }
+    Series theSeries = targets.get(target);
+    if (SX.isNull(theSeries)) {
+      String tag = targets.size() < maxTargets ? target : OTHER_TARGETS;
+      theSeries = targets.computeIfAbsent(tag, t -> new Series(phase, device, t));
+    }
+    return theSeries;
+  }
+
+  public static void reset() {
+    for (Map<String, Map<String, Series>> devices : series.values()) {
+      devices.clear();
+    }
+    phases.clear();
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="pull">
+
+  /**
+   * @return a snapshot of all series, sorted by phase, device, target
+   */
+  public static List<Snapshot> getSnapshots() {
+    List<Snapshot> snapshots = new ArrayList<>();
+    for (Map<String, Map<String, Series>> devices : series.values()) {
+      for (Map<String, Series> targets : devices.values()) {
+        for (Series aSeries : targets.values()) {
+          snapshots.add(new Snapshot(aSeries.phase, aSeries.device, aSeries.target, aSeries.histogram));
+        }
+      }
+    }
+    Collections.sort(snapshots, (s1, s2) -> s1.getKey().compareTo(s2.getKey()));
+    return snapshots;
+  }
+
+  /**
+   * @param phase the pipeline phase
+   * @return a snapshot over all devices and targets of the phase
+   */
+  public static Snapshot getSnapshot(Phase phase) {
+    Histogram histogram = phases.get(phase);
+    return new Snapshot(phase, null, null, SX.isNull(histogram) ? new Histogram() : histogram);
+  }
+
+  public static class Snapshot {
+    private final Phase phase;
+    private final String device;
+    private final String target;
+    private final long count;
+    private final double mean;
+    private final double p50;
+    private final double p99;
+    private final double max;
+
+    Snapshot(Phase phase, String device, String target, Histogram histogram) {
+      this.phase = phase;
+      this.device = SX.isNull(device) ? "" : device;
+      this.target = SX.isNull(target) ? "" : target;
+      count = histogram.getCount();
+      mean = histogram.getMeanMillis();
+      p50 = histogram.getPercentileMillis(50);
+      p99 = histogram.getPercentileMillis(99);
+      max = histogram.getMaxMillis();
+    }
+
+    public String getKey() {
+      return phase + "|" + device + "|" + target;
+    }
+
+    public Phase getPhase() {
+      return phase;
+    }
+
+    public String getDevice() {
+      return device;
+    }
+
+    public String getTarget() {
+      return target;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getMeanMillis() {
+      return mean;
+    }
+
+    public double getP50Millis() {
+      return p50;
+    }
+
+    public double getP99Millis() {
+      return p99;
+    }
+
+    public double getMaxMillis() {
+      return max;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: n=%d mean=%.2f p50=%.2f p99=%.2f max=%.2f (msec)",
+              getKey(), count, mean, p50, p99, max);
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="histogram">
+  private static class Series {
+    final Phase phase;
+    final String device;
+    final String target;
+    final Histogram histogram = new Histogram();
+
+    Series(Phase phase, String device, String target) {
+      this.phase = phase;
+      this.device = device;
+      this.target = target;
+    }
+  }
+
+  /**
+   * lock free histogram with power of 2 buckets in microseconds (1 us ... about 35 min)
+   */
+  static class Histogram {
+    private static final int BUCKETS = 32;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong(0);
+
+    void record(long nanos) {
+      long micros = Math.max(0, nanos / 1000);
+      int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+      buckets.incrementAndGet(bucket);
+      count.increment();
+      sum.add(nanos);
+      long currentMax;
+      while (nanos > (currentMax = max.get())) {
+        if (max.compareAndSet(currentMax, nanos)) {
+          break;
+        }
+      }
+    }
+
+    long getCount() {
+      return count.sum();
+    }
+
+    double getMeanMillis() {
+      long n = count.sum();
+      return n == 0 ? 0 : sum.sum() / 1e6 / n;
+    }
+
+    double getMaxMillis() {
+      return max.get() / 1e6;
+    }
+
+    /**
+     * @param percentile 0 ... 100
+     * @return upper bound of the bucket containing the percentile (msec)
+     */
+    double getPercentileMillis(double percentile) {
+      long n = count.sum();
+      if (n == 0) {
+        return 0;
+      }
+      long wanted = (long) Math.ceil(n * percentile / 100);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets.get(i);
+        if (seen >= wanted) {
+          return Math.min((1L << i) / 1000.0, getMaxMillis());
+        }
+      }
+      return getMaxMillis();
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="JMX">
+  public interface PhaseMXBean {
+    long getCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+  }
+
+  public interface MetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean state);
+
+    String[] getSeries();
+
+    void reset();
+  }
+
+  private static class PhaseBean implements PhaseMXBean {
+    private final Phase phase;
+
+    PhaseBean(Phase phase) {
+      this.phase = phase;
+    }
+
+    public long getCount() {
+      return getSnapshot(phase).getCount();
+    }
+
+    public double getMeanMillis() {
+      return getSnapshot(phase).getMeanMillis();
+    }
+
+    public double getP50Millis() {
+      return getSnapshot(phase).getP50Millis();
+    }
+
+    public double getP99Millis() {
+      return getSnapshot(phase).getP99Millis();
+    }
+
+    public double getMaxMillis() {
+      return getSnapshot(phase).getMaxMillis();
+    }
+  }
+
+  private static class MetricsBean implements MetricsMXBean {
+    public boolean isEnabled() {
+      return Metrics.isEnabled();
+    }
+
+    public void setEnabled(boolean state) {
+      Metrics.setEnabled(state);
+    }
+
+    public String[] getSeries() {
+      List<String> lines = new ArrayList<>();
+      for (Snapshot snapshot : getSnapshots()) {
+        lines.add(snapshot.toString());
+      }
+      return lines.toArray(new String[0]);
+    }
+
+    public void reset() {
+      Metrics.reset();
+    }
+  }
+
+  private static synchronized void registerJMX() {
+    if (jmxRegistered) {
+      return;
+    }
+    jmxRegistered = true;
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      server.registerMBean(new StandardMBean(new MetricsBean(), MetricsMXBean.class, true),
+              new ObjectName("com.sikulix:type=Metrics"));
+      for (Phase phase : Phase.values()) {
+        server.registerMBean(new StandardMBean(new PhaseBean(phase), PhaseMXBean.class, true),
+                new ObjectName("com.sikulix:type=Metrics,phase=" + phase));
+      }
+    } catch (Exception ex) {
+      log.error("registerJMX: %s", ex.getMessage());
+    }
+  }
+  //</editor-fold>
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * typed, immutable copy of the options read on hot paths (find, wait, mouse move)<br>
+ * a new snapshot is built by SX whenever an option is set (see SX.getOptionsSnapshot())
+ */
+public final class OptionsSnapshot {
+
+  public interface Listener {
+    /**
+     * @param options the new snapshot
+     * @param changedOption the name of the option that was set (null after a reload)
+     */
+    void optionsChanged(OptionsSnapshot options, String changedOption);
+  }
+
+  public final boolean checkLastSeen;
+  public final boolean throwException;
+  public final double autoWaitTimeout;
+  public final double waitScanRate;
+  public final double observeScanRate;
+  public final double minSimilarity;
+  public final double moveMouseDelay;
+  public final boolean mouseSilent;
+
+  /**
+   * scale factors tried additionally, if a target is not found at its own size (from FindScales, empty: off)<br>
+   * shared: only read in this package, others get a copy (getFindScales())
+   */
+  final double[] findScales;
+
+  /**
+   * pause between two searches while waiting (milliseconds, from WaitScanRate)
+   */
+  public final long waitRepeatPause;
+
+  /**
+   * pause between two searches while observing (milliseconds, from ObserveScanRate)
+   */
+  public final long observeRepeatPause;
+
+  OptionsSnapshot() {
+    checkLastSeen = SX.isOption("Settings.CheckLastSeen");
+    throwException = SX.isOption("Settings.ThrowException");
+    autoWaitTimeout = number("Settings.AutoWaitTimeout", 3);
+    waitScanRate = positive(number("Settings.WaitScanRate", 3), 3);
+    observeScanRate = positive(number("Settings.ObserveScanRate", 3), 3);
+    minSimilarity = number("Settings.MinSimilarity", 0.7);
+    moveMouseDelay = number("Settings.MoveMouseDelay", 0.5);
+    mouseSilent = SX.isOption("Settings.MouseSilent");
+    findScales = scales(SX.hasOptions() ? SX.getOption("Settings.FindScales", "") : "");
+    waitRepeatPause = (long) (1000 / waitScanRate);
+    observeRepeatPause = (long) (1000 / observeScanRate);
+  }
+
+  /**
+   * @return a copy of the scale factors from Settings.FindScales (empty: off)
+   */
+  public double[] getFindScales() {
+    return findScales.clone();
+  }
+
+  private static double number(String name, double defaultValue) {
+    if (!SX.hasOptions()) {
+      return defaultValue;
+    }
+    try {
+      return SX.getOptionNumber(name, defaultValue);
+    } catch (Exception ex) {
+      return defaultValue;
+    }
+  }
+
+  private static double positive(double value, double defaultValue) {
+    return value > 0 ? value : defaultValue;
+  }
+
+  /**
+   * @param list e.g. "1.25, 1.5, 2" (1 and invalid values are left out)
+   */
+  static double[] scales(String list) {
+    List<Double> scales = new ArrayList<>();
+    for (String item : list.split("[,;\\s]+")) {
+      try {
+        double scale = Double.parseDouble(item.trim());
+        if (scale > 0 && scale != 1 && !scales.contains(scale)) {
+          scales.add(scale);
+        }
+      } catch (NumberFormatException ex) {
+      }
+    }
+    double[] result = new double[scales.size()];
+    for (int n = 0; n < result.length; n++) {
+      result[n] = scales.get(n);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("OptionsSnapshot: checkLastSeen: %s, autoWaitTimeout: %.1f, waitScanRate: %.1f, " +
+                    "observeScanRate: %.1f, minSimilarity: %.2f, moveMouseDelay: %.2f, mouseSilent: %s, findScales: %s",
+            checkLastSeen, autoWaitTimeout, waitScanRate, observeScanRate, minSimilarity,
+            moveMouseDelay, mouseSilent, Arrays.toString(findScales));
+  }
+}
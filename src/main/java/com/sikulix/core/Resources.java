@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * registry of gauges for native memory, caches and pools (mat.*, imagecache.*, pool.*, ...)<br>
+ * pulled via getGauges() or JMX (domain com.sikulix, type Resources),
+ * optionally logged periodically (option Resources.ReportInterval in seconds, 0 = off)
+ * <p>
+ * soft limits (option Resources.SoftLimit.gauge-name or setSoftLimit()): if a gauge is above its limit
+ * when checked (after every insert into a cache, with every report or by check()), the evictables
+ * registered for the gauge are asked to free the excess
+ */
+public class Resources {
+
+  private static final SXLog log = SX.getSXLog("SX.Resources");
+
+  public interface Evictable {
+    /**
+     * @param amount to be freed at least (in the unit of the gauge)
+     * @return the amount freed
+     */
+    long evict(long amount);
+  }
+
+  static final String OPTION_LIMIT = "Resources.SoftLimit.";
+  static final String OPTION_INTERVAL = "Resources.ReportInterval";
+
+  private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+  private static final Map<String, Long> softLimits = new ConcurrentHashMap<>();
+  private static final Map<String, List<Evictable>> evictables = new ConcurrentHashMap<>();
+  private static final AtomicBoolean checking = new AtomicBoolean();
+  private static ScheduledExecutorService reporter = null;
+  private static int reportInterval = 0;
+
+  static {
+    register("mat.live.bytes", MatScope::getLiveBytes);
+    register("mat.live.count", MatScope::getLiveCount);
+    register("mat.released.bytes", MatScope::getReleasedBytes);
+    register("mat.collected.count", MatScope::getCollectedCount);
+    register("pool.finder.queue", Finder::getAsyncQueueSize);
+    register("pool.finder.active", Finder::getAsyncActiveCount);
+    register("heap.used.bytes", () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+    register("imagecache.entries", ImageCache::getSize);
+    register("imagecache.bytes", ImageCache::getBytes);
+    register("imagecache.hits.count", ImageCache::getHits);
+    register("imagecache.misses.count", ImageCache::getMisses);
+    register("imagecache.hitrate.percent", () -> Math.round(ImageCache.getHitRate() * 100));
+    register("features.cached.count", FeatureFinder::getCachedCount);
+    addEvictable("imagecache.bytes", ImageCache::evict);
+    addEvictable("mat.live.bytes", ImageCache::evict);
+    registerJMX();
+  }
+
+  /**
+   * soft limits and report interval from the options (done by SX startup, right after the options are loaded)
+   */
+  public static void loadOptions() {
+    if (!SX.hasOptions()) {
+      return;
+    }
+    for (Map.Entry<String, String> option : SX.getOptions().entrySet()) {
+      if (option.getKey().startsWith(OPTION_LIMIT)) {
+        try {
+          setSoftLimit(option.getKey().substring(OPTION_LIMIT.length()), (long) Double.parseDouble(option.getValue()));
+        } catch (NumberFormatException ex) {
+          log.error("loadOptions: %s: not a number: %s", option.getKey(), option.getValue());
+        }
+      }
+    }
+    int interval = (int) SX.getOptionNumber(OPTION_INTERVAL, 0);
+    if (interval > 0) {
+      startReporting(interval);
+    }
+  }
+
+  //<editor-fold desc="gauges">
+
+  /**
+   * @param name  dotted name, the last part is the unit (bytes, count, ...)
+   * @param gauge gives the current value (called on every pull, must be cheap and thread safe)
+   */
+  public static void register(String name, LongSupplier gauge) {
+    gauges.put(name, gauge);
+  }
+
+  public static void unregister(String name) {
+    gauges.remove(name);
+  }
+
+  /**
+   * @return the current value (-1 if there is no such gauge)
+   */
+  public static long getGauge(String name) {
+    LongSupplier gauge = gauges.get(name);
+    if (SX.isNull(gauge)) {
+      return -1;
+    }
+    try {
+      return gauge.getAsLong();
+    } catch (Exception ex) {
+      log.error("getGauge: %s: %s", name, ex.getMessage());
+      return -1;
+    }
+  }
+
+  /**
+   * @return the current values of all gauges, sorted by name
+   */
+  public static Map<String, Long> getGauges() {
+    Map<String, Long> values = new TreeMap<>();
+    for (String name : gauges.keySet()) {
+      values.put(name, getGauge(name));
+    }
+    return values;
+  }
+
+  /**
+   * @return one line: name=value ... (bytes in KB)
+   */
+  public static String snapshot() {
+    StringBuilder line = new StringBuilder();
+    for (Map.Entry<String, Long> gauge : getGauges().entrySet()) {
+      if (line.length() > 0) {
+        line.append(" ");
+      }
+      if (gauge.getKey().endsWith(".bytes")) {
+        line.append(gauge.getKey().replace(".bytes", ".KB")).append("=").append(gauge.getValue() / 1024);
+      } else {
+        line.append(gauge.getKey()).append("=").append(gauge.getValue());
+      }
+    }
+    return line.toString();
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="soft limits">
+
+  /**
+   * @param name  the gauge
+   * @param limit the value, above which eviction is triggered (0 or less: no limit)
+   */
+  public static void setSoftLimit(String name, long limit) {
+    if (limit > 0) {
+      softLimits.put(name, limit);
+    } else {
+      softLimits.remove(name);
+    }
+  }
+
+  /**
+   * @return the limit (0 if none)
+   */
+  public static long getSoftLimit(String name) {
+    Long limit = softLimits.get(name);
+    return SX.isNull(limit) ? 0 : limit;
+  }
+
+  public static void addEvictable(String name, Evictable evictable) {
+    evictables.computeIfAbsent(name, key -> new CopyOnWriteArrayList<>()).add(evictable);
+  }
+
+  public static void removeEvictable(String name, Evictable evictable) {
+    List<Evictable> list = evictables.get(name);
+    if (SX.isNotNull(list)) {
+      list.remove(evictable);
+    }
+  }
+
+  /**
+   * check() after something was added to a cache (ImageCache, FeatureFinder, Server targets), so the soft limits
+   * work without the periodic report - nothing to do without soft limits, skipped while a check is running
+   *
+   * @return see check()
+   */
+  public static int checkLimits() {
+    if (softLimits.isEmpty() || !checking.compareAndSet(false, true)) {
+      return 0;
+    }
+    try {
+      return check();
+    } finally {
+      checking.set(false);
+    }
+  }
+
+  /**
+   * compare the gauges with their soft limits and evict where needed
+   *
+   * @return the number of gauges above their limit after eviction
+   */
+  public static int check() {
+    int exceeded = 0;
+    for (Map.Entry<String, Long> limit : softLimits.entrySet()) {
+      long value = getGauge(limit.getKey());
+      if (value <= limit.getValue()) {
+        continue;
+      }
+      long freed = 0;
+      List<Evictable> list = evictables.get(limit.getKey());
+      if (SX.isNotNull(list)) {
+        for (Evictable evictable : list) {
+          freed += evictable.evict(value - limit.getValue() - freed);
+          if (value - freed <= limit.getValue()) {
+            break;
+          }
+        }
+      }
+      long before = value;
+      value = getGauge(limit.getKey());
+      log.info("check: %s: %d above soft limit %d: freed %d, now %d", limit.getKey(), before,
+              limit.getValue(), freed, value);
+      if (value > limit.getValue()) {
+        exceeded++;
+      }
+    }
+    return exceeded;
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="report">
+
+  /**
+   * check the soft limits and log a snapshot of the gauges every given seconds (replaces a running report)
+   */
+  public static synchronized void startReporting(int seconds) {
+    stopReporting();
+    if (seconds < 1) {
+      return;
+    }
+    reportInterval = seconds;
+    reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "SX.Resources");
+      thread.setDaemon(true);
+      return thread;
+    });
+    reporter.scheduleAtFixedRate(() -> {
+      try {
+        check();
+        log.info("%s", snapshot());
+      } catch (Exception ex) {
+        log.error("report: %s", ex.getMessage());
+      }
+    }, seconds, seconds, TimeUnit.SECONDS);
+  }
+
+  public static synchronized void stopReporting() {
+    if (SX.isNotNull(reporter)) {
+      reporter.shutdownNow();
+      reporter = null;
+    }
+    reportInterval = 0;
+  }
+
+  public static synchronized int getReportInterval() {
+    return reportInterval;
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="JMX">
+  public interface ResourcesMXBean {
+    String[] getGauges();
+
+    String[] getSoftLimits();
+
+    void setSoftLimit(String name, long limit);
+
+    int check();
+
+    int getReportInterval();
+
+    void setReportInterval(int seconds);
+  }
+
+  private static class ResourcesBean implements ResourcesMXBean {
+    public String[] getGauges() {
+      List<String> lines = new ArrayList<>();
+      for (Map.Entry<String, Long> gauge : Resources.getGauges().entrySet()) {
+        lines.add(gauge.getKey() + " = " + gauge.getValue());
+      }
+      return lines.toArray(new String[0]);
+    }
+
+    public String[] getSoftLimits() {
+      List<String> lines = new ArrayList<>();
+      for (Map.Entry<String, Long> limit : new TreeMap<>(softLimits).entrySet()) {
+        lines.add(limit.getKey() + " = " + limit.getValue());
+      }
+      return lines.toArray(new String[0]);
+    }
+
+    public void setSoftLimit(String name, long limit) {
+      Resources.setSoftLimit(name, limit);
+    }
+
+    public int check() {
+      return Resources.check();
+    }
+
+    public int getReportInterval() {
+      return Resources.getReportInterval();
+    }
+
+    public void setReportInterval(int seconds) {
+      Resources.startReporting(seconds);
+    }
+  }
+
+  private static void registerJMX() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("com.sikulix:type=Resources");
+      if (!server.isRegistered(name)) {
+        server.registerMBean(new StandardMBean(new ResourcesBean(), ResourcesMXBean.class, true), name);
+      }
+    } catch (Exception ex) {
+      log.error("registerJMX: %s", ex.getMessage());
+    }
+  }
+  //</editor-fold>
+}
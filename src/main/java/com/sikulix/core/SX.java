@@ -20,6 +20,7 @@ import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
 import static com.sikulix.core.SX.NATIVES.HOTKEY;
@@ -61,6 +62,7 @@ public class SX {
     } else {
       info(message, args);
     }
+    SXLog.flush();
     System.exit(retval);
   }
 
@@ -175,6 +177,7 @@ public class SX {
 
       // *** getAll SX options
       loadOptions();
+      Resources.loadOptions();
 
       // *** getAll the version info
       getSXVERSION();
@@ -394,6 +397,7 @@ public class SX {
     } else {
       trace("loadOptions: no extra Options file found");
     }
+    updateOptionsSnapshot(null);
   }
 
 
@@ -481,6 +485,44 @@ public class SX {
 
   public static void setOption(String pName, String sValue) {
     SXOPTIONS.setProperty(pName, sValue);
+    updateOptionsSnapshot(pName);
+  }
+
+  private static volatile OptionsSnapshot optionsSnapshot = null;
+  private static final List<OptionsSnapshot.Listener> optionsListeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * the typed options to be used on hot paths instead of isOption/getOption...
+   *
+   * @return the current snapshot (replaced, not changed, when an option is set)
+   */
+  public static OptionsSnapshot getOptionsSnapshot() {
+    OptionsSnapshot snapshot = optionsSnapshot;
+    if (isNull(snapshot)) {
+      snapshot = updateOptionsSnapshot(null);
+    }
+    return snapshot;
+  }
+
+  private static synchronized OptionsSnapshot updateOptionsSnapshot(String changedOption) {
+    OptionsSnapshot snapshot = new OptionsSnapshot();
+    optionsSnapshot = snapshot;
+    for (OptionsSnapshot.Listener listener : optionsListeners) {
+      try {
+        listener.optionsChanged(snapshot, changedOption);
+      } catch (Exception ex) {
+        error("updateOptionsSnapshot: listener: %s", ex);
+      }
+    }
+    return snapshot;
+  }
+
+  public static void addOptionsListener(OptionsSnapshot.Listener listener) {
+    optionsListeners.add(listener);
+  }
+
+  public static void removeOptionsListener(OptionsSnapshot.Listener listener) {
+    optionsListeners.remove(listener);
   }
 
   public static double getOptionNumber(String pName) {
@@ -515,6 +557,51 @@ public class SX {
   }
   //</editor-fold>
 
+  //<editor-fold desc="05a*** metrics">
+
+  /**
+   * the find pipeline metrics (counters and latency histograms per phase, device and target)
+   *
+   * @return a snapshot per series
+   */
+  public static List<Metrics.Snapshot> getMetrics() {
+    return Metrics.getSnapshots();
+  }
+
+  public static Metrics.Snapshot getMetrics(Metrics.Phase phase) {
+    return Metrics.getSnapshot(phase);
+  }
+
+  public static void resetMetrics() {
+    Metrics.reset();
+  }
+
+  public static void dumpMetrics() {
+    p("*** metrics dump");
+    for (Metrics.Snapshot snapshot : getMetrics()) {
+      p("%s", snapshot);
+    }
+    p("*** metrics dump end");
+  }
+
+  /**
+   * gauges of native memory, caches and pools (see Resources)
+   *
+   * @return name and current value per gauge
+   */
+  public static Map<String, Long> getResources() {
+    return Resources.getGauges();
+  }
+
+  public static void dumpResources() {
+    p("*** resources dump");
+    for (Map.Entry<String, Long> gauge : getResources().entrySet()) {
+      p("%s = %d", gauge.getKey(), gauge.getValue());
+    }
+    p("*** resources dump end");
+  }
+  //</editor-fold>
+
   //<editor-fold desc="06*** system/java version info">
 
   /**
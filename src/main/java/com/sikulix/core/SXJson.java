@@ -6,6 +6,11 @@ package com.sikulix.core;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.util.Base64;
 
 public class SXJson {
 
@@ -80,19 +85,42 @@ public class SXJson {
     return SX.isNotNull(theJsonArray);
   }
 
-//TODO Base64
-//  private String toBase64(Mat image) {
-//    MatOfByte mobImage = new MatOfByte();
-//    Highgui.imencode("png", image, mobImage);
-//    byte[] bImage = mobImage.toArray();
-//    String b64Image = Base64.getEncoder().encodeToString(bImage);
-//    return b64Image;
-//  }
-//
-//  private Mat fromBase64(String image) {
-//    byte[] bImage = Base64.getDecoder().decode(image);
-//    Mat mImage = new Mat();
-//    mImage.put(0,0,bImage);
-//    return Highgui.imdecode(mImage, CV_LOAD_IMAGE_COLOR);
-//  }
+  /**
+   * @param image BGR content
+   * @return the content as PNG in Base64 (for JSON), null if not possible
+   */
+  public static String toBase64(Mat image) {
+    SX.loadNative(SX.NATIVES.OPENCV);
+    MatOfByte png = new MatOfByte();
+    if (SX.isNull(image) || image.empty() || !Imgcodecs.imencode(".png", image, png)) {
+      log.error("toBase64: not possible: %s", image);
+      return null;
+    }
+    String b64Image = Base64.getEncoder().encodeToString(png.toArray());
+    png.release();
+    return b64Image;
+  }
+
+  /**
+   * @param image an image file's content (PNG, JPG, ...) in Base64
+   * @return the content (BGR), null if not decodable
+   */
+  public static Mat fromBase64(String image) {
+    SX.loadNative(SX.NATIVES.OPENCV);
+    byte[] bImage;
+    try {
+      bImage = Base64.getDecoder().decode(image);
+    } catch (IllegalArgumentException ex) {
+      log.error("fromBase64: not Base64: %s", ex.getMessage());
+      return null;
+    }
+    MatOfByte encoded = new MatOfByte(bImage);
+    Mat mImage = Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_COLOR);
+    encoded.release();
+    if (mImage.empty()) {
+      log.error("fromBase64: not an image (%d bytes)", bImage.length);
+      return null;
+    }
+    return mImage;
+  }
 }
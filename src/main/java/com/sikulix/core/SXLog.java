@@ -13,6 +13,10 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 public class SXLog {
 
@@ -103,6 +107,9 @@ public class SXLog {
       } else {
         globalLevel = ERROR;
       }
+      if ("true".equals(System.getProperty("sikulix.logging.async"))) {
+        setAsync(true);
+      }
     }
     on(initLevel);
     initLevel = currentLevel;
@@ -203,12 +210,89 @@ public class SXLog {
   }
 
   public void trace(String message, Object... args) {
+    if (!isLogging(TRACE)) {
+      return;
+    }
+    log(TRACE, withTiming(message), args);
+  }
+
+  //<editor-fold desc="lazy variants">
+  // the fixed arity variants avoid the varargs array, the level is checked before anything else is done
+
+  public boolean isDebug() {
+    return isLogging(DEBUG);
+  }
+
+  public boolean isTrace() {
+    return isLogging(TRACE);
+  }
+
+  public void trace(String message, Object arg) {
+    if (isLogging(TRACE)) {
+      log(TRACE, withTiming(message), arg);
+    }
+  }
+
+  public void trace(String message, Object arg1, Object arg2) {
+    if (isLogging(TRACE)) {
+      log(TRACE, withTiming(message), arg1, arg2);
+    }
+  }
+
+  public void trace(String message, Object arg1, Object arg2, Object arg3) {
+    if (isLogging(TRACE)) {
+      log(TRACE, withTiming(message), arg1, arg2, arg3);
+    }
+  }
+
+  public void debug(String message, Object arg) {
+    if (isLogging(DEBUG)) {
+      log(DEBUG, message, arg);
+    }
+  }
+
+  public void debug(String message, Object arg1, Object arg2) {
+    if (isLogging(DEBUG)) {
+      log(DEBUG, message, arg1, arg2);
+    }
+  }
+
+  /**
+   * the message is only built, if trace is on (taken as is: no formatting, no translation)
+   *
+   * @param message supplies the message text
+   */
+  public void trace(Supplier<String> message) {
+    if (isLogging(TRACE)) {
+      logText(TRACE, withTiming(message.get()));
+    }
+  }
+
+  /**
+   * the message is only built, if debug is on (taken as is: no formatting, no translation)
+   *
+   * @param message supplies the message text
+   */
+  public void debug(Supplier<String> message) {
+    if (isLogging(DEBUG)) {
+      logText(DEBUG, message.get());
+    }
+  }
+
+  public void info(Supplier<String> message) {
+    if (isLogging(INFO)) {
+      logText(INFO, message.get());
+    }
+  }
+  //</editor-fold>
+
+  private String withTiming(String message) {
     if (globalStart > 0) {
       long lap = new Date().getTime();
       message = "G(" + (lap - globalStart) + " | " + (lap - globalLap) + ") " + message;
       globalLap = lap;
     }
-    log(TRACE, message, args);
+    return message;
   }
 
   public void fatal(String message, Object... args) {
@@ -222,32 +306,57 @@ public class SXLog {
     } else {
       log(INFO, message, args);
     }
+    flush();
     System.exit(retval);
   }
 
   private void log(int level, String message, Object... args) {
+    if (!isLogging(level)) {
+      return;
+    }
     String msgPlus = "";
     if (level == FATAL) {
       msgPlus = "terminating";
     }
-    if (isLogging(level)) {
-      message = getTranslation(message, msgPlus);
-      if (!message.startsWith("!")) {
-        message = String.format(message, args).replaceAll("\\n", " ");
-      } else {
-        message = String.format(message.substring(1), args);
-      }
-      if (level == DEBUG) {
-        logger.debug(message, args);
-      } else if (level > DEBUG) {
-        logger.trace(message, args);
-      } else if (level == ERROR) {
-        if (logError) {
-          logger.error(message, args);
-        }
-      } else {
-        logger.info(message, args);
+    message = getTranslation(message, msgPlus);
+    if (!message.startsWith("!")) {
+      message = String.format(message, args);
+      if (message.indexOf('\n') > -1) {
+        message = message.replace('\n', ' ');
       }
+    } else {
+      message = String.format(message.substring(1), args);
+    }
+    write(level, message);
+  }
+
+  private void logText(int level, String message) {
+    if (message.indexOf('\n') > -1) {
+      message = message.replace('\n', ' ');
+    }
+    write(level, message);
+  }
+
+  private void write(int level, String message) {
+    if (level == ERROR && !logError) {
+      return;
+    }
+    AsyncWriter writer = asyncWriter;
+    if (SX.isNotNull(writer) && level != FATAL && writer.offer(logger, level, message)) {
+      return;
+    }
+    write(logger, level, message);
+  }
+
+  private static void write(Logger logger, int level, String message) {
+    if (level == DEBUG) {
+      logger.debug(message);
+    } else if (level > DEBUG) {
+      logger.trace(message);
+    } else if (level == ERROR) {
+      logger.error(message);
+    } else {
+      logger.info(message);
     }
   }
 
@@ -264,6 +373,129 @@ public class SXLog {
     return currentLevel >= level || globalLevel >= level;
   }
 
+  //<editor-fold desc="async writer">
+  private static volatile AsyncWriter asyncWriter = null;
+
+  /**
+   * switch the asynchronous output on or off (also: -Dsikulix.logging.async=true)<br>
+   * when on, the messages are formatted by the caller but written by a background thread,
+   * fed through a bounded ring buffer (size: -Dsikulix.logging.buffer, default 8192)<br>
+   * if the buffer is full, messages are dropped (counted) instead of slowing down the caller
+   *
+   * @param state true/false
+   */
+  public static synchronized void setAsync(boolean state) {
+    if (state && SX.isNull(asyncWriter)) {
+      int size = 8192;
+      try {
+        size = Integer.parseInt(System.getProperty("sikulix.logging.buffer", "8192"));
+      } catch (NumberFormatException ex) {
+      }
+      asyncWriter = new AsyncWriter(Math.max(size, 16));
+    } else if (!state && SX.isNotNull(asyncWriter)) {
+      AsyncWriter writer = asyncWriter;
+      asyncWriter = null;
+      writer.stop();
+    }
+  }
+
+  public static boolean isAsync() {
+    return SX.isNotNull(asyncWriter);
+  }
+
+  /**
+   * @return number of messages dropped so far because the async buffer was full
+   */
+  public static long getAsyncDropped() {
+    AsyncWriter writer = asyncWriter;
+    return SX.isNull(writer) ? 0 : writer.dropped.get();
+  }
+
+  /**
+   * write all messages buffered so far (no-op if not async)
+   */
+  public static void flush() {
+    AsyncWriter writer = asyncWriter;
+    if (SX.isNotNull(writer)) {
+      writer.drain();
+    }
+  }
+
+  private static class AsyncWriter implements Runnable {
+
+    private static class Entry {
+      final Logger logger;
+      final int level;
+      final String message;
+
+      Entry(Logger logger, int level, String message) {
+        this.logger = logger;
+        this.level = level;
+        this.message = message;
+      }
+    }
+
+    private final ArrayBlockingQueue<Entry> buffer;
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    AsyncWriter(int size) {
+      buffer = new ArrayBlockingQueue<>(size);
+      thread = new Thread(this, "SX.LogWriter");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    boolean offer(Logger logger, int level, String message) {
+      if (!running) {
+        return false;
+      }
+      if (!buffer.offer(new Entry(logger, level, message))) {
+        dropped.incrementAndGet();
+      }
+      return true;
+    }
+
+    /**
+     * taking and writing an entry holds the same lock as drain(), so the messages keep their order
+     */
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          synchronized (this) {
+            Entry entry = buffer.poll(100, TimeUnit.MILLISECONDS);
+            if (SX.isNotNull(entry)) {
+              write(entry.logger, entry.level, entry.message);
+            }
+          }
+        } catch (InterruptedException ex) {
+          break;
+        }
+      }
+      drain();
+    }
+
+    synchronized void drain() {
+      Entry entry;
+      while (SX.isNotNull(entry = buffer.poll())) {
+        write(entry.logger, entry.level, entry.message);
+      }
+    }
+
+    void stop() {
+      running = false;
+      thread.interrupt();
+      try {
+        thread.join(1000);
+      } catch (InterruptedException ex) {
+      }
+      drain();
+    }
+  }
+  //</editor-fold>
+
   //<editor-fold desc="translation">
   private static Map<String, Properties> translateProps = new HashMap<>();
 
@@ -278,6 +510,7 @@ public class SXLog {
   }
 
   private boolean translation = true;
+  private String translationClass = null;
 
   public void setTranslation(boolean state) {
     translation = state;
@@ -294,7 +527,10 @@ public class SXLog {
     if (msg.startsWith("!")) {
       return msg.substring(1);
     }
-    String clazz = logger.getName().replaceAll("\\.", "");
+    if (SX.isNull(translationClass)) {
+      translationClass = logger.getName().replace(".", "");
+    }
+    String clazz = translationClass;
     if (clazz.startsWith("SX_")) {
       return msg;
     }
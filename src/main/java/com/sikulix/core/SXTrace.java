@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * span based tracing of script runs, written as Chrome trace-event JSON
+ * (loadable in chrome://tracing or Perfetto)<br>
+ * start(file) ... stop() - or -Dsikulix.trace=file, written at JVM exit<br>
+ * spans are recorded into per thread buffers (only the owning thread writes, no locks)
+ * and are collected when the trace is stopped
+ */
+public class SXTrace {
+
+  private static final SXLog log = SX.getSXLog("SX.Trace");
+
+  private static volatile boolean active = false;
+  private static File traceFile = null;
+  private static long origin = System.nanoTime();
+  private static volatile int generation = 0;
+  private static final ConcurrentLinkedQueue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+  private static final ThreadLocal<Buffer> threadBuffer = new ThreadLocal<>();
+
+  static {
+    String fnTrace = System.getProperty("sikulix.trace");
+    if (SX.isSet(fnTrace)) {
+      start(new File(fnTrace));
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          stop();
+        }
+      });
+    }
+  }
+
+  //<editor-fold desc="control">
+  public static boolean isActive() {
+    return active;
+  }
+
+  /**
+   * start recording (a trace running already is dropped)
+   *
+   * @param file where stop() writes the trace
+   */
+  public static synchronized void start(File file) {
+    traceFile = file;
+    buffers.clear();
+    generation++;
+    origin = System.nanoTime();
+    active = true;
+    log.trace("start: recording to %s", file);
+  }
+
+  /**
+   * stop recording and write the trace file
+   *
+   * @return the trace file (null if not active or not written)
+   */
+  public static synchronized File stop() {
+    if (!active) {
+      return null;
+    }
+    active = false;
+    File file = traceFile;
+    try {
+      write(file);
+      log.trace("stop: written: %s", file);
+    } catch (IOException ex) {
+      log.error("stop: writing %s: %s", file, ex.getMessage());
+      file = null;
+    }
+    buffers.clear();
+    return file;
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="spans">
+  public static class Span implements AutoCloseable {
+    private final Buffer buffer;
+    private final String name;
+    private final String category;
+    private final long begin;
+    private String args = null;
+
+    private Span(Buffer buffer, String name, String category) {
+      this.buffer = buffer;
+      this.name = name;
+      this.category = category;
+      begin = System.nanoTime();
+    }
+
+    /**
+     * attach a value shown with the span (only recorded if tracing is active)
+     *
+     * @param key   name
+     * @param value toString() is used
+     * @return the span
+     */
+    public Span arg(String key, Object value) {
+      if (SX.isNotNull(buffer)) {
+        String entry = "\"" + escape(key) + "\":\"" + escape(String.valueOf(value)) + "\"";
+        args = SX.isNull(args) ? entry : args + "," + entry;
+      }
+      return this;
+    }
+
+    public void end() {
+      if (SX.isNotNull(buffer)) {
+        buffer.add(new Event(name, category, begin - origin, System.nanoTime() - begin, args));
+      }
+    }
+
+    @Override
+    public void close() {
+      end();
+    }
+  }
+
+  private static final Span NOSPAN = new Span(null, "", "");
+
+  /**
+   * begin a span on the current thread - end() it (or use try-with-resources)<br>
+   * spans on the same thread nest by time (e.g. click - find - capture)
+   *
+   * @param name     span name
+   * @param category e.g. action, find, capture, device, script, observe
+   * @return the span (a shared no-op span if tracing is not active)
+   */
+  public static Span begin(String name, String category) {
+    if (!active) {
+      return NOSPAN;
+    }
+    return new Span(getBuffer(), name, category);
+  }
+
+  /**
+   * record a span that began earlier and ends now (for code already taking System.nanoTime())
+   *
+   * @param name     span name
+   * @param category see begin()
+   * @param begin    System.nanoTime() at the start of the span
+   * @param target   shown as arg target (may be null)
+   */
+  public static void record(String name, String category, long begin, String target) {
+    if (!active) {
+      return;
+    }
+    String args = SX.isNull(target) ? null : "\"target\":\"" + escape(target) + "\"";
+    getBuffer().add(new Event(name, category, begin - origin, System.nanoTime() - begin, args));
+  }
+
+  /**
+   * a thread's buffer from an earlier trace (start() again) is replaced by a new one
+   */
+  private static Buffer getBuffer() {
+    Buffer buffer = threadBuffer.get();
+    if (SX.isNull(buffer) || buffer.generation != generation) {
+      Thread thread = Thread.currentThread();
+      buffer = new Buffer(thread.getId(), thread.getName(), generation);
+      threadBuffer.set(buffer);
+      buffers.add(buffer);
+    }
+    return buffer;
+  }
+
+  private static class Event {
+    final String name;
+    final String category;
+    final long begin;
+    final long duration;
+    final String args;
+
+    Event(String name, String category, long begin, long duration, String args) {
+      this.name = name;
+      this.category = category;
+      this.begin = begin;
+      this.duration = duration;
+      this.args = args;
+    }
+  }
+
+  /**
+   * append only, chunked; written by the owning thread, read by stop() via the volatile size
+   */
+  private static class Buffer {
+    private static final int CHUNK = 1024;
+    final long threadId;
+    final String threadName;
+    final int generation;
+    private Event[][] chunks = new Event[4][];
+    private volatile int size = 0;
+
+    Buffer(long threadId, String threadName, int generation) {
+      this.threadId = threadId;
+      this.threadName = threadName;
+      this.generation = generation;
+    }
+
+    void add(Event event) {
+      int index = size;
+      int nChunk = index / CHUNK;
+      if (nChunk >= chunks.length) {
+        chunks = Arrays.copyOf(chunks, chunks.length * 2);
+      }
+      if (SX.isNull(chunks[nChunk])) {
+        chunks[nChunk] = new Event[CHUNK];
+      }
+      chunks[nChunk][index % CHUNK] = event;
+      size = index + 1;
+    }
+
+    List<Event> getEvents() {
+      int count = size;
+      Event[][] published = chunks;
+      List<Event> events = new ArrayList<>(count);
+      for (int n = 0; n < count; n++) {
+        events.add(published[n / CHUNK][n % CHUNK]);
+      }
+      return events;
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="write">
+  private static void write(File file) throws IOException {
+    if (SX.isNotNull(file.getParentFile())) {
+      file.getParentFile().mkdirs();
+    }
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+      writer.write("{\"traceEvents\":[\n");
+      boolean first = true;
+      for (Buffer buffer : buffers) {
+        if (!first) {
+          writer.write(",\n");
+        }
+        first = false;
+        writer.write(String.format(Locale.ROOT, "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":\"%s\"}}",
+                buffer.threadId, escape(buffer.threadName)));
+        for (Event event : buffer.getEvents()) {
+          writer.write(",\n");
+          writer.write(String.format(Locale.ROOT, "{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"pid\":1,\"tid\":%d," +
+                          "\"ts\":%.3f,\"dur\":%.3f%s}",
+                  escape(event.name), escape(event.category), buffer.threadId,
+                  event.begin / 1000.0, event.duration / 1000.0,
+                  SX.isNull(event.args) ? "" : ",\"args\":{" + event.args + "}"));
+        }
+      }
+      writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+    }
+  }
+
+  private static String escape(String text) {
+    StringBuilder escaped = new StringBuilder(text.length() + 8);
+    for (int n = 0; n < text.length(); n++) {
+      char c = text.charAt(n);
+      if (c == '"' || c == '\\') {
+        escaped.append('\\').append(c);
+      } else if (c < 0x20) {
+        escaped.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+      } else {
+        escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+  //</editor-fold>
+}
@@ -35,6 +35,13 @@ public abstract class IDevice {
 
   public abstract IDevice start(Object... args);
 
+  /**
+   * @return a short name identifying the device (used as tag in logs and metrics)
+   */
+  public String getName() {
+    return getClass().getSimpleName();
+  }
+
   public abstract void stop();
 
   public abstract boolean isValid();
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * the input actions (mouse, keyboard) a headless device received instead of executing them, in order
+ */
+public class InputLog {
+
+  public static class Entry {
+    private final long time;
+    private final String type;
+    private final int x;
+    private final int y;
+    private final String detail;
+
+    public Entry(long time, String type, int x, int y, String detail) {
+      this.time = time;
+      this.type = type;
+      this.x = x;
+      this.y = y;
+      this.detail = detail;
+    }
+
+    /**
+     * @return milliseconds since the device was started
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * @return move, click, button, wheel or key
+     */
+    public String getType() {
+      return type;
+    }
+
+    public int getX() {
+      return x;
+    }
+
+    public int getY() {
+      return y;
+    }
+
+    /**
+     * @return the action (e.g. LEFT, DOWN) and/or the key
+     */
+    public String getDetail() {
+      return detail;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("[%d] %s (%d, %d) %s", time, type, x, y, detail);
+    }
+  }
+
+  private final List<Entry> entries = new ArrayList<>();
+
+  public synchronized void add(Entry entry) {
+    entries.add(entry);
+    notifyAll();
+  }
+
+  /**
+   * wait until entries of the type have arrived (e.g. from another thread or over the network)
+   *
+   * @param type   move, click, button, wheel or key
+   * @param count  entries of the type wanted
+   * @param millis max time to wait
+   * @return false if there are fewer entries of the type after millis
+   */
+  public synchronized boolean waitFor(String type, int count, long millis) {
+    long end = System.currentTimeMillis() + millis;
+    while (getEntries(type).size() < count) {
+      long wait = end - System.currentTimeMillis();
+      if (wait <= 0) {
+        return false;
+      }
+      try {
+        wait(wait);
+      } catch (InterruptedException ex) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public synchronized List<Entry> getEntries() {
+    return new ArrayList<>(entries);
+  }
+
+  /**
+   * @param type move, click, button, wheel or key
+   * @return the entries of the type
+   */
+  public synchronized List<Entry> getEntries(String type) {
+    List<Entry> typed = new ArrayList<>();
+    for (Entry entry : entries) {
+      if (entry.type.equals(type)) {
+        typed.add(entry);
+      }
+    }
+    return typed;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("InputLog: %d entries", entries.size());
+  }
+}
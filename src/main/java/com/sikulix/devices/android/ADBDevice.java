@@ -7,11 +7,7 @@ package com.sikulix.devices.android;
 import com.sikulix.api.Picture;
 import com.sikulix.core.Content;
 import com.sikulix.core.SX;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.imgproc.Imgproc;
-import se.vidstige.jadb.JadbDevice;
-import se.vidstige.jadb.JadbException;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -23,6 +19,8 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,9 +33,7 @@ public class ADBDevice {
     //Debug.logx(level, "ADBDevice: " + message, args);
   }
 
-  private JadbDevice device = null;
-  private int devW = -1;
-  private int devH = -1;
+  private ADBTransport device = null;
   private ADBRobot robot = null;
   private ADBScreen screen = null;
 
@@ -53,42 +49,45 @@ public class ADBDevice {
   public static int KEY_MENU = 82;
   public static int KEY_POWER = 26;
 
-  private ADBDevice() {
+  /**
+   * @param transport the connection to the device (e.g. JadbTransport.of(ADBClient.getDevice()))
+   */
+  public ADBDevice(ADBTransport transport) {
+    device = transport;
+    deviceProps = Arrays.asList(exec("getprop").split("\n"));
+    //[ro.build.version.release]: [6.0.1]
+    //[ro.product.brand]: [google]
+    //[ro.product.manufacturer]: [asus]
+    //[ro.product.model]: [Nexus 7]
+    //[ro.product.name]: [razor]
+    //[ro.serialno]: [094da986]
+    Pattern pProp = Pattern.compile("\\[(.*?)\\]:.*?\\[(.*)\\]");
+    Matcher mProp = null;
+    String val = "";
+    String key = "";
+    for (String prop : deviceProps) {
+      if (!prop.startsWith("[ro.")) continue;
+      mProp = pProp.matcher(prop);
+      if (mProp.find()) {
+        key = mProp.group(1);
+        if (key.contains("build.version.release")) {
+          val = mProp.group(2);
+          try {
+            deviceVersion = Integer.parseInt(val.split("\\.")[0]);
+            sDeviceVersion = val;
+          } catch (Exception e) {
+          }
+        }
+      }
+    }
+    screencap.setHeaderSize(deviceVersion >= 9 ? 16 : 12);
   }
 
   public static ADBDevice init() {
     if (adbDevice == null) {
-      adbDevice = new ADBDevice();
-      adbDevice.device = ADBClient.getDevice();
-      if (adbDevice.device == null) {
-        adbDevice = null;
-      } else {
-        adbDevice.deviceProps = Arrays.asList(adbDevice.exec("getprop").split("\n"));
-        //[ro.build.version.release]: [6.0.1]
-        //[ro.product.brand]: [google]
-        //[ro.product.manufacturer]: [asus]
-        //[ro.product.model]: [Nexus 7]
-        //[ro.product.name]: [razor]
-        //[ro.serialno]: [094da986]
-        Pattern pProp = Pattern.compile("\\[(.*?)\\]:.*?\\[(.*)\\]");
-        Matcher mProp = null;
-        String val = "";
-        String key = "";
-        for (String prop : adbDevice.deviceProps) {
-          if (!prop.startsWith("[ro.")) continue;
-          mProp = pProp.matcher(prop);
-          if (mProp.find()) {
-            key = mProp.group(1);
-            if (key.contains("build.version.release")) {
-              val = mProp.group(2);
-              try {
-                adbDevice.deviceVersion = Integer.parseInt(val.split("\\.")[0]);
-                adbDevice.sDeviceVersion = val;
-              } catch (Exception e) {
-              }
-            }
-          }
-        }
+      ADBTransport transport = JadbTransport.of(ADBClient.getDevice());
+      if (transport != null) {
+        adbDevice = new ADBDevice(transport);
         log(lvl, "init: %s", adbDevice.toString());
       }
     }
@@ -96,6 +95,9 @@ public class ADBDevice {
   }
 
   public static void reset() {
+    if (adbDevice != null) {
+      adbDevice.closeShell();
+    }
     adbDevice = null;
     ADBClient.reset();
   }
@@ -117,15 +119,146 @@ public class ADBDevice {
     return device.getSerial();
   }
 
+  public int getVersion() {
+    return deviceVersion;
+  }
+
   public Rectangle getBounds() {
-    if (devW < 0) {
-      Dimension dim = getDisplayDimension();
-      devW = (int) dim.getWidth();
-      devH = (int) dim.getHeight();
+    return getGeometry().getBounds();
+  }
+
+  //<editor-fold desc="geometry">
+
+  /**
+   * the display as screencap and input see it: the size in the current orientation
+   * and the rotation (0 - 3, 90 degrees each, from the natural orientation)
+   */
+  public static class Geometry {
+    public final int width;
+    public final int height;
+    public final int rotation;
+
+    public Geometry(int width, int height, int rotation) {
+      this.width = width;
+      this.height = height;
+      this.rotation = rotation;
+    }
+
+    public Rectangle getBounds() {
+      return new Rectangle(0, 0, width, height);
+    }
+
+    public boolean isLandscape() {
+      return width > height;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Geometry)) {
+        return false;
+      }
+      Geometry geometry = (Geometry) other;
+      return width == geometry.width && height == geometry.height && rotation == geometry.rotation;
+    }
+
+    @Override
+    public int hashCode() {
+      return (width * 31 + height) * 31 + rotation;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%dx%d rotation %d", width, height, rotation);
+    }
+  }
+
+  private volatile Geometry geometry = null;
+  private final List<Consumer<Geometry>> geometryListeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * @return the cached geometry (dumpsys display only on first use and after an orientation change)
+   */
+  public Geometry getGeometry() {
+    Geometry current = geometry;
+    return SX.isNull(current) ? refreshGeometry() : current;
+  }
+
+  /**
+   * read the geometry from the device again (listeners are told, if it changed)
+   */
+  public Geometry refreshGeometry() {
+    return updateGeometry(parseGeometry(dumpsys("display")));
+  }
+
+  /**
+   * @param listener called with the new geometry after the orientation (or size) changed
+   */
+  public void addGeometryListener(Consumer<Geometry> listener) {
+    geometryListeners.add(listener);
+  }
+
+  public void removeGeometryListener(Consumer<Geometry> listener) {
+    geometryListeners.remove(listener);
+  }
+
+  private Geometry updateGeometry(Geometry next) {
+    Geometry previous;
+    synchronized (geometryListeners) {
+      previous = geometry;
+      if (SX.isNull(next)) {
+        log(-1, "getGeometry: dumpsys display: display size not found");
+        next = SX.isNull(previous) ? new Geometry(0, 0, 0) : previous;
+      }
+      geometry = next;
+    }
+    if (SX.isNotNull(previous) && !previous.equals(next)) {
+      log(lvl, "geometry changed: %s (was %s)", next, previous);
+      for (Consumer<Geometry> listener : geometryListeners) {
+        listener.accept(next);
+      }
+    }
+    return next;
+  }
+
+  /**
+   * each screencap tells the current screen size: a different size is taken as orientation change
+   */
+  private void checkGeometry(int width, int height) {
+    Geometry current = geometry;
+    if (SX.isNull(current) || (current.width == width && current.height == height)) {
+      return;
+    }
+    Geometry next = refreshGeometry();
+    if (next.width != width || next.height != height) {
+      updateGeometry(new Geometry(width, height, width == current.height ? (current.rotation + 1) % 4 : 0));
+    }
+  }
+
+  /**
+   * @param dump output of dumpsys display, e.g.<br>
+   *             mDefaultViewport=DisplayViewport{valid=true, displayId=0, orientation=0, ... deviceWidth=1200, deviceHeight=1920}
+   * @return the geometry of the default display, null if not found
+   */
+  static Geometry parseGeometry(String dump) {
+    Matcher viewport = Pattern.compile("(?:mDefaultViewport|mViewports)(.*?deviceHeight=\\d+)").matcher(dump);
+    if (!viewport.find()) {
+      return null;
+    }
+    String fields = viewport.group(1);
+    int width = parseField(fields, "deviceWidth");
+    int height = parseField(fields, "deviceHeight");
+    if (width < 1 || height < 1) {
+      return null;
     }
-    return new Rectangle(0, 0, devW, devH);
+    return new Geometry(width, height, Math.max(0, parseField(fields, "orientation")));
   }
 
+  private static int parseField(String fields, String name) {
+    Matcher field = Pattern.compile("\\b" + name + "=(\\d+)").matcher(fields);
+    return field.find() ? Integer.parseInt(field.group(1)) : -1;
+  }
+  //</editor-fold>
+
   public Picture captureScreen() {
     BufferedImage bimg = captureDeviceScreen();
     return new Picture(bimg);
@@ -137,11 +270,12 @@ public class ADBDevice {
   }
 
   public BufferedImage captureDeviceScreen() {
-    return captureDeviceScreen(0, 0, devW, devH);
+    Geometry current = getGeometry();
+    return captureDeviceScreen(0, 0, current.width, current.height);
   }
 
   public BufferedImage captureDeviceScreen(int y, int _h) {
-    return captureDeviceScreen(0, y, devW, _h);
+    return captureDeviceScreen(0, y, getGeometry().width, _h);
   }
 
   public BufferedImage captureDeviceScreen(int x, int y, int w, int h) {
@@ -155,82 +289,25 @@ public class ADBDevice {
     return bImage;
   }
 
+  private final ScreencapReader screencap = new ScreencapReader();
+
+  /**
+   * @return the area of the screen (BGR), null if the capture failed
+   */
   public Mat captureDeviceScreenMat(int x, int y, int w, int h) {
-    byte[] imagePrefix = new byte[12];
-    byte[] image = new byte[0];
-    int actW = w;
-    if (x + w > devW) {
-      actW = devW - x;
+    waitInputDone();
+    long start = System.currentTimeMillis();
+    Rectangle area = new Rectangle(x, y, w, h);
+    try (InputStream stdout = device.executeShell("screencap")) {
+      Mat matImage = screencap.read(stdout, area);
+      checkGeometry(screencap.getWidth(), screencap.getHeight());
+      log(lvl, "captureDeviceScreenMat:[%d,%d %dx%d] %d", x, y, matImage.cols(), matImage.rows(),
+              System.currentTimeMillis() - start);
+      return matImage;
+    } catch (IOException e) {
+      log(-1, "captureDeviceScreenMat: [%d,%d %dx%d] %s", x, y, w, h, e);
     }
-    int actH = h;
-    if (y + h > devH) {
-      actH = devH - y;
-    }
-    //Debug timer = Debug.startTimer();
-    try {
-      InputStream stdout = device.executeShell("screencap");
-      stdout.read(imagePrefix);
-      if (imagePrefix[8] != 0x01) {
-        log(-1, "captureDeviceScreenMat: image type not RGBA");
-        return null;
-      }
-      if (byte2int(imagePrefix, 0, 4) != devW || byte2int(imagePrefix, 4, 4) != devH) {
-        log(-1, "captureDeviceScreenMat: width or height differ from device values");
-        return null;
-      }
-      image = new byte[actW * actH * 4];
-      int lenRow = devW * 4;
-      byte[] row = new byte[lenRow];
-      for (int count = 0; count < y; count++) {
-        stdout.read(row);
-      }
-      boolean shortRow = x + actW < devW;
-      for (int count = 0; count < actH; count++) {
-        if (shortRow) {
-          stdout.read(row);
-          System.arraycopy(row, x * 4, image, count * actW * 4, actW * 4);
-        } else {
-          stdout.read(image, count * actW * 4, actW * 4);
-        }
-      }
-      long duration = 0; //timer.end();
-      log(lvl, "captureDeviceScreenMat:[%d,%d %dx%d] %d", x, y, actW, actH, duration);
-    } catch (IOException | JadbException e) {
-      log(-1, "captureDeviceScreenMat: [%d,%d %dx%d] %s", x, y, actW, actH, e);
-    }
-    Mat matOrg = new Mat(actH, actW, CvType.CV_8UC4);
-    matOrg.put(0, 0, image);
-    Mat matImage = new Mat();
-    Imgproc.cvtColor(matOrg, matImage, Imgproc.COLOR_RGBA2BGR, 3);
-    return matImage;
-  }
-
-  private int byte2int(byte[] bytes, int start, int len) {
-    int val = 0;
-    int fact = 1;
-    for (int i = start; i < start + len; i++) {
-      int b = bytes[i] & 0xff;
-      val += b * fact;
-      fact *= 256;
-    }
-    return val;
-  }
-
-  private Dimension getDisplayDimension() {
-    String dump = dumpsys("display");
-    String token = "mDefaultViewport= ... deviceWidth=1200, deviceHeight=1920}";
-    Dimension dim = null;
-    Pattern displayDimension = Pattern.compile(
-            "mDefaultViewport.*?=.*?deviceWidth=(\\d*).*?deviceHeight=(\\d*)");
-    Matcher match = displayDimension.matcher(dump);
-    if (match.find()) {
-      int w = Integer.parseInt(match.group(1));
-      int h = Integer.parseInt(match.group(2));
-      dim = new Dimension(w, h);
-    } else {
-      log(-1, "getDisplayDimension: dumpsys display: token not found: %s", token);
-    }
-    return dim;
+    return null;
   }
 
   public String exec(String command, String... args) {
@@ -239,7 +316,7 @@ public class ADBDevice {
     try {
       stdout = device.executeShell(command, args);
       out = inputStreamToString(stdout, "UTF-8");
-    } catch (IOException | JadbException e) {
+    } catch (IOException e) {
       log(-1, "exec: %s: %s", command, e);
     }
     return out;
@@ -258,7 +335,7 @@ public class ADBDevice {
         stdout = device.executeShell("dumpsys", component);
       }
       out = inputStreamToString(stdout, "UTF-8");
-    } catch (IOException | JadbException e) {
+    } catch (IOException e) {
       log(-1, "dumpsys: %s: %s", component, e);
     }
     return out;
@@ -309,7 +386,7 @@ public class ADBDevice {
         log(-1, "wakeUp: not possible - see log");
         return;
       }
-      device.executeShell("input", "keyevent", "26");
+      inputKeyEvent(KEY_POWER);
       while (0 < times--) {
         if (isDisplayOn()) {
           return;
@@ -346,29 +423,85 @@ public class ADBDevice {
     return null;
   }
 
-  public void inputKeyEvent(int key) {
-    try {
-      device.executeShell("input", "keyevent", Integer.toString(key));
-    } catch (Exception e) {
-      log(-1, "inputKeyEvent: %d did not work: %s", e.getMessage());
+  //<editor-fold desc="input">
+  private ADBShell shell = null;
+
+  /**
+   * milliseconds to wait for queued input commands to finish on the device (before a capture, ...)
+   */
+  public static int inputTimeout = 10000;
+
+  /**
+   * milliseconds before adb shell is started again, after it could not be started (adb not on PATH, ...)
+   */
+  public static int shellRetryInterval = 60000;
+
+  private long shellRetry = 0;
+
+  private synchronized ADBShell getShell() {
+    if (SX.isNotNull(shell) && shell.isAlive()) {
+      return shell;
+    }
+    shell = null;
+    if (System.currentTimeMillis() < shellRetry) {
+      return null;
     }
+    shell = device.openShell();
+    if (SX.isNull(shell)) {
+      shellRetry = System.currentTimeMillis() + shellRetryInterval;
+      log(-1, "getShell: adb shell not available - one connection per command for %d secs",
+              shellRetryInterval / 1000);
+    }
+    return shell;
   }
 
-  public void tap(int x, int y) {
-    try {
-      device.executeShell("input tap", Integer.toString(x), Integer.toString(y));
-    } catch (IOException | JadbException e) {
-      log(-1, "tap: %s", e);
+  /**
+   * queue an input command in the device's shell (one new shell connection per command,
+   * waiting for its end, if adb shell could not be started)
+   */
+  private void input(String what, String command) {
+    ADBShell inputShell = getShell();
+    if (SX.isNotNull(inputShell)) {
+      inputShell.submit(command);
+      return;
+    }
+    try (InputStream stdout = device.executeShell(command)) {
+      inputStreamToString(stdout, "UTF-8");
+    } catch (IOException e) {
+      log(-1, "%s: %s", what, e);
     }
   }
 
-  public void swipe(int x1, int y1, int x2, int y2) {
-    try {
-      device.executeShell("input swipe", Integer.toString(x1), Integer.toString(y1),
-              Integer.toString(x2), Integer.toString(y2));
-    } catch (IOException | JadbException e) {
-      log(-1, "swipe: %s", e);
+  /**
+   * wait until the input commands queued so far have finished on the device
+   *
+   * @return false if the shell failed or inputTimeout was not enough
+   */
+  public boolean waitInputDone() {
+    ADBShell inputShell;
+    synchronized (this) {
+      inputShell = shell;
     }
+    return SX.isNull(inputShell) || inputShell.waitIdle(inputTimeout);
+  }
+
+  public void inputKeyEvent(int key) {
+    input("inputKeyEvent", "input keyevent " + key);
+  }
+
+  public void tap(int x, int y) {
+    input("tap", String.format("input tap %d %d", x, y));
+  }
+
+  public void swipe(int x1, int y1, int x2, int y2) {
+    input("swipe", String.format("input swipe %d %d %d %d", x1, y1, x2, y2));
+  }
+
+  /**
+   * @param millis duration of the move (a long press, if the points are equal)
+   */
+  public void swipe(int x1, int y1, int x2, int y2, int millis) {
+    input("swipe", String.format("input swipe %d %d %d %d %d", x1, y1, x2, y2, millis));
   }
 
   private String textBuffer = "";
@@ -396,14 +529,21 @@ public class ADBDevice {
     }
   }
 
-  public static float inputDelay = 0.05f;
-
   public void input(String text) {
-    try {
-      device.executeShell("input text ", text);
-      SX.pause(text.length() * inputDelay);
-    } catch (Exception e) {
-      log(-1, "input: %s", e);
+    if (SX.isNotNull(text) && !text.isEmpty()) {
+      input("input", "input text " + ADBShell.quoteText(text));
+    }
+  }
+
+  /**
+   * close the input shell (opened again with the next input, also if it could not be started before)
+   */
+  public synchronized void closeShell() {
+    shellRetry = 0;
+    if (SX.isNotNull(shell)) {
+      shell.close();
+      shell = null;
     }
   }
+  //</editor-fold>
 }
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.android;
+
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * one interactive shell on the device (adb shell), that stays open: commands are written one after
+ * the other without waiting (pipelined), each followed by an echo of a marker with its exit status,
+ * so the reader thread knows, when a command has finished on the device<br>
+ * used for the input commands (tap, swipe, keyevent, text), that otherwise would need a new
+ * shell connection each and a guessed pause afterwards
+ */
+public class ADBShell implements Closeable {
+
+  private static final SXLog log = SX.getSXLog("SX.ADBShell");
+
+  private static final String MARKER = "__sx_done";
+
+  private final String name;
+  private final OutputStream stdin;
+  private final Process process;
+  private final Deque<Command> pending = new ArrayDeque<>();
+  private long nextId = 1;
+  private volatile boolean alive = true;
+
+  private static class Command {
+    final long id;
+    final String line;
+    final StringBuilder output = new StringBuilder();
+    final CompletableFuture<Integer> done = new CompletableFuture<>();
+
+    Command(long id, String line) {
+      this.id = id;
+      this.line = line;
+    }
+  }
+
+  /**
+   * start adb shell for the device (the adb executable must be on the path)
+   *
+   * @param serial the device's serial
+   * @return the shell, null if adb could not be started
+   */
+  public static ADBShell open(String serial) {
+    try {
+      Process process = new ProcessBuilder("adb", "-s", serial, "shell").redirectErrorStream(true).start();
+      return new ADBShell(serial, process.getOutputStream(), process.getInputStream(), process);
+    } catch (IOException ex) {
+      log.error("open: %s: %s", serial, ex.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * a shell on any streams (e.g. a fake device in tests)
+   *
+   * @param name   for logging
+   * @param stdin  the commands are written to
+   * @param stdout the output and the markers are read from
+   */
+  public ADBShell(String name, OutputStream stdin, InputStream stdout) {
+    this(name, stdin, stdout, null);
+  }
+
+  private ADBShell(String name, OutputStream stdin, InputStream stdout, Process process) {
+    this.name = name;
+    this.stdin = stdin;
+    this.process = process;
+    Thread reader = new Thread(() -> readAll(stdout), "SX.ADBShell." + name);
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  public boolean isAlive() {
+    return alive;
+  }
+
+  //<editor-fold desc="commands">
+
+  /**
+   * queue the command (returns at once, the command runs after those queued before)
+   *
+   * @param command a shell command line
+   * @return completes with the exit status, when the command has finished on the device
+   * (exceptionally, if the shell ended before)
+   */
+  public CompletableFuture<Integer> submit(String command) {
+    Command next;
+    synchronized (stdin) {
+      synchronized (pending) {
+        next = new Command(nextId++, command);
+        if (!alive) {
+          next.done.completeExceptionally(new IOException("shell closed: " + name));
+          return next.done;
+        }
+        pending.add(next);
+      }
+      // not holding pending here: the reader must be able to go on, while a full pipe blocks the write
+      try {
+        stdin.write(String.format("%s; echo %s %d $?\n", command, MARKER, next.id)
+                .getBytes(StandardCharsets.UTF_8));
+        stdin.flush();
+      } catch (IOException ex) {
+        log.error("%s: write: %s", name, ex.getMessage());
+        end(ex);
+      }
+    }
+    log.trace("%s: submit #%d: %s", name, next.id, command);
+    return next.done;
+  }
+
+  /**
+   * run the command and wait for its end
+   *
+   * @return the exit status, -1 if the shell failed or the command did not end in time
+   */
+  public int run(String command, long timeoutMillis) {
+    try {
+      return submit(command).get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException | ExecutionException | TimeoutException ex) {
+      log.error("%s: run: %s: %s", name, command, ex);
+      return -1;
+    }
+  }
+
+  /**
+   * wait until all queued commands have finished
+   *
+   * @return false if the shell failed or the time was not enough
+   */
+  public boolean waitIdle(long timeoutMillis) {
+    Command last;
+    synchronized (pending) {
+      last = pending.peekLast();
+    }
+    if (SX.isNull(last)) {
+      return alive;
+    }
+    try {
+      last.done.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      return true;
+    } catch (InterruptedException | ExecutionException | TimeoutException ex) {
+      log.error("%s: waitIdle: %s", name, ex);
+      return false;
+    }
+  }
+
+  public int getPendingCount() {
+    synchronized (pending) {
+      return pending.size();
+    }
+  }
+
+  /**
+   * @return the text arguments for input text: quoted for the shell, space as %s
+   */
+  public static String quoteText(String text) {
+    return "'" + text.replace(" ", "%s").replace("'", "'\\''") + "'";
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="reader">
+  private void readAll(InputStream stdout) {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(stdout, StandardCharsets.UTF_8));
+    try {
+      String line;
+      while (SX.isNotNull(line = reader.readLine())) {
+        int markerAt = line.indexOf(MARKER + " ");
+        if (markerAt < 0) {
+          synchronized (pending) {
+            Command current = pending.peekFirst();
+            if (SX.isNotNull(current)) {
+              current.output.append(line).append("\n");
+            }
+          }
+          continue;
+        }
+        finished(line.substring(markerAt + MARKER.length() + 1).trim().split(" "));
+      }
+      end(new IOException("shell ended: " + name));
+    } catch (IOException ex) {
+      end(ex);
+    }
+  }
+
+  private void finished(String[] idAndStatus) {
+    long id;
+    int status;
+    try {
+      id = Long.parseLong(idAndStatus[0]);
+      status = idAndStatus.length > 1 ? Integer.parseInt(idAndStatus[1]) : -1;
+    } catch (NumberFormatException ex) {
+      log.error("%s: invalid marker: %s", name, String.join(" ", idAndStatus));
+      return;
+    }
+    while (true) {
+      Command command;
+      synchronized (pending) {
+        command = pending.peekFirst();
+        if (SX.isNull(command) || command.id > id) {
+          return;
+        }
+        pending.removeFirst();
+      }
+      if (command.output.length() > 0) {
+        log.trace("%s: #%d: %s", name, command.id, command.output.toString().trim());
+      }
+      if (command.id == id) {
+        if (status != 0) {
+          log.error("%s: %s: exit status %d", name, command.line, status);
+        }
+        command.done.complete(status);
+        return;
+      }
+      command.done.complete(-1);
+    }
+  }
+
+  private void end(IOException reason) {
+    synchronized (pending) {
+      if (!alive) {
+        return;
+      }
+      alive = false;
+      for (Command command : pending) {
+        command.done.completeExceptionally(reason);
+      }
+      pending.clear();
+    }
+    log.trace("%s: %s", name, reason.getMessage());
+  }
+  //</editor-fold>
+
+  @Override
+  public void close() {
+    synchronized (stdin) {
+      try {
+        stdin.write("exit\n".getBytes(StandardCharsets.UTF_8));
+        stdin.close();
+      } catch (IOException ex) {
+      }
+    }
+    end(new IOException("shell closed: " + name));
+    if (SX.isNotNull(process)) {
+      process.destroy();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ADBShell %s: %s, %d pending", name, alive ? "open" : "closed", getPendingCount());
+  }
+}
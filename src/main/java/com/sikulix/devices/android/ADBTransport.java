@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.android;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * how ADBDevice talks to a device: JadbTransport for a real device (adb server),
+ * VirtualADBTransport as stand-in (tests)
+ */
+public interface ADBTransport {
+
+  String getSerial();
+
+  /**
+   * run a shell command on the device
+   *
+   * @return its output (to be read to the end and closed by the caller)
+   * @throws IOException if the device cannot be reached
+   */
+  InputStream executeShell(String command, String... args) throws IOException;
+
+  /**
+   * @return an interactive shell, that stays open (null if not possible)
+   */
+  ADBShell openShell();
+}
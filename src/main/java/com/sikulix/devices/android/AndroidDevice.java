@@ -6,39 +6,125 @@ package com.sikulix.devices.android;
 
 import com.sikulix.api.Element;
 import com.sikulix.api.Picture;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
 import com.sikulix.devices.IDevice;
+import com.sikulix.devices.local.Keys;
 
 import java.awt.Rectangle;
+import java.awt.event.KeyEvent;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * an Android device as IDevice (Do.use(new AndroidDevice().start()) - then find, click, write, ... as on the desktop)<br>
+ * the screen geometry is cached by ADBDevice and refreshed, when a capture shows another size (orientation change),
+ * captures read only the wanted area from screencap, input goes through the device's persistent shell<br>
+ * touch instead of mouse: click = tap, right click = long press, drag/drop and wheel = swipe,
+ * move only sets the position used by the next button action
+ */
+public class AndroidDevice extends IDevice {
+
+  private static final SXLog log = SX.getSXLog("SX.AndroidDevice");
+
+  /**
+   * milliseconds a right click presses the touch screen
+   */
+  public static int longPressTime = 800;
+
+  /**
+   * milliseconds for drag/drop and wheel swipes
+   */
+  public static int swipeTime = 300;
 
-public class AndroidDevice extends IDevice{
+  private ADBDevice device = null;
+  private volatile Rectangle bounds = new Rectangle();
+  private final Consumer<ADBDevice.Geometry> geometryListener = geometry -> bounds = geometry.getBounds();
+  private int touchX = 0;
+  private int touchY = 0;
+  private Element pressed = null;
+  private final StringBuilder text = new StringBuilder();
+  private boolean typing = false;
+
+  //<editor-fold desc="device">
+
+  /**
+   * @param args optional: an ADBTransport or an ADBDevice (default: the first device attached to the adb server)
+   * @return this device, null if no device
+   */
   @Override
   public IDevice start(Object... args) {
-    return null;
+    if (args.length > 0 && args[0] instanceof ADBDevice) {
+      device = (ADBDevice) args[0];
+    } else if (args.length > 0 && args[0] instanceof ADBTransport) {
+      device = new ADBDevice((ADBTransport) args[0]);
+    } else {
+      device = ADBDevice.init();
+    }
+    if (SX.isNull(device)) {
+      log.error("start: no Android device");
+      return null;
+    }
+    device.addGeometryListener(geometryListener);
+    bounds = device.getGeometry().getBounds();
+    log.trace("start: %s", this);
+    return this;
   }
 
   @Override
-  public void stop() {
+  public String getName() {
+    return "android";
+  }
 
+  @Override
+  public void stop() {
+    if (SX.isNotNull(device)) {
+      device.removeGeometryListener(geometryListener);
+      device.closeShell();
+      device = null;
+    }
   }
 
   @Override
   public boolean isValid() {
-    return false;
+    return SX.isNotNull(device) && !bounds.isEmpty();
+  }
+
+  public ADBDevice getADBDevice() {
+    return device;
+  }
+
+  /**
+   * @return the cached geometry (size in the current orientation, rotation)
+   */
+  public ADBDevice.Geometry getGeometry() {
+    return device.getGeometry();
+  }
+
+  /**
+   * read the geometry again (e.g. after rotating the device, if no capture was done since)
+   */
+  @Override
+  public void resetMonitors() {
+    if (SX.isNotNull(device)) {
+      bounds = device.refreshGeometry().getBounds();
+    }
   }
 
   @Override
   public int getNumberOfMonitors() {
-    return 0;
+    return 1;
   }
 
   @Override
   public Rectangle getMonitor(int... id) {
-    return null;
+    return new Rectangle(bounds);
   }
 
   @Override
   public Rectangle getAllMonitors() {
-    return null;
+    return new Rectangle(bounds);
   }
 
   @Override
@@ -51,14 +137,9 @@ public class AndroidDevice extends IDevice{
     return 0;
   }
 
-  @Override
-  public void resetMonitors() {
-
-  }
-
   @Override
   public Rectangle[] getMonitors() {
-    return new Rectangle[0];
+    return new Rectangle[]{new Rectangle(bounds)};
   }
 
   @Override
@@ -68,102 +149,277 @@ public class AndroidDevice extends IDevice{
 
   @Override
   public Element getContainingMonitor(Element element) {
-    return null;
+    return new Element(bounds);
   }
+  //</editor-fold>
 
+  //<editor-fold desc="touch">
   @Override
   public Element click(Element loc) {
-    return null;
+    return click(loc, Action.LEFT);
   }
 
   @Override
   public Element doubleClick(Element loc) {
-    return null;
+    return click(loc, Action.LEFTDOUBLE);
   }
 
   @Override
   public Element rightClick(Element loc) {
-    return null;
+    return click(loc, Action.RIGHT);
   }
 
   @Override
   public Element click(Action action) {
-    return null;
+    return click(null, action);
   }
 
   @Override
-  public Element click(Element loc, Action action) {
-    return null;
+  public synchronized Element click(Element loc, Action action) {
+    if (SX.isNotNull(loc)) {
+      setTouch(loc.getTarget());
+    }
+    switch (action) {
+      case LEFTDOUBLE:
+        device.tap(touchX, touchY);
+        device.tap(touchX, touchY);
+        break;
+      case RIGHT:
+      case RIGHTDOUBLE:
+        device.swipe(touchX, touchY, touchX, touchY, longPressTime);
+        break;
+      default:
+        device.tap(touchX, touchY);
+    }
+    return at();
   }
 
+  /**
+   * @param times optional: the seconds the swipe should take (default swipeTime)
+   */
   @Override
-  public Element dragDrop(Element from, Element to, Object... times) {
-    return null;
+  public synchronized Element dragDrop(Element from, Element to, Object... times) {
+    if (SX.isNotNull(from)) {
+      setTouch(from.getTarget());
+    }
+    Element start = at();
+    if (SX.isNotNull(to)) {
+      setTouch(to.getTarget());
+    }
+    int millis = swipeTime;
+    if (times.length > 0 && times[0] instanceof Number) {
+      millis = (int) (((Number) times[0]).doubleValue() * 1000);
+    }
+    device.swipe(start.x, start.y, touchX, touchY, millis);
+    return at();
   }
 
   @Override
-  public void keyStart() {
-
+  public synchronized Element move(int xoff, int yoff) {
+    return move(new Element(touchX + xoff, touchY + yoff));
   }
 
   @Override
-  public void keyStop() {
+  public synchronized Element move(Element loc) {
+    setTouch(loc);
+    return at();
+  }
 
+  private void setTouch(Element loc) {
+    touchX = Math.max(bounds.x, Math.min(bounds.x + bounds.width - 1, loc.x));
+    touchY = Math.max(bounds.y, Math.min(bounds.y + bounds.height - 1, loc.y));
   }
 
   @Override
-  public void key(Action action, Object key) {
-
+  public synchronized Element at() {
+    return new Element(touchX, touchY);
   }
 
   /**
-   * move the mouse from the current position to the offset given by the parameters
-   *
-   * @param xoff horizontal offset (&lt; 0 left, &gt; 0 right)
-   * @param yoff vertical offset (&lt; 0 up, &gt; 0 down)
-   * @return the new mouseposition as Element (might be invalid)
+   * LEFTDOWN ... move ... LEFTUP is a swipe from the down to the up position (a tap, if not moved)
    */
   @Override
-  public Element move(int xoff, int yoff) {
-    return null;
+  public synchronized void button(Action action) {
+    switch (action) {
+      case LEFTDOWN:
+        pressed = at();
+        break;
+      case LEFTUP:
+        if (SX.isNull(pressed)) {
+          break;
+        }
+        if (pressed.x == touchX && pressed.y == touchY) {
+          device.tap(touchX, touchY);
+        } else {
+          device.swipe(pressed.x, pressed.y, touchX, touchY, swipeTime);
+        }
+        pressed = null;
+        break;
+      default:
+        click(action);
+    }
   }
 
   /**
-   * move the mouse to the target of given Element (default center)
-   *
-   * @param loc
-   * @return the new mouseposition as Element (might be invalid)
+   * @param action UP: the content moves down (as the mouse wheel would do), DOWN: the content moves up
+   * @param steps  each a tenth of the screen height
    */
   @Override
-  public Element move(Element loc) {
-    return null;
+  public synchronized void wheel(Action action, int steps) {
+    int distance = Math.min(bounds.height / 2 - 1, Math.max(1, steps) * bounds.height / 10);
+    int x = bounds.width / 2;
+    int y = bounds.height / 2;
+    int to = Action.UP.equals(action) ? y + distance : y - distance;
+    device.swipe(x, y, x, to, swipeTime);
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="keys">
+  private static final Map<Integer, Integer> keyEvents = new HashMap<>();
+
+  static {
+    int[] pairs = new int[]{
+            KeyEvent.VK_ENTER, 66, KeyEvent.VK_BACK_SPACE, 67, KeyEvent.VK_TAB, 61, KeyEvent.VK_ESCAPE, 111,
+            KeyEvent.VK_SPACE, 62, KeyEvent.VK_DELETE, 112, KeyEvent.VK_INSERT, 124,
+            KeyEvent.VK_HOME, 122, KeyEvent.VK_END, 123, KeyEvent.VK_PAGE_UP, 92, KeyEvent.VK_PAGE_DOWN, 93,
+            KeyEvent.VK_UP, 19, KeyEvent.VK_DOWN, 20, KeyEvent.VK_LEFT, 21, KeyEvent.VK_RIGHT, 22};
+    for (int n = 0; n < pairs.length; n += 2) {
+      keyEvents.put(pairs[n], pairs[n + 1]);
+    }
   }
 
   /**
-   * @return the current mouseposition as Element (might be invalid)
+   * @param keyCode a Java key code (KeyEvent.VK_...)
+   * @return the Android key event code (-1 if none)
    */
-  @Override
-  public Element at() {
-    return null;
+  public static int toKeyEvent(int keyCode) {
+    Integer keyEvent = keyEvents.get(keyCode);
+    if (SX.isNotNull(keyEvent)) {
+      return keyEvent;
+    }
+    if (keyCode >= KeyEvent.VK_A && keyCode <= KeyEvent.VK_Z) {
+      return 29 + keyCode - KeyEvent.VK_A;
+    }
+    if (keyCode >= KeyEvent.VK_0 && keyCode <= KeyEvent.VK_9) {
+      return 7 + keyCode - KeyEvent.VK_0;
+    }
+    return -1;
   }
 
+  /**
+   * the characters given between keyStart and keyStop are sent as one input text,
+   * special keys (Enter, arrows, ...) as key events in between
+   */
   @Override
-  public void button(Action action) {
+  public synchronized void keyStart() {
+    text.setLength(0);
+    typing = true;
+  }
 
+  @Override
+  public synchronized void keyStop() {
+    flushText();
+    typing = false;
   }
 
+  /**
+   * only DOWN and DOWNUP are sent (there is no separate press and release with adb input),
+   * modifiers are ignored
+   */
   @Override
-  public void wheel(Action action, int steps) {
+  public synchronized void key(Action action, Object key) {
+    if (Action.UP.equals(action)) {
+      return;
+    }
+    int keyEvent = -1;
+    if (key instanceof Character) {
+      char character = (Character) key;
+      if (character >= ' ' && (character < '\ue000' || character > '\uf8ff')) {
+        text.append(character);
+        if (!typing) {
+          flushText();
+        }
+        return;
+      }
+      keyEvent = charToKeyEvent(character);
+    } else if (key instanceof Integer) {
+      keyEvent = toKeyEvent((int) (Integer) key);
+    }
+    if (keyEvent < 0) {
+      log.trace("key: not supported: %s", key);
+      return;
+    }
+    flushText();
+    device.inputKeyEvent(keyEvent);
+  }
 
+  private static int charToKeyEvent(char character) {
+    switch (character) {
+      case '\n':
+      case '\r':
+        return 66;
+      case '\b':
+        return 67;
+      case '\t':
+        return 61;
+      case Keys.C_ESC:
+        return 111;
+    }
+    try {
+      return toKeyEvent(Math.abs(Keys.toJavaKeyCode(character)[0]));
+    } catch (IllegalArgumentException ex) {
+      return -1;
+    }
   }
 
+  private void flushText() {
+    if (text.length() > 0) {
+      device.input(text.toString());
+      text.setLength(0);
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="capture">
+
+  /**
+   * @param args optional: the element (region) to capture (default: the whole screen)
+   * @return the captured area (clipped to the screen), also set as content of the given element
+   */
   @Override
   public Picture capture(Object... args) {
-    return null;
+    boolean wholeScreen = args.length == 0 || !(args[0] instanceof Element);
+    Rectangle before = bounds;
+    Element what = wholeScreen ? new Element(before) : (Element) args[0];
+    Picture picture = captureArea(what);
+    if (wholeScreen && !bounds.equals(before)) {
+      log.trace("capture: orientation changed - again with %s", bounds);
+      picture.releaseContent();
+      what = new Element(bounds);
+      picture = captureArea(what);
+    }
+    return picture;
+  }
+
+  private Picture captureArea(Element what) {
+    Rectangle area = what.getRectangle().intersection(bounds);
+    Picture picture = Picture.view(area.isEmpty() ? null :
+            device.captureDeviceScreenMat(area.x, area.y, area.width, area.height));
+    what.setContent(picture.getContent());
+    return picture;
   }
 
   @Override
   public Picture userCapture(Object... args) {
-    return null;
+    return capture(args);
+  }
+  //</editor-fold>
+
+  @Override
+  public String toString() {
+    if (SX.isNull(device)) {
+      return "AndroidDevice: not started";
+    }
+    return String.format("AndroidDevice: %s (%s)", device.getDeviceSerial(), device.getGeometry());
   }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.android;
+
+import com.sikulix.core.Resources;
+import com.sikulix.core.SX;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * reusable byte buffers for the pixels of device captures (some MB each), so repeated captures
+ * do not allocate (and garbage collect) a new buffer every time<br>
+ * gauges: android.framebuffer.pooled.bytes, .allocations.count, .reuses.count (see Resources)
+ */
+public class FrameBufferPool {
+
+  private static final int MAX_POOLED = 4;
+
+  private static final List<byte[]> pooled = new ArrayList<>();
+  private static long pooledBytes = 0;
+  private static final LongAdder allocations = new LongAdder();
+  private static final LongAdder reuses = new LongAdder();
+
+  static {
+    Resources.register("android.framebuffer.pooled.bytes", FrameBufferPool::getPooledBytes);
+    Resources.register("android.framebuffer.allocations.count", allocations::sum);
+    Resources.register("android.framebuffer.reuses.count", reuses::sum);
+  }
+
+  /**
+   * @param size needed bytes
+   * @return the smallest pooled buffer, that is large enough (a new one if none) - might be larger than size
+   */
+  public static byte[] acquire(int size) {
+    synchronized (pooled) {
+      byte[] best = null;
+      for (byte[] buffer : pooled) {
+        if (buffer.length >= size && (SX.isNull(best) || buffer.length < best.length)) {
+          best = buffer;
+        }
+      }
+      if (SX.isNotNull(best)) {
+        pooled.remove(best);
+        pooledBytes -= best.length;
+        reuses.increment();
+        return best;
+      }
+    }
+    allocations.increment();
+    return new byte[size];
+  }
+
+  /**
+   * give the buffer back (the smallest pooled buffer is dropped, if the pool is full)
+   */
+  public static void release(byte[] buffer) {
+    if (SX.isNull(buffer)) {
+      return;
+    }
+    synchronized (pooled) {
+      pooled.add(buffer);
+      pooledBytes += buffer.length;
+      if (pooled.size() > MAX_POOLED) {
+        byte[] smallest = pooled.get(0);
+        for (byte[] candidate : pooled) {
+          if (candidate.length < smallest.length) {
+            smallest = candidate;
+          }
+        }
+        pooled.remove(smallest);
+        pooledBytes -= smallest.length;
+      }
+    }
+  }
+
+  public static long getPooledBytes() {
+    synchronized (pooled) {
+      return pooledBytes;
+    }
+  }
+
+  public static long getAllocations() {
+    return allocations.sum();
+  }
+
+  public static long getReuses() {
+    return reuses.sum();
+  }
+
+  public static void clear() {
+    synchronized (pooled) {
+      pooled.clear();
+      pooledBytes = 0;
+    }
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.android;
+
+import com.sikulix.core.SX;
+import se.vidstige.jadb.JadbDevice;
+import se.vidstige.jadb.JadbException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * a device attached to the adb server (jadb)
+ */
+public class JadbTransport implements ADBTransport {
+
+  private final JadbDevice device;
+
+  public JadbTransport(JadbDevice device) {
+    this.device = device;
+  }
+
+  /**
+   * @return the transport for the device, null if none
+   */
+  public static JadbTransport of(JadbDevice device) {
+    return SX.isNull(device) ? null : new JadbTransport(device);
+  }
+
+  @Override
+  public String getSerial() {
+    return device.getSerial();
+  }
+
+  @Override
+  public InputStream executeShell(String command, String... args) throws IOException {
+    try {
+      return device.executeShell(command, args);
+    } catch (JadbException ex) {
+      throw new IOException(ex.getMessage(), ex);
+    }
+  }
+
+  @Override
+  public ADBShell openShell() {
+    return ADBShell.open(getSerial());
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.android;
+
+import com.sikulix.api.Element;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.awt.Rectangle;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * reads the raw output of the Android shell command screencap:
+ * header (width, height, format - Android 9+ also color space, 4 bytes each, little endian), then RGBA rows<br>
+ * only the pixels of the wanted area are read into a pooled buffer (rows above and columns beside it are skipped),
+ * the RGBA Mat is reused from capture to capture, only the returned BGR Mat is new
+ */
+public class ScreencapReader {
+
+  private static final SXLog log = SX.getSXLog("SX.Screencap");
+
+  public static final int FORMAT_RGBA_8888 = 1;
+
+  private int headerSize = 12;
+  private int width = -1;
+  private int height = -1;
+  private Mat rgba = null;
+
+  /**
+   * @param size 12 (up to Android 8) or 16 (Android 9+: with color space)
+   */
+  public void setHeaderSize(int size) {
+    headerSize = size;
+  }
+
+  /**
+   * @return the width of the last screencap read (-1 if none yet)
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @param in   the screencap output (closing it is left to the caller)
+   * @param area part of the screen (clipped to the screen, null: the whole screen)
+   * @return the content (BGR)
+   * @throws IOException if the stream ends early or the content is not RGBA_8888
+   */
+  public synchronized Mat read(InputStream in, Rectangle area) throws IOException {
+    byte[] header = new byte[headerSize];
+    readFully(in, header, 0, headerSize);
+    width = toInt(header, 0);
+    height = toInt(header, 4);
+    int format = toInt(header, 8);
+    if (format != FORMAT_RGBA_8888) {
+      throw new IOException("screencap: format not RGBA_8888: " + format);
+    }
+    Rectangle screen = new Rectangle(0, 0, width, height);
+    Rectangle clip = SX.isNull(area) ? screen : area.intersection(screen);
+    if (clip.isEmpty()) {
+      throw new IOException(String.format("screencap: area %s outside %dx%d", area, width, height));
+    }
+    long rowBytes = width * 4L;
+    skip(in, clip.y * rowBytes);
+    int clipRowBytes = clip.width * 4;
+    int before = clip.x * 4;
+    long after = rowBytes - before - clipRowBytes;
+    byte[] pixels = FrameBufferPool.acquire(clipRowBytes * clip.height);
+    try {
+      for (int row = 0; row < clip.height; row++) {
+        skip(in, before);
+        readFully(in, pixels, row * clipRowBytes, clipRowBytes);
+        if (row < clip.height - 1) {
+          skip(in, after);
+        }
+      }
+      if (SX.isNull(rgba) || rgba.rows() != clip.height || rgba.cols() != clip.width) {
+        if (SX.isNotNull(rgba)) {
+          rgba.release();
+        }
+        SX.loadNative(SX.NATIVES.OPENCV);
+        rgba = new Mat(clip.height, clip.width, CvType.CV_8UC4);
+      }
+      rgba.put(0, 0, pixels);
+    } finally {
+      FrameBufferPool.release(pixels);
+    }
+    Mat bgr = Element.getNewMat();
+    Imgproc.cvtColor(rgba, bgr, Imgproc.COLOR_RGBA2BGR, 3);
+    return bgr;
+  }
+
+  /**
+   * drop the reused RGBA Mat
+   */
+  public synchronized void release() {
+    if (SX.isNotNull(rgba)) {
+      rgba.release();
+      rgba = null;
+    }
+  }
+
+  static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+    while (length > 0) {
+      int count = in.read(buffer, offset, length);
+      if (count < 0) {
+        throw new EOFException(String.format("screencap: stream ended (%d bytes missing)", length));
+      }
+      offset += count;
+      length -= count;
+    }
+  }
+
+  /**
+   * InputStream.skip() may skip less (or nothing) - then a read is used to make progress or detect the end
+   */
+  static void skip(InputStream in, long count) throws IOException {
+    while (count > 0) {
+      long skipped = in.skip(count);
+      if (skipped > 0) {
+        count -= skipped;
+      } else if (in.read() < 0) {
+        throw new EOFException(String.format("screencap: stream ended (%d bytes not skipped)", count));
+      } else {
+        count--;
+      }
+    }
+  }
+
+  private static int toInt(byte[] bytes, int start) {
+    return (bytes[start] & 0xff) | (bytes[start + 1] & 0xff) << 8
+            | (bytes[start + 2] & 0xff) << 16 | (bytes[start + 3] & 0xff) << 24;
+  }
+
+  /**
+   * the raw screencap output for the content (e.g. to feed a fake device in tests)
+   *
+   * @param bgr        the screen content
+   * @param headerSize 12 or 16
+   * @return header and RGBA pixels
+   */
+  public static byte[] encode(Mat bgr, int headerSize) {
+    Mat mRGBA = Element.getNewMat();
+    Imgproc.cvtColor(bgr, mRGBA, Imgproc.COLOR_BGR2RGBA);
+    byte[] raw = new byte[headerSize + bgr.cols() * bgr.rows() * 4];
+    int[] values = new int[]{bgr.cols(), bgr.rows(), FORMAT_RGBA_8888, 0};
+    for (int n = 0; n < headerSize / 4; n++) {
+      for (int b = 0; b < 4; b++) {
+        raw[n * 4 + b] = (byte) (values[n] >> (8 * b));
+      }
+    }
+    byte[] pixels = new byte[bgr.cols() * bgr.rows() * 4];
+    mRGBA.get(0, 0, pixels);
+    mRGBA.release();
+    System.arraycopy(pixels, 0, raw, headerSize, pixels.length);
+    return raw;
+  }
+}
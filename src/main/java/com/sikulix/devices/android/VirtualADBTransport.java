@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.android;
+
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.devices.InputLog;
+import com.sikulix.devices.virtual.VirtualDevice;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * a stand-in for an Android device (without adb server and device): the screen is a VirtualDevice,
+ * the shell knows what ADBDevice uses (getprop, dumpsys display/power, screencap, input ...),
+ * input commands are recorded into an InputLog (types tap, swipe, key, text - in screen coordinates)
+ * <p>
+ * VirtualADBTransport transport = new VirtualADBTransport(new VirtualDevice(720, 1280));<br>
+ * Do.use(new AndroidDevice().start(transport));
+ */
+public class VirtualADBTransport implements ADBTransport {
+
+  private static final SXLog log = SX.getSXLog("SX.VirtualADBTransport");
+
+  private final VirtualDevice screen;
+  private final InputLog inputs = new InputLog();
+  private final long startTime = System.currentTimeMillis();
+  private String serial = "virtual-android";
+  private int version = 9;
+  private volatile int rotation = 0;
+  private int screencapCount = 0;
+  private int dumpsysDisplayCount = 0;
+
+  /**
+   * @param screen the content in the natural (unrotated) orientation
+   */
+  public VirtualADBTransport(VirtualDevice screen) {
+    this.screen = screen;
+  }
+
+  public VirtualADBTransport setSerial(String serial) {
+    this.serial = serial;
+    return this;
+  }
+
+  /**
+   * @param version the Android major version (9+: screencap header with color space)
+   */
+  public VirtualADBTransport setVersion(int version) {
+    this.version = version;
+    return this;
+  }
+
+  /**
+   * turn the device (the screen is captured rotated, size and input coordinates are those of the rotated screen)
+   *
+   * @param rotation 0 - 3 (90 degrees each, counter clockwise)
+   */
+  public VirtualADBTransport setRotation(int rotation) {
+    this.rotation = ((rotation % 4) + 4) % 4;
+    return this;
+  }
+
+  public VirtualDevice getScreen() {
+    return screen;
+  }
+
+  public InputLog getInputs() {
+    return inputs;
+  }
+
+  public synchronized int getScreencapCount() {
+    return screencapCount;
+  }
+
+  public synchronized int getDumpsysDisplayCount() {
+    return dumpsysDisplayCount;
+  }
+
+  //<editor-fold desc="transport">
+  @Override
+  public String getSerial() {
+    return serial;
+  }
+
+  @Override
+  public InputStream executeShell(String command, String... args) throws IOException {
+    StringBuilder line = new StringBuilder(command);
+    for (String arg : args) {
+      line.append(" ").append(arg);
+    }
+    List<String> words = split(line.toString());
+    if (!words.isEmpty() && "screencap".equals(words.get(0))) {
+      return new ByteArrayInputStream(screencap());
+    }
+    return new ByteArrayInputStream(run(words).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * the shell's stdin: complete lines are handed to the shell thread
+   * (a pipe would break, as soon as a thread, that wrote to it, has ended)
+   */
+  private static class Lines extends OutputStream {
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    @Override
+    public synchronized void write(int oneByte) {
+      if (oneByte == '\n') {
+        lines.add(new String(line.toByteArray(), StandardCharsets.UTF_8));
+        line.reset();
+      } else {
+        line.write(oneByte);
+      }
+    }
+
+    @Override
+    public void close() {
+      lines.add("exit");
+    }
+
+    String take() throws InterruptedException {
+      return lines.take();
+    }
+  }
+
+  /**
+   * a shell running in a thread: each line is run like executeShell, then its echo is answered
+   */
+  @Override
+  public ADBShell openShell() {
+    try {
+      Lines stdin = new Lines();
+      PipedInputStream stdout = new PipedInputStream(1 << 16);
+      PrintStream answers = new PrintStream(new PipedOutputStream(stdout), true, "UTF-8");
+      Thread shell = new Thread(() -> {
+        try {
+          String line;
+          while (!"exit".equals(line = stdin.take().trim())) {
+            int echoAt = line.lastIndexOf("; echo ");
+            String command = echoAt < 0 ? line : line.substring(0, echoAt);
+            String output = run(split(command));
+            int status = output.startsWith("sh: ") ? 127 : 0;
+            if (!output.isEmpty()) {
+              answers.println(output.trim());
+            }
+            if (echoAt > -1) {
+              answers.println(line.substring(echoAt + 7).replace("$?", "" + status));
+            }
+          }
+        } catch (InterruptedException ex) {
+          log.trace("shell: interrupted");
+        }
+        answers.close();
+      }, "SX.VirtualADBTransport.shell");
+      shell.setDaemon(true);
+      shell.start();
+      return new ADBShell(serial, stdin, stdout);
+    } catch (IOException ex) {
+      log.error("openShell: %s", ex.getMessage());
+      return null;
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="commands">
+  private String run(List<String> words) {
+    String command = String.join(" ", words);
+    if (words.isEmpty()) {
+      return "";
+    }
+    switch (words.get(0)) {
+      case "getprop":
+        return String.format("[ro.build.version.release]: [%d.0]\n[ro.product.model]: [SikuliX virtual]\n" +
+                "[ro.serialno]: [%s]\n", version, serial);
+      case "dumpsys":
+        if (words.size() > 1 && "display".equals(words.get(1))) {
+          synchronized (this) {
+            dumpsysDisplayCount++;
+          }
+          int width = isTurned() ? screen.getMonitor().height : screen.getMonitor().width;
+          int height = isTurned() ? screen.getMonitor().width : screen.getMonitor().height;
+          return String.format("DISPLAY MANAGER (dumpsys display)\n  mDefaultViewport=DisplayViewport{valid=true, " +
+                          "displayId=0, orientation=%d, logicalFrame=Rect(0, 0 - %d, %d), deviceWidth=%d, deviceHeight=%d}\n",
+                  rotation, width, height, width, height);
+        }
+        return "POWER MANAGER (dumpsys power)\n  Display Power: state=ON\n  mScreenOn=true\n";
+      case "input":
+        if (input(words)) {
+          return "";
+        }
+        break;
+    }
+    log.trace("not supported: %s", command);
+    return String.format("sh: %s: not supported", command);
+  }
+
+  private boolean input(List<String> words) {
+    if (words.size() < 3) {
+      return false;
+    }
+    long time = System.currentTimeMillis() - startTime;
+    try {
+      switch (words.get(1)) {
+        case "tap":
+          inputs.add(new InputLog.Entry(time, "tap", Integer.parseInt(words.get(2)),
+                  Integer.parseInt(words.get(3)), ""));
+          return true;
+        case "swipe":
+          inputs.add(new InputLog.Entry(time, "swipe", Integer.parseInt(words.get(2)),
+                  Integer.parseInt(words.get(3)), String.join(" ", words.subList(4, words.size()))));
+          return true;
+        case "keyevent":
+          inputs.add(new InputLog.Entry(time, "key", -1, -1, words.get(2)));
+          return true;
+        case "text":
+          inputs.add(new InputLog.Entry(time, "text", -1, -1, words.get(2).replace("%s", " ")));
+          return true;
+      }
+    } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+      log.error("input: %s: %s", String.join(" ", words), ex.getMessage());
+    }
+    return false;
+  }
+
+  private boolean isTurned() {
+    return rotation % 2 == 1;
+  }
+
+  private byte[] screencap() {
+    synchronized (this) {
+      screencapCount++;
+    }
+    Picture frame = screen.snapshot();
+    Mat content = frame.getContent();
+    Mat turned = content;
+    if (rotation > 0) {
+      turned = Element.getNewMat();
+      if (rotation == 2) {
+        Core.flip(content, turned, -1);
+      } else {
+        Core.transpose(content, turned);
+        Core.flip(turned, turned, rotation == 1 ? 0 : 1);
+      }
+    }
+    byte[] raw = ScreencapReader.encode(turned, version >= 9 ? 16 : 12);
+    if (turned != content) {
+      turned.release();
+    }
+    frame.releaseContent();
+    return raw;
+  }
+
+  /**
+   * split a command line into words like the shell: '...' quotes, \ escapes the next character
+   */
+  static List<String> split(String line) {
+    List<String> words = new ArrayList<>();
+    StringBuilder word = null;
+    boolean quoted = false;
+    for (int n = 0; n < line.length(); n++) {
+      char character = line.charAt(n);
+      if (quoted) {
+        if (character == '\'') {
+          quoted = false;
+        } else {
+          word.append(character);
+        }
+        continue;
+      }
+      if (Character.isWhitespace(character)) {
+        if (SX.isNotNull(word)) {
+          words.add(word.toString());
+          word = null;
+        }
+        continue;
+      }
+      if (SX.isNull(word)) {
+        word = new StringBuilder();
+      }
+      if (character == '\'') {
+        quoted = true;
+      } else if (character == '\\' && n + 1 < line.length()) {
+        word.append(line.charAt(++n));
+      } else {
+        word.append(character);
+      }
+    }
+    if (SX.isNotNull(word)) {
+      words.add(word.toString());
+    }
+    return words;
+  }
+  //</editor-fold>
+
+  @Override
+  public String toString() {
+    return String.format("VirtualADBTransport %s: %s rotation %d", serial, screen, rotation);
+  }
+}
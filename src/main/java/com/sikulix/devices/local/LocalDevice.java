@@ -304,19 +304,21 @@ public class LocalDevice extends IDevice {
     }
     log.trace("click: %s at %s%s", action, loc, (shouldMove ? " with move" : ""));
     int button = (action.toString().startsWith("L") ? LEFT : (action.toString().startsWith("R") ? RIGHT : MIDDLE));
-    if (action.toString().contains("DOUBLE")) {
-      SX.pause(beforeButton);
-      robot.mouseDown(button);
-      robot.mouseUp(button);
-      robot.mouseDown(button);
-      robot.mouseUp(button);
-      SX.pause(afterButton);
-    } else {
-      SX.pause(beforeButton);
-      robot.mouseDown(button);
-      SX.pause(clickDelay);
-      robot.mouseUp(button);
-      SX.pause(afterButton);
+    try (SXTrace.Span span = SXTrace.begin("button", "device").arg("action", action)) {
+      if (action.toString().contains("DOUBLE")) {
+        SX.pause(beforeButton);
+        robot.mouseDown(button);
+        robot.mouseUp(button);
+        robot.mouseDown(button);
+        robot.mouseUp(button);
+        SX.pause(afterButton);
+      } else {
+        SX.pause(beforeButton);
+        robot.mouseDown(button);
+        SX.pause(clickDelay);
+        robot.mouseUp(button);
+        SX.pause(afterButton);
+      }
     }
     unlock();
     return loc;
@@ -377,7 +379,9 @@ public class LocalDevice extends IDevice {
   }
 
   private void smoothMove(Element dest, LocalRobot robot) {
-    smoothMove(at(), dest, (long) (SX.getOptionNumber("Settings.MoveMouseDelay") * 1000L), robot);
+    try (SXTrace.Span span = SXTrace.begin("move", "device")) {
+      smoothMove(at(), dest, (long) (SX.getOptionsSnapshot().moveMouseDelay * 1000L), robot);
+    }
   }
 
   private void smoothMove(Element src, Element dest, long ms, LocalRobot robot) {
@@ -409,7 +413,7 @@ public class LocalDevice extends IDevice {
 
   private void checkMouseMoved(Element loc) {
     //TODO implementation with native hook
-    if ("true" .equals(SX.getOption("Settings.MouseSilent"))) {
+    if (SX.getOptionsSnapshot().mouseSilent) {
       return;
     }
     PointerInfo mp = MouseInfo.getPointerInfo();
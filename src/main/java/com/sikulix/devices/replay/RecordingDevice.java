@@ -0,0 +1,456 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.replay;
+
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.devices.IDevice;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.awt.Rectangle;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * wraps a device and records every capture and input action into a session folder,
+ * that can be fed back later by a ReplayDevice<br>
+ * session.log: one JSON object per line (t = msec since start, type = device, capture, click, ...)<br>
+ * frames: frameNNNNN.png - a capture equal to the previous one of the same region is not stored again (same),
+ * an already stored content is referenced (key), a small change is stored as the changed rectangle
+ * on top of the previous frame (delta), everything else as a complete frame (key)<br>
+ * after maxDeltaChain deltas in a row a complete frame is stored again, so a replay never has to
+ * apply more deltas than that to get a frame
+ */
+public class RecordingDevice extends IDevice {
+
+  private static final SXLog log = SX.getSXLog("SX.RecordingDevice");
+
+  static final String SESSION_LOG = "session.log";
+  static final String FRAME_FILE = "frame%05d.png";
+
+  private final IDevice device;
+  private final File folder;
+  private Writer writer = null;
+  private long startTime = 0;
+  private int frameCount = 0;
+  private final Map<String, Mat> lastFrames = new HashMap<>();
+  private final Map<String, Integer> lastFrameIDs = new HashMap<>();
+  private final Map<String, Integer> storedFrames = new HashMap<>();
+  private final Map<String, Integer> deltaChains = new HashMap<>();
+  private double maxDeltaRatio = 0.5;
+  private int maxDeltaChain = 30;
+
+  /**
+   * @param device the device to record (not yet started)
+   * @param folder the session folder (created if needed, an existing session.log is overwritten)
+   */
+  public RecordingDevice(IDevice device, File folder) {
+    this.device = device;
+    this.folder = folder;
+  }
+
+  /**
+   * @param ratio a changed area larger than this part of the frame is stored as complete frame (default 0.5)
+   */
+  public void setMaxDeltaRatio(double ratio) {
+    maxDeltaRatio = ratio;
+  }
+
+  /**
+   * @param count deltas in a row on top of a complete frame, the next change is stored complete (default 30)
+   */
+  public void setMaxDeltaChain(int count) {
+    maxDeltaChain = Math.max(0, count);
+  }
+
+  public IDevice getDevice() {
+    return device;
+  }
+
+  public File getFolder() {
+    return folder;
+  }
+
+  public int getFrameCount() {
+    return frameCount;
+  }
+
+  //<editor-fold desc="session log">
+  private synchronized void write(JSONObject entry) {
+    if (SX.isNull(writer)) {
+      return;
+    }
+    try {
+      writer.write(entry.toString());
+      writer.write("\n");
+    } catch (IOException ex) {
+      log.error("write: %s (recording stopped)", ex.getMessage());
+      closeWriter();
+    }
+  }
+
+  private JSONObject entry(String type) {
+    return new JSONObject().put("t", System.currentTimeMillis() - startTime).put("type", type);
+  }
+
+  private JSONObject entry(String type, Element loc) {
+    JSONObject entry = entry(type);
+    if (SX.isNotNull(loc)) {
+      entry.put("x", loc.x).put("y", loc.y);
+    }
+    return entry;
+  }
+
+  static JSONArray asJSON(Rectangle rect) {
+    return new JSONArray().put(rect.x).put(rect.y).put(rect.width).put(rect.height);
+  }
+
+  private void closeWriter() {
+    if (SX.isNotNull(writer)) {
+      try {
+        writer.close();
+      } catch (IOException ex) {
+        log.error("close: %s", ex.getMessage());
+      }
+      writer = null;
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="frames">
+  private synchronized void recordFrame(Rectangle region, Mat frame) {
+    if (SX.isNull(writer)) {
+      return;
+    }
+    String key = region.x + "_" + region.y + "_" + region.width + "_" + region.height;
+    JSONObject entry = entry("capture").put("region", asJSON(region));
+    Mat last = lastFrames.get(key);
+    if (SX.isNotNull(last) && last.size().equals(frame.size()) && last.type() == frame.type()) {
+      Mat mDiff = changedPixels(frame, last);
+      if (Core.countNonZero(mDiff) == 0) {
+        mDiff.release();
+        write(entry.put("kind", "same").put("frame", lastFrameIDs.get(key)));
+        return;
+      }
+      MatOfPoint changedPoints = new MatOfPoint();
+      Core.findNonZero(mDiff, changedPoints);
+      Rect changed = Imgproc.boundingRect(changedPoints);
+      changedPoints.release();
+      mDiff.release();
+      int chain = deltaChains.getOrDefault(key, 0);
+      if (chain < maxDeltaChain && changed.area() < maxDeltaRatio * frame.total()) {
+        int id = ++frameCount;
+        if (storeFrame(id, frame.submat(changed))) {
+          entry.put("kind", "delta").put("frame", id).put("base", lastFrameIDs.get(key))
+                  .put("dx", changed.x).put("dy", changed.y);
+          remember(key, frame, id);
+          deltaChains.put(key, chain + 1);
+          write(entry);
+        }
+        return;
+      }
+    }
+    String hash = hash(frame);
+    Integer stored = storedFrames.get(hash);
+    if (SX.isNull(stored)) {
+      stored = ++frameCount;
+      if (!storeFrame(stored, frame)) {
+        return;
+      }
+      storedFrames.put(hash, stored);
+    }
+    remember(key, frame, stored);
+    deltaChains.remove(key);
+    write(entry.put("kind", "key").put("frame", stored));
+  }
+
+  /**
+   * @return per pixel the largest difference over the channels (a change in any channel counts,
+   * other than with a gray conversion, where small changes may vanish)
+   */
+  private static Mat changedPixels(Mat frame, Mat last) {
+    Mat mDiff = Element.getNewMat();
+    Core.absdiff(frame, last, mDiff);
+    if (mDiff.channels() == 1) {
+      return mDiff;
+    }
+    List<Mat> channels = new ArrayList<>();
+    Core.split(mDiff, channels);
+    mDiff.release();
+    Mat mMax = channels.get(0);
+    for (int n = 1; n < channels.size(); n++) {
+      Core.max(mMax, channels.get(n), mMax);
+      channels.get(n).release();
+    }
+    return mMax;
+  }
+
+  private void remember(String key, Mat frame, int id) {
+    Mat previous = lastFrames.put(key, frame.clone());
+    if (SX.isNotNull(previous)) {
+      previous.release();
+    }
+    lastFrameIDs.put(key, id);
+  }
+
+  private boolean storeFrame(int id, Mat content) {
+    File file = new File(folder, String.format(FRAME_FILE, id));
+    if (!Imgcodecs.imwrite(file.getAbsolutePath(), content)) {
+      log.error("storeFrame: not written: %s", file);
+      return false;
+    }
+    return true;
+  }
+
+  private static String hash(Mat frame) {
+    Mat continuous = frame.isContinuous() ? frame : frame.clone();
+    byte[] bytes = new byte[(int) (continuous.total() * continuous.channels())];
+    continuous.get(0, 0, bytes);
+    if (continuous != frame) {
+      continuous.release();
+    }
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(bytes);
+      StringBuilder hash = new StringBuilder(frame.cols() + "x" + frame.rows() + ":");
+      for (byte b : digest.digest()) {
+        hash.append(String.format("%02x", b));
+      }
+      return hash.toString();
+    } catch (Exception ex) {
+      return frame.cols() + "x" + frame.rows() + ":" + Arrays.hashCode(bytes);
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="device">
+  @Override
+  public IDevice start(Object... args) {
+    if (SX.isNull(device.start(args))) {
+      log.error("start: device did not start: %s", device);
+      return null;
+    }
+    folder.mkdirs();
+    try {
+      writer = new BufferedWriter(new OutputStreamWriter(
+              new FileOutputStream(new File(folder, SESSION_LOG)), StandardCharsets.UTF_8));
+    } catch (IOException ex) {
+      log.error("start: %s: %s", folder, ex.getMessage());
+      return null;
+    }
+    startTime = System.currentTimeMillis();
+    JSONArray monitors = new JSONArray();
+    for (Rectangle monitor : device.getMonitors()) {
+      monitors.put(asJSON(monitor));
+    }
+    write(entry("device").put("name", device.getName()).put("monitors", monitors)
+            .put("all", asJSON(device.getAllMonitors())));
+    log.trace("start: recording %s to %s", device.getName(), folder);
+    return this;
+  }
+
+  @Override
+  public String getName() {
+    return device.getName();
+  }
+
+  @Override
+  public void stop() {
+    device.stop();
+    synchronized (this) {
+      write(entry("stop"));
+      closeWriter();
+      for (Mat frame : lastFrames.values()) {
+        frame.release();
+      }
+      lastFrames.clear();
+      deltaChains.clear();
+    }
+    log.trace("stop: %d frames in %s", frameCount, folder);
+  }
+
+  @Override
+  public boolean isValid() {
+    return device.isValid();
+  }
+
+  @Override
+  public int getNumberOfMonitors() {
+    return device.getNumberOfMonitors();
+  }
+
+  @Override
+  public Rectangle getMonitor(int... id) {
+    return device.getMonitor(id);
+  }
+
+  @Override
+  public Rectangle getAllMonitors() {
+    return device.getAllMonitors();
+  }
+
+  @Override
+  public int getMonitorID() {
+    return device.getMonitorID();
+  }
+
+  @Override
+  public int getMonitorID(int id) {
+    return device.getMonitorID(id);
+  }
+
+  @Override
+  public void resetMonitors() {
+    device.resetMonitors();
+  }
+
+  @Override
+  public Rectangle[] getMonitors() {
+    return device.getMonitors();
+  }
+
+  @Override
+  public int getContainingMonitorID(Element element) {
+    return device.getContainingMonitorID(element);
+  }
+
+  @Override
+  public Element getContainingMonitor(Element element) {
+    return device.getContainingMonitor(element);
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="mouse, keyboard">
+  @Override
+  public Element click(Element loc) {
+    write(entry("click", SX.isNull(loc) ? null : loc.getTarget()).put("action", Action.LEFT));
+    return device.click(loc);
+  }
+
+  @Override
+  public Element doubleClick(Element loc) {
+    write(entry("click", SX.isNull(loc) ? null : loc.getTarget()).put("action", Action.LEFTDOUBLE));
+    return device.doubleClick(loc);
+  }
+
+  @Override
+  public Element rightClick(Element loc) {
+    write(entry("click", SX.isNull(loc) ? null : loc.getTarget()).put("action", Action.RIGHT));
+    return device.rightClick(loc);
+  }
+
+  @Override
+  public Element click(Action action) {
+    write(entry("click").put("action", action));
+    return device.click(action);
+  }
+
+  @Override
+  public Element click(Element loc, Action action) {
+    write(entry("click", SX.isNull(loc) ? null : loc.getTarget()).put("action", action));
+    return device.click(loc, action);
+  }
+
+  @Override
+  public Element dragDrop(Element from, Element to, Object... times) {
+    JSONObject entry = entry("dragDrop", SX.isNull(from) ? null : from.getTarget());
+    if (SX.isNotNull(to)) {
+      entry.put("toX", to.getTarget().x).put("toY", to.getTarget().y);
+    }
+    write(entry);
+    return device.dragDrop(from, to, times);
+  }
+
+  @Override
+  public void keyStart() {
+    device.keyStart();
+  }
+
+  @Override
+  public void keyStop() {
+    device.keyStop();
+  }
+
+  @Override
+  public void key(Action action, Object key) {
+    write(entry("key").put("action", action).put("key", String.valueOf(key)));
+    device.key(action, key);
+  }
+
+  @Override
+  public Element move(int xoff, int yoff) {
+    write(entry("move").put("dx", xoff).put("dy", yoff));
+    return device.move(xoff, yoff);
+  }
+
+  @Override
+  public Element move(Element loc) {
+    write(entry("move", loc));
+    return device.move(loc);
+  }
+
+  @Override
+  public Element at() {
+    return device.at();
+  }
+
+  @Override
+  public void button(Action action) {
+    write(entry("button").put("action", action));
+    device.button(action);
+  }
+
+  @Override
+  public void wheel(Action action, int steps) {
+    write(entry("wheel").put("action", action).put("steps", steps));
+    device.wheel(action, steps);
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="capture">
+  @Override
+  public Picture capture(Object... args) {
+    Picture picture = device.capture(args);
+    if (SX.isNotNull(picture) && picture.isValid()) {
+      Rectangle region = device.getAllMonitors();
+      if (args.length > 0 && args[0] instanceof Element) {
+        region = ((Element) args[0]).getRectangle();
+      }
+      recordFrame(region, picture.getContentBGR());
+    }
+    return picture;
+  }
+
+  @Override
+  public Picture userCapture(Object... args) {
+    return device.userCapture(args);
+  }
+  //</editor-fold>
+
+  @Override
+  public String toString() {
+    return String.format("RecordingDevice: %s to %s (%d frames)", device, folder, frameCount);
+  }
+}
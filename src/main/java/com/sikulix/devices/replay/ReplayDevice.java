@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.replay;
+
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.MatScope;
+import com.sikulix.core.Resources;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.devices.IDevice;
+import com.sikulix.devices.InputLog;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * feeds back the captures of a session recorded by a RecordingDevice, in the recorded order<br>
+ * (after the last one, the last one is repeated)<br>
+ * input actions are recorded into an InputLog, to be compared with the recorded ones
+ */
+public class ReplayDevice extends IDevice {
+
+  private static final SXLog log = SX.getSXLog("SX.ReplayDevice");
+
+  private static class Capture {
+    final long time;
+    final Rectangle region;
+    final int frame;
+
+    Capture(long time, Rectangle region, int frame) {
+      this.time = time;
+      this.region = region;
+      this.frame = frame;
+    }
+  }
+
+  private static class Delta {
+    final int base;
+    final int x;
+    final int y;
+
+    Delta(int base, int x, int y) {
+      this.base = base;
+      this.x = x;
+      this.y = y;
+    }
+  }
+
+  private final File folder;
+  private String recordedName = "";
+  private Rectangle[] monitors = new Rectangle[0];
+  private Rectangle allMonitors = new Rectangle();
+  private final List<Capture> captures = new ArrayList<>();
+  private final Map<Integer, Delta> deltas = new LinkedHashMap<>();
+  private final InputLog recordedInputs = new InputLog();
+  private final InputLog inputs = new InputLog();
+  private int nextCapture = 0;
+  private boolean realTime = false;
+  private long startTime = -1;
+  private int mouseX = 0;
+  private int mouseY = 0;
+
+  private static final int CACHED_FRAMES = 16;
+  private final Map<Integer, Mat> frameCache = new LinkedHashMap<Integer, Mat>(CACHED_FRAMES, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, Mat> eldest) {
+      if (size() > CACHED_FRAMES) {
+        MatScope.release(eldest.getValue());
+        return true;
+      }
+      return false;
+    }
+  };
+
+  /**
+   * drops cached frames (least recently used first), when the soft limit of mat.live.bytes is exceeded
+   */
+  private final Resources.Evictable frameEvictor = amount -> {
+    long freed = 0;
+    synchronized (frameCache) {
+      Iterator<Mat> frames = frameCache.values().iterator();
+      while (freed < amount && frames.hasNext()) {
+        Mat frame = frames.next();
+        frames.remove();
+        freed += MatScope.bytes(frame);
+        MatScope.release(frame);
+      }
+    }
+    return freed;
+  };
+
+  /**
+   * @param folder the session folder written by a RecordingDevice
+   */
+  public ReplayDevice(File folder) {
+    this.folder = folder;
+  }
+
+  /**
+   * @param realTime true: a capture is not returned before its recorded time (default: as fast as possible)
+   */
+  public void setRealTime(boolean realTime) {
+    this.realTime = realTime;
+  }
+
+  public String getRecordedName() {
+    return recordedName;
+  }
+
+  public int getCaptureCount() {
+    return captures.size();
+  }
+
+  /**
+   * @return the input actions as recorded
+   */
+  public InputLog getRecordedInputs() {
+    return recordedInputs;
+  }
+
+  /**
+   * @return the input actions received during replay
+   */
+  public InputLog getInputs() {
+    return inputs;
+  }
+
+  /**
+   * start with the first recorded capture again (the input log of the replay is cleared)
+   */
+  public synchronized void rewind() {
+    nextCapture = 0;
+    inputs.clear();
+    startTime = System.currentTimeMillis();
+  }
+
+  //<editor-fold desc="session">
+  private boolean load() {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(new File(folder, RecordingDevice.SESSION_LOG).toPath(), StandardCharsets.UTF_8);
+    } catch (IOException ex) {
+      log.error("load: %s: %s", folder, ex.getMessage());
+      return false;
+    }
+    captures.clear();
+    deltas.clear();
+    recordedInputs.clear();
+    for (String line : lines) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      JSONObject entry = new JSONObject(line);
+      String type = entry.getString("type");
+      long time = entry.getLong("t");
+      if ("device".equals(type)) {
+        recordedName = entry.optString("name");
+        JSONArray jMonitors = entry.getJSONArray("monitors");
+        monitors = new Rectangle[jMonitors.length()];
+        for (int n = 0; n < jMonitors.length(); n++) {
+          monitors[n] = asRectangle(jMonitors.getJSONArray(n));
+        }
+        allMonitors = asRectangle(entry.getJSONArray("all"));
+      } else if ("capture".equals(type)) {
+        int frame = entry.getInt("frame");
+        if ("delta".equals(entry.getString("kind"))) {
+          deltas.put(frame, new Delta(entry.getInt("base"), entry.getInt("dx"), entry.getInt("dy")));
+        }
+        captures.add(new Capture(time, asRectangle(entry.getJSONArray("region")), frame));
+      } else if (!"stop".equals(type)) {
+        String detail = entry.has("action") ? entry.get("action").toString() : "";
+        if (entry.has("key")) {
+          detail += " " + entry.getString("key");
+        } else if (entry.has("steps")) {
+          detail += " " + entry.getInt("steps");
+        }
+        recordedInputs.add(new InputLog.Entry(time, type, entry.optInt("x", entry.optInt("dx")),
+                entry.optInt("y", entry.optInt("dy")), detail.trim()));
+      }
+    }
+    log.trace("load: %s: %d captures, %d inputs", folder, captures.size(), recordedInputs.size());
+    return captures.size() > 0;
+  }
+
+  private static Rectangle asRectangle(JSONArray jRect) {
+    return new Rectangle(jRect.getInt(0), jRect.getInt(1), jRect.getInt(2), jRect.getInt(3));
+  }
+
+  /**
+   * @return the complete content of the frame (the deltas down from the nearest cached or complete frame
+   * are applied in turn to a copy, no recursion: older recordings may have long delta chains)
+   */
+  private Mat getFrame(int id) {
+    Mat frame = frameCache.get(id);
+    if (SX.isNotNull(frame)) {
+      return frame;
+    }
+    SX.loadNative(SX.NATIVES.OPENCV);
+    List<Integer> chain = new ArrayList<>();
+    int base = id;
+    while (SX.isNull(frame = frameCache.get(base)) && deltas.containsKey(base)) {
+      chain.add(base);
+      base = deltas.get(base).base;
+    }
+    if (SX.isNull(frame)) {
+      frame = loadFrame(base);
+      if (frame.empty()) {
+        return frame;
+      }
+      frameCache.put(base, MatScope.retain(frame, "replay"));
+    }
+    for (int n = chain.size() - 1; n >= 0; n--) {
+      int next = chain.get(n);
+      Delta delta = deltas.get(next);
+      Mat content = loadFrame(next);
+      if (content.empty()) {
+        return content;
+      }
+      frame = frame.clone();
+      content.copyTo(frame.submat(new Rect(delta.x, delta.y, content.cols(), content.rows())));
+      content.release();
+      frameCache.put(next, MatScope.retain(frame, "replay"));
+    }
+    return frame;
+  }
+
+  private Mat loadFrame(int id) {
+    File file = new File(folder, String.format(RecordingDevice.FRAME_FILE, id));
+    Mat content = Imgcodecs.imread(file.getAbsolutePath(), Imgcodecs.IMREAD_COLOR);
+    if (content.empty()) {
+      log.error("getFrame: not loaded: %s", file);
+    }
+    return content;
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="device">
+
+  /**
+   * @return this device, null if the session could not be loaded
+   */
+  @Override
+  public IDevice start(Object... args) {
+    if (!load()) {
+      log.error("start: no session in %s", folder);
+      return null;
+    }
+    rewind();
+    Resources.addEvictable("mat.live.bytes", frameEvictor);
+    return this;
+  }
+
+  @Override
+  public String getName() {
+    return "replay";
+  }
+
+  @Override
+  public void stop() {
+    startTime = -1;
+    Resources.removeEvictable("mat.live.bytes", frameEvictor);
+    synchronized (frameCache) {
+      for (Mat frame : frameCache.values()) {
+        MatScope.release(frame);
+      }
+      frameCache.clear();
+    }
+  }
+
+  @Override
+  public boolean isValid() {
+    return startTime > -1;
+  }
+
+  @Override
+  public int getNumberOfMonitors() {
+    return monitors.length;
+  }
+
+  @Override
+  public Rectangle getMonitor(int... id) {
+    int monitor = id.length > 0 && id[0] > -1 && id[0] < monitors.length ? id[0] : 0;
+    return monitors.length > 0 ? new Rectangle(monitors[monitor]) : new Rectangle(allMonitors);
+  }
+
+  @Override
+  public Rectangle getAllMonitors() {
+    return new Rectangle(allMonitors);
+  }
+
+  @Override
+  public int getMonitorID() {
+    return 0;
+  }
+
+  @Override
+  public int getMonitorID(int id) {
+    return id > -1 && id < monitors.length ? id : 0;
+  }
+
+  @Override
+  public void resetMonitors() {
+  }
+
+  @Override
+  public Rectangle[] getMonitors() {
+    return monitors.clone();
+  }
+
+  @Override
+  public int getContainingMonitorID(Element element) {
+    for (int n = 0; n < monitors.length; n++) {
+      if (monitors[n].contains(element.x, element.y)) {
+        return n;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public Element getContainingMonitor(Element element) {
+    return new Element(getMonitor(getContainingMonitorID(element)));
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="mouse, keyboard">
+  private synchronized void record(String type, String detail) {
+    inputs.add(new InputLog.Entry(System.currentTimeMillis() - startTime, type, mouseX, mouseY, detail));
+  }
+
+  private synchronized void setMouse(Element loc) {
+    if (SX.isNotNull(loc)) {
+      mouseX = loc.x;
+      mouseY = loc.y;
+    }
+  }
+
+  @Override
+  public Element click(Element loc) {
+    return click(loc, Action.LEFT);
+  }
+
+  @Override
+  public Element doubleClick(Element loc) {
+    return click(loc, Action.LEFTDOUBLE);
+  }
+
+  @Override
+  public Element rightClick(Element loc) {
+    return click(loc, Action.RIGHT);
+  }
+
+  @Override
+  public Element click(Action action) {
+    return click(null, action);
+  }
+
+  @Override
+  public Element click(Element loc, Action action) {
+    setMouse(SX.isNull(loc) ? null : loc.getTarget());
+    record("click", action.toString());
+    return at();
+  }
+
+  @Override
+  public Element dragDrop(Element from, Element to, Object... times) {
+    setMouse(SX.isNull(from) ? null : from.getTarget());
+    record("dragDrop", "");
+    setMouse(SX.isNull(to) ? null : to.getTarget());
+    return at();
+  }
+
+  @Override
+  public void keyStart() {
+  }
+
+  @Override
+  public void keyStop() {
+  }
+
+  @Override
+  public void key(Action action, Object key) {
+    record("key", action + " " + key);
+  }
+
+  @Override
+  public synchronized Element move(int xoff, int yoff) {
+    return move(new Element(mouseX + xoff, mouseY + yoff));
+  }
+
+  @Override
+  public Element move(Element loc) {
+    setMouse(loc);
+    record("move", "");
+    return at();
+  }
+
+  @Override
+  public synchronized Element at() {
+    return new Element(mouseX, mouseY);
+  }
+
+  @Override
+  public void button(Action action) {
+    record("button", action.toString());
+  }
+
+  @Override
+  public void wheel(Action action, int steps) {
+    record("wheel", action + " " + steps);
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="capture">
+
+  /**
+   * @param args optional: the element to capture (if it lies inside the recorded region, that part is returned)
+   * @return the next recorded capture
+   */
+  @Override
+  public Picture capture(Object... args) {
+    Capture capture;
+    synchronized (this) {
+      capture = captures.get(Math.min(nextCapture, captures.size() - 1));
+      nextCapture++;
+    }
+    if (realTime) {
+      long wait = capture.time - (System.currentTimeMillis() - startTime);
+      if (wait > 0) {
+        SX.pause(wait / 1000.0);
+      }
+    }
+    Element what = null;
+    if (args.length > 0 && args[0] instanceof Element) {
+      what = (Element) args[0];
+    }
+    Picture picture;
+    synchronized (frameCache) {
+      Mat frame = getFrame(capture.frame);
+      if (SX.isNotNull(what)) {
+        Rectangle wanted = what.getRectangle();
+        if (!wanted.equals(capture.region) && capture.region.contains(wanted) && !frame.empty()) {
+          frame = frame.submat(new Rect(wanted.x - capture.region.x, wanted.y - capture.region.y,
+                  wanted.width, wanted.height));
+        }
+      }
+      // a copy: the cached frame is released when evicted
+      picture = new Picture(frame);
+    }
+    if (SX.isNotNull(what)) {
+      what.setContent(picture.getContent());
+    }
+    return picture;
+  }
+
+  @Override
+  public Picture userCapture(Object... args) {
+    return capture(args);
+  }
+  //</editor-fold>
+
+  @Override
+  public String toString() {
+    return String.format("ReplayDevice: %s (%s) capture %d of %d", folder, recordedName, nextCapture, captures.size());
+  }
+}
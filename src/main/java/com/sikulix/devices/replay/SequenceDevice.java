@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.replay;
+
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.devices.IDevice;
+import com.sikulix.devices.InputLog;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * a headless device playing back a sequence of frames (recorded screenshots or synthetic images)<br>
+ * each frame is shown from its time (msec after start) until the next one's time,
+ * the last frame stays (or the sequence restarts with loop)<br>
+ * input actions are not executed, but recorded into an InputLog
+ */
+public class SequenceDevice extends IDevice {
+
+  private static final SXLog log = SX.getSXLog("SX.SequenceDevice");
+
+  public static class Frame {
+    private final Mat content;
+    private final long time;
+
+    public Frame(Mat content, long time) {
+      this.content = content;
+      this.time = time;
+    }
+
+    public Mat getContent() {
+      return content;
+    }
+
+    public long getTime() {
+      return time;
+    }
+  }
+
+  private final List<Frame> frames = new ArrayList<>();
+  private boolean loop = false;
+  private long loopTime = 0;
+  private volatile long startTime = -1;
+  private Rectangle bounds = null;
+  private int mouseX = 0;
+  private int mouseY = 0;
+  private final InputLog inputs = new InputLog();
+
+  //<editor-fold desc="frames">
+
+  /**
+   * @param content the frame (BGR, all frames must have the same size)
+   * @param time    msec after start, when the frame should be shown
+   * @return this device
+   */
+  public synchronized SequenceDevice addFrame(Mat content, long time) {
+    if (SX.isNull(content) || content.empty()) {
+      log.error("addFrame: empty content at %d", time);
+      return this;
+    }
+    if (SX.isNull(bounds)) {
+      bounds = new Rectangle(0, 0, content.cols(), content.rows());
+    } else if (content.cols() != bounds.width || content.rows() != bounds.height) {
+      log.error("addFrame: size %dx%d differs from %dx%d - ignored", content.cols(), content.rows(),
+              bounds.width, bounds.height);
+      return this;
+    }
+    int index = frames.size();
+    while (index > 0 && frames.get(index - 1).time > time) {
+      index--;
+    }
+    frames.add(index, new Frame(content, time));
+    return this;
+  }
+
+  public SequenceDevice addFrame(Picture picture, long time) {
+    return addFrame(picture.getContent(), time);
+  }
+
+  /**
+   * load the images of a folder (sorted by name) as frames
+   *
+   * @param folder   containing png files
+   * @param interval msec between two frames
+   * @return number of frames loaded
+   */
+  public int loadFrames(File folder, long interval) {
+    File[] files = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
+    if (SX.isNull(files) || files.length == 0) {
+      log.error("loadFrames: no png files in %s", folder);
+      return 0;
+    }
+    Arrays.sort(files);
+    SX.loadNative(SX.NATIVES.OPENCV);
+    long time = 0;
+    int count = 0;
+    for (File file : files) {
+      Mat content = Imgcodecs.imread(file.getAbsolutePath(), Imgcodecs.IMREAD_COLOR);
+      if (content.empty()) {
+        log.error("loadFrames: not loaded: %s", file);
+        continue;
+      }
+      addFrame(content, time);
+      time += interval;
+      count++;
+    }
+    log.trace("loadFrames: %d frames from %s", count, folder);
+    return count;
+  }
+
+  /**
+   * @param loop true: restart with the first frame after the last one was shown for loopTime msec
+   * @param loopTime msec
+   * @return this device
+   */
+  public SequenceDevice setLoop(boolean loop, long loopTime) {
+    this.loop = loop;
+    this.loopTime = loopTime;
+    return this;
+  }
+
+  public synchronized int getFrameCount() {
+    return frames.size();
+  }
+
+  /**
+   * @return msec since start (-1 if not started)
+   */
+  public long getElapsed() {
+    if (startTime < 0) {
+      return -1;
+    }
+    return System.currentTimeMillis() - startTime;
+  }
+
+  /**
+   * @return the index of the frame shown now
+   */
+  public synchronized int getFrameIndex() {
+    if (frames.isEmpty()) {
+      return -1;
+    }
+    long elapsed = Math.max(0, getElapsed());
+    if (loop) {
+      elapsed %= frames.get(frames.size() - 1).time + Math.max(1, loopTime);
+    }
+    int index = 0;
+    while (index + 1 < frames.size() && frames.get(index + 1).time <= elapsed) {
+      index++;
+    }
+    return index;
+  }
+
+  public synchronized Frame getFrame() {
+    int index = getFrameIndex();
+    return index < 0 ? null : frames.get(index);
+  }
+
+  /**
+   * start the sequence again with the first frame (the input log is kept)
+   */
+  public void restart() {
+    startTime = System.currentTimeMillis();
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="inputs">
+  public InputLog getInputs() {
+    return inputs;
+  }
+
+  private void record(String type, String detail) {
+    inputs.add(new InputLog.Entry(Math.max(0, getElapsed()), type, mouseX, mouseY, detail));
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="device">
+
+  /**
+   * @param args optional: folder (String or File) with png frames, interval in msec (default 100)
+   * @return this device, null if there are no frames
+   */
+  @Override
+  public IDevice start(Object... args) {
+    if (args.length > 0 && (args[0] instanceof String || args[0] instanceof File)) {
+      File folder = args[0] instanceof File ? (File) args[0] : new File((String) args[0]);
+      long interval = args.length > 1 && args[1] instanceof Number ? ((Number) args[1]).longValue() : 100;
+      loadFrames(folder, interval);
+    }
+    if (frames.isEmpty()) {
+      log.error("start: no frames");
+      return null;
+    }
+    restart();
+    log.trace("start: %d frames %dx%d", frames.size(), bounds.width, bounds.height);
+    return this;
+  }
+
+  @Override
+  public String getName() {
+    return "sequence";
+  }
+
+  @Override
+  public void stop() {
+    startTime = -1;
+  }
+
+  @Override
+  public boolean isValid() {
+    return startTime > -1 && SX.isNotNull(bounds);
+  }
+
+  @Override
+  public int getNumberOfMonitors() {
+    return 1;
+  }
+
+  @Override
+  public Rectangle getMonitor(int... id) {
+    return new Rectangle(bounds);
+  }
+
+  @Override
+  public Rectangle getAllMonitors() {
+    return new Rectangle(bounds);
+  }
+
+  @Override
+  public int getMonitorID() {
+    return 0;
+  }
+
+  @Override
+  public int getMonitorID(int id) {
+    return 0;
+  }
+
+  @Override
+  public void resetMonitors() {
+  }
+
+  @Override
+  public Rectangle[] getMonitors() {
+    return new Rectangle[]{new Rectangle(bounds)};
+  }
+
+  @Override
+  public int getContainingMonitorID(Element element) {
+    return 0;
+  }
+
+  @Override
+  public Element getContainingMonitor(Element element) {
+    return new Element(bounds);
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="mouse, keyboard">
+  @Override
+  public Element click(Element loc) {
+    return click(loc, Action.LEFT);
+  }
+
+  @Override
+  public Element doubleClick(Element loc) {
+    return click(loc, Action.LEFTDOUBLE);
+  }
+
+  @Override
+  public Element rightClick(Element loc) {
+    return click(loc, Action.RIGHT);
+  }
+
+  @Override
+  public Element click(Action action) {
+    return click(null, action);
+  }
+
+  @Override
+  public synchronized Element click(Element loc, Action action) {
+    if (SX.isNotNull(loc)) {
+      move(loc.getTarget());
+    }
+    record("click", action.toString());
+    return at();
+  }
+
+  @Override
+  public synchronized Element dragDrop(Element from, Element to, Object... times) {
+    if (SX.isNotNull(from)) {
+      move(from.getTarget());
+    }
+    button(Action.LEFTDOWN);
+    if (SX.isNotNull(to)) {
+      move(to.getTarget());
+    }
+    button(Action.LEFTUP);
+    return at();
+  }
+
+  @Override
+  public void keyStart() {
+  }
+
+  @Override
+  public void keyStop() {
+  }
+
+  @Override
+  public synchronized void key(Action action, Object key) {
+    record("key", action + " " + key);
+  }
+
+  @Override
+  public synchronized Element move(int xoff, int yoff) {
+    return move(new Element(mouseX + xoff, mouseY + yoff));
+  }
+
+  @Override
+  public synchronized Element move(Element loc) {
+    mouseX = loc.x;
+    mouseY = loc.y;
+    record("move", "");
+    return at();
+  }
+
+  @Override
+  public synchronized Element at() {
+    return new Element(mouseX, mouseY);
+  }
+
+  @Override
+  public synchronized void button(Action action) {
+    record("button", action.toString());
+  }
+
+  @Override
+  public synchronized void wheel(Action action, int steps) {
+    record("wheel", action + " " + steps);
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="capture">
+  @Override
+  public Picture capture(Object... args) {
+    Element what = new Element(bounds);
+    if (args.length > 0 && args[0] instanceof Element) {
+      what = (Element) args[0];
+    }
+    Frame frame = getFrame();
+    Picture picture;
+    Rectangle rect = SX.isNull(frame) ? new Rectangle() : bounds.intersection(what.getRectangle());
+    if (rect.isEmpty()) {
+      picture = new Picture();
+      what.setContent();
+    } else {
+      picture = new Picture(frame.content.submat(new Rect(rect.x, rect.y, rect.width, rect.height)));
+      what.setContent(picture.getContent());
+    }
+    return picture;
+  }
+
+  @Override
+  public Picture userCapture(Object... args) {
+    return capture(args);
+  }
+  //</editor-fold>
+
+  @Override
+  public String toString() {
+    return String.format("SequenceDevice: %d frames %s (frame %d)", frames.size(),
+            SX.isNull(bounds) ? "" : bounds.width + "x" + bounds.height, getFrameIndex());
+  }
+}
@@ -12,9 +12,37 @@ import com.mashape.unirest.request.GetRequest;
 import com.sikulix.core.SX;
 import com.sikulix.core.SXJson;
 import com.sikulix.core.SXLog;
+import org.json.JSONArray;
 import org.json.JSONObject;
+import org.opencv.core.Mat;
 
-public class Client {
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * the remote side of Server: an instance talks to one endpoint and (after startSession) one session<br>
+ * connections are kept alive and reused between requests (each response is read completely),
+ * many small commands should go as one batch() to save the round trips
+ * <p>
+ * Client client = new Client("http://host:8080");<br>
+ * client.startSession(new JSONObject().put("device", "local"));<br>
+ * client.batch().add("click", new JSONObject().put("imageId", client.uploadImage(button)))
+ * .add("type", new JSONObject().put("text", "hello")).run();<br>
+ * client.close();
+ * <p>
+ * the static get/post/stopServer talk to urlBase (localhost:8080)
+ */
+public class Client implements Closeable {
 
   static SXLog log;
   static {
@@ -25,6 +53,7 @@ public class Client {
 
   static String urlBase = "http://localhost:8080";
 
+  //<editor-fold desc="static">
   public static JSONObject post(String body) {
     return post("/noroute", body);
   }
@@ -71,7 +100,7 @@ public class Client {
       responseBody = jsonResponse.getBody().toString();
       response = SXJson.makeObject(responseBody);
     }
-    log.trace("get: response: %s",jsonResponse.getBody().toString());
+    log.trace("get: response: %s", responseBody);
     return response;
   }
 
@@ -94,4 +123,332 @@ public class Client {
     }
     return true;
   }
+  //</editor-fold>
+
+  //<editor-fold desc="instance">
+  private final String endpoint;
+  private int connectTimeout = 5000;
+  private int readTimeout = 70000;
+  private volatile String sessionId = null;
+  private final Set<String> uploaded = ConcurrentHashMap.newKeySet();
+
+  public Client() {
+    this(urlBase);
+  }
+
+  public Client(String host, int port) {
+    this(String.format("http://%s:%d", host, port));
+  }
+
+  /**
+   * @param endpoint e.g. http://localhost:8080
+   */
+  public Client(String endpoint) {
+    this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+  }
+
+  /**
+   * @param connectMillis to get a connection (default 5000)
+   * @param readMillis    to wait for a response (default 70000 - more than the server's command timeout)
+   */
+  public Client setTimeouts(int connectMillis, int readMillis) {
+    connectTimeout = connectMillis;
+    readTimeout = readMillis;
+    return this;
+  }
+
+  public String getEndpoint() {
+    return endpoint;
+  }
+
+  public String getSessionId() {
+    return sessionId;
+  }
+
+  /**
+   * @return the response of the server ({"sessionId", "status", "value": {"message", "content"}}),
+   * null if the server could not be reached (or did not answer in time)
+   */
+  public JSONObject request(String method, String path, JSONObject body) {
+    byte[] data = SX.isNull(body) ? null : body.toString().getBytes(StandardCharsets.UTF_8);
+    try {
+      HttpURLConnection connection = open(method, path, "application/json", data);
+      String response = new String(receive(connection), StandardCharsets.UTF_8);
+      log.trace("%s %s: %d", method, path, connection.getResponseCode());
+      JSONObject result = SXJson.makeObject(response);
+      if (SX.isNull(result)) {
+        log.error("%s %s: not JSON: %s", method, path, response.length() > 200 ? response.substring(0, 200) : response);
+      }
+      return result;
+    } catch (IOException ex) {
+      log.error("%s %s: %s", method, path, ex.getMessage());
+      return null;
+    }
+  }
+
+  private HttpURLConnection open(String method, String path, String contentType, byte[] body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(endpoint + path).openConnection();
+    connection.setRequestMethod(method);
+    connection.setConnectTimeout(connectTimeout);
+    connection.setReadTimeout(readTimeout);
+    connection.setRequestProperty("accept", "application/json");
+    if (SX.isNotNull(body)) {
+      connection.setDoOutput(true);
+      connection.setRequestProperty("content-type", contentType);
+      connection.setFixedLengthStreamingMode(body.length);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body);
+      }
+    }
+    return connection;
+  }
+
+  /**
+   * the body is read to the end, so the connection can be reused
+   */
+  private static byte[] receive(HttpURLConnection connection) throws IOException {
+    int code = connection.getResponseCode();
+    InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+    if (SX.isNull(in)) {
+      return new byte[0];
+    }
+    try (InputStream body = in) {
+      return ImageTransfer.read(body);
+    }
+  }
+
+  public static boolean isSuccess(JSONObject response) {
+    return SX.isNotNull(response) && response.optInt("status", -1) == Server.STATUS_SUCCESS;
+  }
+
+  /**
+   * @return the value's content of a response (JSONObject, JSONArray, String, ...), null if none
+   */
+  public static Object getContent(JSONObject response) {
+    if (SX.isNull(response) || SX.isNull(response.optJSONObject("value"))) {
+      return null;
+    }
+    Object content = response.getJSONObject("value").opt("content");
+    return JSONObject.NULL.equals(content) ? null : content;
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="session">
+
+  /**
+   * @param capabilities e.g. {"device": "virtual", "width": 800, "height": 600} (null: the server's screen)
+   * @return the session id (used by the following commands), null if not possible
+   */
+  public String startSession(JSONObject capabilities) {
+    JSONObject response = request("POST", "/session", SX.isNull(capabilities) ? new JSONObject() : capabilities);
+    if (!isSuccess(response)) {
+      log.error("startSession: %s", response);
+      return null;
+    }
+    sessionId = response.getString("sessionId");
+    return sessionId;
+  }
+
+  public boolean stopSession() {
+    if (SX.isNull(sessionId)) {
+      return false;
+    }
+    boolean success = isSuccess(request("DELETE", "/session/" + sessionId, null));
+    sessionId = null;
+    return success;
+  }
+
+  /**
+   * one command in the current session
+   *
+   * @return the response (see request())
+   */
+  public JSONObject command(String command, JSONObject args) {
+    if (SX.isNull(sessionId)) {
+      log.error("%s: no session", command);
+      return null;
+    }
+    return request("POST", "/session/" + sessionId + "/" + command, SX.isNull(args) ? new JSONObject() : args);
+  }
+
+  /**
+   * upload the image as PNG body (POST /image) - not again, if this client already did it
+   *
+   * @return the image id (content hash) to be used as "imageId" in commands, null if not possible
+   */
+  public String uploadImage(Mat image) {
+    byte[] png = ImageTransfer.toPNG(image);
+    if (SX.isNull(png)) {
+      return null;
+    }
+    return upload(png, ImageTransfer.MIME_PNG);
+  }
+
+  /**
+   * not again, if this client already did it
+   *
+   * @param data PNG, ... or raw (see ImageTransfer)
+   * @return the image id (content hash), null if not possible
+   */
+  public String upload(byte[] data, String contentType) {
+    String known = ImageTransfer.hash(data);
+    if (uploaded.contains(known)) {
+      return known;
+    }
+    try {
+      HttpURLConnection connection = open("POST", "/image", contentType, data);
+      JSONObject response = SXJson.makeObject(new String(receive(connection), StandardCharsets.UTF_8));
+      if (!isSuccess(response)) {
+        log.error("upload: %d %s", connection.getResponseCode(), response);
+        return null;
+      }
+      String imageId = ((JSONObject) getContent(response)).getString("imageId");
+      uploaded.add(imageId);
+      return imageId;
+    } catch (IOException ex) {
+      log.error("upload: %s", ex.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * the next upload of an image is sent again (e.g. the server answered no such image: it has dropped it)
+   */
+  public void forgetUploads() {
+    uploaded.clear();
+  }
+
+  /**
+   * find the image in the session's screen (uploaded once, again if the server has dropped it meanwhile)
+   *
+   * @return the response, the content is the match {"element", "x", "y", "w", "h", "score"}
+   */
+  public JSONObject find(Mat image) {
+    String imageId = uploadImage(image);
+    if (SX.isNull(imageId)) {
+      return null;
+    }
+    JSONObject response = command("find", new JSONObject().put("imageId", imageId));
+    if (SX.isNotNull(response) && response.optInt("status") == Server.STATUS_NO_SUCH_IMAGE) {
+      uploaded.remove(imageId);
+      imageId = uploadImage(image);
+      if (SX.isNull(imageId)) {
+        return null;
+      }
+      response = command("find", new JSONObject().put("imageId", imageId));
+    }
+    return response;
+  }
+
+  /**
+   * the pixels come as raw binary body
+   *
+   * @param region optional: part of the screen (default: the whole screen)
+   * @return the content, null if not possible
+   */
+  public Mat capture(Rectangle... region) {
+    if (SX.isNull(sessionId)) {
+      log.error("capture: no session");
+      return null;
+    }
+    JSONObject args = new JSONObject().put("format", "raw");
+    if (region.length > 0) {
+      args.put("region", new JSONObject().put("x", region[0].x).put("y", region[0].y)
+              .put("w", region[0].width).put("h", region[0].height));
+    }
+    try {
+      HttpURLConnection connection = open("POST", "/session/" + sessionId + "/capture", "application/json",
+              args.toString().getBytes(StandardCharsets.UTF_8));
+      if (connection.getResponseCode() != 200 || !ImageTransfer.MIME_RAW.equals(connection.getContentType())) {
+        log.error("capture: %d %s", connection.getResponseCode(), new String(receive(connection), StandardCharsets.UTF_8));
+        return null;
+      }
+      try (InputStream in = connection.getInputStream()) {
+        return ImageTransfer.readRaw(in);
+      }
+    } catch (IOException ex) {
+      log.error("capture: %s", ex.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * @return a new batch for the current session
+   */
+  public Batch batch() {
+    return new Batch(this);
+  }
+
+  /**
+   * ends the session (if any)
+   */
+  @Override
+  public void close() {
+    stopSession();
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="batch">
+
+  /**
+   * commands collected and sent with one request (POST /session/{id}/batch),
+   * the server runs them one after the other
+   */
+  public static class Batch {
+
+    private final Client client;
+    private final JSONArray commands = new JSONArray();
+    private boolean stopOnError = false;
+
+    Batch(Client client) {
+      this.client = client;
+    }
+
+    /**
+     * @param args the command's parameters (copied), null if none
+     */
+    public Batch add(String command, JSONObject args) {
+      JSONObject each = SX.isNull(args) ? new JSONObject() : new JSONObject(args.toString());
+      commands.put(each.put("command", command));
+      return this;
+    }
+
+    /**
+     * the commands after the first failing one are skipped (they have no result)
+     */
+    public Batch stopOnError() {
+      stopOnError = true;
+      return this;
+    }
+
+    public int size() {
+      return commands.length();
+    }
+
+    /**
+     * @return per command (same order) {"status": 0, "value": ...} or {"status": ..., "message": ...},
+     * null if the batch as a whole failed
+     */
+    public List<JSONObject> run() {
+      JSONObject response = client.command("batch",
+              new JSONObject().put("commands", commands).put("stopOnError", stopOnError));
+      Object content = getContent(response);
+      if (!isSuccess(response) || !(content instanceof JSONArray)) {
+        log.error("batch: %d commands: %s", commands.length(), response);
+        return null;
+      }
+      JSONArray results = (JSONArray) content;
+      List<JSONObject> list = new ArrayList<>(results.length());
+      for (int n = 0; n < results.length(); n++) {
+        list.add(results.getJSONObject(n));
+      }
+      return list;
+    }
+  }
+  //</editor-fold>
+
+  @Override
+  public String toString() {
+    return String.format("Client %s session %s", endpoint, sessionId);
+  }
 }
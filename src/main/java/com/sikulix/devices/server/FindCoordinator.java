@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.server;
+
+import com.sikulix.api.Do;
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.MatScope;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.opencv.core.Mat;
+
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * many targets searched in one (large) frame by several Server nodes (POST /find):
+ * the job is split into shards - groups of targets (TARGETS) or horizontal bands of the frame (TILES) -
+ * one per worker, the results are merged by score (per target the best match)<br>
+ * frame and targets are uploaded as PNG and referred to by their content hash, so each image is sent
+ * at most once to a worker (again only, if the worker has dropped it meanwhile)<br>
+ * a shard, that fails or is not done within the timeout, is searched locally instead
+ * (the local searches run in parallel, each started as soon as its shard is given up)
+ * <p>
+ * FindCoordinator coordinator = new FindCoordinator("http://node1:8080", "http://node2:8080");<br>
+ * List&lt;Element&gt; matches = coordinator.find(capture, targets);
+ */
+public class FindCoordinator implements Closeable {
+
+  private static final SXLog log = SX.getSXLog("SXServer.FindCoordinator");
+
+  public enum Split {
+    TARGETS, TILES
+  }
+
+  private final List<Client> workers = new ArrayList<>();
+  private final ExecutorService dispatcher;
+  private final ExecutorService locals;
+  private Split split = Split.TARGETS;
+  private int timeout = 10000;
+  private final LongAdder remoteShards = new LongAdder();
+  private final LongAdder localShards = new LongAdder();
+
+  /**
+   * @param endpoints the workers (e.g. http://localhost:8081), none: everything is searched locally
+   */
+  public FindCoordinator(String... endpoints) {
+    this(toClients(endpoints));
+  }
+
+  /**
+   * the remote shards use at most 2 threads per worker (more wait in the queue), the local searches
+   * at most as many as there are processors
+   */
+  public FindCoordinator(List<Client> workers) {
+    this.workers.addAll(workers);
+    dispatcher = Executors.newFixedThreadPool(Math.max(1, workers.size() * 2),
+            Server.daemonThreads("SXServer.coordinator"));
+    locals = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            Server.daemonThreads("SXServer.coordinator.local"));
+    setTimeout(timeout);
+  }
+
+  private static List<Client> toClients(String... endpoints) {
+    List<Client> clients = new ArrayList<>();
+    for (String endpoint : endpoints) {
+      clients.add(new Client(endpoint));
+    }
+    return clients;
+  }
+
+  public FindCoordinator setSplit(Split split) {
+    this.split = split;
+    return this;
+  }
+
+  /**
+   * @param millis a job waits at most this long for its workers (default 10000), then searches locally
+   */
+  public FindCoordinator setTimeout(int millis) {
+    timeout = millis;
+    for (Client worker : workers) {
+      worker.setTimeouts(Math.min(millis, 5000), millis);
+    }
+    return this;
+  }
+
+  public int getWorkerCount() {
+    return workers.size();
+  }
+
+  /**
+   * @return shards searched by a worker so far
+   */
+  public long getRemoteShards() {
+    return remoteShards.sum();
+  }
+
+  /**
+   * @return shards searched locally so far (failed or timed out on a worker)
+   */
+  public long getLocalShards() {
+    return localShards.sum();
+  }
+
+  //<editor-fold desc="find">
+  private static class Shard {
+    final Client worker;
+    final Rectangle area;
+    final int[] targets;
+
+    Shard(Client worker, Rectangle area, int[] targets) {
+      this.worker = worker;
+      this.area = area;
+      this.targets = targets;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Shard %s: (%d,%d %dx%d) %d targets", SX.isNull(worker) ? "local" : worker.getEndpoint(),
+              area.x, area.y, area.width, area.height, targets.length);
+    }
+  }
+
+  /**
+   * @param frame   where to search
+   * @param targets what to search
+   * @return per target (same order) the best match (frame coordinates), a not matching Element if not found
+   */
+  public List<Element> find(Mat frame, List<Mat> targets) {
+    Element[] best = new Element[targets.size()];
+    for (int n = 0; n < best.length; n++) {
+      best[n] = new Element();
+    }
+    if (targets.isEmpty()) {
+      return Arrays.asList(best);
+    }
+    List<Shard> shards = split(frame, targets);
+    byte[][] targetData = new byte[targets.size()][];
+    for (int n = 0; n < targetData.length; n++) {
+      targetData[n] = ImageTransfer.toPNG(targets.get(n));
+    }
+    byte[] frameData = Split.TARGETS.equals(split) ? ImageTransfer.toPNG(frame) : null;
+    List<Future<Element[]>> remotes = new ArrayList<>();
+    List<Future<Element[]>> results = new ArrayList<>();
+    for (Shard shard : shards) {
+      remotes.add(SX.isNull(shard.worker) ? null :
+              dispatcher.submit(() -> findRemote(shard, frame, frameData, targetData)));
+      results.add(null);
+    }
+    long deadline = System.currentTimeMillis() + timeout;
+    for (int n = 0; n < shards.size(); n++) {
+      Shard shard = shards.get(n);
+      Future<Element[]> remote = remotes.get(n);
+      if (SX.isNotNull(remote)) {
+        try {
+          remote.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+          remoteShards.increment();
+          results.set(n, remote);
+          continue;
+        } catch (TimeoutException | ExecutionException | InterruptedException ex) {
+          remote.cancel(true);
+          log.error("%s: %s - searching locally", shard, SX.isNull(ex.getCause()) ? ex : ex.getCause());
+        }
+      }
+      results.set(n, locals.submit(() -> findLocal(shard, frame, targets)));
+      localShards.increment();
+    }
+    for (int n = 0; n < shards.size(); n++) {
+      Shard shard = shards.get(n);
+      Element[] matches;
+      try {
+        matches = results.get(n).get();
+      } catch (ExecutionException | InterruptedException ex) {
+        log.error("%s: local search failed: %s", shard, SX.isNull(ex.getCause()) ? ex : ex.getCause());
+        continue;
+      }
+      for (int t = 0; t < shard.targets.length; t++) {
+        Element match = matches[t];
+        int target = shard.targets[t];
+        if (SX.isNotNull(match) && match.getScore() > best[target].getScore()) {
+          best[target] = match;
+        }
+      }
+    }
+    return Arrays.asList(best);
+  }
+
+  /**
+   * TARGETS: the targets dealt round robin to the workers, each with the whole frame<br>
+   * TILES: per worker a band of the frame with all targets, overlapping by the highest target
+   * (so a match lies completely in at least one band)
+   */
+  private List<Shard> split(Mat frame, List<Mat> targets) {
+    List<Shard> shards = new ArrayList<>();
+    Rectangle whole = new Rectangle(0, 0, frame.cols(), frame.rows());
+    int count = Math.max(1, Math.min(workers.size(), Split.TARGETS.equals(split) ? targets.size() : frame.rows()));
+    if (Split.TARGETS.equals(split)) {
+      for (int n = 0; n < count; n++) {
+        int[] indexes = new int[(targets.size() - n + count - 1) / count];
+        for (int i = 0; i < indexes.length; i++) {
+          indexes[i] = n + i * count;
+        }
+        shards.add(new Shard(workers.isEmpty() ? null : workers.get(n), whole, indexes));
+      }
+    } else {
+      int overlap = 0;
+      for (Mat target : targets) {
+        overlap = Math.max(overlap, target.rows() - 1);
+      }
+      int[] all = new int[targets.size()];
+      for (int i = 0; i < all.length; i++) {
+        all[i] = i;
+      }
+      for (int n = 0; n < count; n++) {
+        int top = n * frame.rows() / count;
+        int bottom = Math.min(frame.rows(), (n + 1) * frame.rows() / count + overlap);
+        shards.add(new Shard(workers.isEmpty() ? null : workers.get(n),
+                new Rectangle(0, top, frame.cols(), bottom - top), all));
+      }
+    }
+    return shards;
+  }
+
+  /**
+   * a shard given up (cancelled) stops before its next request - a request running already
+   * ends at the latest with the worker's read timeout (HttpURLConnection does not react on the interrupt)
+   */
+  private Element[] findRemote(Shard shard, Mat frame, byte[] frameData, byte[][] targetData) throws IOException {
+    byte[] area = frameData;
+    if (SX.isNull(area)) {
+      Mat tile = frame.submat(shard.area.y, shard.area.y + shard.area.height, shard.area.x, shard.area.x + shard.area.width);
+      area = ImageTransfer.toPNG(tile);
+      tile.release();
+    }
+    for (int attempt = 0; attempt < 2; attempt++) {
+      String frameId = shard.worker.upload(area, ImageTransfer.MIME_PNG);
+      if (SX.isNull(frameId)) {
+        throw new IOException("upload failed: frame");
+      }
+      JSONArray targetIds = new JSONArray();
+      for (int target : shard.targets) {
+        checkCancelled(shard);
+        String targetId = shard.worker.upload(targetData[target], ImageTransfer.MIME_PNG);
+        if (SX.isNull(targetId)) {
+          throw new IOException("upload failed: target " + target);
+        }
+        targetIds.put(targetId);
+      }
+      checkCancelled(shard);
+      JSONObject response = shard.worker.request("POST", "/find",
+              new JSONObject().put("frameId", frameId).put("targets", targetIds));
+      if (SX.isNotNull(response) && response.optInt("status") == Server.STATUS_NO_SUCH_IMAGE && attempt == 0) {
+        shard.worker.forgetUploads();
+        continue;
+      }
+      Object content = Client.getContent(response);
+      if (!Client.isSuccess(response) || !(content instanceof JSONArray)) {
+        throw new IOException("find: " + response);
+      }
+      JSONArray values = (JSONArray) content;
+      Element[] matches = new Element[shard.targets.length];
+      for (int t = 0; t < matches.length; t++) {
+        JSONObject value = values.getJSONObject(t);
+        if (value.has("score")) {
+          matches[t] = new Element(new Element(value.getInt("x") + shard.area.x, value.getInt("y") + shard.area.y,
+                  value.getInt("w"), value.getInt("h")), value.getDouble("score"));
+        }
+      }
+      return matches;
+    }
+    throw new IOException("images dropped by the worker");
+  }
+
+  private static void checkCancelled(Shard shard) throws InterruptedIOException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new InterruptedIOException(shard + ": given up");
+    }
+  }
+
+  /**
+   * the Pictures get their own headers on the caller's Mats (their release does not free the data)
+   */
+  private Element[] findLocal(Shard shard, Mat frame, List<Mat> targets) {
+    Picture where = Picture.view(frame.submat(shard.area.y, shard.area.y + shard.area.height,
+            shard.area.x, shard.area.x + shard.area.width));
+    Element[] matches = new Element[shard.targets.length];
+    for (int t = 0; t < matches.length; t++) {
+      Picture what = Picture.view(MatScope.share(targets.get(shard.targets[t])));
+      Element match = Do.find(what, where);
+      if (match.isMatch()) {
+        matches[t] = new Element(new Element(match.x + shard.area.x, match.y + shard.area.y, match.w, match.h),
+                match.getScore());
+      }
+      what.releaseContent();
+    }
+    where.releaseContent();
+    return matches;
+  }
+  //</editor-fold>
+
+  @Override
+  public void close() {
+    dispatcher.shutdownNow();
+    locals.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("FindCoordinator: %d workers, split %s, timeout %d ms", workers.size(), split, timeout);
+  }
+}
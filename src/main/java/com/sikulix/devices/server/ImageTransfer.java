@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.server;
+
+import com.sikulix.core.MatScope;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * images between Server and Client as binary HTTP bodies (no Base64):
+ * encoded (PNG, JPG, ... - image/png) or raw pixels (application/x-sikulix-raw)<br>
+ * raw: a 16 byte header (magic SXRW, width, height, channels - big endian int) followed by the rows
+ * of pixel bytes (BGR or BGRA or gray) without padding
+ * <p>
+ * uploaded images are known by their id: the SHA-256 of the bytes as sent (hex)
+ */
+public class ImageTransfer {
+
+  private static final SXLog log = SX.getSXLog("SXServer.ImageTransfer");
+
+  public static final String MIME_PNG = "image/png";
+  public static final String MIME_RAW = "application/x-sikulix-raw";
+
+  static final int RAW_MAGIC = 0x53585257;
+  public static final int RAW_HEADER = 16;
+
+  //<editor-fold desc="encode, decode">
+
+  /**
+   * @return the content as PNG, null if not possible
+   */
+  public static byte[] toPNG(Mat image) {
+    SX.loadNative(SX.NATIVES.OPENCV);
+    MatOfByte png = new MatOfByte();
+    if (SX.isNull(image) || image.empty() || !Imgcodecs.imencode(".png", image, png)) {
+      log.error("toPNG: not possible: %s", image);
+      return null;
+    }
+    byte[] bytes = png.toArray();
+    png.release();
+    return bytes;
+  }
+
+  /**
+   * @return the content as raw pixels with header
+   */
+  public static byte[] toRaw(Mat image) {
+    byte[] raw = new byte[(int) rawLength(image)];
+    try (InputStream in = new RawStream(image, false)) {
+      new DataInputStream(in).readFully(raw);
+    } catch (IOException ex) {
+      throw new IllegalStateException("toRaw: " + ex.getMessage());
+    }
+    return raw;
+  }
+
+  /**
+   * @param data raw (recognized by its header) or an image file's content (PNG, JPG, ...)
+   * @return the content (an alpha channel is kept), null if not decodable
+   */
+  public static Mat decode(byte[] data) {
+    SX.loadNative(SX.NATIVES.OPENCV);
+    if (isRaw(data)) {
+      ByteBuffer header = ByteBuffer.wrap(data, 4, RAW_HEADER - 4);
+      int width = header.getInt();
+      int height = header.getInt();
+      int channels = header.getInt();
+      if (width < 1 || height < 1 || channels < 1 || channels > 4
+              || data.length != RAW_HEADER + (long) width * height * channels) {
+        log.error("decode: raw: invalid header (%d bytes)", data.length);
+        return null;
+      }
+      Mat image = new Mat(height, width, CvType.CV_8UC(channels));
+      image.put(0, 0, Arrays.copyOfRange(data, RAW_HEADER, data.length));
+      return image;
+    }
+    MatOfByte encoded = new MatOfByte(data);
+    Mat image = Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_UNCHANGED);
+    encoded.release();
+    if (image.empty()) {
+      log.error("decode: not an image (%d bytes)", data.length);
+      return null;
+    }
+    return image;
+  }
+
+  static boolean isRaw(byte[] data) {
+    return data.length >= RAW_HEADER && ByteBuffer.wrap(data).getInt() == RAW_MAGIC;
+  }
+
+  /**
+   * @return SHA-256 of the data as hex string (the id of an uploaded image)
+   */
+  public static String hash(byte[] data) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+      StringBuilder hex = new StringBuilder(digest.length * 2);
+      for (byte each : digest) {
+        hex.append(String.format("%02x", each));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-256 not available", ex);
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="streams">
+
+  /**
+   * @param length the number of bytes to read (Content-Length)
+   */
+  public static byte[] read(InputStream in, long length) throws IOException {
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("invalid length: " + length);
+    }
+    byte[] data = new byte[(int) length];
+    new DataInputStream(in).readFully(data);
+    return data;
+  }
+
+  /**
+   * read until the end of the stream
+   */
+  public static byte[] read(InputStream in) throws IOException {
+    ByteArrayOutputStream data = new ByteArrayOutputStream(1 << 16);
+    byte[] buffer = new byte[1 << 16];
+    int count;
+    while ((count = in.read(buffer)) > 0) {
+      data.write(buffer, 0, count);
+    }
+    return data.toByteArray();
+  }
+
+  /**
+   * @return the number of bytes the raw form of the image has (header included)
+   */
+  public static long rawLength(Mat image) {
+    return RAW_HEADER + (long) image.cols() * image.rows() * image.channels();
+  }
+
+  /**
+   * the raw form of the image as stream: the pixels are copied row by row, when read
+   * (no copy of the whole image is made)
+   *
+   * @param image retained by the stream (see MatScope), released, when the stream is closed
+   */
+  public static InputStream openRaw(Mat image) {
+    return new RawStream(image, true);
+  }
+
+  private static class RawStream extends InputStream {
+    private Mat image;
+    private final boolean retained;
+    private final byte[] row;
+    private int rowNumber = -1;
+    private int position = 0;
+
+    RawStream(Mat image, boolean retained) {
+      this.image = retained ? MatScope.retain(image, "server") : image;
+      this.retained = retained;
+      row = new byte[Math.max(RAW_HEADER, image.cols() * image.channels())];
+      ByteBuffer.wrap(row).putInt(RAW_MAGIC).putInt(image.cols()).putInt(image.rows()).putInt(image.channels());
+    }
+
+    private int available(boolean next) {
+      if (SX.isNull(image)) {
+        return 0;
+      }
+      int rowLength = rowNumber < 0 ? RAW_HEADER : image.cols() * image.channels();
+      if (position < rowLength || !next) {
+        return rowLength - position;
+      }
+      if (rowNumber + 1 >= image.rows()) {
+        return 0;
+      }
+      rowNumber++;
+      image.get(rowNumber, 0, row);
+      position = 0;
+      return image.cols() * image.channels();
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      int available = available(true);
+      if (available == 0) {
+        return -1;
+      }
+      int count = Math.min(available, length);
+      System.arraycopy(row, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public synchronized int available() {
+      return available(false);
+    }
+
+    @Override
+    public synchronized void close() {
+      if (SX.isNotNull(image) && retained) {
+        MatScope.release(image);
+      }
+      image = null;
+    }
+  }
+
+  /**
+   * read a raw image from the stream (the header tells the size)
+   *
+   * @return the content, null if the stream does not start with a raw header
+   */
+  public static Mat readRaw(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    int magic;
+    try {
+      magic = data.readInt();
+    } catch (EOFException ex) {
+      return null;
+    }
+    if (magic != RAW_MAGIC) {
+      return null;
+    }
+    int width = data.readInt();
+    int height = data.readInt();
+    int channels = data.readInt();
+    if (width < 1 || height < 1 || channels < 1 || channels > 4) {
+      throw new IOException(String.format("invalid raw header: %dx%dx%d", width, height, channels));
+    }
+    SX.loadNative(SX.NATIVES.OPENCV);
+    byte[] row = new byte[width * channels];
+    Mat image = new Mat(height, width, CvType.CV_8UC(channels));
+    for (int n = 0; n < height; n++) {
+      data.readFully(row);
+      image.put(n, 0, row);
+    }
+    return image;
+  }
+  //</editor-fold>
+}
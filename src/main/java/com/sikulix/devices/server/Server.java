@@ -4,14 +4,69 @@
 
 package com.sikulix.devices.server;
 
+import com.sikulix.api.Do;
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.Resources;
 import com.sikulix.core.SX;
+import com.sikulix.core.SXJson;
 import com.sikulix.core.SXLog;
+import com.sikulix.devices.IDevice;
+import com.sikulix.devices.local.LocalDevice;
+import com.sikulix.devices.virtual.VirtualDevice;
 import fi.iki.elonen.NanoHTTPD;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.opencv.core.Mat;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
+/**
+ * remote API in the style of the JSON wire protocol: a client creates a session (which owns a device),
+ * then sends commands (find, wait, click, type, capture, ...) for that session<br>
+ * the commands run on a bounded pool of worker threads (the connection threads only wait for the result),
+ * a full queue is answered with 503 at once, so many clients get predictable latency<br>
+ * a session not used for sessionTimeout seconds (default 600) is deleted together with its device
+ * <p>
+ * POST /session {"device": "local"|"virtual", "width": w, "height": h} - value: {"sessionId": ...}<br>
+ * GET /sessions, GET /session/{id}, DELETE /session/{id}<br>
+ * POST /session/{id}/find|wait|exists {"image": Base64 | "path": file, "region": {x, y, w, h}, "timeout": secs}<br>
+ * POST /session/{id}/click {"element": id | "x", "y" | image/path, "button": left|right|double}<br>
+ * POST /session/{id}/type {"text": text, "element": id}, GET|POST /session/{id}/capture {"region": ...}
+ * POST /session/{id}/batch {"commands": [{"command": "find", ...}, ...]} - many commands with one request
+ * (run on one worker, value: the results in the same order, the command timeout is for the whole batch)<br>
+ * <p>
+ * binary images (see ImageTransfer): POST /image with the image as body (PNG, ... or raw)
+ * - value: {"imageId": content hash, ...}, then {"imageId": ...} as target in find, wait, exists, click
+ * (GET /image/{id} tells, whether it is still known)<br>
+ * GET|POST /session/{id}/capture {"format": "png" | "raw"} answers with the image as body
+ * (GET: parameters in the query: ?format=raw)
+ * <p>
+ * without session (a find worker, see FindCoordinator): POST /find {"frameId": id, "targets": [id, ...]}
+ * - the uploaded targets searched in the uploaded frame, value: per target (same order)
+ * {"target": id, "x", "y", "w", "h", "score"} or {"target": id} if not found
+ */
 public class Server extends NanoHTTPD {
 
   //https://github.com/SeleniumHQ/selenium/wiki/JsonWireProtocol
@@ -24,19 +79,170 @@ public class Server extends NanoHTTPD {
     log.on(SXLog.TRACE);
   }
 
+  static final int STATUS_SUCCESS = 0;
+  static final int STATUS_NO_SUCH_DRIVER = 6;
+  static final int STATUS_NO_SUCH_ELEMENT = 7;
+  static final int STATUS_UNKNOWN_COMMAND = 9;
+  static final int STATUS_UNKNOWN_ERROR = 13;
+  static final int STATUS_TIMEOUT = 21;
+  static final int STATUS_INVALID_ARGUMENT = 61;
+  static final int STATUS_NO_SUCH_IMAGE = 64;
+
+  static final long MAX_UPLOAD = 64 * 1024 * 1024;
+
   static boolean shouldStop = false;
   static Server server = null;
   int currentPort = -1;
 
+  private final Map<String, ServerSession> sessions = new ConcurrentHashMap<>();
+  private final ThreadPoolExecutor workers;
+  private Function<JSONObject, IDevice> deviceFactory = Server::createDevice;
+  private int commandTimeout = 60;
+  private volatile int sessionTimeout = 600;
+  private final ScheduledExecutorService sweeper = new ScheduledThreadPoolExecutor(1, daemonThreads("SXServer.sweeper"));
+  private final TargetCache targets = new TargetCache(256 * 1024 * 1024);
+  private final Resources.Evictable targetEvictor = targets::evict;
+
   public Server() throws IOException {
     this(8080);
   }
 
   public Server(int port) throws IOException {
+    this(port, Runtime.getRuntime().availableProcessors(), 64);
+  }
+
+  /**
+   * @param port       0: any free port (see getPort())
+   * @param workers    commands running at the same time (all sessions)
+   * @param queueSize  commands waiting for a worker (more are rejected with 503)
+   */
+  public Server(int port, int workers, int queueSize) throws IOException {
     super(port);
-    currentPort = port;
+    this.workers = new ThreadPoolExecutor(Math.max(1, workers), Math.max(1, workers), 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queueSize)), daemonThreads("SXServer.worker"));
+    setAsyncRunner(new ConnectionRunner(Math.max(16, workers + queueSize)));
+    Resources.addEvictable("mat.live.bytes", targetEvictor);
+    Resources.register("pool.server.queue", () -> this.workers.getQueue().size());
+    Resources.register("pool.server.active", () -> this.workers.getActiveCount());
+    sweeper.scheduleWithFixedDelay(this::deleteIdleSessions, 30, 30, TimeUnit.SECONDS);
     start(NanoHTTPD.SOCKET_READ_TIMEOUT, false);
-    log.trace("started on localhost:%d", port);
+    currentPort = getListeningPort();
+    log.trace("started on localhost:%d (%d workers)", currentPort, workers);
+  }
+
+  static ThreadFactory daemonThreads(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, name + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * one thread per open connection as NanoHTTPD does, but at most maxConnections
+   * (more are closed at once instead of starting ever more threads)
+   */
+  private static class ConnectionRunner implements AsyncRunner {
+    private final ThreadPoolExecutor threads;
+    private final List<ClientHandler> running = new ArrayList<>();
+
+    ConnectionRunner(int maxConnections) {
+      threads = new ThreadPoolExecutor(0, maxConnections, 30, TimeUnit.SECONDS, new SynchronousQueue<>(),
+              daemonThreads("SXServer.connection"));
+    }
+
+    @Override
+    public void closeAll() {
+      List<ClientHandler> open;
+      synchronized (running) {
+        open = new ArrayList<>(running);
+      }
+      for (ClientHandler handler : open) {
+        handler.close();
+      }
+    }
+
+    @Override
+    public void closed(ClientHandler handler) {
+      synchronized (running) {
+        running.remove(handler);
+      }
+    }
+
+    @Override
+    public void exec(ClientHandler handler) {
+      synchronized (running) {
+        running.add(handler);
+      }
+      try {
+        threads.execute(handler);
+      } catch (RejectedExecutionException ex) {
+        log.error("too many connections (%d) - closing the new one", threads.getMaximumPoolSize());
+        closed(handler);
+        handler.close();
+      }
+    }
+  }
+
+  public int getPort() {
+    return currentPort;
+  }
+
+  /**
+   * @param factory creates the device for a new session from the POST /session body (default: createDevice)
+   */
+  public void setDeviceFactory(Function<JSONObject, IDevice> factory) {
+    deviceFactory = factory;
+  }
+
+  /**
+   * @param seconds max time a command may take (incl. waiting for a worker), default 60
+   */
+  public void setCommandTimeout(int seconds) {
+    commandTimeout = seconds;
+  }
+
+  /**
+   * @param seconds a session without commands for this time is deleted (default 600, 0: never)
+   */
+  public void setSessionTimeout(int seconds) {
+    sessionTimeout = seconds;
+  }
+
+  public int getSessionCount() {
+    return sessions.size();
+  }
+
+  /**
+   * @param megaBytes the uploaded images kept at most (default 256)
+   */
+  public void setTargetCacheMB(double megaBytes) {
+    targets.setMaxBytes((long) (Math.max(0, megaBytes) * 1024 * 1024));
+  }
+
+  /**
+   * @return uploaded images currently known
+   */
+  public int getTargetCount() {
+    return targets.getSize();
+  }
+
+  /**
+   * @return commands waiting for a worker
+   */
+  public int getQueueSize() {
+    return workers.getQueue().size();
+  }
+
+  /**
+   * @param capabilities "device": "virtual" (with "width", "height") or "local" (default: the local screen)
+   */
+  static IDevice createDevice(JSONObject capabilities) {
+    if ("virtual".equals(capabilities.optString("device"))) {
+      return new VirtualDevice(capabilities.optInt("width", 1280), capabilities.optInt("height", 800)).start();
+    }
+    return Do.getLocalDevice();
   }
 
   static void createStopListener() {
@@ -70,103 +276,417 @@ public class Server extends NanoHTTPD {
   }
 
   @Override
-  public Response serve(IHTTPSession session) {
+  public void stop() {
+    super.stop();
+    sweeper.shutdownNow();
+    workers.shutdownNow();
+    for (String sessionId : new ArrayList<>(sessions.keySet())) {
+      deleteSession(sessionId);
+    }
+    Resources.removeEvictable("mat.live.bytes", targetEvictor);
+    Resources.unregister("pool.server.queue");
+    Resources.unregister("pool.server.active");
+    targets.clear();
+  }
+
+  //<editor-fold desc="serve">
+  private static class Reply {
     Response.IStatus status = Response.Status.OK;
-    boolean isImplemented = true;
-    boolean isError = false;
+    int commandStatus = STATUS_SUCCESS;
+    String sessionID = "0";
+    String message;
+    Object content = JSONObject.NULL;
+    Picture image = null;
+    String format = "";
+    boolean closeConnection = false;
+
+    Reply(String message) {
+      this.message = message;
+    }
+
+    Reply fail(Response.IStatus status, int commandStatus, String message) {
+      this.status = status;
+      this.commandStatus = commandStatus;
+      this.message = message;
+      return this;
+    }
+  }
+
+  @Override
+  public Response serve(IHTTPSession session) {
     String uri = session.getUri();
     Method method = session.getMethod();
-    boolean isGet = Method.GET.equals(method);
-    boolean isDelete = Method.DELETE.equals(method);
-    boolean isPost = Method.POST.equals(method);
-    Map<String, String> headers = session.getHeaders();
-
     log.trace("%s - %s", method, uri);
 
-    String responseTemplate = "{\"sessionId\" : \"%s\", \"status\" : \"%s\", \"value\" : %s}";
-    String responseValue = "";
-    String responseValueContent = "";
-    String responseValueTemplate = "{\"message\" : \"%s(%s)\", \"content\" : %s}";
-    String responseValueMsg = uri;
-    String responseValueMsgSorry = "not implemented: " + uri;
-    String responseValueMsgError = "error: " + uri;
-
     String command = "";
-    int commandStatus = 0;
-    boolean isCommandSession = false;
-    String sessionID = "0";
+    String sessionID = "";
     String subCommand = "";
-    String subCommandParm = "";
+    String imageID = "";
     String[] route = uri.split("/");
-
     if (route.length > 1) {
       command = route[1].toLowerCase();
+      if ("image".equals(command) && route.length > 2) {
+        imageID = route[2];
+      }
       if ("session".equals(command)) {
-        isCommandSession = true;
         if (route.length > 2) {
-          sessionID = route[2].toLowerCase();
+          sessionID = route[2];
         }
         if (route.length > 3) {
           subCommand = route[3].toLowerCase();
         }
-        if (route.length > 4) {
-          subCommandParm = route[4].toLowerCase();
-        }
       }
     } else {
-      isGet = true;
+      method = Method.GET;
       command = "state";
-      responseValueMsg = "using GET/state: " + uri;
-    }
-    if (isGet) {
-      if (isCommandSession) {
-        isImplemented = false;
-      } else if (command.startsWith("stop")) {
-        shouldStop = true;
-        log.trace("stopping intentionally");
-        responseValueMsg = "server is stopping";
-      } else if (command.startsWith("state")) {
-        responseValueContent = String.format("\"running on localhost:%d\"", currentPort);
-      } else if (command.startsWith("sessions")) {
-        isImplemented = false;
+    }
+
+    Reply reply = new Reply(uri);
+    if ("image".equals(command)) {
+      if (imageID.isEmpty() && Method.POST.equals(method)) {
+        uploadImage(session, reply);
+      } else if (!imageID.isEmpty() && Method.GET.equals(method)) {
+        if (!targets.contains(imageID)) {
+          reply.fail(Response.Status.NOT_FOUND, STATUS_NO_SUCH_IMAGE, "no such image: " + imageID);
+        } else {
+          reply.content = new JSONObject().put("imageId", imageID);
+        }
       } else {
-        isImplemented = false;
-      }
-    } else if (isDelete) {
-
-    } else if (isPost) {
-      final HashMap<String, String> bodyFiles = new HashMap<String, String>();
-      if ("application/json".equals(headers.get("content-type"))) {
-        try {
-          session.parseBody(bodyFiles);
-          responseValueContent = bodyFiles.get("postData");
-        } catch (Exception e) {
-          log.error("POST: invalid: %s", e.getMessage());
-          isImplemented = false;
+        reply.fail(Response.Status.METHOD_NOT_ALLOWED, STATUS_UNKNOWN_COMMAND, method + " " + uri);
+      }
+      return respond(method, reply);
+    }
+    JSONObject body = new JSONObject();
+    if (Method.POST.equals(method)) {
+      body = getBody(session, reply);
+      if (!Response.Status.OK.equals(reply.status)) {
+        return respond(method, reply);
+      }
+    }
+    for (Map.Entry<String, String> parameter : session.getParms().entrySet()) {
+      if (!body.has(parameter.getKey())) {
+        body.put(parameter.getKey(), parameter.getValue());
+      }
+    }
+    if ("session".equals(command)) {
+      reply.sessionID = sessionID.isEmpty() ? "0" : sessionID;
+      if (sessionID.isEmpty() && Method.POST.equals(method)) {
+        createSession(body, reply);
+      } else if (sessionID.isEmpty()) {
+        reply.fail(Response.Status.METHOD_NOT_ALLOWED, STATUS_UNKNOWN_COMMAND, "use POST to create a session");
+      } else if (subCommand.isEmpty() && Method.DELETE.equals(method)) {
+        if (!deleteSession(sessionID)) {
+          reply.fail(Response.Status.NOT_FOUND, STATUS_NO_SUCH_DRIVER, "no such session: " + sessionID);
         }
-        if ("execute".equals(subCommand)) {
-          log.trace("EXECUTE: %s", responseValueContent);
+      } else if (subCommand.isEmpty() && Method.GET.equals(method)) {
+        ServerSession target = sessions.get(sessionID);
+        if (SX.isNull(target)) {
+          reply.fail(Response.Status.NOT_FOUND, STATUS_NO_SUCH_DRIVER, "no such session: " + sessionID);
+        } else {
+          reply.content = target.describe();
         }
+      } else if (Method.GET.equals(method) || Method.POST.equals(method)) {
+        runCommand(sessionID, subCommand, body, reply);
       } else {
-        isImplemented = false;
+        reply.fail(Response.Status.METHOD_NOT_ALLOWED, STATUS_UNKNOWN_COMMAND, method + " " + uri);
       }
-      if (isImplemented) {
+    } else if ("find".equals(command) && Method.POST.equals(method)) {
+      runFind(body, reply);
+    } else if ("sessions".equals(command) && Method.GET.equals(method)) {
+      JSONArray list = new JSONArray();
+      for (ServerSession each : sessions.values()) {
+        list.put(each.describe());
       }
+      reply.content = list;
+    } else if (command.startsWith("stop") && Method.GET.equals(method)) {
+      shouldStop = true;
+      log.trace("stopping intentionally");
+      reply.message = "server is stopping";
+    } else if (command.startsWith("state") && Method.GET.equals(method)) {
+      reply.content = String.format("running on localhost:%d", currentPort);
     } else {
-        isImplemented = false;
+      reply.fail(Response.Status.NOT_IMPLEMENTED, STATUS_UNKNOWN_COMMAND, "not implemented: " + uri);
     }
-    if (!isImplemented) {
-      status = Response.Status.NOT_IMPLEMENTED;
-      responseValueMsg = responseValueMsgSorry;
-    } else if (isError) {
-      responseValueMsg = responseValueMsgError;
+    return respond(method, reply);
+  }
+
+  private JSONObject getBody(IHTTPSession session, Reply reply) {
+    final HashMap<String, String> bodyFiles = new HashMap<String, String>();
+    String postData = null;
+    try {
+      session.parseBody(bodyFiles);
+      postData = bodyFiles.get("postData");
+    } catch (Exception e) {
+      log.error("POST: invalid: %s", e.getMessage());
+      reply.fail(Response.Status.BAD_REQUEST, STATUS_INVALID_ARGUMENT, "invalid body: " + e.getMessage());
+      return new JSONObject();
+    }
+    if (SX.isNull(postData) || postData.trim().isEmpty()) {
+      return new JSONObject();
+    }
+    JSONObject body = SXJson.makeObject(postData);
+    if (SX.isNull(body)) {
+      reply.fail(Response.Status.BAD_REQUEST, STATUS_INVALID_ARGUMENT, "body is not a JSON object");
+      return new JSONObject();
+    }
+    return body;
+  }
+
+  /**
+   * with Connection: close, if the request body was not read completely (the connection can not be reused)
+   */
+  private Response respond(Method method, Reply reply) {
+    Response response = SX.isNotNull(reply.image) ? respondImage(reply) : respondJSON(method, reply);
+    if (reply.closeConnection) {
+      response.addHeader("Connection", "close");
+    }
+    return response;
+  }
+
+  private Response respondJSON(Method method, Reply reply) {
+    JSONObject value = new JSONObject().put("message", String.format("%s(%s)", method, reply.message))
+            .put("content", reply.content);
+    JSONObject response = new JSONObject().put("sessionId", reply.sessionID)
+            .put("status", reply.commandStatus).put("value", value);
+    String theResponse = response.toString();
+    if (theResponse.length() > 500) {
+      log.trace("Response: %s ...", theResponse.substring(0, 500));
+    } else {
+      log.trace("Response: %s", theResponse);
+    }
+    return newFixedLengthResponse(reply.status, "application/json", theResponse);
+  }
+
+  /**
+   * the image as body with Content-Length: raw is streamed from the content (released after sending)
+   */
+  private Response respondImage(Reply reply) {
+    Picture image = reply.image;
+    Response response;
+    if ("raw".equals(reply.format)) {
+      response = newFixedLengthResponse(reply.status, ImageTransfer.MIME_RAW,
+              ImageTransfer.openRaw(image.getContent()), ImageTransfer.rawLength(image.getContent()));
+    } else {
+      byte[] png = ImageTransfer.toPNG(image.getContent());
+      if (SX.isNull(png)) {
+        png = new byte[0];
+      }
+      response = newFixedLengthResponse(reply.status, ImageTransfer.MIME_PNG, new ByteArrayInputStream(png), png.length);
+    }
+    response.addHeader("X-SikuliX-Session", reply.sessionID);
+    response.addHeader("X-SikuliX-Region", String.format("%d,%d,%d,%d", image.x, image.y, image.w, image.h));
+    image.releaseContent();
+    log.trace("Response: %s image %dx%d", reply.format, image.w, image.h);
+    return response;
+  }
+
+  /**
+   * the body (Content-Length bytes) is the image: decoded on a worker, if not yet known by its hash<br>
+   * a body not read (no or too large Content-Length, broken upload) closes the connection
+   */
+  private void uploadImage(IHTTPSession session, Reply reply) {
+    long length;
+    try {
+      length = Long.parseLong(session.getHeaders().get("content-length"));
+    } catch (NumberFormatException ex) {
+      reply.fail(Response.Status.LENGTH_REQUIRED, STATUS_INVALID_ARGUMENT, "image: Content-Length needed");
+      reply.closeConnection = true;
+      return;
+    }
+    if (length < 1 || length > MAX_UPLOAD) {
+      reply.fail(Response.Status.PAYLOAD_TOO_LARGE, STATUS_INVALID_ARGUMENT,
+              String.format("image: %d bytes (max %d)", length, MAX_UPLOAD));
+      reply.closeConnection = true;
+      return;
+    }
+    byte[] data;
+    try {
+      data = ImageTransfer.read(session.getInputStream(), length);
+    } catch (IOException ex) {
+      reply.fail(Response.Status.BAD_REQUEST, STATUS_INVALID_ARGUMENT, "image: " + ex.getMessage());
+      reply.closeConnection = true;
+      return;
+    }
+    String imageId = ImageTransfer.hash(data);
+    JSONObject value = new JSONObject().put("imageId", imageId).put("bytes", data.length);
+    if (targets.contains(imageId)) {
+      reply.content = value.put("cached", true);
+      return;
+    }
+    runOnWorker("image", () -> {
+      Mat image = ImageTransfer.decode(data);
+      if (SX.isNull(image)) {
+        throw new ServerSession.CommandException(STATUS_INVALID_ARGUMENT, "image: not decodable");
+      }
+      value.put("width", image.cols()).put("height", image.rows()).put("cached", false);
+      targets.put(imageId, image);
+      Resources.checkLimits();
+      return value;
+    }, reply);
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="sessions">
+  private void createSession(JSONObject capabilities, Reply reply) {
+    IDevice device;
+    try {
+      device = deviceFactory.apply(capabilities);
+    } catch (Exception ex) {
+      log.error("createSession: %s", ex);
+      device = null;
+    }
+    if (SX.isNull(device) || !device.isValid()) {
+      reply.fail(Response.Status.INTERNAL_ERROR, STATUS_UNKNOWN_ERROR, "device not available: " + capabilities);
+      return;
+    }
+    ServerSession session = new ServerSession(UUID.randomUUID().toString(), device, targets);
+    sessions.put(session.getId(), session);
+    reply.sessionID = session.getId();
+    reply.content = session.describe();
+    log.trace("createSession: %s (%d sessions)", session, sessions.size());
+  }
+
+  private boolean deleteSession(String sessionID) {
+    ServerSession session = sessions.remove(sessionID);
+    if (SX.isNull(session)) {
+      return false;
+    }
+    session.close();
+    if (!(session.getDevice() instanceof LocalDevice)) {
+      session.getDevice().stop();
+    }
+    log.trace("deleteSession: %s", session);
+    return true;
+  }
+
+  /**
+   * delete the sessions not used for sessionTimeout seconds (run by the sweeper)
+   */
+  void deleteIdleSessions() {
+    if (sessionTimeout <= 0) {
+      return;
+    }
+    for (ServerSession session : new ArrayList<>(sessions.values())) {
+      if (session.isIdle(sessionTimeout * 1000L)) {
+        log.trace("deleteIdleSessions: %s not used for %d secs", session, sessionTimeout);
+        deleteSession(session.getId());
+      }
+    }
+  }
+
+  /**
+   * queue the command for its session and wait for its result (at most commandTimeout seconds)
+   */
+  private void runCommand(String sessionID, String command, JSONObject args, Reply reply) {
+    ServerSession session = sessions.get(sessionID);
+    if (SX.isNull(session)) {
+      reply.fail(Response.Status.NOT_FOUND, STATUS_NO_SUCH_DRIVER, "no such session: " + sessionID);
+      return;
+    }
+    waitForResult(command, session.submit(command, args, workers), reply);
+    if (reply.content instanceof Picture) {
+      reply.image = (Picture) reply.content;
+      reply.format = args.optString("format").toLowerCase();
+      reply.content = JSONObject.NULL;
+    }
+  }
+
+  private void runOnWorker(String command, Callable<Object> task, Reply reply) {
+    Future<Object> result;
+    try {
+      result = workers.submit(task);
+    } catch (RejectedExecutionException ex) {
+      failBusy(reply);
+      return;
+    }
+    waitForResult(command, result, reply);
+  }
+
+  private void failBusy(Reply reply) {
+    reply.fail(Response.Status.SERVICE_UNAVAILABLE, STATUS_UNKNOWN_ERROR,
+            String.format("busy: %d commands waiting", getQueueSize()));
+  }
+
+  private void waitForResult(String command, Future<Object> result, Reply reply) {
+    try {
+      reply.content = result.get(commandTimeout, TimeUnit.SECONDS);
+    } catch (TimeoutException ex) {
+      result.cancel(true);
+      reply.fail(Response.Status.INTERNAL_ERROR, STATUS_TIMEOUT, command + ": timeout");
+    } catch (InterruptedException ex) {
+      reply.fail(Response.Status.INTERNAL_ERROR, STATUS_UNKNOWN_ERROR, command + ": interrupted");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof RejectedExecutionException) {
+        failBusy(reply);
+      } else if (cause instanceof ServerSession.CommandException) {
+        int status = ((ServerSession.CommandException) cause).status;
+        reply.fail(toHttpStatus(status), status, cause.getMessage());
+      } else {
+        log.error("%s: %s", command, cause);
+        reply.fail(Response.Status.INTERNAL_ERROR, STATUS_UNKNOWN_ERROR, command + ": " + cause);
+      }
+    }
+  }
+
+  private void runFind(JSONObject args, Reply reply) {
+    runOnWorker("find", () -> findInFrame(args), reply);
+  }
+
+  /**
+   * find each target in the frame (both uploaded before)
+   */
+  private JSONArray findInFrame(JSONObject args) throws ServerSession.CommandException {
+    JSONArray targetIds = args.optJSONArray("targets");
+    if (!args.has("frameId") || SX.isNull(targetIds)) {
+      throw new ServerSession.CommandException(STATUS_INVALID_ARGUMENT, "find: frameId and targets needed");
+    }
+    List<Picture> pictures = new ArrayList<>();
+    Picture frame = targets.view(args.getString("frameId"));
+    try {
+      for (int n = 0; n < targetIds.length(); n++) {
+        Picture target = targets.view(targetIds.getString(n));
+        if (SX.isNull(frame) || SX.isNull(target)) {
+          throw new ServerSession.CommandException(STATUS_NO_SUCH_IMAGE,
+                  "no such image: " + (SX.isNull(frame) ? args.getString("frameId") : targetIds.getString(n)));
+        }
+        pictures.add(target);
+      }
+      JSONArray matches = new JSONArray();
+      for (int n = 0; n < pictures.size(); n++) {
+        Element match = Do.find(pictures.get(n), frame);
+        JSONObject value = new JSONObject().put("target", targetIds.getString(n));
+        if (match.isMatch()) {
+          value.put("x", match.x).put("y", match.y).put("w", match.w).put("h", match.h).put("score", match.getScore());
+        }
+        matches.put(value);
+      }
+      return matches;
+    } finally {
+      if (SX.isNotNull(frame)) {
+        frame.releaseContent();
+      }
+      for (Picture picture : pictures) {
+        picture.releaseContent();
+      }
     }
-    if (!Response.Status.OK.equals(status)) {
-      commandStatus = status.getRequestStatus();
+  }
+
+  /**
+   * not found is a normal outcome of find (200), wrong requests are 400/404, the rest 500
+   */
+  private static Response.IStatus toHttpStatus(int commandStatus) {
+    switch (commandStatus) {
+      case STATUS_NO_SUCH_ELEMENT:
+        return Response.Status.OK;
+      case STATUS_INVALID_ARGUMENT:
+        return Response.Status.BAD_REQUEST;
+      case STATUS_UNKNOWN_COMMAND:
+      case STATUS_NO_SUCH_IMAGE:
+        return Response.Status.NOT_FOUND;
+      default:
+        return Response.Status.INTERNAL_ERROR;
     }
-    responseValue = String.format(responseValueTemplate, method, responseValueMsg, responseValueContent);
-    String theResponse = String.format(responseTemplate, sessionID, commandStatus, responseValue);
-    log.trace("Response: %s", theResponse);
-    return newFixedLengthResponse(status, "application/json", theResponse);
   }
+  //</editor-fold>
 }
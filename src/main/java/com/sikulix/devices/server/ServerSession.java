@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.server;
+
+import com.sikulix.api.Do;
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXJson;
+import com.sikulix.core.SXLog;
+import com.sikulix.devices.IDevice;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.opencv.core.Mat;
+
+import java.awt.Rectangle;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the state of one remote client: its device and the elements (matches) found so far,
+ * which later commands can refer to by id<br>
+ * the commands of a session run one after the other (different sessions in parallel):
+ * they are chained, so a command goes to a worker only after the one before has finished
+ * (no worker waits for a busy session)
+ */
+class ServerSession {
+
+  private static final SXLog log = SX.getSXLog("SXServer.Session");
+
+  static final int MAX_ELEMENTS = 1000;
+
+  static class CommandException extends Exception {
+    final int status;
+
+    CommandException(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+  }
+
+  private final String id;
+  private final IDevice device;
+  private final TargetCache targets;
+  private final Map<String, Element> elements = new LinkedHashMap<String, Element>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Element> eldest) {
+      return size() > MAX_ELEMENTS;
+    }
+  };
+  private long nextElement = 1;
+  private volatile long lastUsed = System.currentTimeMillis();
+  private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+  private final AtomicInteger pending = new AtomicInteger();
+
+  ServerSession(String id, IDevice device, TargetCache targets) {
+    this.id = id;
+    this.device = device;
+    this.targets = targets;
+  }
+
+  String getId() {
+    return id;
+  }
+
+  IDevice getDevice() {
+    return device;
+  }
+
+  long getLastUsed() {
+    return lastUsed;
+  }
+
+  /**
+   * @param millis idle time
+   * @return true, if no command is queued or running and the last one finished more than millis ago
+   */
+  boolean isIdle(long millis) {
+    return pending.get() == 0 && System.currentTimeMillis() - lastUsed > millis;
+  }
+
+  /**
+   * @return the whole screen of the session's device
+   */
+  Element on() {
+    Element screen = new Element(device.getMonitor());
+    screen.setDevice(device);
+    return screen;
+  }
+
+  JSONObject describe() {
+    Rectangle screen = device.getMonitor();
+    return new JSONObject().put("sessionId", id).put("device", device.getName())
+            .put("width", screen.width).put("height", screen.height).put("elements", elements.size());
+  }
+
+  //<editor-fold desc="commands">
+
+  /**
+   * queue the command behind the session's commands not yet finished<br>
+   * it is handed to the executor, when the one before is done (rejected: completes with
+   * RejectedExecutionException), cancelling the result interrupts the running command
+   *
+   * @return the command's value (or its CommandException)
+   */
+  synchronized CompletableFuture<Object> submit(String command, JSONObject args, Executor executor) {
+    CompletableFuture<Object> result = new CompletableFuture<>();
+    pending.incrementAndGet();
+    lastUsed = System.currentTimeMillis();
+    tail = tail.thenRunAsync(() -> {
+      if (result.isDone()) {
+        return;
+      }
+      Thread worker = Thread.currentThread();
+      result.whenComplete((value, ex) -> {
+        if (result.isCancelled()) {
+          worker.interrupt();
+        }
+      });
+      try {
+        result.complete(execute(command, args));
+      } catch (Throwable ex) {
+        result.completeExceptionally(ex);
+      }
+    }, executor).handle((done, ex) -> {
+      if (SX.isNotNull(ex)) {
+        result.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+      }
+      lastUsed = System.currentTimeMillis();
+      pending.decrementAndGet();
+      return null;
+    });
+    return result;
+  }
+
+  /**
+   * @param command find, wait, exists, click, type, capture, element, batch
+   * @param args    the command's parameters (the JSON body of the request)
+   * @return the command's value
+   * @throws CommandException with a JSON wire status, if the command failed
+   */
+  Object execute(String command, JSONObject args) throws CommandException {
+    switch (command) {
+      case "find":
+        return found(search(args, -1), command);
+      case "wait":
+        return found(search(args, args.optDouble("timeout", 3)), command);
+      case "exists":
+        Element match = search(args, args.optDouble("timeout", 0));
+        return match.isMatch() ? found(match, command) : JSONObject.NULL;
+      case "click":
+        return click(args);
+      case "type":
+        return type(args);
+      case "capture":
+        return capture(args);
+      case "element":
+        return toJson(getElement(args.optString("element")), args.optString("element"));
+      case "batch":
+        return batch(args);
+    }
+    throw new CommandException(Server.STATUS_UNKNOWN_COMMAND, "unknown command: " + command);
+  }
+
+  /**
+   * Do.find (timeout &lt; 0) or Do.wait for the target - a Picture got for the command is released afterwards
+   * (the content of a cached image stays with the cache)
+   */
+  private Element search(JSONObject args, double timeout) throws CommandException {
+    Object target = getTarget(args);
+    try {
+      return timeout < 0 ? Do.find(target, getWhere(args)) : Do.wait(target, getWhere(args), timeout);
+    } finally {
+      if (target instanceof Picture && !args.has("element")) {
+        ((Picture) target).releaseContent();
+      }
+    }
+  }
+
+  private Object click(JSONObject args) throws CommandException {
+    Element target;
+    if (args.has("element")) {
+      target = getElement(args.getString("element"));
+    } else if (args.has("x") && args.has("y")) {
+      target = new Element(args.getInt("x"), args.getInt("y"));
+    } else {
+      target = search(args, -1);
+      if (!target.isMatch()) {
+        throw new CommandException(Server.STATUS_NO_SUCH_ELEMENT, "click: not found: " + args.optString("path", "image"));
+      }
+    }
+    String action = args.optString("button", "left").toLowerCase();
+    Element clicked;
+    if ("right".equals(action)) {
+      clicked = device.rightClick(target);
+    } else if ("double".equals(action)) {
+      clicked = device.doubleClick(target);
+    } else {
+      clicked = device.click(target);
+    }
+    return new JSONObject().put("x", clicked.x).put("y", clicked.y);
+  }
+
+  private Object type(JSONObject args) throws CommandException {
+    if (!args.has("text")) {
+      throw new CommandException(Server.STATUS_INVALID_ARGUMENT, "type: no text");
+    }
+    Element where = args.has("element") ? getElement(args.getString("element")) : on();
+    if (args.has("element")) {
+      where.setDevice(device);
+      device.click(where);
+    }
+    return where.write(args.getString("text"));
+  }
+
+  /**
+   * "format": "json" (default - PNG in Base64), "png" or "raw" (the Picture is returned,
+   * the Server sends it as binary body and releases it)
+   */
+  private Object capture(JSONObject args) throws CommandException {
+    Element where = getWhere(args);
+    String format = args.optString("format", "json").toLowerCase();
+    if (!"json".equals(format) && !"png".equals(format) && !"raw".equals(format)) {
+      throw new CommandException(Server.STATUS_INVALID_ARGUMENT, "capture: unknown format: " + format);
+    }
+    Picture picture = device.capture(where);
+    if (!picture.isValid()) {
+      throw new CommandException(Server.STATUS_UNKNOWN_ERROR, "capture: not possible: " + where);
+    }
+    if (!"json".equals(format)) {
+      return picture;
+    }
+    String png = SXJson.toBase64(picture.getContent());
+    JSONObject value = new JSONObject().put("width", picture.w).put("height", picture.h).put("png", png);
+    picture.releaseContent();
+    return value;
+  }
+
+  /**
+   * "commands": [{"command": "find", "imageId": ...}, {"command": "click", ...}, ...] one after the other,
+   * "stopOnError": true - the rest is skipped after the first failing command<br>
+   * captures only as JSON (no binary format)
+   *
+   * @return per command (same order) {"status": 0, "value": ...} or {"status": ..., "message": ...}
+   */
+  private JSONArray batch(JSONObject args) throws CommandException {
+    JSONArray commands = args.optJSONArray("commands");
+    if (SX.isNull(commands)) {
+      throw new CommandException(Server.STATUS_INVALID_ARGUMENT, "batch: no commands");
+    }
+    boolean stopOnError = args.optBoolean("stopOnError", false);
+    JSONArray results = new JSONArray();
+    for (int n = 0; n < commands.length(); n++) {
+      JSONObject each = commands.optJSONObject(n);
+      JSONObject result = new JSONObject();
+      try {
+        if (SX.isNull(each) || !each.has("command")) {
+          throw new CommandException(Server.STATUS_INVALID_ARGUMENT, "batch: no command at " + n);
+        }
+        String command = each.getString("command");
+        if ("batch".equals(command) || !"json".equals(each.optString("format", "json"))) {
+          throw new CommandException(Server.STATUS_INVALID_ARGUMENT, "batch: not possible: " + each);
+        }
+        result.put("status", Server.STATUS_SUCCESS).put("value", execute(command, each));
+      } catch (CommandException ex) {
+        result.put("status", ex.status).put("message", ex.getMessage());
+      } catch (RuntimeException ex) {
+        log.error("batch: %s: %s", each, ex);
+        result.put("status", Server.STATUS_UNKNOWN_ERROR).put("message", ex.toString());
+      }
+      results.put(result);
+      if (stopOnError && result.getInt("status") != Server.STATUS_SUCCESS) {
+        break;
+      }
+    }
+    return results;
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="parameters">
+
+  /**
+   * the target: "imageId" (uploaded before), "image" (PNG, ... in Base64), "path" (an image file on the server)
+   * or "element" (a previous match) - a Picture is to be released by the caller (see search())
+   */
+  Object getTarget(JSONObject args) throws CommandException {
+    if (args.has("element")) {
+      return getElement(args.getString("element"));
+    }
+    if (args.has("imageId")) {
+      Picture picture = targets.view(args.getString("imageId"));
+      if (SX.isNull(picture)) {
+        throw new CommandException(Server.STATUS_NO_SUCH_IMAGE, "no such image: " + args.getString("imageId"));
+      }
+      return picture;
+    }
+    if (args.has("image")) {
+      Mat content = SXJson.fromBase64(args.getString("image"));
+      if (SX.isNull(content)) {
+        throw new CommandException(Server.STATUS_INVALID_ARGUMENT, "image: not decodable");
+      }
+      return Picture.view(content);
+    }
+    if (args.has("path")) {
+      Picture picture = new Picture(args.getString("path"));
+      if (!picture.isValid()) {
+        throw new CommandException(Server.STATUS_INVALID_ARGUMENT, "path: not loadable: " + args.getString("path"));
+      }
+      return picture;
+    }
+    throw new CommandException(Server.STATUS_INVALID_ARGUMENT, "no target: image, path or element needed");
+  }
+
+  /**
+   * where to search: "region" {x, y, w, h} on the session's screen (default: the whole screen)
+   */
+  Element getWhere(JSONObject args) {
+    Element where = on();
+    JSONObject region = args.optJSONObject("region");
+    if (SX.isNotNull(region)) {
+      where = new Element(region.optInt("x"), region.optInt("y"), region.optInt("w", where.w), region.optInt("h", where.h));
+      where.setDevice(device);
+    }
+    return where;
+  }
+
+  Element getElement(String elementId) throws CommandException {
+    Element element;
+    synchronized (elements) {
+      element = elements.get(elementId);
+    }
+    if (SX.isNull(element)) {
+      throw new CommandException(Server.STATUS_NO_SUCH_ELEMENT, "no such element: " + elementId);
+    }
+    return element;
+  }
+
+  private JSONObject found(Element match, String command) throws CommandException {
+    if (!match.isMatch()) {
+      throw new CommandException(Server.STATUS_NO_SUCH_ELEMENT, command + ": not found");
+    }
+    String elementId;
+    synchronized (elements) {
+      elementId = "e" + nextElement++;
+      elements.put(elementId, match);
+    }
+    return toJson(match, elementId);
+  }
+
+  static JSONObject toJson(Element element, String elementId) {
+    JSONObject value = new JSONObject().put("element", elementId)
+            .put("x", element.x).put("y", element.y).put("w", element.w).put("h", element.h);
+    if (element.isMatch()) {
+      value.put("score", element.getScore());
+    }
+    return value;
+  }
+  //</editor-fold>
+
+  void close() {
+    synchronized (elements) {
+      elements.clear();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ServerSession %s: %s", id, device.getName());
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.server;
+
+import com.sikulix.api.Picture;
+import com.sikulix.core.MatScope;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import org.opencv.core.Mat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the images uploaded to a Server (POST /image), decoded once and kept by their id (content hash)
+ * for all sessions - least recently used are dropped above maxBytes
+ */
+class TargetCache {
+
+  private static final SXLog log = SX.getSXLog("SXServer.TargetCache");
+
+  private static class Entry {
+    final Mat mat;
+    final long bytes;
+
+    Entry(Mat mat) {
+      this.mat = mat;
+      this.bytes = MatScope.bytes(mat);
+    }
+  }
+
+  private final Map<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+  private long bytes = 0;
+  private long maxBytes;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  TargetCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @return a Picture sharing the content (it stays valid, even if evicted meanwhile),
+   * null if not (or no longer) known
+   */
+  synchronized Picture view(String id) {
+    Entry entry = entries.get(id);
+    if (SX.isNull(entry)) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return Picture.view(entry.mat);
+  }
+
+  synchronized boolean contains(String id) {
+    return entries.containsKey(id);
+  }
+
+  /**
+   * @param image taken over by the cache (released, when dropped)
+   * @return the cached content (the one already there, if the id is known)
+   */
+  synchronized Mat put(String id, Mat image) {
+    Entry entry = entries.get(id);
+    if (SX.isNotNull(entry)) {
+      image.release();
+      return entry.mat;
+    }
+    entry = new Entry(MatScope.retain(image, "server"));
+    entries.put(id, entry);
+    bytes += entry.bytes;
+    if (bytes > maxBytes) {
+      evict(bytes - maxBytes);
+    }
+    return entry.mat;
+  }
+
+  synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    if (bytes > maxBytes) {
+      evict(bytes - maxBytes);
+    }
+  }
+
+  /**
+   * drop least recently used images (a Picture got by view() keeps its content)
+   *
+   * @return bytes freed
+   */
+  synchronized long evict(long amount) {
+    long freed = 0;
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (freed < amount && iterator.hasNext()) {
+      Entry entry = iterator.next().getValue();
+      iterator.remove();
+      bytes -= entry.bytes;
+      freed += entry.bytes;
+      MatScope.release(entry.mat);
+    }
+    if (freed > 0) {
+      log.trace("evict: %d KB (%d images left)", freed / 1024, entries.size());
+    }
+    return freed;
+  }
+
+  synchronized void clear() {
+    evict(Long.MAX_VALUE);
+  }
+
+  synchronized int getSize() {
+    return entries.size();
+  }
+
+  synchronized long getBytes() {
+    return bytes;
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.virtual;
+
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.MatScope;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.devices.IDevice;
+import com.sikulix.devices.InputLog;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * a headless screen: an in-memory canvas (BGR Mat) composed of a background and named images (sprites)<br>
+ * capture() returns views (submat, no copy) into the canvas - a scene change draws a new canvas,
+ * so a captured picture never changes afterwards,
+ * mouse and keyboard actions are recorded into an InputLog (and given to an optional listener)
+ * <p>
+ * VirtualDevice device = new VirtualDevice(1280, 800);<br>
+ * device.place("ok", picture, 100, 200);<br>
+ * Do.use(device.start());
+ */
+public class VirtualDevice extends IDevice {
+
+  private static final SXLog log = SX.getSXLog("SX.VirtualDevice");
+
+  public interface InputListener {
+    /**
+     * called after an input action was recorded (e.g. to change the scene as reaction on a click)
+     */
+    void input(VirtualDevice device, InputLog.Entry entry);
+  }
+
+  private static class Sprite {
+    final String name;
+    final Mat content;
+    final Mat mask;
+    int x;
+    int y;
+
+    Sprite(String name, Mat content, Mat mask, int x, int y) {
+      this.name = name;
+      this.content = content;
+      this.mask = mask;
+      this.x = x;
+      this.y = y;
+    }
+
+    Rectangle getRectangle() {
+      return new Rectangle(x, y, content.cols(), content.rows());
+    }
+
+    void release() {
+      MatScope.release(content);
+      MatScope.release(mask);
+    }
+  }
+
+  private final Rectangle bounds;
+  private Mat canvas;
+  private final Mat background;
+  private final List<Sprite> sprites = new ArrayList<>();
+  private volatile boolean started = false;
+  private long startTime = System.currentTimeMillis();
+  private int mouseX = 0;
+  private int mouseY = 0;
+  private final InputLog inputs = new InputLog();
+  private InputListener listener = null;
+
+  public VirtualDevice(int width, int height) {
+    this(width, height, new Scalar(255, 255, 255));
+  }
+
+  public VirtualDevice(int width, int height, Scalar color) {
+    SX.loadNative(SX.NATIVES.OPENCV);
+    bounds = new Rectangle(0, 0, width, height);
+    background = new Mat(height, width, CvType.CV_8UC3, color);
+    canvas = background.clone();
+  }
+
+  //<editor-fold desc="scene">
+
+  /**
+   * @param content the new background (BGR, same size as the device)
+   * @return this device
+   */
+  public synchronized VirtualDevice setBackground(Mat content) {
+    if (content.cols() != bounds.width || content.rows() != bounds.height || content.type() != CvType.CV_8UC3) {
+      log.error("setBackground: must be BGR %dx%d: %s", bounds.width, bounds.height, content);
+      return this;
+    }
+    content.copyTo(background);
+    redraw(bounds);
+    return this;
+  }
+
+  /**
+   * place an image on top of the scene (an existing one with the same name is replaced)
+   *
+   * @param name    to move or remove the image later
+   * @param picture the image (a mask makes the masked parts transparent)
+   * @param x       left
+   * @param y       top
+   * @return this device
+   */
+  public VirtualDevice place(String name, Picture picture, int x, int y) {
+    return place(name, picture.getContentBGR(), picture.hasMask() ? picture.getMask() : null, x, y);
+  }
+
+  /**
+   * the content and mask are held (MatScope.retain) until the image is replaced or removed,
+   * then released, if not held elsewhere (e.g. by a Picture)
+   */
+  public synchronized VirtualDevice place(String name, Mat content, Mat mask, int x, int y) {
+    Sprite old = find(name);
+    Rectangle dirty = new Rectangle(x, y, content.cols(), content.rows());
+    if (SX.isNotNull(old)) {
+      sprites.remove(old);
+      dirty = dirty.union(old.getRectangle());
+      old.release();
+    }
+    sprites.add(new Sprite(name, MatScope.retain(content, "virtual"), MatScope.retain(mask, "virtual"), x, y));
+    redraw(dirty);
+    return this;
+  }
+
+  /**
+   * @return false if there is no image with that name
+   */
+  public synchronized boolean move(String name, int x, int y) {
+    Sprite sprite = find(name);
+    if (SX.isNull(sprite)) {
+      return false;
+    }
+    Rectangle dirty = sprite.getRectangle();
+    sprite.x = x;
+    sprite.y = y;
+    redraw(dirty.union(sprite.getRectangle()));
+    return true;
+  }
+
+  public synchronized boolean remove(String name) {
+    Sprite sprite = find(name);
+    if (SX.isNull(sprite)) {
+      return false;
+    }
+    sprites.remove(sprite);
+    redraw(sprite.getRectangle());
+    sprite.release();
+    return true;
+  }
+
+  /**
+   * @return the current position of the image (null if not in the scene)
+   */
+  public synchronized Element locate(String name) {
+    Sprite sprite = find(name);
+    return SX.isNull(sprite) ? null : new Element(sprite.getRectangle());
+  }
+
+  public synchronized void clear() {
+    for (Sprite sprite : sprites) {
+      sprite.release();
+    }
+    sprites.clear();
+    redraw(bounds);
+  }
+
+  private Sprite find(String name) {
+    for (Sprite sprite : sprites) {
+      if (sprite.name.equals(name)) {
+        return sprite;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * repaint only the changed area (background, then the intersecting images bottom up) into a copy
+   * of the canvas, that then replaces the canvas: views captured before keep the previous frame
+   * (the previous data is freed with the last view)
+   */
+  private void redraw(Rectangle dirty) {
+    Rectangle area = bounds.intersection(dirty);
+    if (area.isEmpty()) {
+      return;
+    }
+    Mat next = canvas.clone();
+    paint(next, area);
+    Mat previous = canvas;
+    canvas = next;
+    previous.release();
+  }
+
+  private void paint(Mat frame, Rectangle area) {
+    background.submat(asRect(area)).copyTo(frame.submat(asRect(area)));
+    for (Sprite sprite : sprites) {
+      Rectangle part = area.intersection(sprite.getRectangle());
+      if (part.isEmpty()) {
+        continue;
+      }
+      Rect source = new Rect(part.x - sprite.x, part.y - sprite.y, part.width, part.height);
+      if (SX.isNull(sprite.mask)) {
+        sprite.content.submat(source).copyTo(frame.submat(asRect(part)));
+      } else {
+        sprite.content.submat(source).copyTo(frame.submat(asRect(part)), sprite.mask.submat(source));
+      }
+    }
+  }
+
+  private static Rect asRect(Rectangle rect) {
+    return new Rect(rect.x, rect.y, rect.width, rect.height);
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="inputs">
+  public InputLog getInputs() {
+    return inputs;
+  }
+
+  public void setInputListener(InputListener listener) {
+    this.listener = listener;
+  }
+
+  private void record(String type, String detail) {
+    InputLog.Entry entry = new InputLog.Entry(System.currentTimeMillis() - startTime, type, mouseX, mouseY, detail);
+    inputs.add(entry);
+    if (SX.isNotNull(listener)) {
+      listener.input(this, entry);
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="device">
+  @Override
+  public IDevice start(Object... args) {
+    startTime = System.currentTimeMillis();
+    started = true;
+    log.trace("start: %dx%d", bounds.width, bounds.height);
+    return this;
+  }
+
+  @Override
+  public String getName() {
+    return "virtual";
+  }
+
+  @Override
+  public void stop() {
+    started = false;
+  }
+
+  @Override
+  public boolean isValid() {
+    return started;
+  }
+
+  @Override
+  public int getNumberOfMonitors() {
+    return 1;
+  }
+
+  @Override
+  public Rectangle getMonitor(int... id) {
+    return new Rectangle(bounds);
+  }
+
+  @Override
+  public Rectangle getAllMonitors() {
+    return new Rectangle(bounds);
+  }
+
+  @Override
+  public int getMonitorID() {
+    return 0;
+  }
+
+  @Override
+  public int getMonitorID(int id) {
+    return 0;
+  }
+
+  @Override
+  public void resetMonitors() {
+  }
+
+  @Override
+  public Rectangle[] getMonitors() {
+    return new Rectangle[]{new Rectangle(bounds)};
+  }
+
+  @Override
+  public int getContainingMonitorID(Element element) {
+    return 0;
+  }
+
+  @Override
+  public Element getContainingMonitor(Element element) {
+    return new Element(bounds);
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="mouse, keyboard">
+  @Override
+  public Element click(Element loc) {
+    return click(loc, Action.LEFT);
+  }
+
+  @Override
+  public Element doubleClick(Element loc) {
+    return click(loc, Action.LEFTDOUBLE);
+  }
+
+  @Override
+  public Element rightClick(Element loc) {
+    return click(loc, Action.RIGHT);
+  }
+
+  @Override
+  public Element click(Action action) {
+    return click(null, action);
+  }
+
+  @Override
+  public Element click(Element loc, Action action) {
+    synchronized (inputs) {
+      if (SX.isNotNull(loc)) {
+        setMouse(loc.getTarget());
+      }
+      record("click", action.toString());
+      return at();
+    }
+  }
+
+  @Override
+  public Element dragDrop(Element from, Element to, Object... times) {
+    synchronized (inputs) {
+      if (SX.isNotNull(from)) {
+        move(from.getTarget());
+      }
+      button(Action.LEFTDOWN);
+      if (SX.isNotNull(to)) {
+        move(to.getTarget());
+      }
+      button(Action.LEFTUP);
+      return at();
+    }
+  }
+
+  @Override
+  public void keyStart() {
+  }
+
+  @Override
+  public void keyStop() {
+  }
+
+  @Override
+  public void key(Action action, Object key) {
+    synchronized (inputs) {
+      record("key", action + " " + key);
+    }
+  }
+
+  @Override
+  public Element move(int xoff, int yoff) {
+    synchronized (inputs) {
+      return move(new Element(mouseX + xoff, mouseY + yoff));
+    }
+  }
+
+  @Override
+  public Element move(Element loc) {
+    synchronized (inputs) {
+      setMouse(loc);
+      record("move", "");
+      return at();
+    }
+  }
+
+  private void setMouse(Element loc) {
+    mouseX = Math.max(bounds.x, Math.min(bounds.x + bounds.width - 1, loc.x));
+    mouseY = Math.max(bounds.y, Math.min(bounds.y + bounds.height - 1, loc.y));
+  }
+
+  @Override
+  public Element at() {
+    synchronized (inputs) {
+      return new Element(mouseX, mouseY);
+    }
+  }
+
+  @Override
+  public void button(Action action) {
+    synchronized (inputs) {
+      record("button", action.toString());
+    }
+  }
+
+  @Override
+  public void wheel(Action action, int steps) {
+    synchronized (inputs) {
+      record("wheel", action + " " + steps);
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="capture">
+
+  /**
+   * @param args optional: the element (region) to capture (default: the whole canvas)
+   * @return a view into the canvas (no copy - later scene changes do not change the returned picture),
+   * also set as content of the given element
+   */
+  @Override
+  public synchronized Picture capture(Object... args) {
+    Element what = new Element(bounds);
+    if (args.length > 0 && args[0] instanceof Element) {
+      what = (Element) args[0];
+    }
+    Rectangle area = bounds.intersection(what.getRectangle());
+    Picture picture = Picture.view(area.isEmpty() ? null : canvas.submat(asRect(area)));
+    what.setContent(picture.getContent());
+    return picture;
+  }
+
+  @Override
+  public Picture userCapture(Object... args) {
+    return capture(args);
+  }
+
+  /**
+   * @return a copy of the whole canvas (e.g. to save it for debugging)
+   */
+  public synchronized Picture snapshot() {
+    return new Picture(canvas);
+  }
+  //</editor-fold>
+
+  @Override
+  public String toString() {
+    return String.format("VirtualDevice: %dx%d images: %d", bounds.width, bounds.height, sprites.size());
+  }
+}
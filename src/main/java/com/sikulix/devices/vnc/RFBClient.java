@@ -0,0 +1,714 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.vnc;
+
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.devices.local.Keys;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.awt.Rectangle;
+import java.awt.event.KeyEvent;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * a minimal RFB (VNC) client: the framebuffer is kept up to date by the message thread (processMessages()),
+ * that consumes the FramebufferUpdate rectangles (Raw, CopyRect, DesktopSize) and asks for the next
+ * incremental update right away<br>
+ * each update increments the frame version and records its rectangles with a timestamp (the dirty regions),
+ * so a capture is just a copy of the current framebuffer and "screen stable" means "no update since ..."
+ * <p>
+ * input (PointerEvent, KeyEvent) is written into a buffer, that is sent with flush():
+ * a sequence of events (a typed text, a drag) goes out as one write without waiting for the server
+ */
+public class RFBClient implements Closeable {
+
+  private static final SXLog log = SX.getSXLog("SX.RFBClient");
+
+  static final int ENCODING_RAW = 0;
+  static final int ENCODING_COPYRECT = 1;
+  static final int ENCODING_DESKTOPSIZE = -223;
+
+  public static final int BUTTON_LEFT = 1;
+  public static final int BUTTON_MIDDLE = 2;
+  public static final int BUTTON_RIGHT = 4;
+  public static final int WHEEL_UP = 8;
+  public static final int WHEEL_DOWN = 16;
+
+  private static final int MAX_UPDATES = 512;
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private volatile boolean closed = false;
+
+  private String name = "";
+  private int width = 0;
+  private int height = 0;
+
+  private final Object frameLock = new Object();
+  private byte[] frame = new byte[0];
+  private byte[] rowBuffer = new byte[0];
+  private long version = 0;
+  private long lastUpdate = 0;
+  private long oldestVersion = 1;
+  private final Deque<Update> updates = new ArrayDeque<>();
+
+  private static class Update {
+    final long version;
+    final long time;
+    final Rectangle rect;
+
+    Update(long version, long time, Rectangle rect) {
+      this.version = version;
+      this.time = time;
+      this.rect = rect;
+    }
+  }
+
+  private RFBClient(Socket socket) throws IOException {
+    this.socket = socket;
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 8 * 1024));
+  }
+
+  //<editor-fold desc="connect">
+
+  /**
+   * connect and do the handshake (security None or VNC authentication), then request the first full update
+   *
+   * @param password          for VNC authentication (null: security type None)
+   * @param connectionTimeout seconds
+   * @param timeout           milliseconds, for each read during the handshake
+   * @return the client - call processMessages() in a thread of its own
+   */
+  public static RFBClient connect(String ip, int port, String password, int connectionTimeout, int timeout)
+          throws IOException {
+    Socket socket = new Socket();
+    socket.setTcpNoDelay(true);
+    socket.connect(new InetSocketAddress(ip, port), Math.max(1, connectionTimeout) * 1000);
+    RFBClient client = new RFBClient(socket);
+    try {
+      socket.setSoTimeout(Math.max(0, timeout));
+      client.handshake(password);
+      socket.setSoTimeout(0);
+    } catch (IOException ex) {
+      client.close();
+      throw ex;
+    }
+    log.trace("connect: %s:%d: %s (%dx%d)", ip, port, client.name, client.width, client.height);
+    return client;
+  }
+
+  private void handshake(String password) throws IOException {
+    byte[] serverVersion = new byte[12];
+    in.readFully(serverVersion);
+    String version = new String(serverVersion, StandardCharsets.US_ASCII);
+    if (!version.startsWith("RFB ")) {
+      throw new IOException("not an RFB server: " + version.trim());
+    }
+    int minor = Integer.parseInt(version.substring(8, 11));
+    minor = minor >= 8 ? 8 : (minor == 7 ? 7 : 3);
+    out.write(String.format("RFB 003.%03d\n", minor).getBytes(StandardCharsets.US_ASCII));
+    out.flush();
+    int security;
+    if (minor == 3) {
+      security = in.readInt();
+      if (security == 0) {
+        throw new IOException("connection refused: " + readString());
+      }
+    } else {
+      int count = in.readUnsignedByte();
+      if (count == 0) {
+        throw new IOException("connection refused: " + readString());
+      }
+      boolean hasNone = false;
+      boolean hasVNC = false;
+      for (int n = 0; n < count; n++) {
+        int type = in.readUnsignedByte();
+        hasNone |= type == 1;
+        hasVNC |= type == 2;
+      }
+      if (hasVNC && (SX.isNotNull(password) || !hasNone)) {
+        security = 2;
+      } else if (hasNone) {
+        security = 1;
+      } else {
+        throw new IOException("no supported security type (None, VNC authentication)");
+      }
+      out.writeByte(security);
+      out.flush();
+    }
+    if (security == 2) {
+      byte[] challenge = new byte[16];
+      in.readFully(challenge);
+      out.write(encrypt(challenge, SX.isNull(password) ? "" : password));
+      out.flush();
+    } else if (security != 1) {
+      throw new IOException("unsupported security type: " + security);
+    }
+    if (security == 2 || minor == 8) {
+      if (in.readInt() != 0) {
+        throw new IOException("authentication failed" + (minor == 8 ? ": " + readString() : ""));
+      }
+    }
+    out.writeByte(1);
+    out.flush();
+    int serverWidth = in.readUnsignedShort();
+    int serverHeight = in.readUnsignedShort();
+    skip(16);
+    name = readString();
+    resize(serverWidth, serverHeight);
+    synchronized (out) {
+      writePixelFormat();
+      writeEncodings(ENCODING_COPYRECT, ENCODING_RAW, ENCODING_DESKTOPSIZE);
+      writeUpdateRequest(false, 0, 0, width, height);
+      out.flush();
+    }
+  }
+
+  /**
+   * VNC authentication: the challenge DES encrypted with the password (max 8 chars, bits of each byte mirrored)
+   */
+  static byte[] encrypt(byte[] challenge, String password) throws IOException {
+    byte[] key = new byte[8];
+    byte[] chars = password.getBytes(StandardCharsets.ISO_8859_1);
+    for (int n = 0; n < Math.min(8, chars.length); n++) {
+      key[n] = (byte) (Integer.reverse(chars[n] & 0xff) >>> 24);
+    }
+    try {
+      Cipher des = Cipher.getInstance("DES/ECB/NoPadding");
+      des.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "DES"));
+      return des.doFinal(challenge);
+    } catch (Exception ex) {
+      throw new IOException("VNC authentication: " + ex.getMessage());
+    }
+  }
+
+  private void skip(int count) throws IOException {
+    byte[] buffer = new byte[Math.min(count, 4096)];
+    while (count > 0) {
+      int chunk = Math.min(count, buffer.length);
+      in.readFully(buffer, 0, chunk);
+      count -= chunk;
+    }
+  }
+
+  private String readString() throws IOException {
+    byte[] text = new byte[in.readInt()];
+    in.readFully(text);
+    return new String(text, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * 32 bit true colour, little endian: the bytes of a pixel are B, G, R, unused
+   */
+  private void writePixelFormat() throws IOException {
+    out.writeByte(0);
+    out.write(new byte[3]);
+    out.writeByte(32);
+    out.writeByte(24);
+    out.writeByte(0);
+    out.writeByte(1);
+    out.writeShort(255);
+    out.writeShort(255);
+    out.writeShort(255);
+    out.writeByte(16);
+    out.writeByte(8);
+    out.writeByte(0);
+    out.write(new byte[3]);
+  }
+
+  private void writeEncodings(int... encodings) throws IOException {
+    out.writeByte(2);
+    out.writeByte(0);
+    out.writeShort(encodings.length);
+    for (int encoding : encodings) {
+      out.writeInt(encoding);
+    }
+  }
+
+  private void writeUpdateRequest(boolean incremental, int x, int y, int w, int h) throws IOException {
+    out.writeByte(3);
+    out.writeByte(incremental ? 1 : 0);
+    out.writeShort(x);
+    out.writeShort(y);
+    out.writeShort(w);
+    out.writeShort(h);
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      socket.close();
+    } catch (IOException ex) {
+    }
+    synchronized (frameLock) {
+      frameLock.notifyAll();
+    }
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="messages">
+
+  /**
+   * read the server messages until closed (blocking, to be run in a thread of its own)
+   *
+   * @throws RuntimeException if the connection breaks (not after close())
+   */
+  public void processMessages() {
+    try {
+      while (!closed) {
+        processMessage(in.readUnsignedByte());
+      }
+    } catch (IOException ex) {
+      if (!closed) {
+        close();
+        throw new RuntimeException("processMessages: " + ex.getMessage(), ex);
+      }
+    }
+  }
+
+  /**
+   * process the messages already received, without waiting for more
+   * (instead of processMessages(), when a shared thread serves many clients - see VNCDevicePool)<br>
+   * a message begun is read completely, but each read waits at most readTimeout for the rest:
+   * a server stalling within a message does not pin the calling thread, the connection is closed then
+   *
+   * @param readTimeout milliseconds
+   * @return true if at least one message was processed
+   * @throws IOException if the connection is broken or stalled (the client is closed then)
+   */
+  public boolean pump(int readTimeout) throws IOException {
+    boolean processed = false;
+    try {
+      if (closed || in.available() < 1) {
+        return false;
+      }
+      socket.setSoTimeout(Math.max(1, readTimeout));
+      while (!closed && in.available() > 0) {
+        processMessage(in.readUnsignedByte());
+        processed = true;
+      }
+    } catch (SocketTimeoutException ex) {
+      close();
+      throw new IOException(String.format("message not complete after %d msec", readTimeout), ex);
+    } catch (IOException ex) {
+      close();
+      throw ex;
+    }
+    return processed;
+  }
+
+  private void processMessage(int type) throws IOException {
+    switch (type) {
+      case 0:
+        readFramebufferUpdate();
+        synchronized (out) {
+          writeUpdateRequest(true, 0, 0, width, height);
+          out.flush();
+        }
+        break;
+      case 1:
+        in.readUnsignedByte();
+        in.readUnsignedShort();
+        skip(in.readUnsignedShort() * 6);
+        break;
+      case 2:
+        break;
+      case 3:
+        skip(3);
+        skip(in.readInt());
+        break;
+      default:
+        throw new IOException("unknown server message: " + type);
+    }
+  }
+
+  /**
+   * ask for a full (not incremental) update of the area (e.g. as a health check: see waitForUpdate())
+   */
+  public void requestUpdate(int x, int y, int w, int h) throws IOException {
+    synchronized (out) {
+      writeUpdateRequest(false, x, y, w, h);
+      out.flush();
+    }
+  }
+
+  private void readFramebufferUpdate() throws IOException {
+    in.readUnsignedByte();
+    int count = in.readUnsignedShort();
+    List<Rectangle> rects = new ArrayList<>();
+    for (int n = 0; n < count; n++) {
+      int x = in.readUnsignedShort();
+      int y = in.readUnsignedShort();
+      int w = in.readUnsignedShort();
+      int h = in.readUnsignedShort();
+      int encoding = in.readInt();
+      if (encoding == ENCODING_RAW) {
+        readRaw(x, y, w, h);
+      } else if (encoding == ENCODING_COPYRECT) {
+        int srcX = in.readUnsignedShort();
+        int srcY = in.readUnsignedShort();
+        copyRect(srcX, srcY, x, y, w, h);
+      } else if (encoding == ENCODING_DESKTOPSIZE) {
+        resize(w, h);
+        x = 0;
+        y = 0;
+      } else {
+        throw new IOException("unsupported encoding: " + encoding);
+      }
+      rects.add(new Rectangle(x, y, w, h));
+    }
+    synchronized (frameLock) {
+      version++;
+      lastUpdate = System.currentTimeMillis();
+      for (Rectangle rect : rects) {
+        updates.addLast(new Update(version, lastUpdate, rect));
+      }
+      while (updates.size() > MAX_UPDATES) {
+        oldestVersion = updates.removeFirst().version + 1;
+      }
+      frameLock.notifyAll();
+    }
+  }
+
+  /**
+   * the pixels are read row by row straight into the framebuffer (BGR)
+   */
+  private void readRaw(int x, int y, int w, int h) throws IOException {
+    int rowBytes = w * 4;
+    if (rowBuffer.length < rowBytes) {
+      rowBuffer = new byte[rowBytes];
+    }
+    for (int row = 0; row < h; row++) {
+      in.readFully(rowBuffer, 0, rowBytes);
+      if (y + row >= height || x + w > width) {
+        continue;
+      }
+      synchronized (frameLock) {
+        int offset = ((y + row) * width + x) * 3;
+        for (int col = 0; col < rowBytes; col += 4) {
+          frame[offset++] = rowBuffer[col];
+          frame[offset++] = rowBuffer[col + 1];
+          frame[offset++] = rowBuffer[col + 2];
+        }
+      }
+    }
+  }
+
+  private void copyRect(int srcX, int srcY, int x, int y, int w, int h) {
+    synchronized (frameLock) {
+      if (srcX + w > width || srcY + h > height || x + w > width || y + h > height) {
+        return;
+      }
+      byte[] source = new byte[w * h * 3];
+      for (int row = 0; row < h; row++) {
+        System.arraycopy(frame, ((srcY + row) * width + srcX) * 3, source, row * w * 3, w * 3);
+      }
+      for (int row = 0; row < h; row++) {
+        System.arraycopy(source, row * w * 3, frame, ((y + row) * width + x) * 3, w * 3);
+      }
+    }
+  }
+
+  private void resize(int w, int h) {
+    synchronized (frameLock) {
+      width = w;
+      height = h;
+      frame = new byte[w * h * 3];
+      updates.clear();
+      oldestVersion = version + 1;
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="input">
+
+  /**
+   * PointerEvent (buffered until flush())
+   *
+   * @param buttons the pressed buttons (BUTTON_..., WHEEL_...)
+   */
+  public void pointer(int buttons, int x, int y) throws IOException {
+    synchronized (out) {
+      out.writeByte(5);
+      out.writeByte(buttons);
+      out.writeShort(Math.max(0, x));
+      out.writeShort(Math.max(0, y));
+    }
+  }
+
+  /**
+   * KeyEvent (buffered until flush())
+   *
+   * @param keysym X11 keysym (see toKeysym())
+   */
+  public void key(int keysym, boolean down) throws IOException {
+    synchronized (out) {
+      out.writeByte(4);
+      out.writeByte(down ? 1 : 0);
+      out.writeShort(0);
+      out.writeInt(keysym);
+    }
+  }
+
+  /**
+   * send the buffered input events in one write
+   */
+  public void flush() throws IOException {
+    synchronized (out) {
+      out.flush();
+    }
+  }
+
+  private static final Map<Integer, Integer> keysyms = new HashMap<>();
+
+  static {
+    int[] pairs = new int[]{
+            KeyEvent.VK_ENTER, 0xff0d, KeyEvent.VK_BACK_SPACE, 0xff08, KeyEvent.VK_TAB, 0xff09,
+            KeyEvent.VK_ESCAPE, 0xff1b, KeyEvent.VK_SPACE, 0x20, KeyEvent.VK_DELETE, 0xffff,
+            KeyEvent.VK_INSERT, 0xff63, KeyEvent.VK_HOME, 0xff50, KeyEvent.VK_END, 0xff57,
+            KeyEvent.VK_PAGE_UP, 0xff55, KeyEvent.VK_PAGE_DOWN, 0xff56,
+            KeyEvent.VK_LEFT, 0xff51, KeyEvent.VK_UP, 0xff52, KeyEvent.VK_RIGHT, 0xff53, KeyEvent.VK_DOWN, 0xff54,
+            KeyEvent.VK_SHIFT, 0xffe1, KeyEvent.VK_CONTROL, 0xffe3, KeyEvent.VK_ALT, 0xffe9,
+            KeyEvent.VK_ALT_GRAPH, 0xfe03, KeyEvent.VK_META, 0xffe7, KeyEvent.VK_WINDOWS, 0xffeb,
+            KeyEvent.VK_CAPS_LOCK, 0xffe5, KeyEvent.VK_NUM_LOCK, 0xff7f, KeyEvent.VK_SCROLL_LOCK, 0xff14,
+            KeyEvent.VK_PAUSE, 0xff13, KeyEvent.VK_PRINTSCREEN, 0xff61,
+            KeyEvent.VK_MULTIPLY, 0xffaa, KeyEvent.VK_ADD, 0xffab, KeyEvent.VK_SEPARATOR, 0xffac,
+            KeyEvent.VK_SUBTRACT, 0xffad, KeyEvent.VK_DECIMAL, 0xffae, KeyEvent.VK_DIVIDE, 0xffaf};
+    for (int n = 0; n < pairs.length; n += 2) {
+      keysyms.put(pairs[n], pairs[n + 1]);
+    }
+    for (int n = 0; n < 10; n++) {
+      keysyms.put(KeyEvent.VK_NUMPAD0 + n, 0xffb0 + n);
+    }
+    for (int n = 0; n < 12; n++) {
+      keysyms.put(KeyEvent.VK_F1 + n, 0xffbe + n);
+      keysyms.put(KeyEvent.VK_F13 + n, 0xffca + n);
+    }
+  }
+
+  /**
+   * @param keyCode a Java key code (KeyEvent.VK_...)
+   * @return the X11 keysym (-1 if unknown)
+   */
+  public static int toKeysym(int keyCode) {
+    Integer keysym = keysyms.get(keyCode);
+    if (SX.isNotNull(keysym)) {
+      return keysym;
+    }
+    if (keyCode >= KeyEvent.VK_A && keyCode <= KeyEvent.VK_Z) {
+      return 'a' + keyCode - KeyEvent.VK_A;
+    }
+    if (keyCode >= KeyEvent.VK_0 && keyCode <= KeyEvent.VK_9) {
+      return keyCode;
+    }
+    return -1;
+  }
+
+  /**
+   * @param character a character to be typed or a special key of Keys (e.g. Keys.C_UP)
+   * @return the X11 keysym (-1 if unknown)
+   */
+  public static int toKeysym(char character) {
+    switch (character) {
+      case '\n':
+      case '\r':
+        return 0xff0d;
+      case '\b':
+        return 0xff08;
+      case '\t':
+        return 0xff09;
+      case Keys.C_ESC:
+        return 0xff1b;
+    }
+    if (character >= '\ue000' && character <= '\uf8ff') {
+      try {
+        return toKeysym(Math.abs(Keys.toJavaKeyCode(character)[0]));
+      } catch (IllegalArgumentException ex) {
+        return -1;
+      }
+    }
+    if (character < 0x20) {
+      return -1;
+    }
+    return character <= 0xff ? character : 0x01000000 | character;
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="framebuffer">
+  public String getName() {
+    return name;
+  }
+
+  public Rectangle getBounds() {
+    synchronized (frameLock) {
+      return new Rectangle(0, 0, width, height);
+    }
+  }
+
+  /**
+   * @return the number of framebuffer updates received so far
+   */
+  public long getVersion() {
+    synchronized (frameLock) {
+      return version;
+    }
+  }
+
+  /**
+   * @return time of the last framebuffer update (millis, 0 if none yet)
+   */
+  public long getLastUpdate() {
+    synchronized (frameLock) {
+      return lastUpdate;
+    }
+  }
+
+  /**
+   * @param area part of the screen (clipped to the framebuffer)
+   * @return a copy of the current content (BGR), empty if the area is outside
+   */
+  public Mat getFrame(Rectangle area) {
+    SX.loadNative(SX.NATIVES.OPENCV);
+    synchronized (frameLock) {
+      Rectangle clip = area.intersection(new Rectangle(0, 0, width, height));
+      if (clip.isEmpty()) {
+        return new Mat();
+      }
+      byte[] pixels = new byte[clip.width * clip.height * 3];
+      for (int row = 0; row < clip.height; row++) {
+        System.arraycopy(frame, ((clip.y + row) * width + clip.x) * 3, pixels, row * clip.width * 3, clip.width * 3);
+      }
+      Mat mat = new Mat(clip.height, clip.width, CvType.CV_8UC3);
+      mat.put(0, 0, pixels);
+      return mat;
+    }
+  }
+
+  /**
+   * @param sinceVersion a version got from getVersion() before
+   * @return the regions updated after that version (the whole screen, if they are no longer known)
+   */
+  public List<Rectangle> getChanges(long sinceVersion) {
+    List<Rectangle> changes = new ArrayList<>();
+    synchronized (frameLock) {
+      if (sinceVersion >= version) {
+        return changes;
+      }
+      if (sinceVersion + 1 < oldestVersion) {
+        changes.add(new Rectangle(0, 0, width, height));
+        return changes;
+      }
+      for (Update update : updates) {
+        if (update.version > sinceVersion) {
+          changes.add(update.rect);
+        }
+      }
+    }
+    return changes;
+  }
+
+  /**
+   * @param sinceVersion a version got from getVersion() before
+   * @param area         only updates touching this area count (null: the whole screen)
+   * @return time of the last update after that version touching the area (0 if none)
+   */
+  public long getLastChange(long sinceVersion, Rectangle area) {
+    synchronized (frameLock) {
+      if (SX.isNull(area)) {
+        return sinceVersion < version ? lastUpdate : 0;
+      }
+      if (sinceVersion + 1 < oldestVersion) {
+        return lastUpdate;
+      }
+      long last = 0;
+      for (Update update : updates) {
+        if (update.version > sinceVersion && update.rect.intersects(area)) {
+          last = update.time;
+        }
+      }
+      return last;
+    }
+  }
+
+  /**
+   * wait for the next framebuffer update
+   *
+   * @param sinceVersion a version got from getVersion() before
+   * @param millis       max time to wait
+   * @return true if there was an update after that version
+   */
+  public boolean waitForUpdate(long sinceVersion, long millis) {
+    long end = System.currentTimeMillis() + millis;
+    synchronized (frameLock) {
+      while (version <= sinceVersion && !closed) {
+        long wait = end - System.currentTimeMillis();
+        if (wait <= 0) {
+          break;
+        }
+        try {
+          frameLock.wait(wait);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      return version > sinceVersion;
+    }
+  }
+
+  /**
+   * @param area   only updates touching this area count (null: the whole screen)
+   * @param quiet  millis without update in the area
+   * @param millis max time to wait
+   * @return true if the area was quiet for the given time
+   */
+  public boolean waitStable(Rectangle area, long quiet, long millis) {
+    long start = System.currentTimeMillis();
+    long since = getVersion();
+    long quietStart = getLastChange(0, area);
+    while (!closed) {
+      long now = System.currentTimeMillis();
+      long changed = getLastChange(since, area);
+      if (changed > 0) {
+        quietStart = Math.max(quietStart, changed);
+      }
+      if (now - quietStart >= quiet) {
+        return true;
+      }
+      if (now - start >= millis) {
+        return false;
+      }
+      waitForUpdate(getVersion(), Math.min(quiet - (now - quietStart), millis - (now - start)));
+    }
+    return false;
+  }
+  //</editor-fold>
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.vnc;
+
+import com.sikulix.api.Picture;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.devices.InputLog;
+import com.sikulix.devices.virtual.VirtualDevice;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * a local stand-in for a VNC server (RFB 3.8, Raw encoding), that shows the canvas of a VirtualDevice:
+ * changed rows are sent as updates, the received pointer and key events are recorded into an InputLog
+ * (move, button, wheel, key)
+ * <p>
+ * RFBServer server = new RFBServer(virtualDevice).start(0);<br>
+ * new VNCDevice().start("127.0.0.1", server.getPort());
+ */
+public class RFBServer implements Closeable {
+
+  private static final SXLog log = SX.getSXLog("SX.RFBServer");
+
+  private final VirtualDevice screen;
+  private ServerSocket serverSocket = null;
+  private volatile boolean closed = false;
+  private String password = null;
+  private final List<Connection> connections = new CopyOnWriteArrayList<>();
+  private final InputLog inputs = new InputLog();
+  private final long startTime = System.currentTimeMillis();
+  private int updateInterval = 20;
+
+  public RFBServer(VirtualDevice screen) {
+    this.screen = screen;
+  }
+
+  /**
+   * @param password null: security type None, else VNC authentication
+   * @return this server
+   */
+  public RFBServer setPassword(String password) {
+    this.password = password;
+    return this;
+  }
+
+  /**
+   * @param millis how often changes of the canvas are looked for (default 20)
+   * @return this server
+   */
+  public RFBServer setUpdateInterval(int millis) {
+    updateInterval = Math.max(1, millis);
+    return this;
+  }
+
+  /**
+   * listen on localhost
+   *
+   * @param port 0: any free port (see getPort())
+   * @return this server (null if the port could not be opened)
+   */
+  public RFBServer start(int port) {
+    try {
+      serverSocket = new ServerSocket(port, 8, InetAddress.getByName("127.0.0.1"));
+    } catch (IOException ex) {
+      log.error("start: port %d: %s", port, ex.getMessage());
+      return null;
+    }
+    Thread acceptor = new Thread(() -> {
+      while (!closed) {
+        try {
+          Connection connection = new Connection(serverSocket.accept());
+          connections.add(connection);
+          connection.start();
+        } catch (IOException ex) {
+          if (!closed) {
+            log.error("accept: %s", ex.getMessage());
+          }
+        }
+      }
+    }, "SX.RFBServer." + getPort());
+    acceptor.setDaemon(true);
+    acceptor.start();
+    log.trace("start: listening on %d", getPort());
+    return this;
+  }
+
+  public int getPort() {
+    return SX.isNull(serverSocket) ? -1 : serverSocket.getLocalPort();
+  }
+
+  /**
+   * @return the received input events (move, button, wheel, key)
+   */
+  public InputLog getInputs() {
+    return inputs;
+  }
+
+  public int getConnectionCount() {
+    return connections.size();
+  }
+
+  /**
+   * drop the client connections, but keep listening (e.g. to test reconnects)
+   */
+  public void disconnectAll() {
+    for (Connection connection : connections) {
+      connection.close();
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      if (SX.isNotNull(serverSocket)) {
+        serverSocket.close();
+      }
+    } catch (IOException ex) {
+    }
+    for (Connection connection : connections) {
+      connection.close();
+    }
+    connections.clear();
+  }
+
+  private void record(String type, int x, int y, String detail) {
+    inputs.add(new InputLog.Entry(System.currentTimeMillis() - startTime, type, x, y, detail));
+  }
+
+  private class Connection {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private int width;
+    private int height;
+    private byte[] sent = null;
+    private volatile int requested = 0;
+    private int buttons = 0;
+    private int mouseX = -1;
+    private int mouseY = -1;
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      socket.setTcpNoDelay(true);
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+    }
+
+    void start() {
+      Thread reader = new Thread(() -> {
+        try {
+          handshake();
+          Thread updater = new Thread(this::sendUpdates, "SX.RFBServer.updates");
+          updater.setDaemon(true);
+          updater.start();
+          readMessages();
+        } catch (IOException ex) {
+          if (!closed) {
+            log.trace("connection closed: %s", ex.getMessage());
+          }
+        }
+        close();
+      }, "SX.RFBServer.client");
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    void close() {
+      try {
+        socket.close();
+      } catch (IOException ex) {
+      }
+      connections.remove(this);
+    }
+
+    private void handshake() throws IOException {
+      out.write("RFB 003.008\n".getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+      in.readFully(new byte[12]);
+      int security = SX.isNull(password) ? 1 : 2;
+      out.writeByte(1);
+      out.writeByte(security);
+      out.flush();
+      if (in.readUnsignedByte() != security) {
+        throw new IOException("security type not accepted");
+      }
+      if (security == 2) {
+        byte[] challenge = new byte[16];
+        new SecureRandom().nextBytes(challenge);
+        out.write(challenge);
+        out.flush();
+        byte[] response = new byte[16];
+        in.readFully(response);
+        if (!Arrays.equals(response, RFBClient.encrypt(challenge, password))) {
+          out.writeInt(1);
+          writeString("authentication failed");
+          out.flush();
+          throw new IOException("authentication failed");
+        }
+      }
+      out.writeInt(0);
+      out.flush();
+      in.readUnsignedByte();
+      Picture frame = screen.snapshot();
+      width = frame.w;
+      height = frame.h;
+      frame.releaseContent();
+      out.writeShort(width);
+      out.writeShort(height);
+      out.write(new byte[]{32, 24, 0, 1, 0, (byte) 255, 0, (byte) 255, 0, (byte) 255, 16, 8, 0, 0, 0, 0});
+      writeString("SikuliX RFBServer");
+      out.flush();
+    }
+
+    private void writeString(String text) throws IOException {
+      byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    private void readMessages() throws IOException {
+      while (!closed) {
+        int type = in.readUnsignedByte();
+        switch (type) {
+          case 0:
+            in.readFully(new byte[19]);
+            break;
+          case 2:
+            in.readUnsignedByte();
+            in.readFully(new byte[in.readUnsignedShort() * 4]);
+            break;
+          case 3:
+            boolean incremental = in.readUnsignedByte() != 0;
+            in.readFully(new byte[8]);
+            synchronized (this) {
+              requested = incremental && requested != 2 ? 1 : 2;
+            }
+            break;
+          case 4:
+            boolean down = in.readUnsignedByte() != 0;
+            in.readUnsignedShort();
+            int keysym = in.readInt();
+            record("key", mouseX, mouseY, String.format("%s 0x%x", down ? "DOWN" : "UP", keysym));
+            break;
+          case 5:
+            pointerEvent(in.readUnsignedByte(), in.readUnsignedShort(), in.readUnsignedShort());
+            break;
+          case 6:
+            in.readFully(new byte[3]);
+            in.readFully(new byte[in.readInt()]);
+            break;
+          default:
+            throw new IOException("unknown client message: " + type);
+        }
+      }
+    }
+
+    private void pointerEvent(int mask, int x, int y) {
+      if (x != mouseX || y != mouseY) {
+        mouseX = x;
+        mouseY = y;
+        record("move", x, y, "");
+      }
+      String[] names = new String[]{"LEFT", "MIDDLE", "RIGHT"};
+      for (int n = 0; n < names.length; n++) {
+        int bit = 1 << n;
+        if ((mask & bit) != (buttons & bit)) {
+          record("button", x, y, names[n] + ((mask & bit) != 0 ? "DOWN" : "UP"));
+        }
+      }
+      if ((mask & RFBClient.WHEEL_UP) != 0 && (buttons & RFBClient.WHEEL_UP) == 0) {
+        record("wheel", x, y, "UP");
+      }
+      if ((mask & RFBClient.WHEEL_DOWN) != 0 && (buttons & RFBClient.WHEEL_DOWN) == 0) {
+        record("wheel", x, y, "DOWN");
+      }
+      buttons = mask;
+    }
+
+    /**
+     * answers the pending update request, as soon as rows of the canvas have changed (all rows if not incremental)
+     */
+    private void sendUpdates() {
+      while (!closed && !socket.isClosed()) {
+        try {
+          int request;
+          synchronized (this) {
+            request = requested;
+          }
+          if (request > 0) {
+            byte[] pixels = getPixels();
+            int first = 0;
+            int last = height - 1;
+            if (request == 1 && SX.isNotNull(sent)) {
+              int rowBytes = width * 4;
+              while (first < height && equalRow(pixels, first, rowBytes)) {
+                first++;
+              }
+              while (last > first && equalRow(pixels, last, rowBytes)) {
+                last--;
+              }
+            }
+            if (first < height) {
+              synchronized (this) {
+                requested = 0;
+              }
+              writeUpdate(pixels, first, last - first + 1);
+              sent = pixels;
+            }
+          }
+          Thread.sleep(updateInterval);
+        } catch (IOException ex) {
+          close();
+          return;
+        } catch (InterruptedException ex) {
+          return;
+        }
+      }
+    }
+
+    private boolean equalRow(byte[] pixels, int row, int rowBytes) {
+      int offset = row * rowBytes;
+      for (int n = offset; n < offset + rowBytes; n++) {
+        if (pixels[n] != sent[n]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private byte[] getPixels() {
+      Picture frame = screen.snapshot();
+      byte[] bgr = new byte[width * height * 3];
+      frame.getContent().get(0, 0, bgr);
+      frame.releaseContent();
+      byte[] bgrx = new byte[width * height * 4];
+      for (int source = 0, target = 0; source < bgr.length; source += 3, target += 4) {
+        bgrx[target] = bgr[source];
+        bgrx[target + 1] = bgr[source + 1];
+        bgrx[target + 2] = bgr[source + 2];
+      }
+      return bgrx;
+    }
+
+    private void writeUpdate(byte[] pixels, int top, int rows) throws IOException {
+      out.writeByte(0);
+      out.writeByte(0);
+      out.writeShort(1);
+      out.writeShort(0);
+      out.writeShort(top);
+      out.writeShort(width);
+      out.writeShort(rows);
+      out.writeInt(RFBClient.ENCODING_RAW);
+      out.write(pixels, top * width * 4, rows * width * 4);
+      out.flush();
+    }
+  }
+}
@@ -8,13 +8,17 @@ import com.sikulix.api.Element;
 import com.sikulix.api.Picture;
 import com.sikulix.core.*;
 import com.sikulix.devices.IDevice;
-import com.sikulix.vnc.VNCClient;
 
 import java.awt.Rectangle;
 import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * a remote screen over VNC (RFB, see RFBClient): the framebuffer is kept current by the update messages,
+ * so capture() returns the content immediately
+ */
 public class VNCDevice extends IDevice implements Closeable {
 
   static SXLog log;
@@ -91,40 +95,110 @@ public class VNCDevice extends IDevice implements Closeable {
   private Integer connectionTimeout = null;
   private Integer timeout = null;
 
-  private VNCClient client = null;
+  private volatile RFBClient client = null;
   private volatile boolean closed;
-  private Picture lastScreenImage;
+  private boolean pooled = false;
 
   @Override
   public IDevice start(Object... args) {
-    if (Content.addExtensionFromMaven("vnc")) {
-      parameters.initParameters(this, args);
-      log.trace("start(): %s", parameters);
-      try {
-        client = VNCClient.connect(ip, port, password, true);
-        new Thread(new Runnable() {
+    parameters.initParameters(this, args);
+    log.trace("start(): %s", parameters);
+    if (connect()) {
+      devices.add(this);
+      return this;
+    }
+    return null;
+  }
+
+  /**
+   * start without a message thread of its own: the messages have to be processed by calling pump()
+   */
+  IDevice startPooled(Object... args) {
+    pooled = true;
+    return start(args);
+  }
+
+  private boolean connect() {
+    try {
+      closed = false;
+      final RFBClient rfb = RFBClient.connect(ip, port, password, connectionTimeout, timeout);
+      client = rfb;
+      if (!pooled) {
+        Thread messages = new Thread(new Runnable() {
           @Override
           public void run() {
             try {
-              client.processMessages();
+              rfb.processMessages();
             } catch (RuntimeException e) {
-              if (!closed) {
-                throw e;
-              }
+              log.error("%s:%d: connection lost: %s", ip, port, e.getMessage());
             }
           }
-        }).start();
-        capture();
-        devices.add(this);
-        return this;
-      } catch (Exception e) {
-        log.error("VNCClient.connect: did not work: %s", e.getMessage());
+        }, "SX.VNC." + ip + ":" + port);
+        messages.setDaemon(true);
+        messages.start();
       }
-    } else {
-      log.error("sikulix2tigervnc not on classpath");
-      Content.dumpClasspath("sikulix");
+      if (!rfb.waitForUpdate(0, timeout)) {
+        log.error("start: %s:%d: no framebuffer update after %d msec", ip, port, timeout);
+      }
+      return true;
+    } catch (Exception e) {
+      log.error("VNC connect: %s:%d: did not work: %s", ip, port, e.getMessage());
     }
-    return null;
+    return false;
+  }
+
+  /**
+   * close the connection and connect again with the same parameters
+   *
+   * @return success
+   */
+  public boolean reconnect() {
+    RFBClient previous = client;
+    if (SX.isNotNull(previous)) {
+      previous.close();
+    }
+    log.trace("reconnect: %s:%d", ip, port);
+    return connect();
+  }
+
+  /**
+   * process the received messages (pooled devices only, see VNCDevicePool)
+   *
+   * @param readTimeout milliseconds a message begun may stall (see RFBClient.pump())
+   * @return true if a message was processed
+   */
+  boolean pump(int readTimeout) throws IOException {
+    RFBClient rfb = client;
+    if (SX.isNull(rfb) || rfb.isClosed()) {
+      return false;
+    }
+    return rfb.pump(readTimeout);
+  }
+
+  public boolean isConnected() {
+    RFBClient rfb = client;
+    return SX.isNotNull(rfb) && !rfb.isClosed();
+  }
+
+  /**
+   * health check: asks for a full update of the top left pixel
+   *
+   * @param millis max time to wait for the answer
+   * @return true if the server answered in time
+   */
+  public boolean probe(int millis) {
+    RFBClient rfb = client;
+    if (SX.isNull(rfb) || rfb.isClosed()) {
+      return false;
+    }
+    long version = rfb.getVersion();
+    try {
+      rfb.requestUpdate(0, 0, 1, 1);
+    } catch (IOException e) {
+      rfb.close();
+      return false;
+    }
+    return rfb.waitForUpdate(version, millis);
   }
 
   @Override
@@ -137,8 +211,10 @@ public class VNCDevice extends IDevice implements Closeable {
   @Override
   public void close() {
     closed = true;
-    client.close();
-    client = null;
+    if (SX.isNotNull(client)) {
+      client.close();
+      client = null;
+    }
   }
 
   public static void stopAll() {
@@ -157,18 +233,17 @@ public class VNCDevice extends IDevice implements Closeable {
 
   @Override
   public int getNumberOfMonitors() {
-    return 0;
+    return 1;
   }
 
   @Override
   public Rectangle getMonitor(int... id) {
-    Rectangle bounds = client.getBounds();
-    return null;
+    return client.getBounds();
   }
 
   @Override
   public Rectangle getAllMonitors() {
-    return null;
+    return client.getBounds();
   }
 
   @Override
@@ -188,7 +263,7 @@ public class VNCDevice extends IDevice implements Closeable {
 
   @Override
   public Rectangle[] getMonitors() {
-    return new Rectangle[0];
+    return new Rectangle[]{client.getBounds()};
   }
 
   @Override
@@ -198,52 +273,198 @@ public class VNCDevice extends IDevice implements Closeable {
 
   @Override
   public Element getContainingMonitor(Element element) {
-    return null;
+    return new Element(client.getBounds());
+  }
+
+  //<editor-fold desc="input">
+  private final Object input = new Object();
+  private int mouseX = 0;
+  private int mouseY = 0;
+  private int buttons = 0;
+  private boolean inKeyBatch = false;
+  private static final int moveSteps = 10;
+
+  /**
+   * the events are buffered and sent together, when the action is complete
+   * (pointer events at once, together with key events buffered before)
+   */
+  private void send() {
+    try {
+      client.flush();
+    } catch (IOException e) {
+      log.error("%s:%d: input not sent: %s", ip, port, e.getMessage());
+    }
+  }
+
+  /**
+   * the key events of a typed text are held back until keyStop()
+   */
+  private void sendKeys() {
+    if (!inKeyBatch) {
+      send();
+    }
+  }
+
+  private void pointer() {
+    try {
+      client.pointer(buttons, mouseX, mouseY);
+    } catch (IOException e) {
+      log.error("%s:%d: pointer: %s", ip, port, e.getMessage());
+    }
+  }
+
+  private void setMouse(Element loc) {
+    Rectangle bounds = client.getBounds();
+    mouseX = Math.max(0, Math.min(bounds.width - 1, loc.x));
+    mouseY = Math.max(0, Math.min(bounds.height - 1, loc.y));
+  }
+
+  /**
+   * with option Settings.MoveMouseDelay &gt; 0 intermediate positions are sent too (all in the same write)
+   */
+  private void moveTo(Element loc) {
+    int fromX = mouseX;
+    int fromY = mouseY;
+    setMouse(loc);
+    int toX = mouseX;
+    int toY = mouseY;
+    if (SX.getOptionsSnapshot().moveMouseDelay > 0 && (fromX != toX || fromY != toY)) {
+      for (int step = 1; step < moveSteps; step++) {
+        mouseX = fromX + (toX - fromX) * step / moveSteps;
+        mouseY = fromY + (toY - fromY) * step / moveSteps;
+        pointer();
+      }
+      mouseX = toX;
+      mouseY = toY;
+    }
+    pointer();
+  }
+
+  private static int getButton(Action action) {
+    String name = action.toString();
+    if (name.startsWith("RIGHT")) {
+      return RFBClient.BUTTON_RIGHT;
+    } else if (name.startsWith("MIDDLE")) {
+      return RFBClient.BUTTON_MIDDLE;
+    }
+    return RFBClient.BUTTON_LEFT;
+  }
+
+  private void doButton(Action action) {
+    int button = getButton(action);
+    String name = action.toString();
+    if (name.endsWith("DOWN")) {
+      buttons |= button;
+      pointer();
+    } else if (name.endsWith("UP")) {
+      buttons &= ~button;
+      pointer();
+    } else {
+      int clicks = name.endsWith("DOUBLE") ? 2 : 1;
+      for (int n = 0; n < clicks; n++) {
+        buttons |= button;
+        pointer();
+        buttons &= ~button;
+        pointer();
+      }
+    }
   }
 
   @Override
   public Element click(Element loc) {
-    return null;
+    return click(loc, Action.LEFT);
   }
 
   @Override
   public Element doubleClick(Element loc) {
-    return null;
+    return click(loc, Action.LEFTDOUBLE);
   }
 
   @Override
   public Element rightClick(Element loc) {
-    return null;
+    return click(loc, Action.RIGHT);
   }
 
   @Override
   public Element click(Action action) {
-    return null;
+    return click(null, action);
   }
 
   @Override
   public Element click(Element loc, Action action) {
-    return null;
+    synchronized (input) {
+      if (SX.isNotNull(loc)) {
+        moveTo(loc.getTarget());
+      }
+      doButton(action);
+      send();
+      return at();
+    }
   }
 
   @Override
   public Element dragDrop(Element from, Element to, Object... times) {
-    return null;
+    synchronized (input) {
+      if (SX.isNotNull(from)) {
+        moveTo(from.getTarget());
+      }
+      doButton(Action.LEFTDOWN);
+      if (SX.isNotNull(to)) {
+        moveTo(to.getTarget());
+      }
+      doButton(Action.LEFTUP);
+      send();
+      return at();
+    }
   }
 
+  /**
+   * the key events up to keyStop() are sent in one write
+   */
   @Override
   public void keyStart() {
-
+    synchronized (input) {
+      inKeyBatch = true;
+    }
   }
 
   @Override
   public void keyStop() {
-
+    synchronized (input) {
+      inKeyBatch = false;
+      send();
+    }
   }
 
+  /**
+   * @param action DOWN, UP or DOWNUP
+   * @param key    a Character (text or special key of Keys) or an Integer (Java key code)
+   */
   @Override
   public void key(Action action, Object key) {
-
+    int keysym = -1;
+    if (key instanceof Character) {
+      keysym = RFBClient.toKeysym((Character) key);
+    } else if (key instanceof Integer) {
+      keysym = RFBClient.toKeysym((Integer) key);
+    }
+    if (keysym < 0) {
+      log.error("key: not supported: %s", key);
+      return;
+    }
+    synchronized (input) {
+      try {
+        if (!Action.UP.equals(action)) {
+          client.key(keysym, true);
+        }
+        if (!Action.DOWN.equals(action)) {
+          client.key(keysym, false);
+        }
+      } catch (IOException e) {
+        log.error("%s:%d: key: %s", ip, port, e.getMessage());
+      }
+      sendKeys();
+    }
   }
 
   /**
@@ -255,7 +476,9 @@ public class VNCDevice extends IDevice implements Closeable {
    */
   @Override
   public Element move(int xoff, int yoff) {
-    return null;
+    synchronized (input) {
+      return move(new Element(mouseX + xoff, mouseY + yoff));
+    }
   }
 
   /**
@@ -266,7 +489,13 @@ public class VNCDevice extends IDevice implements Closeable {
    */
   @Override
   public Element move(Element loc) {
-    return null;
+    synchronized (input) {
+      if (SX.isNotNull(loc)) {
+        moveTo(loc.getTarget());
+        send();
+      }
+      return at();
+    }
   }
 
   /**
@@ -274,21 +503,42 @@ public class VNCDevice extends IDevice implements Closeable {
    */
   @Override
   public Element at() {
-    return null;
+    synchronized (input) {
+      return new Element(mouseX, mouseY);
+    }
   }
 
   @Override
   public void button(Action action) {
-
+    synchronized (input) {
+      doButton(action);
+      send();
+    }
   }
 
+  /**
+   * @param action DOWN (towards the user) or UP
+   * @param steps  wheel clicks (each a press and release of the wheel button)
+   */
   @Override
   public void wheel(Action action, int steps) {
-
+    int button = action.toString().contains("DOWN") ? RFBClient.WHEEL_DOWN : RFBClient.WHEEL_UP;
+    synchronized (input) {
+      for (int n = 0; n < steps; n++) {
+        buttons |= button;
+        pointer();
+        buttons &= ~button;
+        pointer();
+      }
+      send();
+    }
   }
+  //</editor-fold>
 
-  int maxChecks = 100;
-
+  /**
+   * @param args optional: the Element to capture (default the whole screen)
+   * @return the current framebuffer content of the area (no waiting - see waitStable())
+   */
   @Override
   public Picture capture(Object... args) {
     Element what = new Element(client.getBounds());
@@ -297,38 +547,43 @@ public class VNCDevice extends IDevice implements Closeable {
         what = (Element) args[0];
       }
     }
-    if (maxChecks > 0) {
-      client.refreshFramebuffer(what.x, what.y, what.w, what.h, false);
-    }
-    Picture picture2;
-    Picture picture1 = new Picture(client.getFrameBuffer(what.x, what.y, what.w, what.h));
-    if (maxChecks > 0) {
-      SX.pause(0.15);
-      picture2 = new Picture(client.getFrameBuffer(what.x, what.y, what.w, what.h));
-      List<Element> rectangles = Finder.detectChanges(picture1.getContent(), picture2.getContent());
-      while (rectangles.size() == 0) {
-        picture1 = new Picture(picture2);
-        picture2 = new Picture(client.getFrameBuffer(what.x, what.y, what.w, what.h));
-        rectangles = Finder.detectChanges(picture1.getContent(), picture2.getContent());
-        maxChecks--;
-        if (maxChecks < 0) {
-          break;
-        }
-      }
-      while (rectangles.size() > 0) {
-        picture1 = new Picture(picture2);
-        picture2 = new Picture(client.getFrameBuffer(what.x, what.y, what.w, what.h));
-        rectangles = Finder.detectChanges(picture1.getContent(), picture2.getContent());
-      }
-      maxChecks = 0;
-    } else {
-      return picture1;
-    }
-    return picture2;
+    Picture picture = Picture.view(client.getFrame(what.getRectangle()));
+    what.setContent(picture.getContent());
+    return picture;
+  }
+
+  /**
+   * @return the number of framebuffer updates received so far (see RFBClient.getChanges())
+   */
+  public long getFrameVersion() {
+    return client.getVersion();
+  }
+
+  /**
+   * @param what    the area (null: the whole screen)
+   * @param seconds without framebuffer update touching the area
+   * @return true if there was no such update for the given time
+   */
+  public boolean isStable(Element what, double seconds) {
+    long last = client.getLastChange(0, SX.isNull(what) ? null : what.getRectangle());
+    return System.currentTimeMillis() - last >= seconds * 1000;
+  }
+
+  /**
+   * wait until the area did not change for the given time
+   *
+   * @param what    the area (null: the whole screen)
+   * @param seconds quiet time
+   * @param timeout max seconds to wait
+   * @return true if stable, false on timeout
+   */
+  public boolean waitStable(Element what, double seconds, double timeout) {
+    return client.waitStable(SX.isNull(what) ? null : what.getRectangle(), (long) (seconds * 1000),
+            (long) (timeout * 1000));
   }
 
   @Override
   public Picture userCapture(Object... args) {
-    return null;
+    return capture(args);
   }
 }
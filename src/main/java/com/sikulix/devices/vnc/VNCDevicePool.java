@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.devices.vnc;
+
+import com.sikulix.api.Do;
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.Resources;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * many VNC sessions at once: the RFB messages of all sessions are processed by a small, fixed number
+ * of shared I/O threads (instead of one thread per connection), broken sessions are found by health checks
+ * and reconnected<br>
+ * a Session is the Do-style handle for one target (find, wait, click, write, ... on its screen),
+ * runAll() runs a script on all sessions in parallel and collects the results
+ * <p>
+ * VNCDevicePool pool = new VNCDevicePool(2);<br>
+ * pool.add("vm1", "10.0.0.1", 5900, "secret");<br>
+ * List&lt;VNCDevicePool.Result&lt;Element&gt;&gt; results = pool.runAll(session -&gt; session.click("ok"), 60);
+ */
+public class VNCDevicePool implements Closeable {
+
+  private static final SXLog log = SX.getSXLog("SX.VNCDevicePool");
+
+  private final Map<String, Session> sessions = new LinkedHashMap<>();
+  private final List<Thread> ioThreads = new ArrayList<>();
+  private final ThreadPoolExecutor scripts;
+  private ScheduledExecutorService healthChecker = null;
+  private volatile boolean closed = false;
+  private int probeTimeout = 2000;
+  private volatile int readTimeout = 1000;
+  private volatile int maxIdleWait = 16;
+
+  /**
+   * @param ioThreadCount threads shared by all sessions for the RFB messages
+   */
+  public VNCDevicePool(int ioThreadCount) {
+    this(ioThreadCount, Runtime.getRuntime().availableProcessors() * 2);
+  }
+
+  /**
+   * @param ioThreadCount     threads shared by all sessions for the RFB messages
+   * @param scriptThreadCount max scripts running in parallel (runAll())
+   */
+  public VNCDevicePool(int ioThreadCount, int scriptThreadCount) {
+    for (int n = 0; n < Math.max(1, ioThreadCount); n++) {
+      Thread thread = new Thread(this::pumpAll, "SX.VNCDevicePool.io" + n);
+      thread.setDaemon(true);
+      ioThreads.add(thread);
+      thread.start();
+    }
+    scripts = new ThreadPoolExecutor(Math.max(1, scriptThreadCount), Math.max(1, scriptThreadCount), 0,
+            TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), daemonThreads("SX.VNCDevicePool.script"));
+    Resources.register("pool.vnc.script.queue", () -> scripts.getQueue().size());
+    Resources.register("pool.vnc.script.active", () -> scripts.getActiveCount());
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, name + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  //<editor-fold desc="sessions">
+  public static class Session {
+    private final String name;
+    private final VNCDevice device;
+    private final ReentrantLock pumping = new ReentrantLock();
+    private final AtomicInteger reconnects = new AtomicInteger();
+
+    Session(String name, VNCDevice device) {
+      this.name = name;
+      this.device = device;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public VNCDevice getDevice() {
+      return device;
+    }
+
+    public boolean isConnected() {
+      return device.isConnected();
+    }
+
+    public int getReconnects() {
+      return reconnects.get();
+    }
+
+    /**
+     * @return the whole screen of this session (the where for Do.find(what, where), ...)
+     */
+    public Element on() {
+      Element screen = new Element(device.getMonitor());
+      screen.setDevice(device);
+      return screen;
+    }
+
+    public Element find(Object what) {
+      return Do.find(what, on());
+    }
+
+    public Element wait(Object what, double seconds) {
+      return Do.wait(what, on(), seconds);
+    }
+
+    public boolean exists(Object what, double seconds) {
+      return Do.exists(what, on(), seconds);
+    }
+
+    public Element click(Object what) {
+      Element match = find(what);
+      if (match.isMatch()) {
+        return device.click(match);
+      }
+      return match;
+    }
+
+    public boolean write(String text) {
+      return on().write(text);
+    }
+
+    public Picture capture() {
+      return device.capture();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Session %s: %s:%d%s", name, device.getIp(), device.getPort(),
+              device.isConnected() ? "" : " (disconnected)");
+    }
+  }
+
+  /**
+   * connect a new session (its messages are processed by the pool's I/O threads)
+   *
+   * @param name     to get the session later (an existing one with the same name is replaced)
+   * @param password null if none
+   * @return the session, null if the connection failed
+   */
+  public Session add(String name, String ip, int port, String password) {
+    VNCDevice device = new VNCDevice();
+    Session session = new Session(name, device);
+    Session previous;
+    synchronized (sessions) {
+      previous = sessions.put(name, session);
+    }
+    if (SX.isNotNull(previous)) {
+      previous.device.stop();
+    }
+    if (SX.isNull(device.startPooled(ip, port, password))) {
+      synchronized (sessions) {
+        sessions.remove(name, session);
+      }
+      return null;
+    }
+    log.trace("add: %s", session);
+    return session;
+  }
+
+  public Session get(String name) {
+    synchronized (sessions) {
+      return sessions.get(name);
+    }
+  }
+
+  public List<Session> getSessions() {
+    synchronized (sessions) {
+      return new ArrayList<>(sessions.values());
+    }
+  }
+
+  public boolean remove(String name) {
+    Session session;
+    synchronized (sessions) {
+      session = sessions.remove(name);
+    }
+    if (SX.isNull(session)) {
+      return false;
+    }
+    session.device.stop();
+    return true;
+  }
+
+  public int size() {
+    synchronized (sessions) {
+      return sessions.size();
+    }
+  }
+
+  /**
+   * @param millis how long an I/O thread waits for the rest of a message begun (default 1000):
+   *               a session stalling longer is closed, so it does not hold up the others
+   *               (the next check() reconnects it)
+   */
+  public void setReadTimeout(int millis) {
+    readTimeout = millis;
+  }
+
+  /**
+   * @param millis the longest pause of an I/O thread, when nothing arrived for any session (default 16):
+   *               the pause starts at 1 msec and doubles with every pass without messages,
+   *               so this is the latency added at most to the first message after a quiet time
+   */
+  public void setMaxIdleWait(int millis) {
+    maxIdleWait = Math.max(1, millis);
+  }
+
+  /**
+   * each I/O thread walks over all sessions and processes, what has arrived for a session
+   * not served by another I/O thread at the moment<br>
+   * the sockets are polled (the RFB messages are read with blocking streams, a Selector would need
+   * non-blocking channels): when idle, the pause between the passes grows up to maxIdleWait
+   */
+  private void pumpAll() {
+    int idleWait = 1;
+    while (!closed) {
+      boolean processed = false;
+      for (Session session : getSessions()) {
+        if (!session.pumping.tryLock()) {
+          continue;
+        }
+        try {
+          processed |= session.device.pump(readTimeout);
+        } catch (IOException ex) {
+          log.error("%s: connection lost: %s - reconnected by the next check", session.name, ex.getMessage());
+        } finally {
+          session.pumping.unlock();
+        }
+      }
+      if (processed) {
+        idleWait = 1;
+        continue;
+      }
+      try {
+        Thread.sleep(idleWait);
+      } catch (InterruptedException ex) {
+        return;
+      }
+      idleWait = Math.min(idleWait * 2, maxIdleWait);
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="health">
+
+  /**
+   * @param millis how long a session may take to answer the health check (default 2000)
+   */
+  public void setProbeTimeout(int millis) {
+    probeTimeout = millis;
+  }
+
+  /**
+   * probe all sessions, reconnect those not answering
+   *
+   * @return the number of sessions still not connected
+   */
+  public int check() {
+    int broken = 0;
+    for (Session session : getSessions()) {
+      if (session.device.isConnected() && session.device.probe(probeTimeout)) {
+        continue;
+      }
+      log.error("check: %s: not answering - reconnecting", session.name);
+      session.reconnects.incrementAndGet();
+      if (!session.device.reconnect()) {
+        broken++;
+      }
+    }
+    return broken;
+  }
+
+  /**
+   * run check() every given seconds (replaces running checks, 0 stops them)
+   */
+  public synchronized void startHealthChecks(int seconds) {
+    stopHealthChecks();
+    if (seconds < 1) {
+      return;
+    }
+    healthChecker = Executors.newSingleThreadScheduledExecutor(daemonThreads("SX.VNCDevicePool.health"));
+    healthChecker.scheduleWithFixedDelay(() -> {
+      try {
+        check();
+      } catch (Exception ex) {
+        log.error("health check: %s", ex.getMessage());
+      }
+    }, seconds, seconds, TimeUnit.SECONDS);
+  }
+
+  public synchronized void stopHealthChecks() {
+    if (SX.isNotNull(healthChecker)) {
+      healthChecker.shutdownNow();
+      healthChecker = null;
+    }
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="fan-out">
+  public static class Result<T> {
+    private final String session;
+    private final T value;
+    private final String error;
+    private final long millis;
+
+    Result(String session, T value, String error, long millis) {
+      this.session = session;
+      this.value = value;
+      this.error = error;
+      this.millis = millis;
+    }
+
+    public String getSession() {
+      return session;
+    }
+
+    /**
+     * @return what the script returned (null if it failed)
+     */
+    public T getValue() {
+      return value;
+    }
+
+    /**
+     * @return why the script failed (exception or timeout), null if it did not fail
+     */
+    public String getError() {
+      return error;
+    }
+
+    public boolean isOK() {
+      return SX.isNull(error);
+    }
+
+    public long getMillis() {
+      return millis;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %s (%d msec)", session, isOK() ? value : "failed: " + error, millis);
+    }
+  }
+
+  /**
+   * run the script for every session in parallel (at most scriptThreadCount at a time)
+   *
+   * @param script  gets the session as handle, its return value is collected
+   * @param timeout seconds to wait for all scripts (a script still running then is cancelled)
+   * @return one result per session in the order the sessions were added
+   */
+  public <T> List<Result<T>> runAll(Function<Session, T> script, double timeout) {
+    List<Session> targets = getSessions();
+    List<Future<Result<T>>> futures = new ArrayList<>();
+    for (Session session : targets) {
+      futures.add(scripts.submit(() -> {
+        long start = System.currentTimeMillis();
+        try {
+          return new Result<>(session.name, script.apply(session), null, System.currentTimeMillis() - start);
+        } catch (Exception ex) {
+          return new Result<T>(session.name, null, ex.toString(), System.currentTimeMillis() - start);
+        }
+      }));
+    }
+    long end = System.currentTimeMillis() + (long) (timeout * 1000);
+    List<Result<T>> results = new ArrayList<>();
+    for (int n = 0; n < futures.size(); n++) {
+      Future<Result<T>> future = futures.get(n);
+      String name = targets.get(n).name;
+      try {
+        results.add(future.get(Math.max(0, end - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+      } catch (TimeoutException ex) {
+        future.cancel(true);
+        results.add(new Result<T>(name, null, "timeout", (long) (timeout * 1000)));
+      } catch (InterruptedException | ExecutionException ex) {
+        results.add(new Result<T>(name, null, ex.toString(), 0));
+      }
+    }
+    int failed = 0;
+    for (Result<T> result : results) {
+      failed += result.isOK() ? 0 : 1;
+    }
+    log.trace("runAll: %d sessions, %d failed", results.size(), failed);
+    return results;
+  }
+  //</editor-fold>
+
+  @Override
+  public void close() {
+    closed = true;
+    stopHealthChecks();
+    scripts.shutdownNow();
+    Resources.unregister("pool.vnc.script.queue");
+    Resources.unregister("pool.vnc.script.active");
+    for (Session session : getSessions()) {
+      session.device.stop();
+    }
+    synchronized (sessions) {
+      sessions.clear();
+    }
+    for (Thread thread : ioThreads) {
+      thread.interrupt();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("VNCDevicePool: %d sessions, %d I/O threads", size(), ioThreads.size());
+  }
+}
@@ -8,6 +8,7 @@ import com.sikulix.api.Do;
 import com.sikulix.core.Content;
 import com.sikulix.core.SX;
 import com.sikulix.core.SXLog;
+import com.sikulix.core.SXTrace;
 
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
@@ -297,10 +298,12 @@ public class Runner {
     @Override
     public void run() {
       returnObject = new ReturnObject(NOTYETRUN);
-      if (ScriptType.JAVASCRIPT.equals(type)) {
-        runJS();
-      } else if (ScriptType.APPLESCRIPT.equals(type)) {
-        runAS();
+      try (SXTrace.Span span = SXTrace.begin("script", "script").arg("name", scriptName).arg("type", type)) {
+        if (ScriptType.JAVASCRIPT.equals(type)) {
+          runJS();
+        } else if (ScriptType.APPLESCRIPT.equals(type)) {
+          runAS();
+        }
       }
       running = false;
     }
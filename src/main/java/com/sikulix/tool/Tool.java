@@ -8,6 +8,7 @@ import com.sikulix.api.*;
 import com.sikulix.api.Window;
 import com.sikulix.core.Content;
 import com.sikulix.core.Finder;
+import com.sikulix.core.MatScope;
 import com.sikulix.core.SX;
 import com.sikulix.core.SXLog;
 import com.sikulix.devices.hotkey.HotkeyCallback;
@@ -903,22 +904,28 @@ public class Tool {
   private void actionMasking() {
     if (masking) {
       if (SX.isNotNull(mask)) {
+        if (SX.isNotNull(mMask)) {
+          mMask.release();
+        }
         mMask = new Mat(shot.getContent().size(), CvType.CV_8UC1);
-        if (!maskingToggle) {
-          mMask.setTo(new Scalar(0));
-          Imgproc.fillPoly(mMask, elementToPoints(mask), new Scalar(255));
-          innerMask = true;
-        } else {
-          mMask.setTo(new Scalar(255));
-          Imgproc.fillPoly(mMask, elementToPoints(mask), new Scalar(0));
-          innerMask = false;
+        try (MatScope scope = MatScope.open("tool")) {
+          if (!maskingToggle) {
+            mMask.setTo(new Scalar(0));
+            Imgproc.fillPoly(mMask, scope.trackAll(elementToPoints(mask)), new Scalar(255));
+            innerMask = true;
+          } else {
+            mMask.setTo(new Scalar(255));
+            Imgproc.fillPoly(mMask, scope.trackAll(elementToPoints(mask)), new Scalar(0));
+            innerMask = false;
+          }
+          List<Mat> mBGRA = new ArrayList<>();
+          Core.split(shot.getContent(), mBGRA);
+          scope.trackAll(mBGRA);
+          mBGRA.add(mMask);
+          Mat mResult = scope.track(new Mat(mMask.size(), CvType.CV_8UC4));
+          Core.merge(mBGRA, mResult);
+          shotMasked = new Picture(mResult);
         }
-        List<Mat> mBGRA = new ArrayList<>();
-        Core.split(shot.getContent(), mBGRA);
-        mBGRA.add(mMask);
-        Mat mResult = new Mat(mMask.size(), CvType.CV_8UC4);
-        Core.merge(mBGRA, mResult);
-        shotMasked = new Picture(mResult);
         resizeToFrame(shotMasked);
       }
     } else {
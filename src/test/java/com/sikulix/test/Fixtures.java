@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.test;
+
+import com.sikulix.api.Picture;
+import com.sikulix.core.SX;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+/**
+ * images shared by the device tests (no screen needed)
+ */
+class Fixtures {
+
+  /**
+   * @return a new 80x30 button: green, a white field with a red bar in the middle
+   */
+  static Picture button() {
+    SX.loadNative(SX.NATIVES.OPENCV);
+    Mat mButton = new Mat(30, 80, CvType.CV_8UC3, new Scalar(40, 140, 40));
+    mButton.submat(5, 25, 10, 70).setTo(new Scalar(255, 255, 255));
+    mButton.submat(12, 18, 20, 60).setTo(new Scalar(0, 0, 200));
+    return new Picture(mButton);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.test;
+
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.Finder;
+import com.sikulix.core.MatScope;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.core.SXTest;
+import org.junit.*;
+import org.junit.runners.MethodSorters;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestCoreMatScope {
+
+  static SXLog log = SX.getSXLog("SX_TestCoreMatScope");
+
+  private SXTest currentTest;
+
+  @BeforeClass
+  public static void setUpClass() {
+    log.on(SXLog.INFO);
+    SX.loadNative(SX.NATIVES.OPENCV);
+  }
+
+  @After
+  public void tearDown() {
+    log.info("!%s", currentTest);
+  }
+
+  @Test
+  public void test_001_scopeReleases() {
+    currentTest = new SXTest();
+    Mat temp;
+    Mat kept;
+    long released = MatScope.getReleasedBytes("test");
+    try (MatScope scope = MatScope.open("test")) {
+      temp = scope.track(new Mat(100, 100, CvType.CV_8UC3, new Scalar(1, 2, 3)));
+      kept = scope.track(new Mat(10, 10, CvType.CV_8UC1, new Scalar(0)));
+      MatScope.keep(kept);
+    }
+    assert temp.empty() : currentTest.failed("tracked Mat not released");
+    assert !kept.empty() && MatScope.getHolders(kept) == 1 : currentTest.failed("kept Mat released");
+    assert MatScope.getReleasedBytes("test") - released == 30000 :
+            currentTest.failed("released bytes: %d", MatScope.getReleasedBytes("test") - released);
+    assert MatScope.release(kept) && kept.empty() : currentTest.failed("kept Mat not released");
+    assert MatScope.current() == null : currentTest.failed("scope still open");
+    currentTest.setResult("%s", MatScope.report().trim());
+  }
+
+  @Test
+  public void test_002_contentRefCounted() {
+    currentTest = new SXTest();
+    Picture picture = new Picture(new Mat(20, 30, CvType.CV_8UC3, new Scalar(50, 100, 150)));
+    Mat content = picture.getContentBGR();
+    Element element = new Element();
+    element.setContent(content);
+    assert MatScope.getHolders(content) == 2 : currentTest.failed("holders: %d", MatScope.getHolders(content));
+    picture.setContent(new Mat(5, 5, CvType.CV_8UC3, new Scalar(0)));
+    assert !content.empty() : currentTest.failed("released while still held by element");
+    element.releaseContent();
+    assert content.empty() : currentTest.failed("not released with the last holder");
+    currentTest.setResult("released with the last holder");
+  }
+
+  @Test
+  public void test_003_sharedOutlivesScope() {
+    currentTest = new SXTest();
+    Mat held;
+    try (MatScope scope = MatScope.open("test")) {
+      held = scope.track(new Mat(10, 10, CvType.CV_8UC3, new Scalar(1, 2, 3)));
+      MatScope.retain(held, "test");
+    }
+    assert !held.empty() && MatScope.getHolders(held) == 1 : currentTest.failed("released by the scope");
+    assert MatScope.release(held) && held.empty() : currentTest.failed("not released by its holder");
+    currentTest.setResult("left to its holder");
+  }
+
+  @Test
+  public void test_004_maskReleased() {
+    currentTest = new SXTest();
+    long live = MatScope.getLiveBytes();
+    Mat bgra = new Mat(20, 30, CvType.CV_8UC4, new Scalar(10, 20, 30, 255));
+    bgra.submat(0, 10, 0, 30).setTo(new Scalar(10, 20, 30, 0));
+    Picture picture = Picture.view(bgra);
+    assert SX.isNotNull(picture.getMask()) && MatScope.getLiveBytes() - live == 20 * 30 * 4 :
+            currentTest.failed("content and mask: %d bytes", MatScope.getLiveBytes() - live);
+    picture.releaseContent();
+    assert MatScope.getLiveBytes() == live : currentTest.failed("left: %d bytes", MatScope.getLiveBytes() - live);
+    bgra.release();
+    currentTest.setResult("mask released with the content");
+  }
+
+  @Test
+  public void test_005_downsizedFindReleases() {
+    currentTest = new SXTest();
+    Mat frame = new Mat(300, 400, CvType.CV_8UC3, new Scalar(200, 200, 200));
+    Imgproc.rectangle(frame, new Point(150, 120), new Point(229, 159), new Scalar(40, 90, 160), -1);
+    Imgproc.putText(frame, "OK", new Point(170, 150), Core.FONT_HERSHEY_SIMPLEX, 0.8, new Scalar(255, 255, 255), 2);
+    Picture where = new Picture(frame);
+    Picture what = new Picture(frame.submat(115, 165, 145, 235).clone());
+    long live = MatScope.getLiveCount();
+    Finder finder = new Finder(where);
+    Element match = finder.find(what);
+    finder.release();
+    assert match.isMatch() && match.x == 145 && match.y == 115 : currentTest.failed("not found: %s", match);
+    assert MatScope.getLiveCount("finder") == 0 :
+            currentTest.failed("finder: %d Mats left", MatScope.getLiveCount("finder"));
+    assert MatScope.getLiveCount() == live : currentTest.failed("%d Mats left", MatScope.getLiveCount() - live);
+    where.releaseContent();
+    what.releaseContent();
+    currentTest.setResult("downsized find released its Mats");
+  }
+}
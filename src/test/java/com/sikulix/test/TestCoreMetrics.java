@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.test;
+
+import com.sikulix.core.Metrics;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.core.SXTest;
+import org.junit.*;
+import org.junit.runners.MethodSorters;
+
+import java.util.List;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestCoreMetrics {
+
+  static SXLog log = SX.getSXLog("SX_TestCoreMetrics");
+
+  private SXTest currentTest;
+
+  @BeforeClass
+  public static void setUpClass() {
+    log.on(SXLog.INFO);
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+  }
+
+  @Before
+  public void setUp() {
+    Metrics.setEnabled(true);
+    SX.resetMetrics();
+  }
+
+  @After
+  public void tearDown() {
+    log.info("!%s", currentTest);
+    SX.resetMetrics();
+    Metrics.setEnabled(false);
+  }
+
+  @Test
+  public void test_001_recordAndPull() {
+    currentTest = new SXTest();
+    for (int n = 1; n <= 100; n++) {
+      Metrics.recordNanos(Metrics.Phase.MATCH_ORIGINAL, "test", "target", n * 1000000L);
+    }
+    Metrics.recordNanos(Metrics.Phase.CAPTURE, "test", null, 5000000L);
+    List<Metrics.Snapshot> snapshots = SX.getMetrics();
+    assert snapshots.size() == 2 : currentTest.failed("series: %d (expected 2)", snapshots.size());
+    Metrics.Snapshot match = SX.getMetrics(Metrics.Phase.MATCH_ORIGINAL);
+    assert match.getCount() == 100 : currentTest.failed("count: %d", match.getCount());
+    assert Math.abs(match.getMeanMillis() - 50.5) < 0.01 : currentTest.failed("mean: %.2f", match.getMeanMillis());
+    assert match.getMaxMillis() == 100 : currentTest.failed("max: %.2f", match.getMaxMillis());
+    assert match.getP50Millis() >= 50 && match.getP50Millis() <= match.getP99Millis() :
+            currentTest.failed("p50: %.2f p99: %.2f", match.getP50Millis(), match.getP99Millis());
+    currentTest.setResult("%s", match);
+  }
+
+  @Test
+  public void test_002_disabled() {
+    currentTest = new SXTest();
+    Metrics.setEnabled(false);
+    long start = Metrics.start();
+    Metrics.record(Metrics.Phase.CAPTURE, "test", null, start);
+    Metrics.setEnabled(true);
+    assert start == 0 && SX.getMetrics().isEmpty() : currentTest.failed("recorded while disabled");
+    currentTest.setResult("nothing recorded");
+  }
+
+  @Test
+  public void test_003_targetsCapped() {
+    currentTest = new SXTest();
+    Metrics.setMaxTargets(3);
+    try {
+      for (int n = 0; n < 10; n++) {
+        Metrics.recordNanos(Metrics.Phase.MATCH_ORIGINAL, "test", "target" + n, 1000000L);
+      }
+    } finally {
+      Metrics.setMaxTargets(100);
+    }
+    List<Metrics.Snapshot> snapshots = SX.getMetrics();
+    assert snapshots.size() == 4 : currentTest.failed("series: %d (expected 3 + others)", snapshots.size());
+    long others = 0;
+    for (Metrics.Snapshot snapshot : snapshots) {
+      if (Metrics.OTHER_TARGETS.equals(snapshot.getTarget())) {
+        others = snapshot.getCount();
+      }
+    }
+    assert others == 7 : currentTest.failed("counted as others: %d (expected 7)", others);
+    currentTest.setResult("%s", snapshots);
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.test;
+
+import com.sikulix.api.Picture;
+import com.sikulix.core.ImageCache;
+import com.sikulix.core.Resources;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.core.SXTest;
+import org.junit.*;
+import org.junit.runners.MethodSorters;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestCoreResources {
+
+  static SXLog log = SX.getSXLog("SX_TestCoreResources");
+
+  private SXTest currentTest;
+
+  @BeforeClass
+  public static void setUpClass() {
+    log.on(SXLog.INFO);
+    SX.loadNative(SX.NATIVES.OPENCV);
+  }
+
+  @After
+  public void tearDown() {
+    log.info("!%s", currentTest);
+  }
+
+  @Test
+  public void test_001_softLimitEvicts() {
+    currentTest = new SXTest();
+    AtomicLong held = new AtomicLong(1000);
+    Resources.register("test.held.bytes", held::get);
+    Resources.Evictable evictable = amount -> {
+      held.addAndGet(-amount);
+      return amount;
+    };
+    Resources.addEvictable("test.held.bytes", evictable);
+    Resources.setSoftLimit("test.held.bytes", 600);
+    int exceeded = Resources.check();
+    assert exceeded == 0 && held.get() == 600 : currentTest.failed("held: %d exceeded: %d", held.get(), exceeded);
+    assert SX.getResources().containsKey("mat.live.bytes") : currentTest.failed("no mat gauges");
+    Resources.setSoftLimit("test.held.bytes", 0);
+    Resources.removeEvictable("test.held.bytes", evictable);
+    Resources.unregister("test.held.bytes");
+    currentTest.setResult("%s", Resources.snapshot());
+  }
+
+  @Test
+  public void test_002_imageCacheHits() {
+    currentTest = new SXTest();
+    File image = new File(SX.getSXSTORE(), "TestCoreResources.png");
+    Imgcodecs.imwrite(image.getAbsolutePath(), new Mat(40, 60, CvType.CV_8UC3, new Scalar(10, 20, 30)));
+    ImageCache.clear();
+    long hits = ImageCache.getHits();
+    Picture first = new Picture(image.getAbsolutePath());
+    Picture second = new Picture(image.getAbsolutePath());
+    assert first.isValid() && second.isValid() : currentTest.failed("not loaded: %s", image);
+    assert ImageCache.getHits() - hits == 1 && ImageCache.getSize() == 1 :
+            currentTest.failed("hits: %d entries: %d", ImageCache.getHits() - hits, ImageCache.getSize());
+    assert ImageCache.evict(1) == 40 * 60 * 3 && !first.getContent().empty() :
+            currentTest.failed("evicted content not kept by the picture");
+    image.delete();
+    currentTest.setResult("hit rate: %.2f", ImageCache.getHitRate());
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.test;
+
+import com.sikulix.api.Do;
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.core.SXTest;
+import com.sikulix.devices.InputLog;
+import com.sikulix.devices.android.ADBShell;
+import com.sikulix.devices.android.AndroidDevice;
+import com.sikulix.devices.android.FrameBufferPool;
+import com.sikulix.devices.android.ScreencapReader;
+import com.sikulix.devices.android.VirtualADBTransport;
+import com.sikulix.devices.virtual.VirtualDevice;
+import org.junit.*;
+import org.junit.runners.MethodSorters;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import java.awt.Rectangle;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestDeviceAndroid {
+
+  static SXLog log = SX.getSXLog("SX_TestDeviceAndroid");
+
+  private static Mat screen;
+
+  private SXTest currentTest;
+
+  /**
+   * a device shell stream, that delivers in small pieces (like a socket): short reads, skip() mostly 0
+   */
+  static class ShellStream extends InputStream {
+    private final ByteArrayInputStream bytes;
+    private int calls = 0;
+
+    ShellStream(byte[] raw) {
+      bytes = new ByteArrayInputStream(raw);
+    }
+
+    @Override
+    public int read() {
+      return bytes.read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      return bytes.read(buffer, offset, Math.min(length, 1 + (calls++ % 997)));
+    }
+
+    @Override
+    public long skip(long count) {
+      return calls++ % 3 == 0 ? bytes.skip(Math.min(count, 500)) : 0;
+    }
+  }
+
+  /**
+   * the device side of an adb shell: runs each command line (taking some msec), answers the marker echo
+   */
+  static class ShellDevice extends Thread {
+    final PipedOutputStream stdin = new PipedOutputStream();
+    final PipedInputStream stdout = new PipedInputStream(1 << 16);
+    final List<String> commands = Collections.synchronizedList(new ArrayList<>());
+    private final BufferedReader commandsIn;
+    private final PrintStream answers;
+
+    ShellDevice() throws IOException {
+      setDaemon(true);
+      commandsIn = new BufferedReader(new InputStreamReader(new PipedInputStream(stdin, 1 << 16)));
+      answers = new PrintStream(new PipedOutputStream(stdout), true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        String line;
+        while (SX.isNotNull(line = commandsIn.readLine()) && !"exit".equals(line)) {
+          int echoAt = line.lastIndexOf("; echo ");
+          commands.add(line.substring(0, echoAt));
+          SX.pause(0.005);
+          answers.println(line.substring(echoAt + 7).replace("$?", "0"));
+        }
+      } catch (IOException ex) {
+      }
+      answers.close();
+    }
+  }
+
+  @BeforeClass
+  public static void setUpClass() {
+    log.on(SXLog.INFO);
+    SX.loadNative(SX.NATIVES.OPENCV);
+    screen = new Mat(120, 90, CvType.CV_8UC3);
+    Core.randu(screen, 0, 255);
+  }
+
+  @After
+  public void tearDown() {
+    log.info("!%s", currentTest);
+  }
+
+  @Test
+  public void test_001_screencapRegion() throws IOException {
+    currentTest = new SXTest();
+    ScreencapReader reader = new ScreencapReader();
+    reader.setHeaderSize(16);
+    byte[] raw = ScreencapReader.encode(screen, 16);
+    long reuses = FrameBufferPool.getReuses();
+    for (int n = 0; n < 2; n++) {
+      Mat area = reader.read(new ShellStream(raw), new Rectangle(10, 30, 40, 50));
+      Mat expected = screen.submat(new Rect(10, 30, 40, 50));
+      assert area.cols() == 40 && area.rows() == 50 && Core.norm(area, expected) == 0 :
+              currentTest.failed("content differs: %s", area);
+    }
+    assert FrameBufferPool.getReuses() > reuses : currentTest.failed("pixel buffer not reused");
+    Mat whole = reader.read(new ShellStream(raw), null);
+    assert Core.norm(whole, screen) == 0 : currentTest.failed("whole screen differs");
+    try {
+      reader.read(new ShellStream(Arrays.copyOf(raw, raw.length / 2)), null);
+      assert false : currentTest.failed("no error on truncated stream");
+    } catch (IOException ex) {
+      currentTest.setResult("%s", ex.getMessage());
+    }
+  }
+
+  @Test
+  public void test_002_shellPipelined() throws Exception {
+    currentTest = new SXTest();
+    ShellDevice device = new ShellDevice();
+    device.start();
+    ADBShell shell = new ADBShell("fake", device.stdin, device.stdout);
+    List<CompletableFuture<Integer>> done = new ArrayList<>();
+    done.add(shell.submit("input tap 100 200"));
+    done.add(shell.submit("input text " + ADBShell.quoteText("it's ok")));
+    for (int n = 0; n < 30; n++) {
+      done.add(shell.submit("input keyevent 67"));
+    }
+    assert shell.getPendingCount() > 0 : currentTest.failed("submit waited for the commands");
+    assert shell.waitIdle(5000) : currentTest.failed("not finished: %s", shell);
+    assert device.commands.size() == 32 && "input text 'it'\\''s%sok'".equals(device.commands.get(1)) :
+            currentTest.failed("commands: %s", device.commands);
+    for (CompletableFuture<Integer> future : done) {
+      assert future.isDone() && future.get() == 0 : currentTest.failed("not done: %s", future);
+    }
+    CompletableFuture<Integer> afterClose = shell.submit("input keyevent 4");
+    shell.close();
+    assert afterClose.isCompletedExceptionally() || afterClose.get() == 0 : currentTest.failed("%s", afterClose);
+    assert !shell.isAlive() && shell.run("input keyevent 3", 1000) == -1 : currentTest.failed("%s", shell);
+    currentTest.setResult("%s: %d commands", shell, device.commands.size());
+  }
+
+  @Test
+  public void test_003_androidDevice() {
+    currentTest = new SXTest();
+    Mat mButton = new Mat(40, 100, CvType.CV_8UC3, new Scalar(200, 120, 40));
+    mButton.submat(10, 30, 10, 90).setTo(new Scalar(255, 255, 255));
+    mButton.submat(16, 24, 30, 70).setTo(new Scalar(0, 0, 200));
+    Picture button = new Picture(mButton);
+    VirtualDevice screen = new VirtualDevice(360, 640, new Scalar(90, 90, 90));
+    screen.place("button", button, 100, 300);
+    VirtualADBTransport transport = new VirtualADBTransport(screen);
+    AndroidDevice android = (AndroidDevice) new AndroidDevice().start(transport);
+    try {
+      assert SX.isNotNull(android) && android.getMonitor().width == 360 : currentTest.failed("start: %s", android);
+      Element where = new Element(android.getMonitor());
+      where.setDevice(android);
+      Element match = Do.find(button, where);
+      assert match.isMatch() && match.x == 100 && match.y == 300 : currentTest.failed("not found: %s", match);
+      android.click(match);
+      where.write("hi\n");
+      android.getADBDevice().waitInputDone();
+      List<InputLog.Entry> taps = transport.getInputs().getEntries("tap");
+      List<InputLog.Entry> texts = transport.getInputs().getEntries("text");
+      List<InputLog.Entry> keys = transport.getInputs().getEntries("key");
+      assert taps.size() == 1 && taps.get(0).getX() == 150 && taps.get(0).getY() == 320 :
+              currentTest.failed("taps: %s", taps);
+      assert texts.size() == 1 && "hi".equals(texts.get(0).getDetail()) && keys.size() == 1
+              && "66".equals(keys.get(0).getDetail()) : currentTest.failed("%s", transport.getInputs());
+      Do.find(button, where);
+      assert transport.getDumpsysDisplayCount() == 1 : currentTest.failed("geometry not cached: %d dumpsys display",
+              transport.getDumpsysDisplayCount());
+      transport.setRotation(1);
+      Picture turned = android.capture();
+      assert turned.w == 640 && turned.h == 360 && android.getMonitor().width == 640
+              && android.getGeometry().rotation == 1 : currentTest.failed("after rotation: %s", android);
+      currentTest.setResult("%s %d screencaps", android, transport.getScreencapCount());
+    } finally {
+      if (SX.isNotNull(android)) {
+        android.stop();
+      }
+    }
+  }
+}
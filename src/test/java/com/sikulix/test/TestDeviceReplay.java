@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.test;
+
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.core.SXTest;
+import com.sikulix.devices.IDevice;
+import com.sikulix.devices.InputLog;
+import com.sikulix.devices.replay.RecordingDevice;
+import com.sikulix.devices.replay.ReplayDevice;
+import com.sikulix.devices.virtual.VirtualDevice;
+import org.json.JSONObject;
+import org.junit.*;
+import org.junit.runners.MethodSorters;
+import org.opencv.core.Core;
+import org.opencv.core.Scalar;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestDeviceReplay {
+
+  static SXLog log = SX.getSXLog("SX_TestDeviceReplay");
+
+  private static File folder;
+  private static List<Picture> recorded = new ArrayList<>();
+
+  private SXTest currentTest;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    log.on(SXLog.INFO);
+    SX.loadNative(SX.NATIVES.OPENCV);
+    folder = Files.createTempDirectory("sxreplay").toFile();
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    File[] files = folder.listFiles();
+    if (SX.isNotNull(files)) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    folder.delete();
+  }
+
+  @After
+  public void tearDown() {
+    log.info("!%s", currentTest);
+  }
+
+  @Test
+  public void test_001_record() throws IOException {
+    currentTest = new SXTest();
+    VirtualDevice virtual = new VirtualDevice(320, 240, new Scalar(128, 128, 128));
+    RecordingDevice recorder = new RecordingDevice(virtual, folder);
+    recorder.setMaxDeltaChain(2);
+    assert SX.isNotNull(recorder.start()) : currentTest.failed("recording not started");
+    recorded.add(recorder.capture());
+    recorded.add(recorder.capture());
+    virtual.place("button", Fixtures.button(), 20, 20);
+    recorded.add(recorder.capture());
+    virtual.move("button", 60, 40);
+    recorded.add(recorder.capture());
+    virtual.move("button", 100, 60);
+    recorded.add(recorder.capture());
+    recorder.click(new Element(50, 60));
+    recorder.key(IDevice.Action.DOWNUP, "a");
+    recorder.stop();
+    List<String> kinds = new ArrayList<>();
+    for (String line : Files.readAllLines(new File(folder, "session.log").toPath(), StandardCharsets.UTF_8)) {
+      JSONObject entry = new JSONObject(line);
+      if ("capture".equals(entry.getString("type"))) {
+        kinds.add(entry.getString("kind"));
+      }
+    }
+    assert kinds.toString().equals("[key, same, delta, delta, key]") : currentTest.failed("frame kinds: %s", kinds);
+    currentTest.setResult("%s", kinds);
+  }
+
+  @Test
+  public void test_002_replay() {
+    currentTest = new SXTest();
+    ReplayDevice replay = new ReplayDevice(folder);
+    assert SX.isNotNull(replay.start()) : currentTest.failed("session not loaded");
+    try {
+      assert replay.getCaptureCount() == recorded.size() :
+              currentTest.failed("captures: %d (recorded %d)", replay.getCaptureCount(), recorded.size());
+      for (int n = 0; n < recorded.size(); n++) {
+        Picture picture = replay.capture();
+        double diff = Core.norm(picture.getContent(), recorded.get(n).getContent(), Core.NORM_INF);
+        assert diff == 0 : currentTest.failed("capture %d differs from the recorded one (%.0f)", n, diff);
+      }
+      replay.click(new Element(50, 60));
+      replay.key(IDevice.Action.DOWNUP, "a");
+      List<InputLog.Entry> expected = replay.getRecordedInputs().getEntries();
+      List<InputLog.Entry> actual = replay.getInputs().getEntries();
+      assert expected.size() == 2 && actual.size() == 2 : currentTest.failed("inputs: %s - %s", expected, actual);
+      for (int n = 0; n < expected.size(); n++) {
+        InputLog.Entry want = expected.get(n);
+        InputLog.Entry got = actual.get(n);
+        assert want.getType().equals(got.getType()) && want.getX() == got.getX() && want.getY() == got.getY()
+                && want.getDetail().equals(got.getDetail()) : currentTest.failed("input %d: %s - %s", n, want, got);
+      }
+      currentTest.setResult("%d captures, inputs: %s", recorded.size(), actual);
+    } finally {
+      replay.stop();
+    }
+  }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.test;
+
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXJson;
+import com.sikulix.core.SXLog;
+import com.sikulix.core.SXTest;
+import com.sikulix.devices.InputLog;
+import com.sikulix.devices.server.Client;
+import com.sikulix.devices.server.FindCoordinator;
+import com.sikulix.devices.server.ImageTransfer;
+import com.sikulix.devices.server.Server;
+import com.sikulix.devices.virtual.VirtualDevice;
+import org.json.JSONObject;
+import org.junit.*;
+import org.junit.runners.MethodSorters;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestDeviceServer {
+
+  static SXLog log = SX.getSXLog("SX_TestDeviceServer");
+
+  private static Server server;
+  private static VirtualDevice screen;
+  private static Picture button;
+
+  private SXTest currentTest;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    log.on(SXLog.INFO);
+    SX.loadNative(SX.NATIVES.OPENCV);
+    button = Fixtures.button();
+    screen = new VirtualDevice(400, 300, new Scalar(128, 128, 128));
+    screen.place("button", button, 120, 200);
+    server = new Server(0, 2, 16);
+    server.setDeviceFactory(capabilities -> screen.start());
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    server.stop();
+  }
+
+  @After
+  public void tearDown() {
+    log.info("!%s", currentTest);
+  }
+
+  static HttpURLConnection send(String method, String path, String contentType, byte[] body) throws IOException {
+    URL url = new URL("http://localhost:" + server.getPort() + path);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestMethod(method);
+    if (SX.isNotNull(body)) {
+      connection.setDoOutput(true);
+      connection.setRequestProperty("content-type", contentType);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body);
+      }
+    }
+    return connection;
+  }
+
+  static byte[] receive(HttpURLConnection connection) throws IOException {
+    int code = connection.getResponseCode();
+    try (InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+      return ImageTransfer.read(in);
+    }
+  }
+
+  static JSONObject call(String method, String path, JSONObject body) throws IOException {
+    HttpURLConnection connection = send(method, path, "application/json",
+            SX.isNull(body) ? null : body.toString().getBytes(StandardCharsets.UTF_8));
+    byte[] response = receive(connection);
+    return new JSONObject(new String(response, StandardCharsets.UTF_8)).put("http", connection.getResponseCode());
+  }
+
+  static JSONObject upload(byte[] image, String contentType) throws IOException {
+    HttpURLConnection connection = send("POST", "/image", contentType, image);
+    return new JSONObject(new String(receive(connection), StandardCharsets.UTF_8));
+  }
+
+  static JSONObject content(JSONObject response) {
+    return response.getJSONObject("value").optJSONObject("content");
+  }
+
+  @Test
+  public void test_001_sessionCommands() throws IOException {
+    currentTest = new SXTest();
+    JSONObject created = call("POST", "/session", new JSONObject().put("device", "virtual"));
+    String session = created.getString("sessionId");
+    assert created.getInt("status") == 0 && server.getSessionCount() == 1 : currentTest.failed("create: %s", created);
+    String image = SXJson.toBase64(button.getContent());
+    JSONObject found = call("POST", "/session/" + session + "/find", new JSONObject().put("image", image));
+    JSONObject match = content(found);
+    assert found.getInt("status") == 0 && match.getInt("x") == 120 && match.getInt("y") == 200 :
+            currentTest.failed("find: %s", found);
+    screen.getInputs().clear();
+    JSONObject clicked = call("POST", "/session/" + session + "/click",
+            new JSONObject().put("element", match.getString("element")));
+    List<InputLog.Entry> clicks = screen.getInputs().getEntries("click");
+    assert clicked.getInt("status") == 0 && clicks.size() == 1 && clicks.get(0).getX() == 160 :
+            currentTest.failed("click: %s %s", clicked, clicks);
+    JSONObject typed = call("POST", "/session/" + session + "/type", new JSONObject().put("text", "ok"));
+    assert typed.getInt("status") == 0 && screen.getInputs().getEntries("key").size() == 2 :
+            currentTest.failed("type: %s", typed);
+    JSONObject captured = call("GET", "/session/" + session + "/capture", null);
+    Mat capture = SXJson.fromBase64(content(captured).getString("png"));
+    assert SX.isNotNull(capture) && capture.cols() == 400 && capture.rows() == 300 :
+            currentTest.failed("capture: %s", capture);
+    JSONObject missing = call("POST", "/session/" + session + "/exists",
+            new JSONObject().put("image", SXJson.toBase64(new Mat(20, 20, CvType.CV_8UC3, new Scalar(0, 255, 255)))));
+    assert missing.getInt("status") == 0 && SX.isNull(content(missing)) : currentTest.failed("exists: %s", missing);
+    JSONObject deleted = call("DELETE", "/session/" + session, null);
+    JSONObject gone = call("POST", "/session/" + session + "/find", new JSONObject().put("image", image));
+    assert deleted.getInt("status") == 0 && gone.getInt("http") == 404 && gone.getInt("status") == 6 :
+            currentTest.failed("after delete: %s", gone);
+    currentTest.setResult("%s", match);
+  }
+
+  @Test
+  public void test_002_concurrentSessions() throws Exception {
+    currentTest = new SXTest();
+    String image = SXJson.toBase64(button.getContent());
+    ExecutorService clients = Executors.newFixedThreadPool(4);
+    List<Future<JSONObject>> results = new ArrayList<>();
+    for (int n = 0; n < 8; n++) {
+      results.add(clients.submit(() -> {
+        String session = call("POST", "/session", new JSONObject()).getString("sessionId");
+        JSONObject found = call("POST", "/session/" + session + "/find", new JSONObject().put("image", image));
+        call("DELETE", "/session/" + session, null);
+        return found;
+      }));
+    }
+    for (Future<JSONObject> result : results) {
+      JSONObject found = result.get();
+      assert found.getInt("status") == 0 && content(found).getInt("x") == 120 : currentTest.failed("%s", found);
+    }
+    clients.shutdown();
+    assert server.getSessionCount() == 0 : currentTest.failed("sessions left: %d", server.getSessionCount());
+    currentTest.setResult("%d clients", results.size());
+  }
+
+  @Test
+  public void test_003_binaryImages() throws IOException {
+    currentTest = new SXTest();
+    byte[] png = ImageTransfer.toPNG(button.getContent());
+    JSONObject uploaded = content(upload(png, ImageTransfer.MIME_PNG));
+    String imageId = uploaded.getString("imageId");
+    assert imageId.equals(ImageTransfer.hash(png)) && !uploaded.getBoolean("cached") && uploaded.getInt("width") == 80 :
+            currentTest.failed("upload: %s", uploaded);
+    JSONObject again = content(upload(png, ImageTransfer.MIME_PNG));
+    byte[] raw = ImageTransfer.toRaw(button.getContent());
+    JSONObject uploadedRaw = content(upload(raw, ImageTransfer.MIME_RAW));
+    assert again.getBoolean("cached") && server.getTargetCount() == 2 && uploadedRaw.getInt("height") == 30 :
+            currentTest.failed("upload again: %s %s", again, uploadedRaw);
+    String session = call("POST", "/session", new JSONObject()).getString("sessionId");
+    JSONObject found = call("POST", "/session/" + session + "/find", new JSONObject().put("imageId", imageId));
+    JSONObject foundRaw = call("POST", "/session/" + session + "/find",
+            new JSONObject().put("imageId", uploadedRaw.getString("imageId")));
+    assert content(found).getInt("x") == 120 && content(foundRaw).getInt("y") == 200 :
+            currentTest.failed("find: %s %s", found, foundRaw);
+    JSONObject unknown = call("POST", "/session/" + session + "/find", new JSONObject().put("imageId", "0123"));
+    assert unknown.getInt("http") == 404 && unknown.getInt("status") == 64 : currentTest.failed("unknown: %s", unknown);
+    HttpURLConnection connection = send("GET", "/session/" + session + "/capture?format=raw", null, null);
+    long length = connection.getContentLengthLong();
+    Mat capture;
+    try (InputStream in = connection.getInputStream()) {
+      capture = ImageTransfer.readRaw(in);
+    }
+    assert ImageTransfer.MIME_RAW.equals(connection.getContentType()) && length == ImageTransfer.RAW_HEADER + 400 * 300 * 3
+            && capture.cols() == 400 && capture.rows() == 300 : currentTest.failed("raw capture: %d %s", length, capture);
+    Mat expected = screen.snapshot().getContent();
+    Mat difference = new Mat();
+    Core.absdiff(capture, expected, difference);
+    assert Core.countNonZero(difference.reshape(1)) == 0 : currentTest.failed("raw capture differs");
+    connection = send("POST", "/session/" + session + "/capture", "application/json",
+            new JSONObject().put("format", "png").put("region", new JSONObject().put("x", 100).put("y", 180)
+                    .put("w", 120).put("h", 70)).toString().getBytes(StandardCharsets.UTF_8));
+    Mat region = ImageTransfer.decode(receive(connection));
+    assert ImageTransfer.MIME_PNG.equals(connection.getContentType()) && region.cols() == 120 && region.rows() == 70 :
+            currentTest.failed("png capture: %s", region);
+    call("DELETE", "/session/" + session, null);
+    currentTest.setResult("%s: %d bytes raw", imageId.substring(0, 8), length);
+  }
+
+  @Test
+  public void test_004_clientBatch() {
+    currentTest = new SXTest();
+    Client client = new Client("localhost", server.getPort()).setTimeouts(2000, 10000);
+    assert SX.isNotNull(client.startSession(null)) : currentTest.failed("no session");
+    JSONObject found = (JSONObject) Client.getContent(client.find(button.getContent()));
+    assert found.getInt("x") == 120 : currentTest.failed("find: %s", found);
+    screen.getInputs().clear();
+    Client.Batch batch = client.batch();
+    for (int n = 0; n < 20; n++) {
+      batch.add("click", new JSONObject().put("x", 10 + n).put("y", 20));
+    }
+    batch.add("click", new JSONObject().put("element", found.getString("element")))
+            .add("type", new JSONObject().put("text", "abc"))
+            .add("find", new JSONObject().put("imageId", "unknown"))
+            .add("exists", new JSONObject().put("imageId", client.uploadImage(button.getContent())));
+    List<JSONObject> results = batch.run();
+    assert SX.isNotNull(results) && results.size() == 24 : currentTest.failed("batch: %s", results);
+    List<InputLog.Entry> clicks = screen.getInputs().getEntries("click");
+    assert clicks.size() == 21 && clicks.get(19).getX() == 29 && clicks.get(20).getX() == 160 :
+            currentTest.failed("clicks: %s", clicks);
+    assert results.get(19).getJSONObject("value").getInt("x") == 29 && results.get(22).getInt("status") == 64
+            && results.get(23).getJSONObject("value").getInt("y") == 200 : currentTest.failed("results: %s", results);
+    List<JSONObject> stopped = client.batch().stopOnError()
+            .add("find", new JSONObject().put("imageId", "unknown"))
+            .add("click", new JSONObject().put("x", 1).put("y", 1)).run();
+    assert stopped.size() == 1 : currentTest.failed("stopOnError: %s", stopped);
+    Mat capture = client.capture(new Rectangle(120, 200, 80, 30));
+    assert SX.isNotNull(capture) && capture.cols() == 80 && capture.rows() == 30 :
+            currentTest.failed("capture: %s", capture);
+    client.close();
+    assert server.getSessionCount() == 0 && SX.isNull(client.getSessionId()) : currentTest.failed("close");
+    currentTest.setResult("%d commands in one batch", results.size());
+  }
+
+  @Test
+  public void test_005_distributedFind() throws IOException {
+    currentTest = new SXTest();
+    Mat frame = new Mat(900, 1200, CvType.CV_8UC3, new Scalar(200, 200, 200));
+    int[][] places = new int[][]{{100, 50}, {700, 430}, {1000, 820}};
+    List<Mat> targets = new ArrayList<>();
+    for (int[] place : places) {
+      Mat target = new Mat(40, 60, CvType.CV_8UC3);
+      Core.randu(target, 0, 256);
+      target.copyTo(frame.submat(place[1], place[1] + 40, place[0], place[0] + 60));
+      targets.add(target);
+    }
+    Mat missing = new Mat(40, 60, CvType.CV_8UC3);
+    Core.randu(missing, 0, 256);
+    targets.add(missing);
+    Server second = new Server(0, 2, 8);
+    ServerSocket stalled = new ServerSocket(0);
+    List<Socket> held = new CopyOnWriteArrayList<>();
+    Thread acceptor = new Thread(() -> {
+      try {
+        while (true) {
+          held.add(stalled.accept());
+        }
+      } catch (IOException ex) {
+        log.trace("stalled worker closed");
+      }
+    });
+    acceptor.setDaemon(true);
+    acceptor.start();
+    String first = "http://localhost:" + server.getPort();
+    try {
+      for (FindCoordinator.Split split : FindCoordinator.Split.values()) {
+        FindCoordinator coordinator = new FindCoordinator(first, "http://localhost:" + second.getPort()).setSplit(split);
+        List<Element> matches = coordinator.find(frame, targets);
+        for (int n = 0; n < places.length; n++) {
+          assert matches.get(n).isMatch() && matches.get(n).x == places[n][0] && matches.get(n).y == places[n][1] :
+                  currentTest.failed("%s: target %d: %s", split, n, matches.get(n));
+        }
+        assert !matches.get(3).isMatch() && coordinator.getRemoteShards() == 2 && coordinator.getLocalShards() == 0 :
+                currentTest.failed("%s: %s", split, coordinator);
+        coordinator.close();
+      }
+      FindCoordinator coordinator = new FindCoordinator(first, "http://localhost:" + stalled.getLocalPort())
+              .setSplit(FindCoordinator.Split.TILES).setTimeout(1500);
+      List<Element> matches = coordinator.find(frame, targets);
+      assert matches.get(1).isMatch() && matches.get(2).y == 820 && coordinator.getLocalShards() == 1 :
+              currentTest.failed("fallback: %s %s", matches, coordinator);
+      coordinator.close();
+    } finally {
+      stalled.close();
+      for (Socket socket : held) {
+        socket.close();
+      }
+      second.stop();
+    }
+    currentTest.setResult("%d targets in %dx%d", targets.size(), frame.cols(), frame.rows());
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.test;
+
+import com.sikulix.api.Do;
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.core.SXTest;
+import com.sikulix.devices.IDevice;
+import com.sikulix.devices.InputLog;
+import com.sikulix.devices.virtual.VirtualDevice;
+import com.sikulix.devices.vnc.RFBServer;
+import com.sikulix.devices.vnc.VNCDevice;
+import com.sikulix.devices.vnc.VNCDevicePool;
+import org.junit.*;
+import org.junit.runners.MethodSorters;
+import org.opencv.core.Scalar;
+
+import java.util.List;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestDeviceVNC {
+
+  static SXLog log = SX.getSXLog("SX_TestDeviceVNC");
+
+  private static VirtualDevice screen;
+  private static RFBServer server;
+  private static VNCDevice device;
+  private static Picture button;
+
+  private SXTest currentTest;
+
+  @BeforeClass
+  public static void setUpClass() {
+    log.on(SXLog.INFO);
+    SX.loadNative(SX.NATIVES.OPENCV);
+    button = Fixtures.button();
+    screen = new VirtualDevice(640, 480, new Scalar(128, 128, 128));
+    server = new RFBServer(screen).setPassword("sikulix").start(0);
+    device = (VNCDevice) new VNCDevice().start("127.0.0.1", server.getPort(), "sikulix");
+    if (SX.isNotNull(device)) {
+      Do.use(device);
+    }
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    if (SX.isNotNull(device)) {
+      device.stop();
+    }
+    server.close();
+    Do.use((Element) null);
+  }
+
+  @After
+  public void tearDown() {
+    log.info("!%s", currentTest);
+  }
+
+  @Test
+  public void test_001_captureUpdated() {
+    currentTest = new SXTest();
+    assert SX.isNotNull(device) : currentTest.failed("not connected to port %d", server.getPort());
+    long version = device.getFrameVersion();
+    screen.place("button", button, 200, 100);
+    assert device.waitStable(null, 0.1, 5) && device.getFrameVersion() > version :
+            currentTest.failed("no update after place (version %d)", device.getFrameVersion());
+    Element match = Do.find(button);
+    assert match.isMatch() && match.x == 200 && match.y == 100 : currentTest.failed("not found at (200, 100): %s", match);
+    currentTest.setResult("%s version: %d", match, device.getFrameVersion());
+  }
+
+  @Test
+  public void test_002_inputSent() {
+    currentTest = new SXTest();
+    assert SX.isNotNull(device) : currentTest.failed("not connected to port %d", server.getPort());
+    server.getInputs().clear();
+    device.click(new Element(240, 115));
+    device.keyStart();
+    device.key(IDevice.Action.DOWNUP, 'a');
+    device.key(IDevice.Action.DOWNUP, '\n');
+    device.keyStop();
+    assert server.getInputs().waitFor("key", 4, 5000) : currentTest.failed("keys not received: %s",
+            server.getInputs().getEntries());
+    List<InputLog.Entry> buttons = server.getInputs().getEntries("button");
+    List<InputLog.Entry> keys = server.getInputs().getEntries("key");
+    assert buttons.size() == 2 && buttons.get(0).getX() == 240 && buttons.get(0).getY() == 115
+            && "LEFTDOWN".equals(buttons.get(0).getDetail()) : currentTest.failed("buttons: %s", buttons);
+    assert keys.size() == 4 && "DOWN 0x61".equals(keys.get(0).getDetail()) && "UP 0xff0d".equals(keys.get(3).getDetail()) :
+            currentTest.failed("keys: %s", keys);
+    currentTest.setResult("%s", server.getInputs());
+  }
+
+  @Test
+  public void test_003_poolRunAll() {
+    currentTest = new SXTest();
+    VirtualDevice[] screens = new VirtualDevice[]{new VirtualDevice(320, 240), new VirtualDevice(320, 240)};
+    RFBServer[] servers = new RFBServer[screens.length];
+    VNCDevicePool pool = new VNCDevicePool(1);
+    try {
+      for (int n = 0; n < screens.length; n++) {
+        screens[n].place("button", button, 50 + n * 100, 100);
+        servers[n] = new RFBServer(screens[n]).start(0);
+        assert SX.isNotNull(pool.add("vm" + n, "127.0.0.1", servers[n].getPort(), null)) :
+                currentTest.failed("vm%d: not connected", n);
+      }
+      List<VNCDevicePool.Result<Element>> results = pool.runAll(session -> session.find(button), 30);
+      for (int n = 0; n < results.size(); n++) {
+        Element match = results.get(n).getValue();
+        assert results.get(n).isOK() && match.isMatch() && match.x == 50 + n * 100 :
+                currentTest.failed("%s", results.get(n));
+      }
+      servers[1].disconnectAll();
+      pool.setProbeTimeout(500);
+      assert pool.check() == 0 && pool.get("vm1").getReconnects() == 1 && pool.get("vm0").getReconnects() == 0 :
+              currentTest.failed("reconnects: vm0 %d vm1 %d", pool.get("vm0").getReconnects(),
+                      pool.get("vm1").getReconnects());
+      assert pool.get("vm1").exists(button, 2.0) : currentTest.failed("vm1: not found after reconnect");
+      currentTest.setResult("%s %s", pool, results);
+    } finally {
+      pool.close();
+      for (RFBServer server : servers) {
+        if (SX.isNotNull(server)) {
+          server.close();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2017 - sikulix.com - MIT license
+ */
+
+package com.sikulix.test;
+
+import com.sikulix.api.Do;
+import com.sikulix.api.Element;
+import com.sikulix.api.Picture;
+import com.sikulix.core.FeatureFinder;
+import com.sikulix.core.FindScales;
+import com.sikulix.core.SX;
+import com.sikulix.core.SXLog;
+import com.sikulix.core.SXTest;
+import com.sikulix.devices.InputLog;
+import com.sikulix.devices.virtual.VirtualDevice;
+import org.junit.*;
+import org.junit.runners.MethodSorters;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.List;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestDeviceVirtual {
+
+  static SXLog log = SX.getSXLog("SX_TestDeviceVirtual");
+
+  private static VirtualDevice device;
+  private static Picture button;
+
+  private SXTest currentTest;
+
+  @BeforeClass
+  public static void setUpClass() {
+    log.on(SXLog.INFO);
+    SX.loadNative(SX.NATIVES.OPENCV);
+    button = Fixtures.button();
+    device = new VirtualDevice(640, 480, new Scalar(128, 128, 128));
+    Do.use(device.start());
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    device.stop();
+    Do.use((Element) null);
+  }
+
+  @Before
+  public void setUp() {
+    device.clear();
+    device.getInputs().clear();
+  }
+
+  @After
+  public void tearDown() {
+    log.info("!%s", currentTest);
+  }
+
+  @Test
+  public void test_001_findPlaced() {
+    currentTest = new SXTest();
+    device.place("button", button, 200, 100);
+    Element match = Do.find(button);
+    assert match.isMatch() && match.x == 200 && match.y == 100 : currentTest.failed("not found at (200, 100): %s", match);
+    currentTest.setResult("%s", match);
+  }
+
+  @Test
+  public void test_002_clickRecorded() {
+    currentTest = new SXTest();
+    device.place("button", button, 300, 200);
+    Do.click(button);
+    List<InputLog.Entry> clicks = device.getInputs().getEntries("click");
+    assert clicks.size() == 1 && clicks.get(0).getX() == 340 && clicks.get(0).getY() == 215 :
+            currentTest.failed("clicks: %s", clicks);
+    currentTest.setResult("%s", clicks.get(0));
+  }
+
+  @Test
+  public void test_003_moveAndVanish() {
+    currentTest = new SXTest();
+    device.place("button", button, 10, 10);
+    Picture view = device.capture(new Element(0, 0, 200, 100));
+    double[] pixel = view.getContent().get(20, 20);
+    device.move("button", 400, 300);
+    Element match = Do.find(button);
+    assert match.isMatch() && match.x == 400 : currentTest.failed("not found after move: %s", match);
+    device.remove("button");
+    assert !Do.exists(button, 0) : currentTest.failed("still found after remove");
+    assert view.getContent().get(20, 20)[0] == pixel[0] : currentTest.failed("captured picture changed with the scene");
+    currentTest.setResult("moved, removed, captured picture unchanged");
+  }
+
+  @Test
+  public void test_004_findScaled() {
+    currentTest = new SXTest();
+    Mat mZoomed = new Mat();
+    Imgproc.resize(button.getContent(), mZoomed, new Size(120, 45), 0, 0, Imgproc.INTER_LINEAR);
+    device.place("zoomed", mZoomed, null, 100, 100);
+    FindScales.setScales(1.25, 1.5);
+    try {
+      Element match = Do.find(button);
+      assert match.isMatch() && match.w == 120 && match.h == 45 : currentTest.failed("not found at 150%%: %s", match);
+      double learned = FindScales.getLearned("virtual:0");
+      assert learned == 1.5 : currentTest.failed("learned scale: %.2f", learned);
+      currentTest.setResult("%s learned: %s", match, FindScales.getLearned());
+    } finally {
+      FindScales.setScales((double[]) null);
+    }
+  }
+
+  @Test
+  public void test_005_findFeaturesRotated() {
+    currentTest = new SXTest();
+    Mat mTexture = new Mat(120, 160, CvType.CV_8UC3);
+    Core.randu(mTexture, 0, 255);
+    Imgproc.GaussianBlur(mTexture, mTexture, new Size(5, 5), 0);
+    Picture texture = new Picture(mTexture).setFeatureMatching(FeatureFinder.Detector.ORB);
+    Mat mRotated = new Mat();
+    Core.transpose(mTexture, mRotated);
+    Core.flip(mRotated, mRotated, 1);
+    device.place("rotated", mRotated, null, 300, 150);
+    Element match = Do.find(texture);
+    assert match.isMatch() && Math.abs(match.x - 300) < 5 && Math.abs(match.y - 150) < 5
+            && Math.abs(match.w - 120) < 9 && Math.abs(match.h - 160) < 9 :
+            currentTest.failed("rotated not found at (300, 150) 120x160: %s", match);
+    currentTest.setResult("%s", match);
+  }
+}